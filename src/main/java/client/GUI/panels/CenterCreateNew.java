@@ -1,9 +1,6 @@
 package client.GUI.panels;
 
-import java.rmi.RemoteException;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 import javax.swing.DefaultListModel;
@@ -171,62 +168,19 @@ public class CenterCreateNew extends TwoColumns implements Interfaces.UIPanel {
 
             if (!cityName.isEmpty() && !listmodelCityIDs.contains(cityName)) {
 
-                RecordCity[] result;
-                List<QueryCondition> conditions = new ArrayList<>();
-
                 char firstChar = Character.toUpperCase(cityName.charAt(0));
                 String restOfString = cityName.substring(1).toLowerCase();
-                cityName = firstChar + restOfString;
+                String asciiName = firstChar + restOfString;
 
-                conditions.add(new QueryCondition("asciiname", cityName));
-                try {
-                    result = mainModel.dataQuery.getCityBy(conditions);
-                } catch (SQLException ex) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            ex.getMessage(),
-                            "Errore",
-                            JOptionPane.ERROR_MESSAGE);
-                    return;
-                } catch (RemoteException ex) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            "Errore di connessione al server.",
-                            "Errore",
-                            JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-
-                if (result.length > 1) {
-                    RecordCity selectedCity = (RecordCity) JOptionPane.showInputDialog(
-                            this,
-                            "Sono state trovate più città con lo stesso nome. Seleziona quella desiderata.",
-                            "Città trovate",
-                            JOptionPane.QUESTION_MESSAGE,
-                            null,
-                            result,
-                            result[0]);
-                    if (selectedCity != null && !listmodelCityIDs.contains(selectedCity.toString())) {
-                        listmodelCityIDs.addElement(selectedCity.toString());
-                        textfieldCityName.setText("");
-                    } else {
-                        JOptionPane.showMessageDialog(
+                mainModel.asyncService.call(
+                        () -> mainModel.cityCache.getCitiesByName(asciiName),
+                        this::addCity,
+                        ex -> JOptionPane.showMessageDialog(
                                 this,
-                                "La città inserita non è presente nel database o è già associata al centro.",
-                                "Città non trovata",
-                                JOptionPane.WARNING_MESSAGE);
-                    }
-
-                } else if (result.length == 1 && !listmodelCityIDs.contains(result[0].toString())) {
-                    listmodelCityIDs.addElement(result[0].toString());
-                    textfieldCityName.setText("");
-                } else {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            "La città inserita non è presente nel database o è già associata al centro.",
-                            "Città non trovata",
-                            JOptionPane.WARNING_MESSAGE);
-                }
+                                ex instanceof SQLException ? ex.getMessage() : "Errore di connessione al server.",
+                                "Errore",
+                                JOptionPane.ERROR_MESSAGE),
+                        textfieldCityName);
             }
         });
 
@@ -264,40 +218,84 @@ public class CenterCreateNew extends TwoColumns implements Interfaces.UIPanel {
             }
 
             CurrentOperator currentOperator = CurrentOperator.getInstance();
-            try {
-                mainModel.logicCenter.initNewCenter(centerName,
-                        streetName,
-                        streetNumber,
-                        CAP,
-                        townName,
-                        districtName,
-                        cityIDs,
-                        currentOperator.getCurrentOperator().ID());
-
-                currentOperator.setCurrentOperator(
-                        mainModel.dataQuery.getOperatorBy(currentOperator.getCurrentOperator().ID()));
+            String sessionToken = currentOperator.getSessionToken();
+            mainModel.asyncService.call(
+                    () -> mainModel.logicCenter.initNewCenter(centerName,
+                            streetName,
+                            streetNumber,
+                            CAP,
+                            townName,
+                            districtName,
+                            cityIDs,
+                            sessionToken),
+                    updatedOperator -> {
+                        currentOperator.setCurrentOperator(updatedOperator);
 
-                JOptionPane.showMessageDialog(
-                        this,
-                        "Nuovo centro inserito correttamente.",
-                        "Nuovo centro inserito",
-                        JOptionPane.INFORMATION_MESSAGE);
-                gui.goToPanel(CityAddData.ID, null);
+                        JOptionPane.showMessageDialog(
+                                this,
+                                "Nuovo centro inserito correttamente.",
+                                "Nuovo centro inserito",
+                                JOptionPane.INFORMATION_MESSAGE);
+                        gui.goToPanel(CityAddData.ID, null);
+                    },
+                    exception -> {
+                        if (exception instanceof SQLException || exception instanceof NoSuchElementException
+                                || exception instanceof IllegalStateException
+                                || exception instanceof IllegalArgumentException) {
+                            JOptionPane.showMessageDialog(
+                                    this,
+                                    exception.getMessage(),
+                                    "Errore",
+                                    JOptionPane.ERROR_MESSAGE);
+                        } else {
+                            JOptionPane.showMessageDialog(
+                                    this,
+                                    "Errore di connessione al server.",
+                                    "Errore",
+                                    JOptionPane.ERROR_MESSAGE);
+                        }
+                    },
+                    buttonPerformInit);
+        });
+    }
 
-            } catch (SQLException | NoSuchElementException | IllegalStateException | IllegalArgumentException exception) {
-                JOptionPane.showMessageDialog(
-                        this,
-                        exception.getMessage(),
-                        "Errore",
-                        JOptionPane.ERROR_MESSAGE);
-            } catch (RemoteException ex) {
+    /**
+     * Aggiunge alla lista delle città associate al centro la città trovata dalla
+     * ricerca, chiedendo all'utente di scegliere in caso di più città omonime.
+     *
+     * @param result Le città trovate dalla ricerca.
+     */
+    private void addCity(RecordCity[] result) {
+        if (result.length > 1) {
+            RecordCity selectedCity = (RecordCity) JOptionPane.showInputDialog(
+                    this,
+                    "Sono state trovate più città con lo stesso nome. Seleziona quella desiderata.",
+                    "Città trovate",
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    result,
+                    result[0]);
+            if (selectedCity != null && !listmodelCityIDs.contains(selectedCity.toString())) {
+                listmodelCityIDs.addElement(selectedCity.toString());
+                textfieldCityName.setText("");
+            } else {
                 JOptionPane.showMessageDialog(
                         this,
-                        "Errore di connessione al server.",
-                        "Errore",
-                        JOptionPane.ERROR_MESSAGE);
+                        "La città inserita non è presente nel database o è già associata al centro.",
+                        "Città non trovata",
+                        JOptionPane.WARNING_MESSAGE);
             }
-        });
+
+        } else if (result.length == 1 && !listmodelCityIDs.contains(result[0].toString())) {
+            listmodelCityIDs.addElement(result[0].toString());
+            textfieldCityName.setText("");
+        } else {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "La città inserita non è presente nel database o è già associata al centro.",
+                    "Città non trovata",
+                    JOptionPane.WARNING_MESSAGE);
+        }
     }
 
     @Override
@@ -346,7 +344,7 @@ public class CenterCreateNew extends TwoColumns implements Interfaces.UIPanel {
 
             gui.goToPanel(OperatorLogin.ID, null);
 
-        } else if (currentOperator.getCurrentOperator().centerID() != 0) {
+        } else if (currentOperator.getCurrentOperator().centerID() != null) {
             JOptionPane.showMessageDialog(
                     this,
                     "Hai già creato il tuo centro.",
@@ -25,8 +25,10 @@ import java.awt.event.MouseEvent;
 import java.rmi.RemoteException;
 import java.sql.SQLException;
 import java.text.ParseException;
+import java.time.LocalDate;
 import java.util.EventObject;
 import java.util.NoSuchElementException;
+import java.util.UUID;
 
 /**
  * La classe {@code CityAddData} rappresenta il pannello per l'aggiunta di dati
@@ -80,7 +82,7 @@ public class CityAddData extends JPanel implements Interfaces.UIPanel {
     /**
      * Il pattern per la data.
      */
-    private static final String DATE_PATTERN = "dd/MM/yyyy";
+    private static final String DATE_PATTERN = Functions.datePattern;
 
     /**
      * La maschera per la data.
@@ -199,7 +201,14 @@ public class CityAddData extends JPanel implements Interfaces.UIPanel {
 
         buttonPerformSave.addActionListener(e -> {
             Integer cityID = ((ComboItem) comboboxCityName.getSelectedItem()).getValue();
-            String date = textfieldDate.getText();
+            LocalDate date = Functions.parseDate(textfieldDate.getText());
+            if (!Functions.isDateValid(date)) {
+                JOptionPane.showMessageDialog(this,
+                        "Data non valida.",
+                        "Errore nel salvataggio dati",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
             Object[][] tableData = new Object[defaulmodelTable.getRowCount()][defaulmodelTable.getColumnCount() - 1];
 
@@ -222,32 +231,42 @@ public class CityAddData extends JPanel implements Interfaces.UIPanel {
                 };
             }
 
-            try {
-                CurrentOperator currentOperator = CurrentOperator.getInstance();
-                Integer operatorID = currentOperator.getCurrentOperator().ID();
-                mainModel.logicCenter.addDataToCenter(
-                        cityID,
-                        operatorID,
-                        date,
-                        tableData);
-                JOptionPane.showMessageDialog(this,
-                        "Dati salvati con successo!",
-                        "Salvataggio dati",
-                        JOptionPane.INFORMATION_MESSAGE);
-
-                this.clearTableData();
-
-            } catch (SQLException | NoSuchElementException | IllegalStateException | IllegalArgumentException e1) {
-                JOptionPane.showMessageDialog(this,
-                        e1.getMessage(),
-                        "Errore nel salvataggio dati",
-                        JOptionPane.ERROR_MESSAGE);
-            } catch (RemoteException ex) {
-                JOptionPane.showMessageDialog(this,
-                        "Errore di connessione al server.",
-                        "Errore di connessione",
-                        JOptionPane.ERROR_MESSAGE);
-            }
+            CurrentOperator currentOperator = CurrentOperator.getInstance();
+            String sessionToken = currentOperator.getSessionToken();
+            String requestID = UUID.randomUUID().toString();
+            mainModel.asyncService.call(
+                    () -> {
+                        mainModel.logicCenter.addDataToCenter(
+                                cityID,
+                                sessionToken,
+                                date,
+                                tableData,
+                                requestID);
+                        return null;
+                    },
+                    result -> {
+                        JOptionPane.showMessageDialog(this,
+                                "Dati salvati con successo!",
+                                "Salvataggio dati",
+                                JOptionPane.INFORMATION_MESSAGE);
+
+                        this.clearTableData();
+                    },
+                    e1 -> {
+                        if (e1 instanceof SQLException || e1 instanceof NoSuchElementException
+                                || e1 instanceof IllegalStateException || e1 instanceof IllegalArgumentException) {
+                            JOptionPane.showMessageDialog(this,
+                                    e1.getMessage(),
+                                    "Errore nel salvataggio dati",
+                                    JOptionPane.ERROR_MESSAGE);
+                        } else {
+                            JOptionPane.showMessageDialog(this,
+                                    "Errore di connessione al server.",
+                                    "Errore di connessione",
+                                    JOptionPane.ERROR_MESSAGE);
+                        }
+                    },
+                    buttonPerformSave);
         });
     }
 
@@ -437,6 +456,33 @@ public class CityAddData extends JPanel implements Interfaces.UIPanel {
         return ID;
     }
 
+    /**
+     * I dati del centro dell'operatore caricati dal server: il centro e le città
+     * a esso associate.
+     *
+     * @param center Il centro dell'operatore, o {@code null} se non esiste.
+     * @param cities Le città associate al centro.
+     */
+    private record CenterDatas(RecordCenter center, RecordCity[] cities) {
+    }
+
+    /**
+     * Carica dal server il centro specificato e le città a esso associate.
+     *
+     * @param centerID L'ID del centro.
+     * @return I dati del centro.
+     * @throws SQLException    Se si verifica un errore di accesso al database.
+     * @throws RemoteException Se si verifica un errore di comunicazione con il server.
+     */
+    private CenterDatas loadCenterDatas(Integer centerID) throws SQLException, RemoteException {
+        RecordCenter center = mainModel.dataQuery.getCenterBy(centerID);
+        if (center == null) {
+            return new CenterDatas(null, new RecordCity[0]);
+        }
+
+        return new CenterDatas(center, mainModel.cityCache.getCitiesBy(center.cityIDs()));
+    }
+
     @Override
     public void onOpen(Object[] args) {
 
@@ -446,71 +492,55 @@ public class CityAddData extends JPanel implements Interfaces.UIPanel {
         if (currentOperator.isUserLogged()) {
             Integer centerID = currentOperator.getCurrentOperator().centerID();
 
-            RecordCenter center;
-            try {
-                center = mainModel.dataQuery.getCenterBy(centerID);
-            } catch (SQLException e) {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "Errore di connessione al database.",
-                        "Errore",
-                        JOptionPane.ERROR_MESSAGE);
-                return;
-            } catch (RemoteException e) {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "Errore di connessione al server.",
-                        "Errore",
-                        JOptionPane.ERROR_MESSAGE);
-                return;
-            }
+            mainModel.asyncService.call(
+                    () -> loadCenterDatas(centerID),
+                    datas -> showCenterDatas(datas, args),
+                    e -> JOptionPane.showMessageDialog(
+                            this,
+                            e instanceof SQLException
+                                    ? "Errore di connessione al database."
+                                    : "Errore di connessione al server.",
+                            "Errore",
+                            JOptionPane.ERROR_MESSAGE),
+                    comboboxCityName, buttonPerformSave);
 
-            if (center != null) {
-
-                Integer[] cityIDs = center.cityIDs();
-
-                for (Integer cityID : cityIDs) {
-                    RecordCity city;
-                    try {
-                        city = mainModel.dataQuery.getCityBy(cityID);
-                    } catch (SQLException e) {
-                        JOptionPane.showMessageDialog(
-                                this,
-                                e.getMessage(),
-                                "Errore",
-                                JOptionPane.ERROR_MESSAGE);
-                        return;
-                    } catch (RemoteException e) {
-                        JOptionPane.showMessageDialog(
-                                this,
-                                "Errore di connessione al server.",
-                                "Errore",
-                                JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-                    if (city != null) {
-                        comboboxCityName.addItem(new ComboItem(city.ASCIIName()+" "+city.latitude()+" "+city.longitude(), city.ID()));
-                    }
-                }
+        } else {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Per inserire un nuovo set di dati devi prima essere loggato.",
+                    "Utente non loggato",
+                    JOptionPane.ERROR_MESSAGE);
+            gui.goToPanel(OperatorHome.ID, null);
+        }
+    }
 
-                textfieldCenterName.setText(center.centerName());
+    /**
+     * Mostra i dati del centro dell'operatore, oppure reindirizza alla creazione
+     * del centro se l'operatore non ne ha ancora uno.
+     *
+     * @param datas I dati del centro caricati dal server.
+     * @param args  Gli argomenti con cui è stato aperto il pannello.
+     */
+    private void showCenterDatas(CenterDatas datas, Object[] args) {
+        RecordCenter center = datas.center();
 
-            } else {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "Per inserire un nuovo set di dati devi prima aver creato o selezionato il tuo centro.",
-                        "Centro non creato",
-                        JOptionPane.ERROR_MESSAGE);
-                gui.goToPanel(CenterCreateNew.ID, args);
+        if (center != null) {
+
+            for (RecordCity city : datas.cities()) {
+                if (city != null) {
+                    comboboxCityName.addItem(new ComboItem(city.ASCIIName()+" "+city.latitude()+" "+city.longitude(), city.ID()));
+                }
             }
 
+            textfieldCenterName.setText(center.centerName());
+
         } else {
             JOptionPane.showMessageDialog(
                     this,
-                    "Per inserire un nuovo set di dati devi prima essere loggato.",
-                    "Utente non loggato",
+                    "Per inserire un nuovo set di dati devi prima aver creato o selezionato il tuo centro.",
+                    "Centro non creato",
                     JOptionPane.ERROR_MESSAGE);
-            gui.goToPanel(OperatorHome.ID, null);
+            gui.goToPanel(CenterCreateNew.ID, args);
         }
     }
 }
@@ -5,6 +5,7 @@ import javax.swing.*;
 import client.GUI.GUI;
 import client.GUI.Widget;
 import client.GUI.layouts.TwoColumns;
+import client.models.AsyncService;
 import client.models.MainModel;
 
 import shared.record.RecordCity;
@@ -12,10 +13,10 @@ import shared.utils.Interfaces;
 import shared.record.QueryCondition;
 
 import java.awt.event.*;
-import java.rmi.RemoteException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * La classe {@code CitySearch} rappresenta il pannello per effettuare
@@ -80,6 +81,11 @@ public class CitySearch extends TwoColumns implements Interfaces.UIPanel {
      */
     private final JComboBox<String> comboboxQueryType = new JComboBox<>();
 
+    /**
+     * La ricerca in corso, annullata se ne viene avviata una nuova.
+     */
+    private Future<?> pendingSearch;
+
     /**
      * Costruttore della classe {@code CitySearch}.
      *
@@ -127,8 +133,8 @@ public class CitySearch extends TwoColumns implements Interfaces.UIPanel {
 
         buttonPerfomQuery.addActionListener(e -> {
 
-            RecordCity[] result = null;
             List<QueryCondition> conditions = new ArrayList<>();
+            AsyncService.RemoteTask<RecordCity[]> search = () -> mainModel.dataQuery.getCityBy(conditions);
 
             switch (comboboxQueryType.getSelectedIndex()) {
                 case 0:
@@ -136,24 +142,9 @@ public class CitySearch extends TwoColumns implements Interfaces.UIPanel {
 
                     char firstChar = Character.toUpperCase(cityName.charAt(0));
                     String restOfString = cityName.substring(1).toLowerCase();
-                    cityName = firstChar + restOfString;
+                    String asciiName = firstChar + restOfString;
 
-                    conditions.add(new QueryCondition("asciiname", cityName));
-                    try {
-                        result = mainModel.dataQuery.getCityBy(conditions);
-                    } catch (SQLException ex) {
-                        JOptionPane.showMessageDialog(null,
-                                "Errore di connessione al database",
-                                "Errore",
-                                JOptionPane.ERROR_MESSAGE);
-                        return;
-                    } catch (RemoteException ex) {
-                        JOptionPane.showMessageDialog(null,
-                                "Errore di connessione al server",
-                                "Errore",
-                                JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
+                    search = () -> mainModel.cityCache.getCitiesByName(asciiName);
                     break;
 
                 case 1:
@@ -163,19 +154,6 @@ public class CitySearch extends TwoColumns implements Interfaces.UIPanel {
 
                         conditions.add(new QueryCondition("latitude", latitude));
                         conditions.add(new QueryCondition("longitude", longitude));
-                        result = mainModel.dataQuery.getCityBy(conditions);
-                    } catch (SQLException ex) {
-                        JOptionPane.showMessageDialog(null,
-                                "Errore di connessione al database",
-                                "Errore",
-                                JOptionPane.ERROR_MESSAGE);
-                        return;
-                    } catch (RemoteException ex) {
-                        JOptionPane.showMessageDialog(null,
-                                "Errore di connessione al server",
-                                "Errore",
-                                JOptionPane.ERROR_MESSAGE);
-                        return;
                     } catch (NumberFormatException ex) {
                         JOptionPane.showMessageDialog(null,
                                 "Inserire valori numerici validi per le coordinate",
@@ -186,28 +164,19 @@ public class CitySearch extends TwoColumns implements Interfaces.UIPanel {
                     break;
             }
 
-            if (result != null && result.length > 1) {
-                RecordCity selectedCity = (RecordCity) JOptionPane.showInputDialog(
-                        this,
-                        "Sono state trovate più città con lo stesso nome. Seleziona quella desiderata.",
-                        "Città trovate",
-                        JOptionPane.QUESTION_MESSAGE,
-                        null,
-                        result,
-                        result[0]);
-                if (selectedCity != null)
-                    gui.goToPanel(CityVisualizer.ID, new Object[] { selectedCity.ID() });
-
-            } else if (result != null && result.length == 1) {
-                gui.goToPanel(CityVisualizer.ID, new Object[] { result[0].ID() });
-
-            } else {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "La città inserita non è presente nel sistema.",
-                        "Città non trovata",
-                        JOptionPane.WARNING_MESSAGE);
+            if (pendingSearch != null) {
+                pendingSearch.cancel(true);
             }
+            pendingSearch = mainModel.asyncService.call(
+                    search,
+                    this::showResult,
+                    ex -> JOptionPane.showMessageDialog(null,
+                            ex instanceof SQLException
+                                    ? "Errore di connessione al database"
+                                    : "Errore di connessione al server",
+                            "Errore",
+                            JOptionPane.ERROR_MESSAGE),
+                    buttonPerfomQuery);
         });
 
         comboboxQueryType.addActionListener(e -> {
@@ -227,6 +196,37 @@ public class CitySearch extends TwoColumns implements Interfaces.UIPanel {
         textfieldLongitude.addKeyListener(enterKeyListenerCoordinates);
     }
 
+    /**
+     * Mostra il risultato della ricerca, aprendo il pannello della città trovata o
+     * chiedendo all'utente di scegliere tra più città omonime.
+     *
+     * @param result Le città trovate dalla ricerca.
+     */
+    private void showResult(RecordCity[] result) {
+        if (result != null && result.length > 1) {
+            RecordCity selectedCity = (RecordCity) JOptionPane.showInputDialog(
+                    this,
+                    "Sono state trovate più città con lo stesso nome. Seleziona quella desiderata.",
+                    "Città trovate",
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    result,
+                    result[0]);
+            if (selectedCity != null)
+                gui.goToPanel(CityVisualizer.ID, new Object[] { selectedCity.ID() });
+
+        } else if (result != null && result.length == 1) {
+            gui.goToPanel(CityVisualizer.ID, new Object[] { result[0].ID() });
+
+        } else {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "La città inserita non è presente nel sistema.",
+                    "Città non trovata",
+                    JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
     @Override
     public CitySearch createPanel(GUI gui) {
         this.gui = gui;
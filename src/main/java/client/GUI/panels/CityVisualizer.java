@@ -5,9 +5,9 @@ import java.awt.Component;
 import java.awt.FlowLayout;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.rmi.RemoteException;
 import java.sql.SQLException;
 import java.util.EventObject;
+import java.util.concurrent.Future;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
@@ -15,12 +15,12 @@ import javax.swing.table.TableCellRenderer;
 import client.GUI.GUI;
 import client.GUI.Widget;
 import client.models.MainModel;
+import client.models.WeatherAccumulator;
 import server.ImplementationRMI.LogicCityImp.WeatherTableData;
 import shared.record.RecordCity;
 import shared.record.RecordWeather;
 import shared.utils.Interfaces;
 import shared.utils.Constants.Legend;
-import shared.record.QueryCondition;
 
 /**
  * La classe {@code CityVisualizer} rappresenta il pannello per la
@@ -111,6 +111,21 @@ public class CityVisualizer extends JPanel implements Interfaces.UIPanel {
             "Altitudine dei ghiacciai",
             "Massa dei ghiacciai" };
 
+    /**
+     * Il caricamento dei dati in corso, annullato se si lascia il pannello.
+     */
+    private Future<?> pendingLoad;
+
+    /**
+     * L'ID della città visualizzata.
+     */
+    private Integer currentCityID;
+
+    /**
+     * Indica se i dati della città visualizzata sono stati caricati.
+     */
+    private boolean loaded;
+
     /**
      * Costruttore della classe {@code CityVisualizer}.
      *
@@ -129,87 +144,132 @@ public class CityVisualizer extends JPanel implements Interfaces.UIPanel {
      */
     private void addActionEvent() {
         buttonToBack.addActionListener(e -> {
+            cancelPendingLoad();
+            mainModel.weatherSubscription.unsubscribe();
             gui.goToPanel(CitySearch.ID, null);
         });
     }
 
+    /**
+     * I dati di una città caricati dal server: le informazioni anagrafiche e i
+     * dati meteorologici aggregati.
+     *
+     * @param city    Il record della città.
+     * @param weather I dati meteorologici aggregati della città.
+     */
+    private record CityDatas(RecordCity city, WeatherAccumulator.Snapshot weather) {
+    }
+
     /**
      * Carica i dati relativi a una città specifica e li visualizza nella tabella.
+     * <p>
+     * Il caricamento avviene in background; un eventuale caricamento precedente
+     * ancora in corso viene annullato. I dati meteorologici vengono aggiornati tramite
+     * {@link WeatherAccumulator}, che per una città già visualizzata scarica solo i
+     * record nuovi. Prima del caricamento il client si iscrive ai nuovi dati della
+     * città, che vengono poi aggiunti alla tabella man mano che vengono inseriti.
+     * </p>
      *
      * @param cityID L'ID della città di cui caricare i dati.
      */
     public void loadDatas(Integer cityID) {
-        RecordCity recordCity;
-        try {
-            recordCity = mainModel.dataQuery.getCityBy(cityID);
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(null,
-                    e.getMessage(),
-                    "Errore",
-                    JOptionPane.ERROR_MESSAGE);
-            return;
-        } catch (RemoteException e) {
-            JOptionPane.showMessageDialog(null,
-                    "Errore nella connessione al server",
-                    "Errore",
-                    JOptionPane.ERROR_MESSAGE);
-            return;
+        cancelPendingLoad();
+        currentCityID = cityID;
+        loaded = false;
+        mainModel.weatherSubscription.subscribe(cityID, this::addWeathers);
+        pendingLoad = mainModel.asyncService.call(
+                () -> new CityDatas(
+                        mainModel.cityCache.getCityBy(cityID),
+                        mainModel.weatherAccumulator.refresh(cityID)),
+                this::showDatas,
+                e -> JOptionPane.showMessageDialog(null,
+                        e instanceof SQLException ? e.getMessage() : "Errore nella connessione al server",
+                        "Errore",
+                        JOptionPane.ERROR_MESSAGE),
+                table);
+    }
+
+    /**
+     * Annulla il caricamento dei dati eventualmente in corso.
+     */
+    private void cancelPendingLoad() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel(true);
+            pendingLoad = null;
         }
+    }
+
+    /**
+     * Visualizza nella tabella i dati caricati di una città.
+     *
+     * @param datas I dati della città.
+     */
+    private void showDatas(CityDatas datas) {
+        RecordCity recordCity = datas.city();
+        WeatherAccumulator.Snapshot weather = datas.weather();
 
         textfieldCityName.setText(recordCity.ASCIIName());
         textfieldCountryName.setText(recordCity.countryName());
         textfieldLatitude.setText(String.valueOf(recordCity.latitude()));
         textfieldLongitude.setText(String.valueOf(recordCity.longitude()));
 
-        QueryCondition condition = new QueryCondition("cityID", cityID);
-        RecordWeather[] weatherRecords;
-        try {
-            weatherRecords = mainModel.dataQuery.getWeatherBy(condition);
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(null,
-                    "Errore di connessione al database",
-                    "Errore",
-                    JOptionPane.ERROR_MESSAGE);
-            return;
-        } catch (RemoteException e) {
+        if (weather.records() > 0) {
+            loaded = true;
+            showTableData(weather.data());
+        } else {
+            mainModel.weatherSubscription.unsubscribe();
+            mainModel.weatherAccumulator.discardPending(currentCityID);
             JOptionPane.showMessageDialog(null,
-                    "Errore nella connessione al server",
-                    "Errore",
-                    JOptionPane.ERROR_MESSAGE);
-            return;
+                    "L'operatore non ha ancora inserito dati per la città selezionata.",
+                    "Dati mancanti",
+                    JOptionPane.WARNING_MESSAGE);
+            gui.goToPanel(CitySearch.ID, null);
         }
+    }
 
-        if (weatherRecords.length > 0) {
-            int row = 0;
-            WeatherTableData weatherTableData = new WeatherTableData(weatherRecords);
+    /**
+     * Aggiunge ai dati aggregati i record meteorologici ricevuti dal server e, se i dati
+     * della città sono già visualizzati, aggiorna la tabella.
+     * <p>
+     * Se il caricamento è ancora in corso, i record vengono aggiunti al suo termine.
+     * </p>
+     *
+     * @param weathers I nuovi record meteorologici della città.
+     */
+    private void addWeathers(RecordWeather[] weathers) {
+        WeatherAccumulator.Snapshot weather = mainModel.weatherAccumulator.add(currentCityID, weathers);
+        if (weather != null && loaded) {
+            showTableData(weather.data());
+        }
+    }
 
-            for (String keyString : WeatherTableData.KEYS) {
-                Integer avgScore = weatherTableData.getCategoryAvgScore(keyString);
-                if (avgScore == null) avgScore = 0;
-                Integer recordCount = weatherTableData.getCategoryRecordCount(keyString);
+    /**
+     * Visualizza nella tabella i dati aggregati della città.
+     *
+     * @param weatherTableData I dati aggregati.
+     */
+    private void showTableData(WeatherTableData weatherTableData) {
+        int row = 0;
+        for (WeatherTableData.Category category : WeatherTableData.Category.values()) {
+            Integer avgScore = weatherTableData.getCategoryAvgScore(category);
+            if (avgScore == null) avgScore = 0;
+            Integer recordCount = weatherTableData.getCategoryRecordCount(category);
 
-                String comment = String.join(" / ", weatherTableData.getCategoryComments(keyString));
+            String comment = String.join(" / ", weatherTableData.getCategoryComments(category));
 
-                if (avgScore != 0) {
-                    defaulmodelTable.setValueAt(avgScore.toString(), row, 1);
-                } else {
-                    defaulmodelTable.setValueAt("N/A", row, 1);
-                }
-                comment = comment.replaceAll("NULL / ", "NULL");
-                comment = comment.replaceAll("NULL / NULL", "NULL NULL");
-                comment = comment.replaceAll("NULL", "");
+            if (avgScore != 0) {
+                defaulmodelTable.setValueAt(avgScore.toString(), row, 1);
+            } else {
+                defaulmodelTable.setValueAt("N/A", row, 1);
+            }
+            comment = comment.replaceAll("NULL / ", "NULL");
+            comment = comment.replaceAll("NULL / NULL", "NULL NULL");
+            comment = comment.replaceAll("NULL", "");
 
-                defaulmodelTable.setValueAt(recordCount, row, 2);
-                defaulmodelTable.setValueAt(comment, row, 3);
+            defaulmodelTable.setValueAt(recordCount, row, 2);
+            defaulmodelTable.setValueAt(comment, row, 3);
 
-                row++;
-            }
-        } else {
-            JOptionPane.showMessageDialog(null,
-                    "L'operatore non ha ancora inserito dati per la città selezionata.",
-                    "Dati mancanti",
-                    JOptionPane.WARNING_MESSAGE);
-            gui.goToPanel(CitySearch.ID, null);
+            row++;
         }
     }
 
@@ -3,7 +3,6 @@ package client.GUI.panels;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.rmi.RemoteException;
 import java.sql.SQLException;
 
 import javax.swing.*;
@@ -14,7 +13,6 @@ import client.GUI.layouts.TwoColumns;
 import client.models.CurrentOperator;
 import client.models.MainModel;
 import shared.record.RecordCenter;
-import shared.record.RecordOperator;
 import shared.utils.Interfaces;
 
 /**
@@ -119,48 +117,58 @@ public class OperatorLogin extends TwoColumns implements Interfaces.UIPanel {
         buttonPerformLogin.addActionListener(e -> {
             String userID = textfieldUsedID.getText().trim();
             String userPassword = new String(textfieldPassword.getPassword()).trim();
+            textfieldPassword.setText("");
 
             CurrentOperator currentOperator = CurrentOperator.getInstance();
 
-            try {
-                RecordOperator loggedOperator = mainModel.logicOperator.performLogin(userID, userPassword);
-                if (loggedOperator == null) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            "Utente non trovato o password errata.",
-                            "Errore di login",
-                            JOptionPane.ERROR_MESSAGE);
-                } else {
-                    currentOperator.setCurrentOperator(loggedOperator);
-                    proceedToCenterCreation(currentOperator);
-                }
-            } catch (IllegalArgumentException e1){
-                JOptionPane.showMessageDialog(
-                        this,
-                        e1.getMessage(),
-                        "Errore di login",
-                        JOptionPane.ERROR_MESSAGE);
-            } catch (SQLException e2) {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "Errore durante l'accesso al database.",
-                        "Errore di connessione",
-                        JOptionPane.ERROR_MESSAGE);
-            } catch (RemoteException e3) {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "Errore di connessione al server.",
-                        "Errore di connessione",
-                        JOptionPane.ERROR_MESSAGE);
-            } finally {
-                textfieldPassword.setText("");
-            }
+            mainModel.asyncService.call(
+                    () -> mainModel.logicOperator.performLogin(userID, userPassword),
+                    session -> {
+                        if (session == null) {
+                            JOptionPane.showMessageDialog(
+                                    this,
+                                    "Utente non trovato o password errata.",
+                                    "Errore di login",
+                                    JOptionPane.ERROR_MESSAGE);
+                        } else {
+                            currentOperator.setCurrentSession(session);
+                            proceedToCenterCreation(currentOperator);
+                        }
+                    },
+                    e1 -> {
+                        if (e1 instanceof IllegalArgumentException) {
+                            JOptionPane.showMessageDialog(
+                                    this,
+                                    e1.getMessage(),
+                                    "Errore di login",
+                                    JOptionPane.ERROR_MESSAGE);
+                        } else {
+                            showConnectionError(e1);
+                        }
+                    },
+                    buttonPerformLogin);
         });
 
         textfieldUsedID.addKeyListener(enterKeyListener);
         textfieldPassword.addKeyListener(enterKeyListener);
     }
 
+    /**
+     * Mostra un messaggio di errore di connessione, distinguendo gli errori del
+     * database da quelli di comunicazione con il server.
+     *
+     * @param e L'eccezione sollevata dalla chiamata remota.
+     */
+    private void showConnectionError(Throwable e) {
+        JOptionPane.showMessageDialog(
+                this,
+                e instanceof SQLException
+                        ? "Errore durante l'accesso al database."
+                        : "Errore di connessione al server.",
+                "Errore di connessione",
+                JOptionPane.ERROR_MESSAGE);
+    }
+
     /**
      * Gestisce la creazione o l'associazione di un centro per l'operatore.
      * <p>
@@ -172,7 +180,7 @@ public class OperatorLogin extends TwoColumns implements Interfaces.UIPanel {
      * @param currentOperator L'operatore attualmente loggato.
      */
     private void proceedToCenterCreation(CurrentOperator currentOperator) {
-        if (currentOperator.getCurrentOperator().centerID() == 0) {
+        if (currentOperator.getCurrentOperator().centerID() == null) {
 
             String[] options = { "Crea nuovo centro", "Associa centro esistente", "Annulla" };
             int selection = JOptionPane.showOptionDialog(null,
@@ -187,84 +195,11 @@ public class OperatorLogin extends TwoColumns implements Interfaces.UIPanel {
             if (selection == 0) {
                 gui.goToPanel(CenterCreateNew.ID, null);
             } else if (selection == 1) {
-                RecordCenter[] result;
-                try {
-                    result = mainModel.dataQuery.getCenters();
-                } catch (SQLException e) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            "Errore durante l'accesso al database.",
-                            "Errore di connessione",
-                            JOptionPane.ERROR_MESSAGE);
-                    return;
-                } catch (RemoteException e) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            "Errore di connessione al server.",
-                            "Errore di connessione",
-                            JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-
-                if (result.length == 0) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            "Non ci sono centri disponibili.",
-                            "Centro non disponibile",
-                            JOptionPane.WARNING_MESSAGE);
-                    selection = 2;
-                } else {
-                    RecordCenter selectedCenter = (RecordCenter) JOptionPane.showInputDialog(
-                            this,
-                            "Seleziona il centro a cui associarti.",
-                            "Seleziona centro",
-                            JOptionPane.QUESTION_MESSAGE,
-                            null,
-                            result,
-                            result[0]);
-
-                    if (selectedCenter != null) {
-                        try {
-                            RecordOperator updatedOperator = mainModel.logicOperator.associateCenter(
-                                    currentOperator.getCurrentOperator().ID(),
-                                    selectedCenter.ID());
-                            currentOperator.setCurrentOperator(updatedOperator);
-
-                            JOptionPane.showMessageDialog(
-                                    this,
-                                    "Centro associato con successo.",
-                                    "Centro associato",
-                                    JOptionPane.INFORMATION_MESSAGE);
-                            gui.goToPanel(CityAddData.ID, null);
-
-                        } catch (SQLException e) {
-                            JOptionPane.showMessageDialog(
-                                    this,
-                                    "Errore durante l'accesso al database.",
-                                    "Errore di connessione",
-                                    JOptionPane.ERROR_MESSAGE);
-                        } catch (RemoteException e) {
-                            JOptionPane.showMessageDialog(
-                                    this,
-                                    "Errore di connessione al server.",
-                                    "Errore di connessione",
-                                    JOptionPane.ERROR_MESSAGE);
-                        } catch (IllegalStateException e) {
-                            JOptionPane.showMessageDialog(
-                                    this,
-                                    e.getMessage(),
-                                    "Errore di associazione",
-                                    JOptionPane.ERROR_MESSAGE);
-                        }
-                    } else {
-                        JOptionPane.showMessageDialog(
-                                this,
-                                "Centro non selezionato.",
-                                "Centro non selezionato",
-                                JOptionPane.WARNING_MESSAGE);
-                        selection = 2;
-                    }
-                }
+                mainModel.asyncService.call(
+                        mainModel.dataQuery::getCenters,
+                        result -> selectCenter(currentOperator, result),
+                        this::showConnectionError,
+                        buttonPerformLogin);
             } else {
                 JOptionPane.showMessageDialog(
                         this,
@@ -278,6 +213,67 @@ public class OperatorLogin extends TwoColumns implements Interfaces.UIPanel {
         }
     }
 
+    /**
+     * Chiede all'operatore di scegliere un centro esistente e lo associa all'operatore.
+     *
+     * @param currentOperator L'operatore attualmente loggato.
+     * @param result          I centri disponibili.
+     */
+    private void selectCenter(CurrentOperator currentOperator, RecordCenter[] result) {
+        if (result.length == 0) {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Non ci sono centri disponibili.",
+                    "Centro non disponibile",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        RecordCenter selectedCenter = (RecordCenter) JOptionPane.showInputDialog(
+                this,
+                "Seleziona il centro a cui associarti.",
+                "Seleziona centro",
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                result,
+                result[0]);
+
+        if (selectedCenter == null) {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Centro non selezionato.",
+                    "Centro non selezionato",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        String sessionToken = currentOperator.getSessionToken();
+        mainModel.asyncService.call(
+                () -> mainModel.logicOperator.associateCenter(sessionToken, selectedCenter.ID()),
+                updatedOperator -> {
+                    currentOperator.setCurrentOperator(updatedOperator);
+
+                    JOptionPane.showMessageDialog(
+                            this,
+                            "Centro associato con successo.",
+                            "Centro associato",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    gui.goToPanel(CityAddData.ID, null);
+                },
+                e -> {
+                    if (e instanceof IllegalStateException) {
+                        JOptionPane.showMessageDialog(
+                                this,
+                                e.getMessage(),
+                                "Errore di associazione",
+                                JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        showConnectionError(e);
+                    }
+                },
+                buttonPerformLogin);
+    }
+
     @Override
     public OperatorLogin createPanel(GUI gui) {
         this.gui = gui;
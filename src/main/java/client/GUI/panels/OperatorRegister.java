@@ -9,7 +9,6 @@ import client.models.CurrentOperator;
 import client.models.MainModel;
 import shared.utils.Interfaces;
 
-import java.rmi.RemoteException;
 import java.sql.SQLException;
 
 /**
@@ -120,42 +119,47 @@ public class OperatorRegister extends TwoColumns implements Interfaces.UIPanel {
                         "Errore",
                         JOptionPane.ERROR_MESSAGE);
             } else {
-                try {
-                    mainModel.logicOperator.performRegistration(
-                            nameSurname,
-                            taxCode,
-                            email,
-                            username,
-                            password,
-                            null);
-                    JOptionPane.showMessageDialog(
-                            this,
-                            "Profilo registrato con successo. Accedi.",
-                            "Successo",
-                            JOptionPane.INFORMATION_MESSAGE);
-                    gui.goToPanel(OperatorLogin.ID, null);
-
-                } catch (IllegalArgumentException e1) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            e1.getMessage(),
-                            "Errore di validazione",
-                            JOptionPane.ERROR_MESSAGE);
-
-                } catch (RemoteException e2) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            "Errore di connessione al server.",
-                            "Errore di sistema",
-                            JOptionPane.ERROR_MESSAGE);
-
-                } catch (SQLException e3) {
-                    JOptionPane.showMessageDialog(
-                            this,
-                            e3.getMessage(),
-                            "Errore di sistema",
-                            JOptionPane.ERROR_MESSAGE);
-                }
+                mainModel.asyncService.call(
+                        () -> {
+                            mainModel.logicOperator.performRegistration(
+                                    nameSurname,
+                                    taxCode,
+                                    email,
+                                    username,
+                                    password,
+                                    null);
+                            return null;
+                        },
+                        result -> {
+                            JOptionPane.showMessageDialog(
+                                    this,
+                                    "Profilo registrato con successo. Accedi.",
+                                    "Successo",
+                                    JOptionPane.INFORMATION_MESSAGE);
+                            gui.goToPanel(OperatorLogin.ID, null);
+                        },
+                        e1 -> {
+                            if (e1 instanceof IllegalArgumentException) {
+                                JOptionPane.showMessageDialog(
+                                        this,
+                                        e1.getMessage(),
+                                        "Errore di validazione",
+                                        JOptionPane.ERROR_MESSAGE);
+                            } else if (e1 instanceof SQLException) {
+                                JOptionPane.showMessageDialog(
+                                        this,
+                                        e1.getMessage(),
+                                        "Errore di sistema",
+                                        JOptionPane.ERROR_MESSAGE);
+                            } else {
+                                JOptionPane.showMessageDialog(
+                                        this,
+                                        "Errore di connessione al server.",
+                                        "Errore di sistema",
+                                        JOptionPane.ERROR_MESSAGE);
+                            }
+                        },
+                        buttonPerformRegistration);
             }
         });
     }
@@ -0,0 +1,216 @@
+package client.models;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import java.awt.Cursor;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * La classe {@code AsyncService} esegue le chiamate remote del client al di fuori
+ * dell'Event Dispatch Thread di Swing.
+ * <p>
+ *     Le chiamate vengono eseguite su un pool di thread dedicato e restituiscono un
+ *     {@link CompletableFuture}. Ogni chiamata ha un timeout e può essere annullata;
+ *     i risultati e gli errori vengono consegnati sull'Event Dispatch Thread, in modo
+ *     che i pannelli possano aggiornare i componenti grafici senza ulteriori
+ *     sincronizzazioni.
+ * </p>
+ * <p>
+ *     Durante l'esecuzione di una chiamata i componenti indicati vengono disabilitati
+ *     e mostrano il cursore di attesa.
+ * </p>
+ *
+ * @see MainModel
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @version 1.0
+ * @since 11/08/2024
+ */
+public class AsyncService {
+
+    /**
+     * Timeout predefinito, in secondi, per una chiamata remota.
+     */
+    public static final long DEFAULT_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Numero di thread dedicati alle chiamate remote.
+     */
+    private static final int POOL_SIZE = 4;
+
+    /**
+     * Il pool di thread su cui vengono eseguite le chiamate remote.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Il timeout, in secondi, applicato a ogni chiamata.
+     */
+    private final long timeoutSeconds;
+
+    /**
+     * Operazione remota da eseguire in background.
+     *
+     * @param <T> Il tipo del risultato dell'operazione.
+     */
+    @FunctionalInterface
+    public interface RemoteTask<T> {
+
+        /**
+         * Esegue l'operazione remota.
+         *
+         * @return Il risultato dell'operazione.
+         * @throws Exception Se l'operazione fallisce.
+         */
+        T call() throws Exception;
+    }
+
+    /**
+     * Costruisce un {@code AsyncService} con il timeout predefinito.
+     */
+    public AsyncService() {
+        this(DEFAULT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Costruisce un {@code AsyncService} con il timeout specificato.
+     *
+     * @param timeoutSeconds Il timeout, in secondi, per ogni chiamata remota.
+     */
+    public AsyncService(long timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+        this.executor = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "rmi-client-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Esegue un'operazione remota sul pool dedicato.
+     * <p>
+     *     Il future restituito viene completato con il risultato dell'operazione,
+     *     con l'eccezione da essa sollevata oppure con una
+     *     {@link java.util.concurrent.TimeoutException} allo scadere del timeout.
+     * </p>
+     * <p>
+     *     Se il future viene annullato o scade, viene annullato anche il task del pool,
+     *     interrompendo il thread che lo esegue: un'operazione ancora in coda non viene
+     *     avviata. Una chiamata RMI già bloccata sulla rete non risponde
+     *     all'interruzione e viene chiusa dal timeout di risposta impostato da
+     *     {@link MainModel}.
+     * </p>
+     *
+     * @param task L'operazione da eseguire.
+     * @param <T>  Il tipo del risultato.
+     * @return Il future che rappresenta l'operazione.
+     */
+    public <T> CompletableFuture<T> submit(RemoteTask<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running = executor.submit(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.orTimeout(timeoutSeconds, TimeUnit.SECONDS).whenComplete((value, error) -> {
+            if (error != null) {
+                running.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Restituisce il timeout, in secondi, applicato a ogni chiamata.
+     *
+     * @return Il timeout in secondi.
+     */
+    public long getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    /**
+     * Esegue un'operazione remota e ne consegna l'esito sull'Event Dispatch Thread.
+     * <p>
+     *     Se il future viene annullato, nessuna delle due callback viene invocata.
+     * </p>
+     *
+     * @param task      L'operazione da eseguire.
+     * @param onSuccess La callback invocata con il risultato dell'operazione.
+     * @param onError   La callback invocata con l'eccezione sollevata dall'operazione.
+     * @param busy      I componenti da disabilitare durante l'esecuzione.
+     * @param <T>       Il tipo del risultato.
+     * @return Il future che rappresenta l'operazione, utilizzabile per annullarla.
+     */
+    public <T> CompletableFuture<T> call(RemoteTask<T> task,
+                                         Consumer<T> onSuccess,
+                                         Consumer<Throwable> onError,
+                                         JComponent... busy) {
+        setBusy(busy, true);
+        CompletableFuture<T> future = submit(task);
+        future.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            setBusy(busy, false);
+            if (future.isCancelled()) {
+                return;
+            }
+            if (error == null) {
+                onSuccess.accept(result);
+            } else {
+                onError.accept(unwrap(error));
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * Termina il pool di thread, annullando le chiamate in attesa.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Restituisce la causa originale di un'eccezione prodotta da un {@link CompletableFuture}.
+     *
+     * @param error L'eccezione ricevuta.
+     * @return L'eccezione sollevata dall'operazione remota.
+     */
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Imposta lo stato di attesa dei componenti specificati.
+     *
+     * @param components I componenti da aggiornare.
+     * @param busy       {@code true} per mostrare l'attesa, {@code false} per ripristinare lo stato normale.
+     */
+    private static void setBusy(JComponent[] components, boolean busy) {
+        for (JComponent component : components) {
+            component.setEnabled(!busy);
+            component.setCursor(busy ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package client.models;
+
+import shared.interfacesRMI.DataQueryInterface;
+import shared.record.QueryCondition;
+import shared.record.RecordCity;
+
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La classe {@code CityCache} mantiene sul client una cache delle città già
+ * richieste al server, indicizzate per ID e per nome.
+ * <p>
+ *     La cache ha una dimensione massima e rimuove le voci usate meno di recente;
+ *     ogni voce scade dopo un tempo di validità prefissato. Se una città richiesta è
+ *     presente e valida, nessuna chiamata remota viene effettuata.
+ * </p>
+ * <p>
+ *     Il contenuto della cache può essere salvato su disco e ricaricato
+ *     all'avvio successivo del client tramite {@link #load(Path)} e {@link #save(Path)}.
+ * </p>
+ * <p>
+ *     I metodi della classe sono thread-safe: la cache viene utilizzata dai thread
+ *     di {@link AsyncService}.
+ * </p>
+ *
+ * @see RecordCity
+ * @see DataQueryInterface
+ * @see MainModel
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @version 1.0
+ * @since 11/08/2024
+ */
+public class CityCache {
+
+    /**
+     * Numero massimo predefinito di voci per ciascun indice.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    /**
+     * Tempo di validità predefinito di una voce, in millisecondi.
+     */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    /**
+     * Il filtro applicato alla lettura del file di cache: sono ammesse solo le classi
+     * salvate da {@link #save(Path)}.
+     */
+    private static final ObjectInputFilter CACHE_FILE_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=8;java.util.LinkedHashMap;java.util.HashMap;java.util.Map$Entry;java.lang.Integer;java.lang.Number;"
+                    + "java.lang.String;client.models.CityCache$Entry;shared.record.RecordCity;!*");
+
+    /**
+     * L'interfaccia remota utilizzata in caso di mancata corrispondenza.
+     */
+    private final DataQueryInterface dataQuery;
+
+    /**
+     * Il tempo di validità di una voce, in millisecondi.
+     */
+    private final long ttlMillis;
+
+    /**
+     * Le città memorizzate, indicizzate per ID.
+     */
+    private final Map<Integer, Entry<RecordCity>> citiesByID;
+
+    /**
+     * Gli ID delle città restituite da una ricerca, indicizzati per il nome esattamente
+     * come inviato al server, che distingue le maiuscole.
+     */
+    private final Map<String, Entry<Integer[]>> cityIDsByName;
+
+    /**
+     * Una voce della cache con la relativa scadenza.
+     *
+     * @param value     Il valore memorizzato.
+     * @param expiresAt L'istante di scadenza, in millisecondi.
+     * @param <T>       Il tipo del valore.
+     */
+    private record Entry<T>(T value, long expiresAt) implements Serializable {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Verifica se la voce è scaduta.
+         *
+         * @param now L'istante corrente, in millisecondi.
+         * @return {@code true} se la voce è scaduta, {@code false} altrimenti.
+         */
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    /**
+     * Costruisce una cache con dimensione e tempo di validità predefiniti.
+     *
+     * @param dataQuery L'interfaccia remota utilizzata in caso di mancata corrispondenza.
+     */
+    public CityCache(DataQueryInterface dataQuery) {
+        this(dataQuery, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Costruisce una cache con la dimensione e il tempo di validità specificati.
+     *
+     * @param dataQuery  L'interfaccia remota utilizzata in caso di mancata corrispondenza.
+     * @param maxEntries Il numero massimo di voci per ciascun indice.
+     * @param ttlMillis  Il tempo di validità di una voce, in millisecondi.
+     */
+    public CityCache(DataQueryInterface dataQuery, int maxEntries, long ttlMillis) {
+        this.dataQuery = dataQuery;
+        this.ttlMillis = ttlMillis;
+        this.citiesByID = boundedMap(maxEntries);
+        this.cityIDsByName = boundedMap(maxEntries);
+    }
+
+    /**
+     * Crea una mappa ordinata per accesso che rimuove la voce usata meno di recente
+     * al superamento della dimensione massima.
+     *
+     * @param maxEntries Il numero massimo di voci.
+     * @param <K>        Il tipo delle chiavi.
+     * @param <V>        Il tipo dei valori.
+     * @return La mappa creata.
+     */
+    private static <K, V> Map<K, V> boundedMap(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Restituisce la città con l'ID specificato, interrogando il server solo se non
+     * è presente in cache.
+     *
+     * @param ID L'ID della città.
+     * @return Il record della città.
+     * @throws SQLException    Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    public RecordCity getCityBy(Integer ID) throws SQLException, RemoteException {
+        RecordCity city = getCachedCity(ID);
+        if (city != null) {
+            return city;
+        }
+
+        city = dataQuery.getCityBy(ID);
+        put(city);
+        return city;
+    }
+
+    /**
+     * Restituisce le città con gli ID specificati, richiedendo al server con
+     * un'unica chiamata solo quelle non presenti in cache.
+     *
+     * @param IDs Gli ID delle città.
+     * @return Un array allineato a {@code IDs}, con {@code null} per le città inesistenti.
+     * @throws SQLException    Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    public RecordCity[] getCitiesBy(Integer[] IDs) throws SQLException, RemoteException {
+        RecordCity[] cities = new RecordCity[IDs.length];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < IDs.length; i++) {
+            cities[i] = getCachedCity(IDs[i]);
+            if (cities[i] == null) {
+                missing.add(IDs[i]);
+            }
+        }
+        if (missing.isEmpty()) {
+            return cities;
+        }
+
+        RecordCity[] fetched = dataQuery.getCitiesByIds(missing.toArray(new Integer[0]));
+        Map<Integer, RecordCity> fetchedByID = new HashMap<>();
+        for (RecordCity city : fetched) {
+            if (city != null) {
+                put(city);
+                fetchedByID.put(city.ID(), city);
+            }
+        }
+        for (int i = 0; i < IDs.length; i++) {
+            if (cities[i] == null) {
+                cities[i] = fetchedByID.get(IDs[i]);
+            }
+        }
+        return cities;
+    }
+
+    /**
+     * Restituisce le città con il nome ASCII specificato, interrogando il server solo
+     * se la ricerca non è presente in cache.
+     *
+     * @param asciiName Il nome ASCII delle città da cercare.
+     * @return Un array delle città trovate.
+     * @throws SQLException    Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    public RecordCity[] getCitiesByName(String asciiName) throws SQLException, RemoteException {
+        RecordCity[] cities = getCachedCities(asciiName);
+        if (cities != null) {
+            return cities;
+        }
+
+        cities = dataQuery.getCityBy(List.of(new QueryCondition("asciiname", asciiName)));
+        putAll(asciiName, cities);
+        return cities;
+    }
+
+    /**
+     * Aggiunge una città alla cache.
+     *
+     * @param city La città da aggiungere.
+     */
+    public synchronized void put(RecordCity city) {
+        if (city != null) {
+            citiesByID.put(city.ID(), new Entry<>(city, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * Svuota la cache.
+     */
+    public synchronized void clear() {
+        citiesByID.clear();
+        cityIDsByName.clear();
+    }
+
+    /**
+     * Restituisce la città in cache con l'ID specificato, se presente e valida.
+     *
+     * @param ID L'ID della città.
+     * @return La città, o {@code null} se assente o scaduta.
+     */
+    private synchronized RecordCity getCachedCity(Integer ID) {
+        Entry<RecordCity> entry = citiesByID.get(ID);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            citiesByID.remove(ID);
+            return null;
+        }
+        return entry.value();
+    }
+
+    /**
+     * Restituisce le città in cache associate al nome specificato, se la ricerca e
+     * tutte le città sono presenti e valide.
+     *
+     * @param key Il nome ASCII cercato.
+     * @return Le città, o {@code null} se la ricerca non è in cache.
+     */
+    private synchronized RecordCity[] getCachedCities(String key) {
+        Entry<Integer[]> entry = cityIDsByName.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            cityIDsByName.remove(key);
+            return null;
+        }
+
+        Integer[] IDs = entry.value();
+        RecordCity[] cities = new RecordCity[IDs.length];
+        for (int i = 0; i < IDs.length; i++) {
+            cities[i] = getCachedCity(IDs[i]);
+            if (cities[i] == null) {
+                return null;
+            }
+        }
+        return cities;
+    }
+
+    /**
+     * Aggiunge alla cache le città restituite da una ricerca per nome.
+     *
+     * @param key    Il nome ASCII cercato.
+     * @param cities Le città trovate.
+     */
+    private synchronized void putAll(String key, RecordCity[] cities) {
+        Integer[] IDs = new Integer[cities.length];
+        for (int i = 0; i < cities.length; i++) {
+            put(cities[i]);
+            IDs[i] = cities[i].ID();
+        }
+        cityIDsByName.put(key, new Entry<>(IDs, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Carica il contenuto della cache dal file specificato, scartando le voci scadute.
+     * <p>
+     *     Se il file non esiste, la cache resta invariata. Il file viene letto con un
+     *     filtro che rifiuta qualsiasi classe diversa da quelle della cache.
+     * </p>
+     *
+     * @param file Il file da cui caricare la cache.
+     * @throws IOException Se si verifica un errore durante la lettura del file.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(file))) {
+            in.setObjectInputFilter(CACHE_FILE_FILTER);
+            Map<Integer, Entry<RecordCity>> savedCities = (Map<Integer, Entry<RecordCity>>) in.readObject();
+            Map<String, Entry<Integer[]>> savedNames = (Map<String, Entry<Integer[]>>) in.readObject();
+
+            long now = System.currentTimeMillis();
+            savedCities.forEach((ID, entry) -> {
+                if (!entry.isExpired(now)) {
+                    citiesByID.put(ID, entry);
+                }
+            });
+            savedNames.forEach((name, entry) -> {
+                if (!entry.isExpired(now)) {
+                    cityIDsByName.put(name, entry);
+                }
+            });
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Formato del file di cache non valido.", e);
+        }
+    }
+
+    /**
+     * Salva il contenuto della cache nel file specificato.
+     *
+     * @param file Il file in cui salvare la cache.
+     * @throws IOException Se si verifica un errore durante la scrittura del file.
+     */
+    public synchronized void save(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(file))) {
+            out.writeObject(new LinkedHashMap<>(citiesByID));
+            out.writeObject(new LinkedHashMap<>(cityIDsByName));
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package client.models;
 
 import shared.record.RecordOperator;
+import shared.record.RecordSession;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * La classe {@code CurrentOperator} è un singleton che gestisce lo stato dell'operatore attualmente loggato.
@@ -14,6 +16,7 @@ import java.util.List;
  * </p>
  *
  * @see RecordOperator
+ * @see RecordSession
  *
  * @author Andrea Tettamanti
  * @author Luca Mascetti
@@ -32,6 +35,16 @@ public class CurrentOperator {
      */
     private RecordOperator currentOperator = null;
 
+    /**
+     * Il token della sessione aperta sul server dall'operatore corrente.
+     */
+    private String sessionToken = null;
+
+    /**
+     * L'azione che chiude sul server la sessione terminata dal logout, oppure {@code null}.
+     */
+    private Consumer<String> sessionCloser = null;
+
     /**
      * Lista dei listener che vengono notificati quando l'operatore corrente cambia.
      */
@@ -69,6 +82,25 @@ public class CurrentOperator {
         }
     }
 
+    /**
+     * Imposta la sessione corrente, restituita dal server al login, e il relativo operatore.
+     *
+     * @param session la nuova sessione corrente
+     */
+    public void setCurrentSession(RecordSession session) {
+        sessionToken = session.token();
+        setCurrentOperator(session.operator());
+    }
+
+    /**
+     * Restituisce il token della sessione corrente, da inviare con le operazioni di scrittura.
+     *
+     * @return il token della sessione, o {@code null} se nessun operatore è loggato.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
     /**
      * Restituisce l'operatore attualmente loggato.
      *
@@ -88,9 +120,24 @@ public class CurrentOperator {
     }
 
     /**
-     * Effettua il logout dell'operatore corrente, settando il valore a {@code null}.
+     * Imposta l'azione che chiude sul server la sessione terminata da {@link #performLogout()}.
+     *
+     * @param sessionCloser l'azione, che riceve il token della sessione da chiudere
+     */
+    public void setSessionCloser(Consumer<String> sessionCloser) {
+        this.sessionCloser = sessionCloser;
+    }
+
+    /**
+     * Effettua il logout dell'operatore corrente, settando il valore e il token di sessione a {@code null}.
+     * Se una sessione era aperta, viene chiusa anche sul server.
      */
     public void performLogout() {
+        String closedToken = sessionToken;
+        sessionToken = null;
+        if (closedToken != null && sessionCloser != null) {
+            sessionCloser.accept(closedToken);
+        }
         setCurrentOperator(null);
     }
 
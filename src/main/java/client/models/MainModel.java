@@ -2,10 +2,11 @@ package client.models;
 
 import shared.interfacesRMI.*;
 
-import java.rmi.NotBoundException;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * La classe {@code MainModel} è responsabile della connessione ai servizi RMI (Remote Method Invocation)
@@ -21,6 +22,9 @@ import java.rmi.registry.Registry;
  * @see LogicOperatorInterface
  * @see LogicCenterInterface
  * @see LogicCityInterface
+ * @see AsyncService
+ * @see CityCache
+ * @see ServerBalancer
  *
  * @author Andrea Tettamanti
  * @author Luca Mascetti
@@ -54,28 +58,168 @@ public class MainModel {
      */
     public LogicCityInterface logicCity;
 
+    /**
+     * Servizio per l'esecuzione asincrona delle chiamate remote, al di fuori
+     * dell'Event Dispatch Thread.
+     */
+    public final AsyncService asyncService = new AsyncService();
+
+    /**
+     * Cache lato client delle città già richieste al server.
+     */
+    public CityCache cityCache;
+
+    /**
+     * L'iscrizione del client ai nuovi parametri climatici della città visualizzata.
+     */
+    public WeatherSubscription weatherSubscription;
+
+    /**
+     * I dati meteorologici aggregati delle città visualizzate, aggiornati con i soli record nuovi.
+     */
+    public WeatherAccumulator weatherAccumulator;
+
+    /**
+     * Il bilanciatore che distribuisce le chiamate remote tra i server.
+     */
+    private ServerBalancer balancer;
+
+    /**
+     * Le query sui dati, inviate al server della sessione quando un operatore è loggato.
+     */
+    private SessionDataQuery sessionDataQuery;
+
+    /**
+     * Il token della sessione per cui sono state richieste le letture al server della sessione.
+     */
+    private String readSessionToken;
+
+    /**
+     * Proprietà di sistema che indica il file in cui salvare la cache delle città
+     * tra un avvio e l'altro del client. Se non è impostata, la cache resta solo in memoria.
+     */
+    public static final String CITY_CACHE_FILE_PROPERTY = "climatemonitoring.cityCacheFile";
+
+    /**
+     * Proprietà di sistema che indica i server a cui collegarsi, separati da virgole,
+     * nella forma {@code host} o {@code host:porta}. Le chiamate vengono distribuite tra
+     * i server indicati.
+     */
+    public static final String SERVERS_PROPERTY = "climatemonitoring.servers";
+
+    /**
+     * Il server utilizzato se {@link #SERVERS_PROPERTY} non è impostata.
+     */
+    private static final String DEFAULT_SERVERS = "localhost:" + ServerBalancer.DEFAULT_PORT;
+
+    /**
+     * Proprietà di sistema di RMI che limita l'attesa della risposta a una chiamata remota.
+     */
+    private static final String RMI_RESPONSE_TIMEOUT_PROPERTY = "sun.rmi.transport.tcp.responseTimeout";
+
     /**
      * Costruttore della classe {@code MainModel}.
      * <p>
-     *     Questo costruttore localizza il registro RMI sulla macchina locale e la porta 1099, ed
-     *     effettua il lookup delle interfacce remote necessarie per il funzionamento del client.
-     *     Se il processo di lookup fallisce, viene lanciata una {@link RuntimeException}.
+     *     Questo costruttore localizza i registri RMI dei server indicati da {@link #SERVERS_PROPERTY}
+     *     (per impostazione predefinita la macchina locale e la porta 1099) e crea, tramite un
+     *     {@link ServerBalancer}, le interfacce remote necessarie per il funzionamento del client.
+     *     Se nessun server è raggiungibile, viene lanciata una {@link RuntimeException}.
      * </p>
      *
      * @throws RuntimeException se il processo di lookup delle interfacce remote fallisce.
      */
     public MainModel() {
 
+        // Chiude le chiamate remote bloccate allo scadere del timeout, così da liberare i thread di AsyncService.
+        if (System.getProperty(RMI_RESPONSE_TIMEOUT_PROPERTY) == null) {
+            System.setProperty(RMI_RESPONSE_TIMEOUT_PROPERTY,
+                    String.valueOf(TimeUnit.SECONDS.toMillis(asyncService.getTimeoutSeconds())));
+        }
+
         try {
-            Registry registry = LocateRegistry.getRegistry("localhost", 1099);
-
-            dataHandler = (DataHandlerInterface) registry.lookup("DataHandler");
-            dataQuery = (DataQueryInterface) registry.lookup("DataQuery");
-            logicOperator = (LogicOperatorInterface) registry.lookup("LogicOperator");
-            logicCenter = (LogicCenterInterface) registry.lookup("LogicCenter");
-            logicCity = (LogicCityInterface) registry.lookup("LogicCity");
-        } catch (RemoteException | NotBoundException e) {
+            balancer = new ServerBalancer(
+                    List.of(System.getProperty(SERVERS_PROPERTY, DEFAULT_SERVERS).split(",")));
+            balancer.connect("DataHandler", "DataQuery", "LogicOperator", "LogicCenter", "LogicCity");
+
+            dataHandler = balancer.proxy(DataHandlerInterface.class, "DataHandler", false);
+            sessionDataQuery = new SessionDataQuery(balancer.proxy(DataQueryInterface.class, "DataQuery", true));
+            dataQuery = sessionDataQuery.get();
+            logicOperator = balancer.proxy(LogicOperatorInterface.class, "LogicOperator", false);
+            logicCenter = balancer.proxy(LogicCenterInterface.class, "LogicCenter", false);
+            // Le iscrizioni creano uno stato sul server: non vanno ripetute su un altro server.
+            logicCity = balancer.proxy(LogicCityInterface.class, "LogicCity", true, "subscribe", "unsubscribe");
+        } catch (RemoteException e) {
             throw new RuntimeException(e);
         }
+
+        CurrentOperator.getInstance().setSessionCloser(this::closeSession);
+        CurrentOperator.getInstance().addCurrentUserChangeListener(operator -> bindReadSession());
+        cityCache = new CityCache(dataQuery);
+        weatherSubscription = new WeatherSubscription(balancer, asyncService);
+        weatherAccumulator = new WeatherAccumulator(dataQuery);
+        String cacheFile = System.getProperty(CITY_CACHE_FILE_PROPERTY);
+        if (cacheFile != null && !cacheFile.isBlank()) {
+            enableCityCachePersistence(Path.of(cacheFile));
+        }
+    }
+
+    /**
+     * Chiude la sessione sul server che l'ha aperta e la rimuove dal bilanciatore.
+     * La chiamata è asincrona; se fallisce, la sessione scade comunque sul server.
+     *
+     * @param token Il token della sessione da chiudere.
+     */
+    private void closeSession(String token) {
+        asyncService.submit(() -> {
+            logicOperator.logout(token);
+            return null;
+        }).whenComplete((result, error) -> balancer.closeSession(token));
+    }
+
+    /**
+     * Allinea le letture alla sessione corrente: dopo il login richiede al server della
+     * sessione l'interfaccia per le query dell'operatore, dopo il logout torna alle
+     * letture distribuite. Finché la richiesta non termina, le letture restano distribuite.
+     */
+    private void bindReadSession() {
+        String token = CurrentOperator.getInstance().getSessionToken();
+        if (token == null) {
+            readSessionToken = null;
+            sessionDataQuery.bind(null);
+            return;
+        }
+        if (token.equals(readSessionToken)) {
+            return;
+        }
+        readSessionToken = token;
+        asyncService.submit(() -> logicOperator.openReadSession(token)).whenComplete((view, error) -> {
+            if (error != null) {
+                System.err.println("Letture della sessione non disponibili: " + error.getMessage());
+            } else if (token.equals(CurrentOperator.getInstance().getSessionToken())) {
+                sessionDataQuery.bind(view);
+            }
+        });
+    }
+
+    /**
+     * Carica la cache delle città dal file specificato e la salva nello stesso file
+     * alla chiusura del client.
+     *
+     * @param file Il file in cui persistere la cache.
+     */
+    private void enableCityCachePersistence(Path file) {
+        try {
+            cityCache.load(file);
+        } catch (IOException e) {
+            System.err.println("Impossibile caricare la cache delle città: " + e.getMessage());
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                cityCache.save(file);
+            } catch (IOException e) {
+                System.err.println("Impossibile salvare la cache delle città: " + e.getMessage());
+            }
+        }));
     }
 }
@@ -0,0 +1,438 @@
+package client.models;
+
+import shared.record.RecordSession;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.UnknownHostException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * La classe {@code ServerBalancer} distribuisce le chiamate remote del client tra più
+ * istanze del server che condividono lo stesso database.
+ * <p>
+ * Per ogni interfaccia remota viene creato un proxy che, a ogni chiamata, sceglie il server
+ * con la tecnica "power of two choices": vengono estratti due server disponibili e viene
+ * usato quello con meno richieste in corso. I server che non rispondono vengono esclusi
+ * per un intervallo di tempo; le chiamate che non hanno raggiunto il server vengono
+ * ripetute su un'altra istanza, mentre le altre vengono ripetute solo per le interfacce
+ * di sola lettura.
+ * </p>
+ * <p>
+ * Le sessioni degli operatori sono mantenute dal server che ha eseguito il login: le
+ * chiamate che contengono il token di una sessione vengono quindi inviate sempre allo
+ * stesso server. Una sessione viene dimenticata alla sua chiusura
+ * ({@link #closeSession(String)}) e quando il suo server viene escluso: le chiamate
+ * successive con lo stesso token vengono distribuite come le altre e il server che le
+ * riceve le rifiuta, chiedendo un nuovo login. Le interfacce che devono restare sullo
+ * stesso server senza una sessione si ottengono con {@link #pin(Class, String)}.
+ * </p>
+ *
+ * @see MainModel
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class ServerBalancer {
+
+    /**
+     * La porta predefinita del registro RMI.
+     */
+    public static final int DEFAULT_PORT = 1099;
+
+    /**
+     * Intervallo, in millisecondi, per cui un server che non risponde viene escluso.
+     */
+    private static final long EJECTION_MILLIS = 30_000;
+
+    /**
+     * Numero massimo di tentativi per ciascuna chiamata.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Un'istanza del server, con gli stub già ottenuti dal suo registro.
+     */
+    private static final class Node {
+
+        /**
+         * L'host del registro RMI.
+         */
+        private final String host;
+
+        /**
+         * La porta del registro RMI.
+         */
+        private final int port;
+
+        /**
+         * Il numero di richieste in corso.
+         */
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /**
+         * Gli stub delle interfacce remote, indicizzati per nome.
+         */
+        private final Map<String, Remote> stubs = new ConcurrentHashMap<>();
+
+        /**
+         * L'istante fino al quale il server è escluso.
+         */
+        private volatile long ejectedUntil;
+
+        private Node(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Restituisce lo stub dell'interfaccia remota, effettuando il lookup se necessario.
+         *
+         * @param name Il nome con cui l'interfaccia è registrata.
+         * @return Lo stub.
+         * @throws RemoteException   Se il registro non è raggiungibile.
+         * @throws NotBoundException Se l'interfaccia non è registrata.
+         */
+        private Remote stub(String name) throws RemoteException, NotBoundException {
+            Remote stub = stubs.get(name);
+            if (stub == null) {
+                Registry registry = LocateRegistry.getRegistry(host, port);
+                stub = registry.lookup(name);
+                stubs.put(name, stub);
+            }
+            return stub;
+        }
+
+        /**
+         * Verifica se il server è attualmente escluso.
+         *
+         * @return {@code true} se il server è escluso, {@code false} altrimenti.
+         */
+        private boolean isEjected() {
+            return System.currentTimeMillis() < ejectedUntil;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    /**
+     * I server disponibili.
+     */
+    private final List<Node> nodes = new ArrayList<>();
+
+    /**
+     * Il server che ha aperto ciascuna sessione, indicizzato per token.
+     */
+    private final Map<String, Node> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Costruisce un bilanciatore per i server specificati.
+     *
+     * @param endpoints I server, nella forma {@code host} o {@code host:porta}.
+     * @throws IllegalArgumentException Se la lista è vuota o una porta non è valida.
+     */
+    public ServerBalancer(List<String> endpoints) {
+        for (String endpoint : endpoints) {
+            String trimmed = endpoint.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int separator = trimmed.lastIndexOf(':');
+            if (separator < 0) {
+                nodes.add(new Node(trimmed, DEFAULT_PORT));
+            } else {
+                nodes.add(new Node(trimmed.substring(0, separator), Integer.parseInt(trimmed.substring(separator + 1))));
+            }
+        }
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Nessun server specificato.");
+        }
+    }
+
+    /**
+     * Verifica che almeno un server esponga le interfacce specificate, escludendo quelli
+     * non raggiungibili.
+     *
+     * @param names I nomi delle interfacce remote.
+     * @throws RemoteException Se nessun server è raggiungibile.
+     */
+    public void connect(String... names) throws RemoteException {
+        Exception last = null;
+        boolean connected = false;
+        for (Node node : nodes) {
+            try {
+                for (String name : names) {
+                    node.stub(name);
+                }
+                connected = true;
+            } catch (RemoteException | NotBoundException e) {
+                eject(node);
+                last = e;
+            }
+        }
+        if (!connected) {
+            throw new RemoteException("Nessun server raggiungibile.", last);
+        }
+    }
+
+    /**
+     * Crea un proxy dell'interfaccia remota che distribuisce le chiamate tra i server.
+     *
+     * @param type       L'interfaccia remota.
+     * @param name       Il nome con cui l'interfaccia è registrata.
+     * @param idempotent {@code true} se tutte le chiamate possono essere ripetute senza effetti
+     *                   collaterali, anche dopo aver raggiunto il server.
+     * @param <T>        Il tipo dell'interfaccia.
+     * @return Il proxy.
+     */
+    public <T extends Remote> T proxy(Class<T> type, String name, boolean idempotent) {
+        return proxy(type, name, idempotent, new String[0]);
+    }
+
+    /**
+     * Crea un proxy dell'interfaccia remota che distribuisce le chiamate tra i server,
+     * escludendo dalle ripetizioni i metodi indicati.
+     *
+     * @param type                 L'interfaccia remota.
+     * @param name                 Il nome con cui l'interfaccia è registrata.
+     * @param idempotent           {@code true} se le chiamate possono essere ripetute senza effetti
+     *                             collaterali, anche dopo aver raggiunto il server.
+     * @param nonIdempotentMethods I nomi dei metodi che modificano lo stato del server e non
+     *                             vanno ripetuti dopo averlo raggiunto, anche se {@code idempotent}
+     *                             è {@code true}.
+     * @param <T>                  Il tipo dell'interfaccia.
+     * @return Il proxy.
+     */
+    public <T extends Remote> T proxy(Class<T> type, String name, boolean idempotent, String... nonIdempotentMethods) {
+        Set<String> excluded = Set.of(nonIdempotentMethods);
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> type.getSimpleName() + nodes;
+                };
+            }
+            return invoke(name, idempotent && !excluded.contains(method.getName()), method, args);
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Crea un proxy dell'interfaccia remota che invia tutte le chiamate allo stesso server,
+     * scelto dal bilanciatore alla creazione del proxy.
+     * <p>
+     * Serve per le chiamate che creano uno stato sul server, come le iscrizioni, e che
+     * devono quindi essere annullate sullo stesso server. Le chiamate non vengono mai
+     * ripetute su un'altra istanza: se il server non risponde viene escluso e spetta al
+     * chiamante creare un nuovo proxy.
+     * </p>
+     *
+     * @param type L'interfaccia remota.
+     * @param name Il nome con cui l'interfaccia è registrata.
+     * @param <T>  Il tipo dell'interfaccia.
+     * @return Il proxy.
+     */
+    public <T extends Remote> T pin(Class<T> type, String name) {
+        Node node = choose(List.of());
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> type.getSimpleName() + "[" + node + "]";
+                };
+            }
+            node.outstanding.incrementAndGet();
+            try {
+                return method.invoke(node.stub(name), args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RemoteException remote && isConnectionFailure(remote)) {
+                    eject(node);
+                    node.stubs.clear();
+                }
+                throw e.getCause();
+            } catch (NotBoundException e) {
+                throw new RemoteException("Interfaccia " + name + " non registrata su " + node, e);
+            } catch (RemoteException e) {
+                eject(node);
+                node.stubs.clear();
+                throw e;
+            } finally {
+                node.outstanding.decrementAndGet();
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Esegue una chiamata remota su un server scelto dal bilanciatore, ripetendola se possibile.
+     *
+     * @param name       Il nome dell'interfaccia remota.
+     * @param idempotent {@code true} se la chiamata può essere ripetuta dopo aver raggiunto il server.
+     * @param method     Il metodo da invocare.
+     * @param args       Gli argomenti.
+     * @return Il risultato della chiamata.
+     * @throws Throwable L'eccezione lanciata dal server o dall'ultimo tentativo.
+     */
+    private Object invoke(String name, boolean idempotent, Method method, Object[] args) throws Throwable {
+        Node pinned = sessionNode(args);
+        List<Node> tried = new ArrayList<>();
+        Throwable failure = null;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Node node = pinned != null ? pinned : choose(tried);
+            if (node == null) {
+                break;
+            }
+            tried.add(node);
+
+            node.outstanding.incrementAndGet();
+            try {
+                Object result = method.invoke(node.stub(name), args);
+                if (result instanceof RecordSession session) {
+                    sessions.put(session.token(), node);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                failure = e.getCause();
+            } catch (NotBoundException e) {
+                failure = new RemoteException("Interfaccia " + name + " non registrata su " + node, e);
+            } catch (RemoteException e) {
+                failure = e;
+            } finally {
+                node.outstanding.decrementAndGet();
+            }
+
+            if (!(failure instanceof RemoteException)) {
+                throw failure;
+            }
+            boolean notDelivered = isConnectionFailure((RemoteException) failure);
+            if (notDelivered) {
+                eject(node);
+                node.stubs.clear();
+            }
+            if (pinned != null || !(notDelivered || idempotent)) {
+                break;
+            }
+        }
+        throw failure != null ? failure : new RemoteException("Nessun server disponibile.");
+    }
+
+    /**
+     * Dimentica il server associato a una sessione chiusa.
+     *
+     * @param token Il token della sessione.
+     */
+    public void closeSession(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    /**
+     * Sceglie un server tra quelli disponibili e non ancora provati, con la tecnica
+     * "power of two choices".
+     *
+     * @param tried I server già provati per la chiamata corrente.
+     * @return Il server scelto, oppure {@code null} se non ce ne sono.
+     */
+    private Node choose(List<Node> tried) {
+        List<Node> candidates = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!node.isEjected() && !tried.contains(node)) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (Node node : nodes) {
+                if (!tried.contains(node)) {
+                    candidates.add(node);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Node a = candidates.get(first);
+        Node b = candidates.get(second);
+        return a.outstanding.get() <= b.outstanding.get() ? a : b;
+    }
+
+    /**
+     * Restituisce il server che ha aperto la sessione il cui token è tra gli argomenti.
+     *
+     * @param args Gli argomenti della chiamata.
+     * @return Il server della sessione, oppure {@code null} se la chiamata non ne usa una.
+     */
+    private Node sessionNode(Object[] args) {
+        if (args == null || sessions.isEmpty()) {
+            return null;
+        }
+        for (Object arg : args) {
+            if (arg instanceof String token) {
+                Node node = sessions.get(token);
+                if (node != null) {
+                    return node;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Esclude temporaneamente un server e dimentica le sessioni aperte su di esso.
+     *
+     * @param node Il server.
+     */
+    private void eject(Node node) {
+        node.ejectedUntil = System.currentTimeMillis() + EJECTION_MILLIS;
+        sessions.values().removeIf(owner -> owner == node);
+        System.err.println("Server non raggiungibile, escluso temporaneamente: " + node);
+    }
+
+    /**
+     * Verifica se l'eccezione indica che la chiamata non ha raggiunto il server.
+     *
+     * @param e L'eccezione.
+     * @return {@code true} se la chiamata può essere ripetuta su un altro server senza rischi.
+     */
+    private static boolean isConnectionFailure(RemoteException e) {
+        return e instanceof ConnectException
+                || e instanceof ConnectIOException
+                || e instanceof UnknownHostException
+                || e instanceof NoSuchObjectException;
+    }
+}
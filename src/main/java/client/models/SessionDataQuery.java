@@ -0,0 +1,113 @@
+package client.models;
+
+import shared.interfacesRMI.DataQueryInterface;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+
+/**
+ * La classe {@code SessionDataQuery} fornisce un'interfaccia per le query sui dati che,
+ * quando un operatore è loggato, invia le letture al server della sua sessione.
+ * <p>
+ * Le letture vengono eseguite tramite l'interfaccia restituita da
+ * {@link shared.interfacesRMI.LogicOperatorInterface#openReadSession(String)}: il server le
+ * attribuisce alla sessione e, dopo una scrittura dell'operatore, le serve dal database
+ * primario. Senza sessione, o se il server della sessione non risponde, le letture vengono
+ * distribuite tra i server come le altre chiamate.
+ * </p>
+ *
+ * @see MainModel
+ * @see ServerBalancer
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class SessionDataQuery {
+
+    /**
+     * L'interfaccia per le query distribuite tra i server.
+     */
+    private final DataQueryInterface balanced;
+
+    /**
+     * L'interfaccia per le query della sessione corrente, oppure {@code null}.
+     */
+    private volatile DataQueryInterface session;
+
+    /**
+     * L'interfaccia esposta ai componenti del client.
+     */
+    private final DataQueryInterface proxy;
+
+    /**
+     * Costruisce l'interfaccia a partire da quella distribuita tra i server.
+     *
+     * @param balanced L'interfaccia per le query distribuite tra i server.
+     */
+    public SessionDataQuery(DataQueryInterface balanced) {
+        this.balanced = balanced;
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> "SessionDataQuery";
+                };
+            }
+            DataQueryInterface current = session;
+            if (current != null) {
+                try {
+                    return method.invoke(current, args);
+                } catch (InvocationTargetException e) {
+                    if (!(e.getCause() instanceof RemoteException)) {
+                        throw e.getCause();
+                    }
+                    // Il server della sessione non risponde: le letture tornano al bilanciatore.
+                    clear(current);
+                }
+            }
+            try {
+                return method.invoke(this.balanced, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        this.proxy = (DataQueryInterface) Proxy.newProxyInstance(
+                DataQueryInterface.class.getClassLoader(), new Class<?>[]{DataQueryInterface.class}, handler);
+    }
+
+    /**
+     * Restituisce l'interfaccia da utilizzare per le query sui dati.
+     *
+     * @return L'interfaccia.
+     */
+    public DataQueryInterface get() {
+        return proxy;
+    }
+
+    /**
+     * Imposta l'interfaccia per le query della sessione corrente.
+     *
+     * @param session L'interfaccia restituita dal server della sessione, oppure {@code null}
+     *                per tornare alle letture distribuite.
+     */
+    public void bind(DataQueryInterface session) {
+        this.session = session;
+    }
+
+    /**
+     * Rimuove l'interfaccia della sessione, se è ancora quella specificata.
+     *
+     * @param expected L'interfaccia da rimuovere.
+     */
+    private synchronized void clear(DataQueryInterface expected) {
+        if (session == expected) {
+            session = null;
+        }
+    }
+}
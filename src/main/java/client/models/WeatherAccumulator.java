@@ -0,0 +1,275 @@
+package client.models;
+
+import server.ImplementationRMI.LogicCityImp.WeatherTableData;
+import shared.interfacesRMI.DataQueryInterface;
+import shared.record.QueryCondition;
+import shared.record.RecordWeather;
+import shared.record.WeatherChanges;
+
+import java.rmi.RemoteException;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La classe {@code WeatherAccumulator} mantiene sul client i dati meteorologici aggregati
+ * delle città già visualizzate, aggiornandoli con i soli record nuovi.
+ * <p>
+ *     Alla prima richiesta i record della città vengono scaricati e aggregati in un
+ *     {@link WeatherTableData}; le richieste successive scaricano solo i record confermati
+ *     nel database dopo la richiesta precedente, tramite il cursore di
+ *     {@link DataQueryInterface#getWeatherSince(Integer, Instant)}, e li aggiungono ai dati
+ *     aggregati. Anche i record ricevuti dalle iscrizioni vengono aggiunti, ignorando
+ *     quelli già inclusi.
+ * </p>
+ * <p>
+ *     Dopo un tempo di validità prefissato i dati di una città vengono scaricati di nuovo
+ *     per intero, in modo da includere anche i record modificati. Vengono mantenute al più {@link #DEFAULT_MAX_CITIES}
+ *     città, rimuovendo quelle usate meno di recente.
+ * </p>
+ * <p>
+ *     I metodi della classe sono thread-safe: le richieste avvengono dai thread di
+ *     {@link AsyncService}, mentre i record delle iscrizioni arrivano dal thread di Swing.
+ * </p>
+ *
+ * @see WeatherTableData
+ * @see DataQueryInterface
+ * @see WeatherSubscription
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherAccumulator {
+
+    /**
+     * Numero massimo predefinito di città mantenute.
+     */
+    public static final int DEFAULT_MAX_CITIES = 32;
+
+    /**
+     * Tempo di validità predefinito dei dati di una città prima di un nuovo caricamento
+     * completo, in millisecondi.
+     */
+    public static final long DEFAULT_FULL_RELOAD_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Numero massimo di record ricevuti prima del caricamento di una città e conservati
+     * per essere aggiunti al suo termine.
+     */
+    private static final int MAX_PENDING = 1_000;
+
+    /**
+     * I dati aggregati di una città, restituiti al chiamante.
+     *
+     * @param data    I dati aggregati al momento della richiesta, non modificati dai record
+     *                aggiunti in seguito.
+     * @param records Il numero di record inclusi.
+     */
+    public record Snapshot(WeatherTableData data, int records) {
+    }
+
+    /**
+     * I dati aggregati di una città.
+     */
+    private static final class CityWeather {
+
+        /**
+         * I dati aggregati.
+         */
+        private final WeatherTableData data = new WeatherTableData();
+
+        /**
+         * Gli ID dei record inclusi.
+         */
+        private final Set<Integer> ids = new HashSet<>();
+
+        /**
+         * Il cursore restituito dal server, da cui riprendere il caricamento.
+         */
+        private Instant cursor;
+
+        /**
+         * L'istante del caricamento completo.
+         */
+        private final long loadedAt;
+
+        private CityWeather(long loadedAt) {
+            this.loadedAt = loadedAt;
+        }
+
+        /**
+         * Aggiunge i record non ancora inclusi.
+         *
+         * @param weathers I record.
+         * @return {@code true} se almeno un record è stato aggiunto.
+         */
+        private boolean add(RecordWeather[] weathers) {
+            boolean changed = false;
+            for (RecordWeather weather : weathers) {
+                if (weather.ID() != null && ids.add(weather.ID())) {
+                    data.add(weather);
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Restituisce una copia dei dati aggregati, che condivide i commenti già presenti
+         * invece di copiarli.
+         *
+         * @return La copia.
+         */
+        private Snapshot snapshot() {
+            return new Snapshot(data.snapshot(), ids.size());
+        }
+    }
+
+    /**
+     * L'interfaccia remota per le query sui dati.
+     */
+    private final DataQueryInterface dataQuery;
+
+    /**
+     * Il numero massimo di città mantenute.
+     */
+    private final int maxCities;
+
+    /**
+     * Il tempo di validità dei dati di una città, in millisecondi.
+     */
+    private final long fullReloadMillis;
+
+    /**
+     * I dati delle città, in ordine di utilizzo.
+     */
+    private final Map<Integer, CityWeather> cities;
+
+    /**
+     * I record ricevuti per città i cui dati non sono ancora stati caricati.
+     */
+    private final Map<Integer, List<RecordWeather>> pending = new HashMap<>();
+
+    /**
+     * Costruisce un accumulatore con i valori predefiniti.
+     *
+     * @param dataQuery L'interfaccia remota per le query sui dati.
+     */
+    public WeatherAccumulator(DataQueryInterface dataQuery) {
+        this(dataQuery, DEFAULT_MAX_CITIES, DEFAULT_FULL_RELOAD_MILLIS);
+    }
+
+    /**
+     * Costruisce un accumulatore.
+     *
+     * @param dataQuery        L'interfaccia remota per le query sui dati.
+     * @param maxCities        Il numero massimo di città mantenute.
+     * @param fullReloadMillis Il tempo di validità dei dati di una città, in millisecondi.
+     */
+    public WeatherAccumulator(DataQueryInterface dataQuery, int maxCities, long fullReloadMillis) {
+        this.dataQuery = dataQuery;
+        this.maxCities = maxCities;
+        this.fullReloadMillis = fullReloadMillis;
+        this.cities = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CityWeather> eldest) {
+                return size() > WeatherAccumulator.this.maxCities;
+            }
+        };
+    }
+
+    /**
+     * Aggiorna i dati aggregati di una città e ne restituisce una copia.
+     * <p>
+     *     Se i dati della città non sono presenti o sono scaduti vengono scaricati per
+     *     intero; altrimenti vengono scaricati solo i record nuovi.
+     * </p>
+     *
+     * @param cityID L'ID della città.
+     * @return I dati aggregati della città.
+     * @throws SQLException    Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    public Snapshot refresh(Integer cityID) throws SQLException, RemoteException {
+        CityWeather current;
+        synchronized (this) {
+            current = cities.get(cityID);
+        }
+
+        long now = System.currentTimeMillis();
+        if (current == null || now - current.loadedAt >= fullReloadMillis) {
+            // Il cursore precede il caricamento: i record inseriti nel frattempo vengono riletti e ignorati.
+            Instant cursor = dataQuery.getWeatherCursor();
+            RecordWeather[] weathers = dataQuery.getWeatherBy(new QueryCondition("cityID", cityID));
+            CityWeather loaded = new CityWeather(now);
+            loaded.add(weathers);
+            loaded.cursor = cursor;
+            synchronized (this) {
+                List<RecordWeather> received = pending.remove(cityID);
+                if (received != null) {
+                    loaded.add(received.toArray(new RecordWeather[0]));
+                }
+                cities.put(cityID, loaded);
+                return loaded.snapshot();
+            }
+        }
+
+        Instant cursor;
+        synchronized (this) {
+            cursor = current.cursor;
+        }
+        WeatherChanges changes = dataQuery.getWeatherSince(cityID, cursor);
+        synchronized (this) {
+            current.add(changes.weathers());
+            current.cursor = changes.cursor();
+            return current.snapshot();
+        }
+    }
+
+    /**
+     * Aggiunge ai dati di una città i record ricevuti da un'iscrizione.
+     * <p>
+     *     Se i dati della città non sono ancora stati caricati, i record vengono conservati
+     *     e aggiunti al termine del caricamento. I record non modificano il punto da cui
+     *     riprendere il caricamento, dato che un'iscrizione non riceve necessariamente
+     *     tutti i record.
+     * </p>
+     *
+     * @param cityID   L'ID della città.
+     * @param weathers I record ricevuti.
+     * @return I dati aggregati aggiornati, oppure {@code null} se non sono cambiati o non
+     *         sono ancora stati caricati.
+     */
+    public synchronized Snapshot add(Integer cityID, RecordWeather[] weathers) {
+        CityWeather current = cities.get(cityID);
+        if (current == null) {
+            List<RecordWeather> received = pending.computeIfAbsent(cityID, id -> new ArrayList<>());
+            for (RecordWeather weather : weathers) {
+                if (received.size() < MAX_PENDING) {
+                    received.add(weather);
+                }
+            }
+            return null;
+        }
+        return current.add(weathers) ? current.snapshot() : null;
+    }
+
+    /**
+     * Scarta i record conservati per una città non ancora caricata.
+     *
+     * @param cityID L'ID della città.
+     */
+    public synchronized void discardPending(Integer cityID) {
+        pending.remove(cityID);
+    }
+}
@@ -0,0 +1,262 @@
+package client.models;
+
+import shared.interfacesRMI.LogicCityInterface;
+import shared.interfacesRMI.WeatherListener;
+import shared.record.RecordWeather;
+
+import javax.swing.SwingUtilities;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * La classe {@code WeatherSubscription} gestisce l'iscrizione del client ai nuovi
+ * parametri climatici della città visualizzata.
+ * <p>
+ *     Alla prima iscrizione viene esportata una callback RMI, che il server invoca
+ *     quando vengono inseriti parametri climatici della città. Gli eventi di città diverse
+ *     da quella corrente vengono ignorati e gli altri vengono consegnati sul thread di
+ *     Swing. Le chiamate al server avvengono tramite {@link AsyncService}; un errore
+ *     dell'iscrizione viene solo segnalato, dato che la visualizzazione resta valida
+ *     anche senza aggiornamenti.
+ * </p>
+ * <p>
+ *     L'iscrizione è uno stato del server che la riceve: tutte le chiamate vengono quindi
+ *     inviate allo stesso server, ottenuto con {@link ServerBalancer#pin(Class, String)}.
+ *     L'iscrizione viene rinnovata periodicamente; se il server non risponde viene
+ *     trasferita su un altro server, che riceve comunque gli eventi di tutte le istanze.
+ * </p>
+ *
+ * @see WeatherListener
+ * @see LogicCityInterface
+ * @see ServerBalancer
+ * @see MainModel
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherSubscription {
+
+    /**
+     * Intervallo, in secondi, tra due rinnovi dell'iscrizione.
+     */
+    public static final long RENEW_SECONDS = 30;
+
+    /**
+     * Il nome con cui l'interfaccia delle iscrizioni è registrata sui server.
+     */
+    private static final String LOGIC_CITY = "LogicCity";
+
+    /**
+     * La callback esportata verso il server.
+     */
+    private final class Listener implements WeatherListener {
+
+        @Override
+        public void weatherAdded(RecordWeather[] weathers) {
+            Integer city = cityID;
+            Consumer<RecordWeather[]> consumer = onWeather;
+            if (city == null || consumer == null) {
+                return;
+            }
+            RecordWeather[] matching = Arrays.stream(weathers)
+                    .filter(weather -> city.equals(weather.cityID()))
+                    .toArray(RecordWeather[]::new);
+            if (matching.length > 0) {
+                SwingUtilities.invokeLater(() -> {
+                    if (city.equals(cityID)) {
+                        consumer.accept(matching);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Il bilanciatore da cui ottenere il server a cui iscriversi.
+     */
+    private final ServerBalancer balancer;
+
+    /**
+     * L'interfaccia del server che detiene l'iscrizione, oppure {@code null} se non ancora
+     * scelto. Viene utilizzata solo dalle chiamate accodate, che non sono mai concorrenti.
+     */
+    private LogicCityInterface server;
+
+    /**
+     * Il servizio che esegue le chiamate remote.
+     */
+    private final AsyncService asyncService;
+
+    /**
+     * La callback, esportata alla prima iscrizione.
+     */
+    private Listener listener;
+
+    /**
+     * Lo stub della callback esportata.
+     */
+    private WeatherListener stub;
+
+    /**
+     * L'ultima chiamata al server, dopo la quale eseguire la successiva: le iscrizioni
+     * devono arrivare al server nell'ordine in cui sono state richieste.
+     */
+    private CompletableFuture<?> lastCall = CompletableFuture.completedFuture(null);
+
+    /**
+     * L'ID della città a cui il client è iscritto, oppure {@code null}.
+     */
+    private volatile Integer cityID;
+
+    /**
+     * La funzione che riceve i nuovi parametri climatici della città.
+     */
+    private volatile Consumer<RecordWeather[]> onWeather;
+
+    /**
+     * Costruisce un gestore delle iscrizioni e pianifica il rinnovo periodico.
+     *
+     * @param balancer     Il bilanciatore da cui ottenere il server a cui iscriversi.
+     * @param asyncService Il servizio che esegue le chiamate remote.
+     */
+    public WeatherSubscription(ServerBalancer balancer, AsyncService asyncService) {
+        this.balancer = balancer;
+        this.asyncService = asyncService;
+        ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "weather-subscription");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renewer.scheduleWithFixedDelay(this::renew, RENEW_SECONDS, RENEW_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Iscrive il client ai nuovi parametri climatici di una città, sostituendo
+     * l'iscrizione precedente.
+     *
+     * @param cityID    L'ID della città.
+     * @param onWeather La funzione che riceve, sul thread di Swing, i nuovi parametri climatici.
+     */
+    public synchronized void subscribe(Integer cityID, Consumer<RecordWeather[]> onWeather) {
+        this.onWeather = onWeather;
+        this.cityID = cityID;
+        try {
+            WeatherListener callback = exportedStub();
+            enqueue(() -> {
+                register(callback, cityID);
+                return null;
+            });
+        } catch (RemoteException e) {
+            System.err.println("Impossibile esportare la callback degli aggiornamenti: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Annulla l'iscrizione corrente, se presente.
+     */
+    public synchronized void unsubscribe() {
+        cityID = null;
+        onWeather = null;
+        if (stub == null) {
+            return;
+        }
+        WeatherListener callback = stub;
+        enqueue(() -> {
+            if (server != null) {
+                try {
+                    server.unsubscribe(callback);
+                } catch (RemoteException e) {
+                    // Il server non risponde: un'eventuale iscrizione rimasta produce al più eventi già ricevuti.
+                    server = null;
+                    throw e;
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Rinnova l'iscrizione corrente, se presente, trasferendola su un altro server se
+     * quello attuale non risponde.
+     */
+    private synchronized void renew() {
+        Integer city = cityID;
+        if (city == null || stub == null) {
+            return;
+        }
+        WeatherListener callback = stub;
+        enqueue(() -> {
+            if (city.equals(cityID)) {
+                register(callback, city);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Iscrive la callback sul server corrente; se non risponde, sceglie un altro server e
+     * ripete l'iscrizione, rimuovendo quella precedente se ancora presente.
+     *
+     * @param callback La callback.
+     * @param city     L'ID della città.
+     * @throws RemoteException Se anche il nuovo server non risponde.
+     */
+    private void register(WeatherListener callback, Integer city) throws RemoteException {
+        Integer[] cityIDs = {city};
+        LogicCityInterface current = server;
+        if (current != null) {
+            try {
+                current.subscribe(callback, cityIDs, null);
+                return;
+            } catch (RemoteException e) {
+                System.err.println("Server degli aggiornamenti non raggiungibile, iscrizione trasferita: " + e.getMessage());
+                try {
+                    current.unsubscribe(callback);
+                } catch (RemoteException ignored) {
+                    // Un'eventuale iscrizione rimasta produce al più eventi duplicati, ignorati dal client.
+                }
+            }
+        }
+        server = null;
+        LogicCityInterface next = balancer.pin(LogicCityInterface.class, LOGIC_CITY);
+        next.subscribe(callback, cityIDs, null);
+        server = next;
+    }
+
+    /**
+     * Esegue una chiamata al server dopo il termine della precedente.
+     *
+     * @param task La chiamata.
+     */
+    private void enqueue(AsyncService.RemoteTask<Void> task) {
+        lastCall = lastCall
+                .thenCompose(previous -> asyncService.submit(task))
+                .exceptionally(e -> {
+                    System.err.println("Errore nell'aggiornamento dell'iscrizione: " + e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Restituisce lo stub della callback, esportandola se necessario.
+     *
+     * @return Lo stub della callback.
+     * @throws RemoteException Se la callback non può essere esportata.
+     */
+    private WeatherListener exportedStub() throws RemoteException {
+        if (stub == null) {
+            listener = new Listener();
+            stub = (WeatherListener) UnicastRemoteObject.exportObject(listener, 0);
+        }
+        return stub;
+    }
+}
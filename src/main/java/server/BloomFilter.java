@@ -0,0 +1,161 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * La classe {@code BloomFilter} implementa un filtro di Bloom per stringhe.
+ * <p>
+ * Il filtro risponde in memoria alla domanda "il valore è stato inserito?": una risposta
+ * negativa è sempre corretta, mentre una risposta positiva può essere un falso positivo
+ * con una probabilità che dipende dal riempimento del filtro.
+ * </p>
+ * <p>
+ * Le posizioni dei bit sono calcolate con la tecnica del doppio hashing a partire da un
+ * unico hash a 64 bit. La classe è thread-safe: i bit vengono impostati con operazioni
+ * atomiche.
+ * </p>
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class BloomFilter {
+
+    /**
+     * I bit del filtro, raggruppati in parole da 64 bit.
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * Il numero di bit del filtro.
+     */
+    private final long bitSize;
+
+    /**
+     * Il numero di funzioni di hash.
+     */
+    private final int hashCount;
+
+    /**
+     * Il numero di bit attualmente impostati.
+     */
+    private final AtomicLong bitsSet = new AtomicLong();
+
+    /**
+     * Costruisce un filtro dimensionato per il numero di valori e la probabilità di
+     * falso positivo specificati.
+     *
+     * @param expectedInsertions      Il numero di valori previsti.
+     * @param falsePositiveProbability La probabilità di falso positivo desiderata, compresa tra 0 e 1.
+     * @throws IllegalArgumentException Se i parametri non sono validi.
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("Il numero di valori previsti deve essere positivo.");
+        }
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("La probabilità di falso positivo deve essere compresa tra 0 e 1.");
+        }
+
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        int wordCount = (int) Math.max(1, (bits + Long.SIZE - 1) / Long.SIZE);
+        this.words = new AtomicLongArray(wordCount);
+        this.bitSize = (long) wordCount * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * Inserisce un valore nel filtro.
+     *
+     * @param value Il valore da inserire.
+     */
+    public void put(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            setBit(index(h1 + i * h2));
+        }
+    }
+
+    /**
+     * Verifica se un valore potrebbe essere stato inserito nel filtro.
+     *
+     * @param value Il valore da verificare.
+     * @return {@code false} se il valore non è stato sicuramente inserito,
+     *         {@code true} se potrebbe esserlo stato.
+     */
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = index(h1 + i * h2);
+            if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stima la probabilità di falso positivo in base al riempimento attuale del filtro.
+     *
+     * @return La probabilità stimata, compresa tra 0 e 1.
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((double) bitsSet.get() / bitSize, hashCount);
+    }
+
+    /**
+     * Imposta il bit nella posizione specificata.
+     *
+     * @param index La posizione del bit.
+     */
+    private void setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long current;
+        do {
+            current = words.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!words.compareAndSet(word, current, current | mask));
+        bitsSet.incrementAndGet();
+    }
+
+    /**
+     * Converte un hash combinato in una posizione del filtro.
+     *
+     * @param combinedHash L'hash combinato.
+     * @return La posizione del bit.
+     */
+    private long index(int combinedHash) {
+        return (combinedHash & 0x7fffffffL) % bitSize;
+    }
+
+    /**
+     * Calcola un hash a 64 bit del valore (FNV-1a seguito da una funzione di mescolamento).
+     *
+     * @param value Il valore.
+     * @return L'hash calcolato.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
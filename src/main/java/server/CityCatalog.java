@@ -0,0 +1,431 @@
+package server;
+
+import shared.record.RecordCity;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * La classe {@code CityCatalog} mantiene in memoria una copia in sola lettura della tabella
+ * {@code coordinatemonitoraggio}, salvata su disco come snapshot binario versionato.
+ * <p>
+ * Lo snapshot contiene le città ordinate per ID e un indice derivato ordinato per nome
+ * ASCII. All'avvio del server il file viene mappato in memoria e validato confrontando il
+ * checksum del contenuto e il numero di righe e l'ID massimo della tabella; se non è valido
+ * viene ricostruito dal database. Le ricerche per ID e per nome vengono quindi servite
+ * senza interrogare il database.
+ * </p>
+ * <p>
+ * La tabella delle città viene popolata una sola volta alla creazione del database, per
+ * cui lo snapshot resta valido finché la tabella non cambia. Le istanze sono immutabili e
+ * thread-safe.
+ * </p>
+ *
+ * @see RecordCity
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public final class CityCatalog {
+
+    /**
+     * Il valore iniziale dei file di snapshot ("CMCC").
+     */
+    private static final int MAGIC = 0x434D4343;
+
+    /**
+     * La versione del formato.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * La dimensione dell'intestazione, in byte.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * Il buffer contenente lo snapshot.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Il numero di città.
+     */
+    private final int rowCount;
+
+    /**
+     * La posizione della colonna degli ID, ordinata in modo crescente.
+     */
+    private final int idsOffset;
+
+    /**
+     * La posizione della colonna delle posizioni dei testi di ciascuna città.
+     */
+    private final int textOffsetsOffset;
+
+    /**
+     * La posizione della colonna delle latitudini.
+     */
+    private final int latitudesOffset;
+
+    /**
+     * La posizione della colonna delle longitudini.
+     */
+    private final int longitudesOffset;
+
+    /**
+     * La posizione dell'indice per nome ASCII, che contiene le righe ordinate per nome.
+     */
+    private final int nameIndexOffset;
+
+    /**
+     * Costruisce il catalogo a partire dal buffer dello snapshot, già validato.
+     *
+     * @param buffer   Il buffer dello snapshot.
+     * @param rowCount Il numero di città.
+     */
+    private CityCatalog(ByteBuffer buffer, int rowCount) {
+        this.buffer = buffer;
+        this.rowCount = rowCount;
+        this.idsOffset = HEADER_SIZE;
+        this.textOffsetsOffset = idsOffset + rowCount * Integer.BYTES;
+        this.latitudesOffset = textOffsetsOffset + rowCount * Integer.BYTES;
+        this.longitudesOffset = latitudesOffset + rowCount * Double.BYTES;
+        this.nameIndexOffset = longitudesOffset + rowCount * Double.BYTES;
+    }
+
+    /**
+     * Carica il catalogo dallo snapshot specificato, ricostruendolo dal database se il file
+     * non esiste o non corrisponde al contenuto della tabella.
+     *
+     * @param conn La connessione al database.
+     * @param file Il file dello snapshot.
+     * @return Il catalogo caricato.
+     * @throws SQLException Se si verifica un errore durante la lettura della tabella.
+     * @throws IOException  Se si verifica un errore durante la scrittura dello snapshot.
+     */
+    public static CityCatalog load(Connection conn, Path file) throws SQLException, IOException {
+        int count;
+        int maxID;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT count(*), coalesce(max(id), 0) FROM coordinatemonitoraggio");
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            count = rs.getInt(1);
+            maxID = rs.getInt(2);
+        }
+
+        if (Files.exists(file)) {
+            try {
+                CityCatalog catalog = open(file, count, maxID);
+                if (catalog != null) {
+                    return catalog;
+                }
+            } catch (IOException e) {
+                System.err.println("Snapshot delle città non leggibile: " + e.getMessage());
+            }
+        }
+
+        write(conn, file);
+        CityCatalog catalog = open(file, count, maxID);
+        if (catalog == null) {
+            throw new IOException("La tabella delle città è cambiata durante la creazione dello snapshot.");
+        }
+        return catalog;
+    }
+
+    /**
+     * Restituisce il numero di città del catalogo.
+     *
+     * @return Il numero di città.
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * Restituisce la città con l'ID specificato.
+     *
+     * @param ID L'ID della città.
+     * @return La città, oppure {@code null} se non esiste.
+     */
+    public RecordCity get(int ID) {
+        int low = 0;
+        int high = rowCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int current = id(mid);
+            if (current < ID) {
+                low = mid + 1;
+            } else if (current > ID) {
+                high = mid - 1;
+            } else {
+                return read(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Restituisce le città con il nome ASCII specificato.
+     *
+     * @param asciiName Il nome ASCII.
+     * @return Le città trovate.
+     */
+    public RecordCity[] byAsciiName(String asciiName) {
+        List<RecordCity> cities = new ArrayList<>();
+        for (int i = lowerBound(asciiName); i < rowCount; i++) {
+            int row = buffer.getInt(nameIndexOffset + i * Integer.BYTES);
+            if (!asciiName(row).equals(asciiName)) {
+                break;
+            }
+            cities.add(read(row));
+        }
+        return cities.toArray(new RecordCity[0]);
+    }
+
+    /**
+     * Restituisce le città il cui nome ASCII inizia con il prefisso specificato.
+     *
+     * @param prefix Il prefisso.
+     * @return Le città trovate, ordinate per nome ASCII.
+     */
+    public RecordCity[] byAsciiNamePrefix(String prefix) {
+        List<RecordCity> cities = new ArrayList<>();
+        for (int i = lowerBound(prefix); i < rowCount; i++) {
+            int row = buffer.getInt(nameIndexOffset + i * Integer.BYTES);
+            if (!asciiName(row).startsWith(prefix)) {
+                break;
+            }
+            cities.add(read(row));
+        }
+        return cities.toArray(new RecordCity[0]);
+    }
+
+    /**
+     * Apre e valida uno snapshot.
+     *
+     * @param file     Il file dello snapshot.
+     * @param rowCount Il numero di righe attuale della tabella.
+     * @param maxID    L'ID massimo attuale della tabella.
+     * @return Il catalogo, oppure {@code null} se lo snapshot non corrisponde alla tabella.
+     * @throws IOException Se si verifica un errore di lettura.
+     */
+    private static CityCatalog open(Path file, int rowCount, int maxID) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != rowCount || buffer.getInt(12) != maxID) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(HEADER_SIZE, buffer.capacity() - HEADER_SIZE));
+        if (crc.getValue() != buffer.getLong(16)) {
+            return null;
+        }
+        return new CityCatalog(buffer, rowCount);
+    }
+
+    /**
+     * Scrive lo snapshot della tabella delle città, sostituendo atomicamente quello esistente.
+     *
+     * @param conn La connessione al database.
+     * @param file Il file dello snapshot.
+     * @throws SQLException Se si verifica un errore durante la lettura della tabella.
+     * @throws IOException  Se si verifica un errore di scrittura.
+     */
+    private static void write(Connection conn, Path file) throws SQLException, IOException {
+        List<RecordCity> cities = new ArrayList<>();
+        String sql = "SELECT id, name, asciiname, countrycode, countryname, latitude, longitude " +
+                "FROM coordinatemonitoraggio ORDER BY id";
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                cities.add(new RecordCity(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                        rs.getString(5), rs.getDouble(6), rs.getDouble(7)));
+            }
+        }
+
+        int n = cities.size();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+
+        ByteArrayOutputStream texts = new ByteArrayOutputStream();
+        DataOutputStream textOut = new DataOutputStream(texts);
+        int[] textOffsets = new int[n];
+        for (int i = 0; i < n; i++) {
+            RecordCity city = cities.get(i);
+            textOffsets[i] = texts.size();
+            writeText(textOut, city.name());
+            writeText(textOut, city.ASCIIName());
+            writeText(textOut, city.countryCode());
+            writeText(textOut, city.countryName());
+        }
+
+        Integer[] byName = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byName[i] = i;
+        }
+        Arrays.sort(byName, Comparator.comparing(row -> cities.get(row).ASCIIName()));
+
+        int textsStart = HEADER_SIZE + n * (3 * Integer.BYTES + 2 * Double.BYTES);
+        for (RecordCity city : cities) {
+            out.writeInt(city.ID());
+        }
+        for (int offset : textOffsets) {
+            out.writeInt(textsStart + offset);
+        }
+        for (RecordCity city : cities) {
+            out.writeDouble(city.latitude());
+        }
+        for (RecordCity city : cities) {
+            out.writeDouble(city.longitude());
+        }
+        for (int row : byName) {
+            out.writeInt(row);
+        }
+        texts.writeTo(out);
+        out.flush();
+
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        int maxID = n == 0 ? 0 : cities.get(n - 1).ID();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream fileOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            fileOut.writeInt(MAGIC);
+            fileOut.writeInt(VERSION);
+            fileOut.writeInt(n);
+            fileOut.writeInt(maxID);
+            fileOut.writeLong(crc.getValue());
+            fileOut.write(new byte[HEADER_SIZE - 24]);
+            fileOut.write(bytes);
+            fileOut.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Snapshot delle città creato: " + n + " città.");
+    }
+
+    /**
+     * Scrive un testo preceduto dalla sua lunghezza in byte.
+     *
+     * @param out  Lo stream di destinazione.
+     * @param text Il testo.
+     * @throws IOException Se si verifica un errore di scrittura.
+     */
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Restituisce la prima posizione dell'indice per nome il cui nome non precede quello specificato.
+     *
+     * @param asciiName Il nome ASCII.
+     * @return La posizione nell'indice per nome.
+     */
+    private int lowerBound(String asciiName) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int row = buffer.getInt(nameIndexOffset + mid * Integer.BYTES);
+            if (asciiName(row).compareTo(asciiName) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Restituisce l'ID della città nella riga specificata.
+     *
+     * @param row La riga.
+     * @return L'ID della città.
+     */
+    private int id(int row) {
+        return buffer.getInt(idsOffset + row * Integer.BYTES);
+    }
+
+    /**
+     * Restituisce il nome ASCII della città nella riga specificata.
+     *
+     * @param row La riga.
+     * @return Il nome ASCII.
+     */
+    private String asciiName(int row) {
+        int position = buffer.getInt(textOffsetsOffset + row * Integer.BYTES);
+        position += Short.BYTES + Short.toUnsignedInt(buffer.getShort(position));
+        return readText(position);
+    }
+
+    /**
+     * Ricostruisce la città nella riga specificata.
+     *
+     * @param row La riga.
+     * @return La città.
+     */
+    private RecordCity read(int row) {
+        int position = buffer.getInt(textOffsetsOffset + row * Integer.BYTES);
+        String[] texts = new String[4];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = readText(position);
+            position += Short.BYTES + Short.toUnsignedInt(buffer.getShort(position));
+        }
+        return new RecordCity(
+                id(row),
+                texts[0],
+                texts[1],
+                texts[2],
+                texts[3],
+                buffer.getDouble(latitudesOffset + row * Double.BYTES),
+                buffer.getDouble(longitudesOffset + row * Double.BYTES));
+    }
+
+    /**
+     * Legge un testo preceduto dalla sua lunghezza in byte.
+     *
+     * @param position La posizione della lunghezza.
+     * @return Il testo letto.
+     */
+    private String readText(int position) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort(position))];
+        buffer.get(position + Short.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,176 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La classe {@code ClusterLeader} elegge, tra i server che condividono lo stesso database,
+ * l'unica istanza che esegue le attività di manutenzione periodiche.
+ * <p>
+ * L'elezione usa un advisory lock di sessione di PostgreSQL
+ * ({@code pg_try_advisory_lock}) ottenuto su una connessione dedicata: il lock resta
+ * all'istanza finché la connessione è aperta e viene rilasciato dal database quando la
+ * connessione si chiude o il server termina. Le altre istanze ritentano periodicamente
+ * e subentrano alla prima occasione.
+ * </p>
+ * <p>
+ * Le attività periodiche, come la creazione delle partizioni e l'archiviazione, vengono
+ * eseguite solo se {@link #isLeader()} restituisce {@code true}.
+ * </p>
+ *
+ * @see PartitionScheduler
+ * @see WeatherArchive
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class ClusterLeader implements AutoCloseable {
+
+    /**
+     * La chiave dell'advisory lock che identifica l'istanza di manutenzione ("CMLD").
+     */
+    private static final long LOCK_KEY = 0x434D4C44L;
+
+    /**
+     * Intervallo, in secondi, tra due verifiche del lock.
+     */
+    private static final long CHECK_INTERVAL_SECONDS = 10;
+
+    /**
+     * Tempo massimo, in secondi, per la verifica della connessione.
+     */
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /**
+     * L'host del database.
+     */
+    private final String host;
+
+    /**
+     * La password del database.
+     */
+    private final String password;
+
+    /**
+     * La connessione dedicata che detiene il lock, oppure {@code null} se non aperta.
+     */
+    private Connection conn;
+
+    /**
+     * Indica se questa istanza detiene il lock.
+     */
+    private volatile boolean leader;
+
+    /**
+     * L'esecutore delle verifiche periodiche.
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Costruisce un partecipante all'elezione per il database specificato.
+     *
+     * @param host     L'host del database.
+     * @param password La password del database.
+     */
+    public ClusterLeader(String host, String password) {
+        this.host = host;
+        this.password = password;
+    }
+
+    /**
+     * Tenta subito di ottenere il lock e pianifica le verifiche successive.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        check();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-leader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Verifica se questa istanza è quella incaricata della manutenzione.
+     *
+     * @return {@code true} se l'istanza detiene il lock, {@code false} altrimenti.
+     */
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Rilascia il lock chiudendo la connessione dedicata e interrompe le verifiche.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        leader = false;
+        closeConnection();
+    }
+
+    /**
+     * Verifica che la connessione dedicata sia ancora valida, riaprendola se necessario, e
+     * tenta di ottenere il lock se non è già detenuto.
+     * <p>
+     * Se la connessione è caduta, il database ha già rilasciato il lock e l'istanza smette
+     * subito di considerarsi incaricata.
+     * </p>
+     */
+    private synchronized void check() {
+        try {
+            if (conn == null || !conn.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                if (leader) {
+                    System.err.println("Connessione del lock di manutenzione persa: istanza non più incaricata.");
+                }
+                leader = false;
+                closeConnection();
+                conn = DataBaseManager.connect(host, password);
+            }
+            if (!leader) {
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+                    stmt.setLong(1, LOCK_KEY);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        leader = rs.next() && rs.getBoolean(1);
+                    }
+                }
+                if (leader) {
+                    System.out.println("Istanza incaricata delle attività di manutenzione.");
+                }
+            }
+        } catch (SQLException e) {
+            leader = false;
+            closeConnection();
+            System.err.println("Errore durante la verifica del lock di manutenzione: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Chiude la connessione dedicata, se aperta.
+     */
+    private void closeConnection() {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.err.println("Errore durante la chiusura della connessione del lock: " + e.getMessage());
+        }
+        conn = null;
+    }
+}
@@ -2,6 +2,9 @@ package server;
 
 import java.io.*;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -24,6 +27,75 @@ import java.util.Properties;
  */
 public class DataBaseManager {
 
+    /**
+     * L'indice univoco su nome e indirizzo dei centri di monitoraggio.
+     */
+    private static final String SQL_CENTER_UNIQUE_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS centrimonitoraggio_address_key " +
+            "ON centrimonitoraggio (centername, streetname, streetnumber, cap, townname, districtname);";
+
+    /**
+     * La ricerca dei gruppi di centri di monitoraggio con lo stesso nome e indirizzo,
+     * che impedirebbero la creazione di {@link #SQL_CENTER_UNIQUE_INDEX}.
+     */
+    private static final String SQL_DUPLICATE_CENTERS = "SELECT array_agg(id ORDER BY id) FROM centrimonitoraggio " +
+            "GROUP BY centername, streetname, streetnumber, cap, townname, districtname HAVING count(*) > 1;";
+
+    /**
+     * Gli indici utilizzati dalle ricerche dei parametri climatici per città e centro
+     * su intervalli di date.
+     */
+    private static final String[] SQL_WEATHER_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS parametriclimatici_city_date_idx ON parametriclimatici (cityid, date);",
+            "CREATE INDEX IF NOT EXISTS parametriclimatici_center_date_idx ON parametriclimatici (centerid, date);",
+            "CREATE INDEX IF NOT EXISTS parametriclimatici_city_id_idx ON parametriclimatici (cityid, id);",
+            "CREATE INDEX IF NOT EXISTS parametriclimatici_city_inserted_idx ON parametriclimatici (cityid, insertedat);",
+            "CREATE UNIQUE INDEX IF NOT EXISTS parametriclimatici_request_key ON parametriclimatici (requestid, date);"
+    };
+
+    /**
+     * Gli indici utilizzati dalle ricerche delle città per nome e per prefisso del nome.
+     * <p>
+     * La classe di operatori {@code text_pattern_ops} confronta i caratteri senza tenere
+     * conto della collation del database, per cui l'indice viene usato anche dalle
+     * condizioni {@code LIKE 'prefisso%'} quando la collation non è {@code C}; continua
+     * inoltre a servire le ricerche per uguaglianza.
+     * </p>
+     */
+    private static final String[] SQL_CITY_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS coordinatemonitoraggio_asciiname_pattern_idx ON coordinatemonitoraggio (asciiname text_pattern_ops);",
+            "CREATE INDEX IF NOT EXISTS coordinatemonitoraggio_name_pattern_idx ON coordinatemonitoraggio (name text_pattern_ops);"
+    };
+
+    /**
+     * L'aggiunta, ai database creati in precedenza, della colonna con l'ID della richiesta
+     * del client che ha inviato i parametri climatici, usata per scartare gli invii duplicati.
+     */
+    private static final String SQL_WEATHER_REQUEST_COLUMN = "ALTER TABLE parametriclimatici " +
+            "ADD COLUMN IF NOT EXISTS requestid UUID;";
+
+    /**
+     * L'aggiunta, ai database creati in precedenza, della colonna con l'istante di
+     * inserimento dei parametri climatici, usata dalle letture incrementali dei client.
+     * Le righe già presenti ricevono un istante precedente a qualsiasi cursore, senza
+     * riscrivere la tabella; solo le nuove righe ricevono l'istante dal database.
+     */
+    private static final String[] SQL_WEATHER_INSERTED_COLUMN = {
+            "ALTER TABLE parametriclimatici ADD COLUMN IF NOT EXISTS insertedat TIMESTAMPTZ NOT NULL DEFAULT '-infinity';",
+            "ALTER TABLE parametriclimatici ALTER COLUMN insertedat SET DEFAULT clock_timestamp();"
+    };
+
+    /**
+     * La partizione che raccoglie i parametri climatici con date non coperte dalle
+     * partizioni create da {@link PartitionScheduler}.
+     */
+    private static final String SQL_WEATHER_DEFAULT_PARTITION = "CREATE TABLE IF NOT EXISTS parametriclimatici_default " +
+            "PARTITION OF parametriclimatici DEFAULT;";
+
+    /**
+     * Il codice SQLSTATE restituito da PostgreSQL quando il database richiesto non esiste.
+     */
+    private static final String SQL_STATE_INVALID_CATALOG = "3D000";
+
     /**
      * La connessione al database gestita da questa classe
      */
@@ -39,7 +111,9 @@ public class DataBaseManager {
      * </p>
      * <p>
      * Se il database specificato non esiste, viene creato un nuovo database
-     * denominato "climatemonitoring".
+     * denominato "climatemonitoring". Il database viene prima contattato
+     * direttamente, per cui la connessione al database "postgres" viene aperta
+     * solo al primo avvio.
      * </p>
      *
      * @param host     l'host del database a cui connettersi
@@ -48,7 +122,16 @@ public class DataBaseManager {
      *                      database
      */
     public DataBaseManager(String host, String password) throws SQLException {
-        conn = connectionMaker("jdbc:postgresql://" + host + ":5432/postgres", password);
+        try {
+            conn = connectionMaker(jdbcUrl(host, "climatemonitoring"), password);
+            return;
+        } catch (SQLException e) {
+            if (!SQL_STATE_INVALID_CATALOG.equals(e.getSQLState())) {
+                throw e;
+            }
+        }
+
+        conn = connectionMaker(jdbcUrl(host, "postgres"), password);
 
         if(conn == null) {
             System.err.println("Errore durante la connessione al database. Ricontrollare le credenziali.");
@@ -61,7 +144,34 @@ public class DataBaseManager {
 
         conn.close();
 
-        conn = connectionMaker("jdbc:postgresql://" + host + ":5432/climatemonitoring", password);
+        conn = connectionMaker(jdbcUrl(host, "climatemonitoring"), password);
+    }
+
+    /**
+     * Apre una connessione diretta al database "climatemonitoring" sull'host specificato,
+     * utilizzata per collegarsi alle repliche in sola lettura.
+     *
+     * @param host     l'host del database, eventualmente nella forma {@code host:porta}
+     * @param password la password per l'autenticazione al database
+     * @return la connessione aperta
+     * @throws SQLException Se si verifica un errore durante la connessione al
+     *                      database
+     */
+    public static Connection connect(String host, String password) throws SQLException {
+        return connectionMaker(jdbcUrl(host, "climatemonitoring"), password);
+    }
+
+    /**
+     * Costruisce l'URL JDBC per il database specificato, utilizzando la porta
+     * predefinita di PostgreSQL se l'host non ne indica una.
+     *
+     * @param host     l'host del database, eventualmente nella forma {@code host:porta}
+     * @param database il nome del database
+     * @return l'URL JDBC
+     */
+    private static String jdbcUrl(String host, String database) {
+        String address = host.contains(":") ? host : host + ":5432";
+        return "jdbc:postgresql://" + address + "/" + database;
     }
 
     /**
@@ -78,7 +188,7 @@ public class DataBaseManager {
      * @throws SQLException Se si verifica un errore durante la connessione al
      *                      database
      */
-    private Connection connectionMaker(String url, String password) throws SQLException {
+    private static Connection connectionMaker(String url, String password) throws SQLException {
         Properties props = new Properties();
         String username = "postgres";
         props.setProperty("user", username);
@@ -133,6 +243,11 @@ public class DataBaseManager {
 
     /**
      * Crea le tabelle necessarie per il funzionamento del sistema.
+     * <p>
+     * La tabella {@code parametriclimatici} è partizionata per intervalli di date: le
+     * partizioni dei singoli periodi vengono create da {@link PartitionScheduler}, mentre
+     * le date non coperte finiscono nella partizione di default.
+     * </p>
      * @param conn La connessione al database
      * @throws SQLException Se si verifica un errore durante l'esecuzione della query
      */
@@ -162,6 +277,7 @@ public class DataBaseManager {
                     "districtname VARCHAR(100) NOT NULL, " +
                     "cityids INTEGER[]);";
             stmt.executeUpdate(sqlCentriMonitoraggio);
+            stmt.executeUpdate(SQL_CENTER_UNIQUE_INDEX);
 
             String sqlOperatoriRegistrati = "CREATE TABLE IF NOT EXISTS operatoriregistrati (" +
                     "id SERIAL PRIMARY KEY, " +
@@ -175,7 +291,7 @@ public class DataBaseManager {
             stmt.executeUpdate(sqlOperatoriRegistrati);
 
             String sqlParametriClimatici = "CREATE TABLE IF NOT EXISTS parametriclimatici (" +
-                    "id SERIAL PRIMARY KEY, " +
+                    "id SERIAL, " +
                     "cityid INTEGER NOT NULL, " +
                     "centerid INTEGER NOT NULL, " +
                     "date DATE NOT NULL, " +
@@ -193,9 +309,17 @@ public class DataBaseManager {
                     "glacierelevationcomment TEXT, " +
                     "glaciermassscore INTEGER, " +
                     "glaciermasscomment TEXT, " +
+                    "requestid UUID, " +
+                    "insertedat TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp(), " +
+                    "PRIMARY KEY (id, date), " +
                     "FOREIGN KEY (cityid) REFERENCES coordinatemonitoraggio(id), " +
-                    "FOREIGN KEY (centerid) REFERENCES centrimonitoraggio(id));";
+                    "FOREIGN KEY (centerid) REFERENCES centrimonitoraggio(id)) " +
+                    "PARTITION BY RANGE (date);";
             stmt.executeUpdate(sqlParametriClimatici);
+            stmt.executeUpdate(SQL_WEATHER_DEFAULT_PARTITION);
+            for (String sqlIndex : SQL_WEATHER_INDEXES) {
+                stmt.executeUpdate(sqlIndex);
+            }
 
             String grantParametriclimatici = "GRANT SELECT ON parametriclimatici TO PUBLIC;";
             stmt.executeUpdate(grantParametriclimatici);
@@ -207,6 +331,178 @@ public class DataBaseManager {
         }
     }
 
+    /**
+     * Crea, se non esistono, i vincoli di unicità su cui si basano gli inserimenti con
+     * {@code ON CONFLICT}, in modo da aggiornare anche i database creati in precedenza.
+     * <p>
+     * Un database creato in precedenza può contenere centri duplicati, che impedirebbero
+     * la creazione dell'indice univoco: prima di crearlo i duplicati vengono segnalati e
+     * uniti con {@link #mergeDuplicateCenters(Connection)}.
+     * </p>
+     * <p>
+     * I vincoli su username, email e codice fiscale degli operatori sono già definiti
+     * nella creazione della tabella, per cui non possono esistere operatori duplicati.
+     * </p>
+     * @param conn La connessione al database
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query
+     */
+    public static void ensureUniqueConstraints(Connection conn) throws SQLException {
+        if (!indexExists(conn, "centrimonitoraggio_address_key")) {
+            mergeDuplicateCenters(conn);
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(SQL_CENTER_UNIQUE_INDEX);
+        }
+    }
+
+    /**
+     * Unisce i centri di monitoraggio con lo stesso nome e indirizzo.
+     * <p>
+     * Per ogni gruppo di duplicati viene mantenuto il centro con l'ID più basso, che
+     * riceve l'unione delle città monitorate; operatori e parametri climatici degli
+     * altri centri vengono associati a esso e gli altri centri vengono eliminati. Tutte
+     * le modifiche avvengono in un'unica transazione e ogni unione viene segnalata,
+     * così da poter aggiornare anche le righe degli eventuali shard.
+     * </p>
+     * @param conn La connessione al database
+     * @return Il numero di centri duplicati eliminati
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query
+     */
+    static int mergeDuplicateCenters(Connection conn) throws SQLException {
+        List<Integer[]> groups = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(SQL_DUPLICATE_CENTERS)) {
+            while (rs.next()) {
+                groups.add((Integer[]) rs.getArray(1).getArray());
+            }
+        }
+        if (groups.isEmpty()) {
+            return 0;
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        int merged = 0;
+        try {
+            for (Integer[] ids : groups) {
+                Integer keep = ids[0];
+                Array duplicates = conn.createArrayOf("INTEGER", Arrays.copyOfRange(ids, 1, ids.length));
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE centrimonitoraggio SET cityids = (SELECT array_agg(DISTINCT city ORDER BY city) " +
+                                "FROM centrimonitoraggio, unnest(cityids) AS city WHERE id = ANY(?)) WHERE id = ?")) {
+                    stmt.setArray(1, conn.createArrayOf("INTEGER", ids));
+                    stmt.setInt(2, keep);
+                    stmt.executeUpdate();
+                }
+                for (String table : new String[]{"operatoriregistrati", "parametriclimatici"}) {
+                    try (PreparedStatement stmt = conn.prepareStatement(
+                            "UPDATE " + table + " SET centerid = ? WHERE centerid = ANY(?)")) {
+                        stmt.setInt(1, keep);
+                        stmt.setArray(2, duplicates);
+                        stmt.executeUpdate();
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM centrimonitoraggio WHERE id = ANY(?)")) {
+                    stmt.setArray(1, duplicates);
+                    merged += stmt.executeUpdate();
+                }
+                System.err.println("Centri di monitoraggio duplicati " + Arrays.toString(ids) + " uniti nel centro " + keep + ".");
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return merged;
+    }
+
+    /**
+     * Verifica se esiste un indice con il nome specificato.
+     * @param conn La connessione al database
+     * @param indexName Il nome dell'indice
+     * @return {@code true} se l'indice esiste, {@code false} altrimenti
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query
+     */
+    private static boolean indexExists(Connection conn, String indexName) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            stmt.setString(1, indexName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Crea, se non esistono, gli indici sui parametri climatici usati dalle ricerche per
+     * intervallo di date, le colonne con l'ID della richiesta e l'istante di inserimento e
+     * gli indici per le ricerche delle città per prefisso del nome, in modo da aggiornare
+     * anche i database creati in precedenza.
+     * @param conn La connessione al database
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query
+     */
+    public static void ensureIndexes(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(SQL_WEATHER_REQUEST_COLUMN);
+            for (String sqlColumn : SQL_WEATHER_INSERTED_COLUMN) {
+                stmt.executeUpdate(sqlColumn);
+            }
+            for (String sqlIndex : SQL_WEATHER_INDEXES) {
+                stmt.executeUpdate(sqlIndex);
+            }
+            for (String sqlIndex : SQL_CITY_INDEXES) {
+                stmt.executeUpdate(sqlIndex);
+            }
+        }
+    }
+
+    /**
+     * Crea, se non esiste, la tabella "parametriclimatici" su un database che ospita uno
+     * shard dei parametri climatici.
+     * <p>
+     * Le città e i centri di monitoraggio restano sul database primario: la tabella dello
+     * shard non ha quindi chiavi esterne, e i riferimenti vengono verificati dal server
+     * prima dell'inserimento.
+     * </p>
+     * @param conn La connessione al database dello shard
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query
+     */
+    public static void createWeatherShardTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            String sqlParametriClimatici = "CREATE TABLE IF NOT EXISTS parametriclimatici (" +
+                    "id SERIAL, " +
+                    "cityid INTEGER NOT NULL, " +
+                    "centerid INTEGER NOT NULL, " +
+                    "date DATE NOT NULL, " +
+                    "windscore INTEGER, " +
+                    "windcomment TEXT, " +
+                    "humidityscore INTEGER, " +
+                    "humiditycomment TEXT, " +
+                    "pressurescore INTEGER, " +
+                    "pressurecomment TEXT, " +
+                    "temperaturescore INTEGER, " +
+                    "temperaturecomment TEXT, " +
+                    "precipitationscore INTEGER, " +
+                    "precipitationcomment TEXT, " +
+                    "glacierelevationscore INTEGER, " +
+                    "glacierelevationcomment TEXT, " +
+                    "glaciermassscore INTEGER, " +
+                    "glaciermasscomment TEXT, " +
+                    "requestid UUID, " +
+                    "insertedat TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp(), " +
+                    "PRIMARY KEY (id, date));";
+            stmt.executeUpdate(sqlParametriClimatici);
+            stmt.executeUpdate(SQL_WEATHER_REQUEST_COLUMN);
+            for (String sqlColumn : SQL_WEATHER_INSERTED_COLUMN) {
+                stmt.executeUpdate(sqlColumn);
+            }
+            for (String sqlIndex : SQL_WEATHER_INDEXES) {
+                stmt.executeUpdate(sqlIndex);
+            }
+        }
+    }
+
 
     /**
      * Popola la tabella "coordinatemonitoraggio" con i dati presenti nel file CSV specificato.
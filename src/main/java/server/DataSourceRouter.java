@@ -0,0 +1,518 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * La classe {@code DataSourceRouter} smista le letture tra le repliche PostgreSQL in sola
+ * lettura e il database primario.
+ * <p>
+ * Le scritture avvengono sempre sulla connessione primaria; le letture vengono distribuite
+ * a rotazione tra le repliche disponibili. Un controllo periodico verifica lo stato delle
+ * repliche: quelle non raggiungibili vengono escluse e ricollegate appena possibile, e se
+ * nessuna replica è disponibile le letture tornano al primario.
+ * </p>
+ * <p>
+ * Per garantire che un operatore legga le proprie scritture nonostante il ritardo di
+ * replica, dopo una scrittura le letture della stessa sessione vengono servite dal
+ * primario per un intervallo configurabile. La sessione della chiamata corrente viene
+ * indicata con {@link #bindSession(String)}.
+ * </p>
+ * <p>
+ * Le letture eseguite con {@link #read(ReadTask)} mantengono la connessione scelta per
+ * tutta la loro durata: una replica viene chiusa dal controllo periodico solo dopo la
+ * conclusione delle letture in corso. Se la replica fallisce durante una lettura con un
+ * errore di connessione, la replica viene esclusa subito e la lettura viene ripetuta una
+ * volta sul primario.
+ * </p>
+ *
+ * @see DataBaseManager
+ * @see StatementCache
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class DataSourceRouter implements AutoCloseable {
+
+    /**
+     * Intervallo, in secondi, tra due controlli delle repliche.
+     */
+    private static final long HEALTH_CHECK_SECONDS = 5;
+
+    /**
+     * Tempo massimo, in secondi, di attesa per la verifica di una connessione.
+     */
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /**
+     * Tempo massimo, in secondi, di attesa delle letture in corso prima della chiusura di una replica.
+     */
+    private static final long DRAIN_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Il token della sessione della chiamata corrente, oppure {@code null}.
+     */
+    private static final ThreadLocal<String> SESSION = new ThreadLocal<>();
+
+    /**
+     * Una lettura eseguita da {@link #read(ReadTask)}.
+     *
+     * @param <T> Il tipo del risultato.
+     */
+    @FunctionalInterface
+    public interface ReadTask<T> {
+
+        /**
+         * Esegue la lettura.
+         *
+         * @return Il risultato della lettura.
+         * @throws SQLException Se la lettura fallisce.
+         */
+        T run() throws SQLException;
+    }
+
+    /**
+     * L'associazione tra il thread corrente e una sessione, rimossa alla chiusura.
+     */
+    @FunctionalInterface
+    public interface SessionScope extends AutoCloseable {
+
+        /**
+         * Ripristina la sessione precedente del thread corrente.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * Un database raggiungibile dal server, con gli statement preparati sulla sua connessione.
+     */
+    private static final class Endpoint {
+
+        /**
+         * L'host del database, eventualmente con la porta.
+         */
+        private final String host;
+
+        /**
+         * La connessione corrente, oppure {@code null} se non disponibile.
+         */
+        private volatile Connection conn;
+
+        /**
+         * Gli statement preparati sulla connessione corrente.
+         */
+        private volatile StatementCache statements;
+
+        /**
+         * Indica se l'ultimo controllo ha avuto esito positivo.
+         */
+        private volatile boolean healthy;
+
+        /**
+         * Tenuto in lettura dalle letture in corso e in scrittura durante la chiusura
+         * della connessione.
+         */
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private Endpoint(String host, Connection conn) {
+            this.host = host;
+            this.conn = conn;
+            this.statements = conn == null ? null : new StatementCache(conn);
+            this.healthy = conn != null;
+        }
+    }
+
+    /**
+     * La connessione primaria e i suoi statement.
+     */
+    private final Endpoint primary;
+
+    /**
+     * Le repliche in sola lettura.
+     */
+    private final List<Endpoint> replicas = new ArrayList<>();
+
+    /**
+     * La password per l'autenticazione alle repliche.
+     */
+    private final String password;
+
+    /**
+     * L'intervallo, in millisecondi, durante il quale un client legge dal primario dopo
+     * una scrittura; {@code 0} disabilita il comportamento.
+     */
+    private final long stickyMillis;
+
+    /**
+     * L'istante dell'ultima scrittura di ciascuna sessione, indicizzato per token.
+     */
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    /**
+     * La connessione usata dalla lettura in corso nel thread corrente, oppure {@code null}.
+     */
+    private final ThreadLocal<Endpoint> leased = new ThreadLocal<>();
+
+    /**
+     * Il contatore per la rotazione tra le repliche.
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Le azioni da eseguire prima della chiusura della connessione di una replica.
+     */
+    private final List<Consumer<Connection>> closeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * L'esecutore dei controlli periodici.
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Costruisce un router per la connessione primaria e le repliche specificate.
+     * <p>
+     * Le repliche non raggiungibili all'avvio vengono segnalate e ricollegate dai
+     * controlli successivi.
+     * </p>
+     *
+     * @param primary      La connessione al database primario.
+     * @param replicaHosts Gli host delle repliche, eventualmente nella forma {@code host:porta}.
+     * @param password     La password per l'autenticazione alle repliche.
+     * @param stickyMillis L'intervallo di lettura dal primario dopo una scrittura, in millisecondi.
+     */
+    public DataSourceRouter(Connection primary, List<String> replicaHosts, String password, long stickyMillis) {
+        this.primary = new Endpoint(null, primary);
+        this.password = password;
+        this.stickyMillis = stickyMillis;
+        for (String host : replicaHosts) {
+            Endpoint replica = new Endpoint(host, null);
+            reconnect(replica);
+            replicas.add(replica);
+        }
+    }
+
+    /**
+     * Avvia i controlli periodici dello stato delle repliche.
+     */
+    public synchronized void start() {
+        if (executor != null || replicas.isEmpty()) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::checkReplicas, HEALTH_CHECK_SECONDS, HEALTH_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registra un'azione da eseguire prima che la connessione di una replica venga chiusa,
+     * per esempio per invalidare gli statement preparati altrove su quella connessione.
+     *
+     * @param listener L'azione, che riceve la connessione in chiusura.
+     */
+    public void addCloseListener(Consumer<Connection> listener) {
+        closeListeners.add(listener);
+    }
+
+    /**
+     * Associa il thread corrente alla sessione specificata fino alla chiusura dell'oggetto
+     * restituito. Le scritture registrate e le letture eseguite nel frattempo vengono
+     * attribuite alla sessione.
+     *
+     * @param token Il token della sessione, oppure {@code null}.
+     * @return L'associazione, da chiudere al termine della chiamata.
+     */
+    public static SessionScope bindSession(String token) {
+        String previous = SESSION.get();
+        SESSION.set(token);
+        return () -> {
+            if (previous == null) {
+                SESSION.remove();
+            } else {
+                SESSION.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Esegue una lettura mantenendo la connessione scelta per tutta la sua durata.
+     * <p>
+     * Se la lettura su una replica fallisce con un errore di connessione, la replica viene
+     * esclusa fino al prossimo controllo e la lettura viene ripetuta una volta sul
+     * primario. Le letture annidate usano la connessione di quella più esterna.
+     * </p>
+     *
+     * @param task La lettura.
+     * @param <T>  Il tipo del risultato.
+     * @return Il risultato della lettura.
+     * @throws SQLException Se la lettura fallisce.
+     */
+    public <T> T read(ReadTask<T> task) throws SQLException {
+        if (leased.get() != null) {
+            return task.run();
+        }
+        Endpoint endpoint = choose();
+        if (endpoint == primary) {
+            return runOn(primary, task);
+        }
+
+        Lock lock = endpoint.lock.readLock();
+        lock.lock();
+        try {
+            if (!endpoint.healthy || endpoint.statements == null) {
+                endpoint = primary;
+            }
+            return runOn(endpoint, task);
+        } catch (SQLException e) {
+            if (endpoint == primary || !isConnectionFailure(e) || isValid(endpoint)) {
+                // L'errore non riguarda la replica, per esempio perché proviene da uno shard.
+                throw e;
+            }
+            if (endpoint.healthy) {
+                endpoint.healthy = false;
+                System.err.println("Replica non raggiungibile durante una lettura, ripetuta sul primario: "
+                        + endpoint.host + " (" + e.getSQLState() + ")");
+            }
+        } finally {
+            lock.unlock();
+        }
+        return runOn(primary, task);
+    }
+
+    /**
+     * Restituisce gli statement da utilizzare per una lettura: quelli della lettura in
+     * corso nel thread, se eseguita con {@link #read(ReadTask)}, altrimenti quelli scelti
+     * come descritto in {@link #choose()}.
+     *
+     * @return Gli statement della connessione scelta.
+     */
+    public StatementCache forRead() {
+        Endpoint endpoint = leased.get();
+        if (endpoint == null) {
+            endpoint = choose();
+        }
+        StatementCache statements = endpoint.statements;
+        return statements != null ? statements : primary.statements;
+    }
+
+    /**
+     * Registra una scrittura della sessione associata al thread corrente, le cui letture
+     * successive verranno servite dal primario. Senza sessione non viene registrato nulla.
+     */
+    public void recordWrite() {
+        String token = SESSION.get();
+        if (token != null && stickyMillis > 0 && !replicas.isEmpty()) {
+            lastWrites.put(token, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Interrompe i controlli periodici e chiude le connessioni alle repliche.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (Endpoint replica : replicas) {
+            replica.healthy = false;
+            disconnect(replica);
+        }
+    }
+
+    /**
+     * Sceglie la connessione per una lettura: il primario se non ci sono repliche
+     * disponibili o se la sessione associata al thread ha scritto di recente, altrimenti
+     * la prossima replica disponibile.
+     *
+     * @return La connessione scelta.
+     */
+    private Endpoint choose() {
+        if (replicas.isEmpty() || wroteRecently(SESSION.get())) {
+            return primary;
+        }
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Endpoint replica = replicas.get((start + i) % size);
+            if (replica.healthy && replica.statements != null) {
+                return replica;
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * Esegue una lettura sulla connessione specificata.
+     *
+     * @param endpoint La connessione.
+     * @param task     La lettura.
+     * @param <T>      Il tipo del risultato.
+     * @return Il risultato della lettura.
+     * @throws SQLException Se la lettura fallisce.
+     */
+    private <T> T runOn(Endpoint endpoint, ReadTask<T> task) throws SQLException {
+        leased.set(endpoint);
+        try {
+            return task.run();
+        } finally {
+            leased.remove();
+        }
+    }
+
+    /**
+     * Verifica se l'eccezione, o una delle sue cause, indica la perdita della connessione
+     * (classe SQLSTATE {@code 08}) o l'arresto del server ({@code 57P01}-{@code 57P03}).
+     *
+     * @param e L'eccezione.
+     * @return {@code true} se la lettura può essere ripetuta su un'altra connessione.
+     */
+    static boolean isConnectionFailure(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && sqlException.getSQLState() != null) {
+                String state = sqlException.getSQLState();
+                if (state.startsWith("08") || state.equals("57P01") || state.equals("57P02") || state.equals("57P03")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Verifica se la connessione corrente di una replica risponde.
+     *
+     * @param replica La replica.
+     * @return {@code true} se la connessione è aperta e valida, {@code false} altrimenti.
+     */
+    private static boolean isValid(Endpoint replica) {
+        Connection conn = replica.conn;
+        try {
+            return conn != null && conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verifica lo stato delle repliche, escludendo quelle non raggiungibili e ricollegando
+     * quelle tornate disponibili. Rimuove inoltre le scritture ormai non più recenti.
+     */
+    private void checkReplicas() {
+        for (Endpoint replica : replicas) {
+            if (isValid(replica)) {
+                replica.healthy = true;
+            } else {
+                if (replica.healthy) {
+                    System.err.println("Replica non raggiungibile: " + replica.host);
+                }
+                replica.healthy = false;
+                disconnect(replica);
+                reconnect(replica);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        lastWrites.values().removeIf(time -> now - time >= stickyMillis);
+    }
+
+    /**
+     * Tenta di aprire una nuova connessione in sola lettura verso una replica.
+     *
+     * @param replica La replica.
+     */
+    private void reconnect(Endpoint replica) {
+        try {
+            Connection conn = DataBaseManager.connect(replica.host, password);
+            conn.setReadOnly(true);
+            replica.conn = conn;
+            replica.statements = new StatementCache(conn);
+            replica.healthy = true;
+            System.out.println("Replica collegata: " + replica.host);
+        } catch (SQLException e) {
+            System.err.println("Impossibile collegarsi alla replica " + replica.host + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Chiude la connessione corrente di una replica, dopo aver atteso la conclusione delle
+     * letture in corso e avvisato le azioni registrate con {@link #addCloseListener(Consumer)}.
+     * <p>
+     * Se le letture non terminano entro {@value #DRAIN_TIMEOUT_SECONDS} secondi, la
+     * connessione viene chiusa comunque: le letture ancora in corso falliscono con un
+     * errore di connessione e vengono ripetute sul primario.
+     * </p>
+     *
+     * @param replica La replica.
+     */
+    private void disconnect(Endpoint replica) {
+        Lock lock = replica.lock.writeLock();
+        boolean drained;
+        try {
+            drained = lock.tryLock(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (!drained) {
+            System.err.println("Letture ancora in corso sulla replica " + replica.host + ", chiusura forzata.");
+        }
+        try {
+            StatementCache statements = replica.statements;
+            Connection conn = replica.conn;
+            replica.statements = null;
+            replica.conn = null;
+            if (statements != null) {
+                statements.close();
+            }
+            if (conn != null) {
+                for (Consumer<Connection> listener : closeListeners) {
+                    listener.accept(conn);
+                }
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    System.err.println("Errore durante la chiusura della replica " + replica.host + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            if (drained) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Verifica se la sessione ha effettuato una scrittura nell'intervallo configurato.
+     *
+     * @param token Il token della sessione, oppure {@code null}.
+     * @return {@code true} se le letture della sessione devono essere servite dal primario.
+     */
+    private boolean wroteRecently(String token) {
+        if (token == null) {
+            return false;
+        }
+        Long time = lastWrites.get(token);
+        return time != null && System.currentTimeMillis() - time < stickyMillis;
+    }
+}
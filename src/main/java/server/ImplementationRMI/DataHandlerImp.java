@@ -1,7 +1,13 @@
 package server.ImplementationRMI;
 
+import server.DataSourceRouter;
 import server.Server;
+import server.StatementCache;
+import server.WeatherEventRelay;
+import server.WeatherShards;
+import server.ImplementationRMI.LogicCityImp.WeatherTableData;
 import shared.interfacesRMI.DataHandlerInterface;
+import shared.record.InsertResult;
 import shared.record.RecordCenter;
 import shared.record.RecordCity;
 import shared.record.RecordOperator;
@@ -15,8 +21,17 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * La classe {@code DataHandlerImp} implementa l'interfaccia {@code DataHandlerInterface}
@@ -47,11 +62,61 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
     @Serial
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Le colonne del vincolo di unicità dei centri di monitoraggio.
+     */
+    private static final String CENTER_UNIQUE_COLUMNS = "centername, streetname, streetnumber, cap, townname, districtname";
+
+    /**
+     * L'inserimento di più parametri climatici con un unico comando, a partire da un
+     * array per ciascuna colonna; le righe con un ID di richiesta già inserito vengono ignorate.
+     * Vengono restituite le righe effettivamente inserite.
+     */
+    private static final String SQL_INSERT_WEATHERS = "INSERT INTO parametriclimatici (cityid, centerid, date, " +
+            "windscore, windcomment, humidityscore, humiditycomment, pressurescore, pressurecomment, " +
+            "temperaturescore, temperaturecomment, precipitationscore, precipitationcomment, " +
+            "glacierelevationscore, glacierelevationcomment, glaciermassscore, glaciermasscomment, requestid) " +
+            "SELECT * FROM unnest(?::integer[], ?::integer[], ?::date[], " +
+            "?::integer[], ?::text[], ?::integer[], ?::text[], ?::integer[], ?::text[], ?::integer[], ?::text[], " +
+            "?::integer[], ?::text[], ?::integer[], ?::text[], ?::integer[], ?::text[], ?::uuid[]) " +
+            "ON CONFLICT (requestid, date) DO NOTHING RETURNING " + WeatherShards.WEATHER_COLUMNS;
+
     /**
      * La connessione al database utilizzata per eseguire le operazioni.
      */
     private final Connection conn;
 
+    /**
+     * Gli statement preparati riutilizzati dalle operazioni di scrittura.
+     */
+    private final StatementCache statements;
+
+    /**
+     * Il testo SQL di aggiornamento, generato una sola volta per ciascuna coppia
+     * di tabella e tipo di record.
+     */
+    private final Map<String, String> updateSqlCache = new ConcurrentHashMap<>();
+
+    /**
+     * Il router delle letture a cui segnalare le scritture, oppure {@code null}.
+     */
+    private final DataSourceRouter router;
+
+    /**
+     * Gli shard dei parametri climatici, oppure {@code null} se risiedono solo sul primario.
+     */
+    private final WeatherShards shards;
+
+    /**
+     * Gli statement preparati sulle connessioni degli shard diversi dal primario.
+     */
+    private final Map<Integer, StatementCache> shardStatements = new ConcurrentHashMap<>();
+
+    /**
+     * La distribuzione a cui pubblicare i parametri climatici inseriti, oppure {@code null}.
+     */
+    private final WeatherEventRelay events;
+
     /**
      * Costruisce un'istanza di {@code DataHandlerImp} utilizzando un'interfaccia
      * {@code DataQueryInterface} per ottenere la connessione al database.
@@ -61,16 +126,101 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
      * @throws RemoteException Se si verifica un errore durante l'inizializzazione.
      */
     public DataHandlerImp(DataQueryInterface dataQuery) throws RemoteException {
+        this(dataQuery, null);
+    }
+
+    /**
+     * Costruisce un'istanza di {@code DataHandlerImp} che segnala le scritture al router
+     * delle letture, in modo che i client leggano le proprie modifiche dal primario.
+     *
+     * @param dataQuery L'interfaccia {@code DataQueryInterface} utilizzata per
+     *                  ottenere la connessione al database.
+     * @param router    Il router delle letture, oppure {@code null}.
+     * @throws RemoteException Se si verifica un errore durante l'inizializzazione.
+     */
+    public DataHandlerImp(DataQueryInterface dataQuery, DataSourceRouter router) throws RemoteException {
+        this(dataQuery, router, null);
+    }
+
+    /**
+     * Costruisce un'istanza di {@code DataHandlerImp} che segnala le scritture al router
+     * delle letture e scrive i parametri climatici sullo shard della città.
+     *
+     * @param dataQuery L'interfaccia {@code DataQueryInterface} utilizzata per
+     *                  ottenere la connessione al database.
+     * @param router    Il router delle letture, oppure {@code null}.
+     * @param shards    Gli shard dei parametri climatici, oppure {@code null}.
+     * @throws RemoteException Se si verifica un errore durante l'inizializzazione.
+     */
+    public DataHandlerImp(DataQueryInterface dataQuery, DataSourceRouter router, WeatherShards shards) throws RemoteException {
+        this(dataQuery, router, shards, null);
+    }
+
+    /**
+     * Costruisce un'istanza di {@code DataHandlerImp} che, oltre a quanto descritto in
+     * {@link #DataHandlerImp(DataQueryInterface, DataSourceRouter, WeatherShards)}, pubblica
+     * i parametri climatici inseriti ai client iscritti.
+     *
+     * @param dataQuery L'interfaccia {@code DataQueryInterface} utilizzata per
+     *                  ottenere la connessione al database.
+     * @param router    Il router delle letture, oppure {@code null}.
+     * @param shards    Gli shard dei parametri climatici, oppure {@code null}.
+     * @param events    La distribuzione degli eventi tra le istanze del server, oppure {@code null}.
+     * @throws RemoteException Se si verifica un errore durante l'inizializzazione.
+     */
+    public DataHandlerImp(DataQueryInterface dataQuery, DataSourceRouter router, WeatherShards shards,
+                          WeatherEventRelay events) throws RemoteException {
         super();
+        this.router = router;
+        this.shards = shards;
+        this.events = events;
         try {
             this.conn = dataQuery.getConn();
+            this.statements = new StatementCache(conn);
         } catch (RemoteException e) {
             throw new RemoteException("Inizializzazione fallita", e);
         }
+        if (router != null) {
+            router.addCloseListener(this::invalidateStatements);
+        }
+    }
+
+    /**
+     * Chiude gli statement preparati sulla connessione specificata, che sta per essere
+     * chiusa; verranno preparati di nuovo al prossimo utilizzo.
+     *
+     * @param closing La connessione in chiusura.
+     */
+    private void invalidateStatements(Connection closing) {
+        if (statements.connection() == closing) {
+            statements.close();
+        }
+        shardStatements.values().removeIf(cache -> {
+            if (cache.connection() != closing) {
+                return false;
+            }
+            cache.close();
+            return true;
+        });
+    }
+
+    /**
+     * Chiude tutti gli statement preparati, alla chiusura del server.
+     */
+    public void closeStatements() {
+        statements.close();
+        shardStatements.values().forEach(StatementCache::close);
+        shardStatements.clear();
     }
 
     /**
      * Aggiunge un nuovo operatore al database.
+     * <p>
+     *     L'inserimento e la verifica dei duplicati avvengono in un'unica istruzione:
+     *     i vincoli di unicità su username, email e codice fiscale vengono gestiti con
+     *     {@code ON CONFLICT DO NOTHING} e, se l'inserimento non avviene, viene indicato
+     *     il vincolo violato.
+     * </p>
      *
      * @param nameSurname Il nome e cognome dell'operatore.
      * @param taxCode     Il codice fiscale dell'operatore.
@@ -78,57 +228,72 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
      * @param username    Il nome utente dell'operatore.
      * @param password    La password dell'operatore.
      * @param centerID    L'ID del centro a cui l'operatore è associato (può essere null).
+     * @return L'esito dell'inserimento, con l'operatore creato o il duplicato rilevato.
      * @throws SQLException             Se si verifica un errore durante l'interazione con il database.
      * @throws RemoteException          Se si verifica un errore durante la comunicazione remota.
-     * @throws IllegalArgumentException Se l'utente esiste già.
      */
     @Override
-    public synchronized void addNewOperator(String nameSurname,
+    public synchronized InsertResult<RecordOperator> addNewOperator(String nameSurname,
                                String taxCode,
                                String email,
                                String username,
                                String password,
                                Integer centerID) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        String checkSql = "SELECT * FROM operatoriregistrati WHERE username = ?";
-        try (PreparedStatement checkStmt = conn.prepareStatement(checkSql)) {
-            checkStmt.setString(1, username);
-            try (ResultSet rs = checkStmt.executeQuery()) {
-                if (rs.next()) {
-                    throw new IllegalArgumentException("L'utente esiste già");
-                }
-            }
+        recordWrite();
+        String sql = "WITH inserted AS (" +
+                "    INSERT INTO operatoriregistrati (namesurname, taxcode, email, username, password, centerid) " +
+                "    VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT DO NOTHING RETURNING id) " +
+                "SELECT (SELECT id FROM inserted) AS id, " +
+                "EXISTS (SELECT 1 FROM operatoriregistrati WHERE username = ?) AS duplicateusername, " +
+                "EXISTS (SELECT 1 FROM operatoriregistrati WHERE email = ?) AS duplicateemail, " +
+                "EXISTS (SELECT 1 FROM operatoriregistrati WHERE taxcode = ?) AS duplicatetaxcode";
+
+        PreparedStatement stmt = statements.prepare(sql);
+        stmt.setString(1, nameSurname);
+        stmt.setString(2, taxCode);
+        stmt.setString(3, email);
+        stmt.setString(4, username);
+        stmt.setString(5, password);
+
+        if (centerID != null) {
+            stmt.setInt(6, centerID);
+        } else {
+            stmt.setNull(6, java.sql.Types.INTEGER);
         }
 
-        String insertSql = "INSERT INTO operatoriregistrati (namesurname, taxcode, email, username, password, centerid) VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement insertStmt = conn.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
-            insertStmt.setString(1, nameSurname);
-            insertStmt.setString(2, taxCode);
-            insertStmt.setString(3, email);
-            insertStmt.setString(4, username);
-            insertStmt.setString(5, password);
+        stmt.setString(7, username);
+        stmt.setString(8, email);
+        stmt.setString(9, taxCode);
 
-            if (centerID != null) {
-                insertStmt.setInt(6, centerID);
-            } else {
-                insertStmt.setNull(6, java.sql.Types.INTEGER);
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("Inserimento fallito, nessun risultato restituito.");
             }
 
-            insertStmt.executeUpdate();
-
-            try (ResultSet generatedKeys = insertStmt.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int newID = generatedKeys.getInt(1);
-                    new RecordOperator(newID, nameSurname, taxCode, email, username, password, centerID);
-                } else {
-                    throw new SQLException("Inserimento fallito, nessun ID generato.");
-                }
+            int newID = rs.getInt("id");
+            if (!rs.wasNull()) {
+                return InsertResult.created(
+                        new RecordOperator(newID, nameSurname, taxCode, email, username, password, centerID));
             }
+            if (rs.getBoolean("duplicateemail")) {
+                return InsertResult.duplicateOf(InsertResult.Duplicate.EMAIL);
+            }
+            if (rs.getBoolean("duplicatetaxcode")) {
+                return InsertResult.duplicateOf(InsertResult.Duplicate.TAX_CODE);
+            }
+            // Il conflitto può riguardare una riga inserita in concorrenza, non visibile
+            // alle sottoquery dell'istruzione: in tal caso viene segnalato lo username.
+            return InsertResult.duplicateOf(InsertResult.Duplicate.USERNAME);
         }
     }
 
     /**
      * Aggiunge un nuovo centro di monitoraggio al database.
+     * <p>
+     *     Il controllo dei duplicati è affidato al vincolo di unicità su nome e indirizzo
+     *     del centro, gestito con {@code ON CONFLICT DO NOTHING}.
+     * </p>
      *
      * @param centerName   Il nome del centro di monitoraggio.
      * @param streetName   Il nome della strada del centro di monitoraggio.
@@ -137,13 +302,12 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
      * @param townName     Il nome della città del centro di monitoraggio.
      * @param districtName Il nome del distretto del centro di monitoraggio.
      * @param cityIDs      Gli ID delle città associate al centro di monitoraggio.
-     * @return Un'istanza di {@code RecordCenter} che rappresenta il centro aggiunto.
+     * @return L'esito dell'inserimento, con il centro creato o il duplicato rilevato.
      * @throws SQLException       Se si verifica un errore durante l'interazione con il database.
      * @throws RemoteException    Se si verifica un errore durante la comunicazione remota.
-     * @throws IllegalArgumentException Se il centro esiste già.
      */
     @Override
-    public synchronized RecordCenter addNewCenter(String centerName,
+    public synchronized InsertResult<RecordCenter> addNewCenter(String centerName,
                                      String streetName,
                                      String streetNumber,
                                      String CAP,
@@ -152,40 +316,119 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
                                      Integer[] cityIDs) throws SQLException, RemoteException {
 
         Server.resetInactivityTimer();
-        String checkSql = "SELECT * FROM centrimonitoraggio WHERE centername = ? AND streetname = ? AND streetnumber = ? AND CAP = ? AND townname = ? AND districtname = ?";
-        try (PreparedStatement checkStmt = conn.prepareStatement(checkSql)) {
-            checkStmt.setString(1, centerName);
-            checkStmt.setString(2, streetName);
-            checkStmt.setString(3, streetNumber);
-            checkStmt.setString(4, CAP);
-            checkStmt.setString(5, townName);
-            checkStmt.setString(6, districtName);
-            try (ResultSet rs = checkStmt.executeQuery()) {
-                if (rs.next()) {
-                    throw new IllegalArgumentException("Il centro esiste già");
-                }
+        recordWrite();
+        String insertSql = "INSERT INTO centrimonitoraggio (centername, streetname, streetnumber, cap, townname, districtname, cityids) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT (" + CENTER_UNIQUE_COLUMNS + ") DO NOTHING RETURNING id";
+        PreparedStatement insertStmt = statements.prepare(insertSql);
+        insertStmt.setString(1, centerName);
+        insertStmt.setString(2, streetName);
+        insertStmt.setString(3, streetNumber);
+        insertStmt.setString(4, CAP);
+        insertStmt.setString(5, townName);
+        insertStmt.setString(6, districtName);
+        insertStmt.setArray(7, conn.createArrayOf("INTEGER", cityIDs));
+
+        try (ResultSet rs = insertStmt.executeQuery()) {
+            if (rs.next()) {
+                int newID = rs.getInt(1);
+                return InsertResult.created(
+                        new RecordCenter(newID, centerName, streetName, streetNumber, CAP, townName, districtName, cityIDs));
+            } else {
+                return InsertResult.duplicateOf(InsertResult.Duplicate.CENTER);
             }
         }
+    }
 
-        String insertSql = "INSERT INTO centrimonitoraggio (centername, streetname, streetnumber, cap, townname, districtname, cityids) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement insertStmt = conn.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
-            insertStmt.setString(1, centerName);
-            insertStmt.setString(2, streetName);
-            insertStmt.setString(3, streetNumber);
-            insertStmt.setString(4, CAP);
-            insertStmt.setString(5, townName);
-            insertStmt.setString(6, districtName);
-            insertStmt.setArray(7, conn.createArrayOf("INTEGER", cityIDs));
-            insertStmt.executeUpdate();
+    /**
+     * Crea un nuovo centro di monitoraggio e lo associa all'operatore specificato.
+     * <p>
+     *     La verifica delle città, l'inserimento del centro e l'aggiornamento dell'operatore
+     *     sono eseguiti da un'unica istruzione SQL composta da più CTE: l'istruzione è
+     *     atomica e richiede un solo scambio con il database. Il centro viene inserito solo
+     *     se le città e l'operatore sono validi, mentre i duplicati sono gestiti dal vincolo
+     *     di unicità con {@code ON CONFLICT DO NOTHING}; la riga dell'operatore resta
+     *     bloccata fino al termine dell'istruzione.
+     * </p>
+     *
+     * @param centerName   Il nome del centro di monitoraggio.
+     * @param streetName   Il nome della strada del centro di monitoraggio.
+     * @param streetNumber Il numero civico del centro di monitoraggio.
+     * @param CAP          Il codice postale del centro di monitoraggio.
+     * @param townName     Il nome della città del centro di monitoraggio.
+     * @param districtName Il nome del distretto del centro di monitoraggio.
+     * @param cityIDs      Gli ID delle città associate al centro di monitoraggio.
+     * @param operatorID   L'ID dell'operatore da associare al centro.
+     * @return L'esito dell'inserimento, con il centro creato o il duplicato rilevato.
+     * @throws SQLException             Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException          Se si verifica un errore durante la comunicazione remota.
+     * @throws IllegalArgumentException Se una città non esiste.
+     * @throws IllegalStateException    Se l'operatore non esiste o è già associato a un centro.
+     */
+    @Override
+    public synchronized InsertResult<RecordCenter> addNewCenterForOperator(String centerName,
+                                                String streetName,
+                                                String streetNumber,
+                                                String CAP,
+                                                String townName,
+                                                String districtName,
+                                                Integer[] cityIDs,
+                                                Integer operatorID) throws SQLException, RemoteException {
 
-            try (ResultSet generatedKeys = insertStmt.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int newID = generatedKeys.getInt(1);
-                    return new RecordCenter(newID, centerName, streetName, streetNumber, CAP, townName, districtName, cityIDs);
-                } else {
-                    throw new SQLException("Inserimento fallito, nessun ID generato.");
-                }
+        Server.resetInactivityTimer();
+        recordWrite();
+        String sql = "WITH cities AS (" +
+                "    SELECT count(*) AS found FROM coordinatemonitoraggio WHERE id = ANY(?)), " +
+                "freeoperator AS (" +
+                "    SELECT id FROM operatoriregistrati WHERE id = ? AND (centerid IS NULL OR centerid = 0) FOR UPDATE), " +
+                "newcenter AS (" +
+                "    INSERT INTO centrimonitoraggio (centername, streetname, streetnumber, cap, townname, districtname, cityids) " +
+                "    SELECT ?, ?, ?, ?, ?, ?, ? " +
+                "    WHERE (SELECT found FROM cities) = ? " +
+                "    AND EXISTS (SELECT 1 FROM freeoperator) " +
+                "    ON CONFLICT (" + CENTER_UNIQUE_COLUMNS + ") DO NOTHING " +
+                "    RETURNING id), " +
+                "assigned AS (" +
+                "    UPDATE operatoriregistrati SET centerid = newcenter.id FROM newcenter " +
+                "    WHERE operatoriregistrati.id = ? RETURNING operatoriregistrati.id) " +
+                "SELECT (SELECT found FROM cities) = ? AS citiesvalid, " +
+                "EXISTS (SELECT 1 FROM freeoperator) AS operatorfree, " +
+                "(SELECT id FROM newcenter) AS centerid";
+
+        java.sql.Array cities = conn.createArrayOf("INTEGER", cityIDs);
+        long distinctCities = Arrays.stream(cityIDs).distinct().count();
+
+        PreparedStatement stmt = statements.prepare(sql);
+        stmt.setArray(1, cities);
+        stmt.setInt(2, operatorID);
+        stmt.setString(3, centerName);
+        stmt.setString(4, streetName);
+        stmt.setString(5, streetNumber);
+        stmt.setString(6, CAP);
+        stmt.setString(7, townName);
+        stmt.setString(8, districtName);
+        stmt.setArray(9, cities);
+        stmt.setLong(10, distinctCities);
+        stmt.setInt(11, operatorID);
+        stmt.setLong(12, distinctCities);
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("Inserimento fallito, nessun risultato restituito.");
+            }
+            if (!rs.getBoolean("citiesvalid")) {
+                throw new IllegalArgumentException("Una o più città non sono valide.");
+            }
+            if (!rs.getBoolean("operatorfree")) {
+                throw new IllegalStateException("L'operatore non esiste o è già associato a un centro.");
+            }
+
+            int newID = rs.getInt("centerid");
+            if (rs.wasNull()) {
+                return InsertResult.duplicateOf(InsertResult.Duplicate.CENTER);
             }
+            return InsertResult.created(
+                    new RecordCenter(newID, centerName, streetName, streetNumber, CAP, townName, districtName, cityIDs));
         }
     }
 
@@ -194,7 +437,7 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
      *
      * @param cityID            L'ID della città associata ai dati climatici.
      * @param centerID          L'ID del centro di monitoraggio associato ai dati climatici.
-     * @param date              La data dei dati climatici nel formato "dd/MM/yyyy".
+     * @param date              La data dei dati climatici.
      * @param wind              I dati relativi al vento.
      * @param humidity          I dati relativi all'umidità.
      * @param pressure          I dati relativi alla pressione.
@@ -208,7 +451,7 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
     @Override
     public synchronized void addNewWeather(Integer cityID,
                               Integer centerID,
-                              String date,
+                              LocalDate date,
                               RecordWeather.WeatherData wind,
                               RecordWeather.WeatherData humidity,
                               RecordWeather.WeatherData pressure,
@@ -218,19 +461,22 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
                               RecordWeather.WeatherData glacierMass) throws SQLException, RemoteException {
 
         Server.resetInactivityTimer();
+        recordWrite();
         String insertSql = "INSERT INTO parametriclimatici (cityid, centerid, date, windscore, windcomment, humidityscore, humiditycomment, pressurescore, pressurecomment, temperaturescore, temperaturecomment, precipitationscore, precipitationcomment, glacierelevationscore, glacierelevationcomment, glaciermassscore, glaciermasscomment) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
-        try (PreparedStatement insertStmt = conn.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+        Connection target = conn;
+        if (shards != null) {
+            int shard = shards.assign(cityID);
+            if (shard != 0) {
+                checkWeatherReferences(cityID, centerID);
+            }
+            target = shards.connection(shard);
+        }
+
+        try (PreparedStatement insertStmt = target.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
             insertStmt.setInt(1, cityID);
             insertStmt.setInt(2, centerID);
-            try {
-                SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-                java.util.Date parseDate = dateFormat.parse(date);
-                java.sql.Date sqlDate = new java.sql.Date(parseDate.getTime());
-                insertStmt.setDate(3, sqlDate);
-            } catch (ParseException e) {
-                throw new SQLException("Errore nel parsing della data", e);
-            }
+            insertStmt.setObject(3, date);
 
             setWeatherData(insertStmt, 4, wind);
             setWeatherData(insertStmt, 6, humidity);
@@ -245,7 +491,10 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
             try (ResultSet generatedKeys = insertStmt.getGeneratedKeys()) {
                 if (generatedKeys.next()) {
                     int newID = generatedKeys.getInt(1);
-                    new RecordWeather(newID, cityID, centerID, date, wind, humidity, pressure, temperature, precipitation, glacierElevation, glacierMass);
+                    RecordWeather weather = new RecordWeather(newID, cityID, centerID, date, wind, humidity, pressure, temperature, precipitation, glacierElevation, glacierMass);
+                    if (events != null) {
+                        events.publish(List.of(weather));
+                    }
                 } else {
                     throw new SQLException("Inserimento fallito, nessun ID generato.");
                 }
@@ -253,6 +502,177 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
         }
     }
 
+    /**
+     * Aggiunge nuovi parametri climatici al database, associandoli all'ID della richiesta
+     * del client che li ha inviati: se per la stessa data è già presente una riga con lo
+     * stesso ID, i parametri vengono considerati già inseriti.
+     *
+     * @param weather   I parametri climatici da aggiungere; l'ID viene ignorato.
+     * @param requestID L'ID della richiesta, oppure {@code null}.
+     * @throws SQLException    Se si verifica un errore durante l'inserimento.
+     * @throws RemoteException Se si verifica un errore durante la comunicazione remota.
+     * @see #addNewWeathers(List, List)
+     */
+    @Override
+    public synchronized void addNewWeather(RecordWeather weather, UUID requestID) throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        recordWrite();
+        SQLException failure = addNewWeathers(List.of(weather), Collections.singletonList(requestID))[0];
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Aggiunge più parametri climatici al database con un unico comando per ciascuno shard,
+     * in modo che vengano confermati insieme con una sola scrittura sul disco.
+     * <p>
+     * Il metodo non è esposto tramite RMI. Gli ID dei record specificati vengono ignorati. Gli inserimenti dei diversi
+     * shard sono indipendenti: se uno fallisce, nessuna delle sue righe viene inserita e le
+     * righe degli altri shard restano valide.
+     * </p>
+     *
+     * @param weathers I parametri climatici da aggiungere.
+     * @return Per ciascun record, nello stesso ordine, l'errore che ne ha impedito
+     *         l'inserimento, oppure {@code null} se è stato inserito.
+     */
+    public synchronized SQLException[] addNewWeathers(List<RecordWeather> weathers) {
+        return addNewWeathers(weathers, null);
+    }
+
+    /**
+     * Aggiunge più parametri climatici al database, associando a ciascuno l'ID della
+     * richiesta del client che lo ha inviato.
+     * <p>
+     * Le righe il cui ID di richiesta è già presente per la stessa data vengono ignorate e
+     * considerate inserite: la stessa richiesta può quindi essere riscritta più volte senza
+     * creare duplicati. Il metodo viene utilizzato dalla coda di inserimento differito e dal
+     * registro degli inserimenti.
+     * </p>
+     *
+     * @param weathers   I parametri climatici da aggiungere.
+     * @param requestIDs Gli ID delle richieste, nello stesso ordine, oppure {@code null}.
+     * @return Per ciascun record, nello stesso ordine, l'errore che ne ha impedito
+     *         l'inserimento, oppure {@code null} se è stato inserito.
+     * @see #addNewWeathers(List)
+     */
+    public synchronized SQLException[] addNewWeathers(List<RecordWeather> weathers, List<UUID> requestIDs) {
+        SQLException[] failures = new SQLException[weathers.size()];
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        for (int i = 0; i < weathers.size(); i++) {
+            try {
+                int shard = shards == null ? 0 : shards.assign(weathers.get(i).cityID());
+                byShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+            } catch (SQLException e) {
+                failures[i] = e;
+            }
+        }
+
+        for (Map.Entry<Integer, List<Integer>> entry : byShard.entrySet()) {
+            List<RecordWeather> rows = new ArrayList<>();
+            List<UUID> rowRequestIDs = new ArrayList<>();
+            for (int index : entry.getValue()) {
+                rows.add(weathers.get(index));
+                rowRequestIDs.add(requestIDs == null ? null : requestIDs.get(index));
+            }
+            try {
+                List<RecordWeather> inserted = insertWeathers(entry.getKey(), rows, rowRequestIDs);
+                if (events != null) {
+                    events.publish(inserted);
+                }
+            } catch (SQLException e) {
+                for (int index : entry.getValue()) {
+                    failures[index] = e;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Inserisce i parametri climatici in uno shard con un unico comando, a partire da un
+     * array per ciascuna colonna.
+     *
+     * @param shard      Il numero dello shard.
+     * @param rows       I parametri climatici da inserire.
+     * @param requestIDs Gli ID delle richieste, nello stesso ordine; possono essere {@code null}.
+     * @return Le righe inserite, con il loro ID, escluse quelle di richieste già inserite.
+     * @throws SQLException Se si verifica un errore durante l'inserimento.
+     */
+    private List<RecordWeather> insertWeathers(int shard, List<RecordWeather> rows, List<UUID> requestIDs) throws SQLException {
+        if (shard != 0) {
+            Set<List<Integer>> checked = new HashSet<>();
+            for (RecordWeather row : rows) {
+                if (checked.add(List.of(row.cityID(), row.centerID()))) {
+                    checkWeatherReferences(row.cityID(), row.centerID());
+                }
+            }
+        }
+
+        StatementCache target = shard == 0
+                ? statements
+                : shardStatements.computeIfAbsent(shard, s -> new StatementCache(shards.connection(s)));
+        PreparedStatement stmt = target.prepare(SQL_INSERT_WEATHERS);
+        Connection connection = stmt.getConnection();
+        int size = rows.size();
+        Integer[] cityIDs = new Integer[size];
+        Integer[] centerIDs = new Integer[size];
+        java.sql.Date[] dates = new java.sql.Date[size];
+        Integer[][] scores = new Integer[WeatherTableData.CATEGORY_COUNT][size];
+        String[][] comments = new String[WeatherTableData.CATEGORY_COUNT][size];
+        String[] requests = new String[size];
+        for (int i = 0; i < size; i++) {
+            RecordWeather row = rows.get(i);
+            requests[i] = requestIDs.get(i) == null ? null : requestIDs.get(i).toString();
+            cityIDs[i] = row.cityID();
+            centerIDs[i] = row.centerID();
+            dates[i] = java.sql.Date.valueOf(row.date());
+            for (WeatherTableData.Category category : WeatherTableData.Category.values()) {
+                RecordWeather.WeatherData data = category.of(row);
+                scores[category.ordinal()][i] = data.score();
+                comments[category.ordinal()][i] = data.comment();
+            }
+        }
+
+        stmt.setArray(1, connection.createArrayOf("integer", cityIDs));
+        stmt.setArray(2, connection.createArrayOf("integer", centerIDs));
+        stmt.setArray(3, connection.createArrayOf("date", dates));
+        for (int c = 0; c < scores.length; c++) {
+            stmt.setArray(4 + 2 * c, connection.createArrayOf("integer", scores[c]));
+            stmt.setArray(5 + 2 * c, connection.createArrayOf("text", comments[c]));
+        }
+        stmt.setArray(4 + 2 * scores.length, connection.createArrayOf("varchar", requests));
+        List<RecordWeather> inserted = new ArrayList<>(size);
+        try (ResultSet rs = stmt.executeQuery()) {
+            int[] columns = DataQueryImp.WEATHER_MAPPER.columns(SQL_INSERT_WEATHERS, rs);
+            while (rs.next()) {
+                inserted.add(DataQueryImp.WEATHER_MAPPER.map(rs, columns));
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Verifica sul database primario che la città e il centro di monitoraggio esistano,
+     * dato che le tabelle degli shard non hanno chiavi esterne.
+     *
+     * @param cityID   L'ID della città.
+     * @param centerID L'ID del centro di monitoraggio.
+     * @throws SQLException Se la città o il centro di monitoraggio non esistono.
+     */
+    private void checkWeatherReferences(Integer cityID, Integer centerID) throws SQLException {
+        PreparedStatement stmt = statements.prepare("SELECT EXISTS (SELECT 1 FROM coordinatemonitoraggio WHERE id = ?), " +
+                "EXISTS (SELECT 1 FROM centrimonitoraggio WHERE id = ?)");
+        stmt.setInt(1, cityID);
+        stmt.setInt(2, centerID);
+        try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            if (!rs.getBoolean(1) || !rs.getBoolean(2)) {
+                throw new SQLException("Città o centro di monitoraggio inesistente: " + cityID + ", " + centerID, "23503");
+            }
+        }
+    }
+
     /**
      * Imposta i dati climatici per l'istruzione SQL preparata.
      *
@@ -280,9 +700,40 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
     @Override
     public synchronized void updateOperator(RecordOperator operator) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
+        recordWrite();
         updateRecord("operatoriregistrati", operator.ID(), operator);
     }
 
+    /**
+     * Associa un centro di monitoraggio a un operatore che non è ancora associato ad alcun centro.
+     *
+     * @param operatorID L'ID dell'operatore.
+     * @param centerID   L'ID del centro di monitoraggio da associare.
+     * @return {@code true} se l'operatore è stato associato, {@code false} se non esiste
+     *         o è già associato a un centro.
+     * @throws SQLException    Se si verifica un errore durante l'aggiornamento del database.
+     * @throws RemoteException Se si verifica un errore durante la comunicazione remota.
+     */
+    @Override
+    public synchronized boolean associateOperatorCenter(Integer operatorID, Integer centerID) throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        recordWrite();
+        PreparedStatement stmt = statements.prepare(
+                "UPDATE operatoriregistrati SET centerid = ? WHERE id = ? AND (centerid IS NULL OR centerid = 0)");
+        stmt.setInt(1, centerID);
+        stmt.setInt(2, operatorID);
+        return stmt.executeUpdate() == 1;
+    }
+
+    /**
+     * Segnala una scrittura al router delle letture, se presente.
+     */
+    private void recordWrite() {
+        if (router != null) {
+            router.recordWrite();
+        }
+    }
+
     /**
      * Aggiorna un record nel database.
      *
@@ -292,12 +743,12 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
      * @throws SQLException Se si verifica un errore durante l'aggiornamento del database.
      */
     private void updateRecord(String tableName, int ID, Object record) throws SQLException {
-        String updateSql = "UPDATE " + tableName + " SET " + getUpdateQueryPart(record) + " WHERE ID = ?";
-        try (PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
-            setUpdateParameters(updateStmt, record);
-            updateStmt.setInt(getParameterCount(record) + 1, ID);
-            updateStmt.executeUpdate();
-        }
+        String updateSql = updateSqlCache.computeIfAbsent(tableName + ':' + record.getClass().getName(),
+                key -> "UPDATE " + tableName + " SET " + getUpdateQueryPart(record) + " WHERE ID = ?");
+        PreparedStatement updateStmt = statements.prepare(updateSql);
+        setUpdateParameters(updateStmt, record);
+        updateStmt.setInt(getParameterCount(record) + 1, ID);
+        updateStmt.executeUpdate();
     }
 
     /**
@@ -405,7 +856,7 @@ public class DataHandlerImp extends UnicastRemoteObject implements DataHandlerIn
     private void setUpdateParameters(PreparedStatement stmt, RecordWeather weather, int index) throws SQLException {
         stmt.setInt(index++, weather.cityID());
         stmt.setInt(index++, weather.centerID());
-        stmt.setDate(index++, java.sql.Date.valueOf(weather.date()));
+        stmt.setObject(index++, weather.date());
         setWeatherData(stmt, index++, weather.wind());
         setWeatherData(stmt, index++, weather.humidity());
         setWeatherData(stmt, index++, weather.pressure());
@@ -1,7 +1,14 @@
 package server.ImplementationRMI;
 
 import server.DataBaseManager;
+import server.ImplementationRMI.LogicCityImp.WeatherTableData;
+import server.CityCatalog;
+import server.DataSourceRouter;
+import server.RowMapper;
 import server.Server;
+import server.StatementCache;
+import server.WeatherArchive;
+import server.WeatherShards;
 import shared.interfacesRMI.DataQueryInterface;
 import shared.record.*;
 
@@ -12,10 +19,27 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
-import static shared.utils.Functions.zeroToNull;
 
 /**
  * La classe {@code DataQueryImp} implementa l'interfaccia {@code DataQueryInterface} e fornisce i metodi
@@ -33,6 +57,7 @@ import static shared.utils.Functions.zeroToNull;
  * @see RecordWeather
  * @see QueryCondition
  * @see DataBaseManager
+ * @see StatementCache
  *
  * @serial exclude
  *
@@ -53,6 +78,221 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
      */
     private final Connection conn;
 
+    /**
+     * Gli statement preparati riutilizzati dalle query.
+     */
+    private final StatementCache statements;
+
+    /**
+     * L'archivio dei parametri climatici meno recenti, oppure {@code null} se non utilizzato.
+     */
+    private final WeatherArchive archive;
+
+    /**
+     * Lo snapshot in memoria delle città, oppure {@code null} se non utilizzato.
+     */
+    private final CityCatalog cityCatalog;
+
+    /**
+     * Il router che sceglie la connessione per le letture, oppure {@code null} se le
+     * letture avvengono sulla connessione primaria.
+     */
+    private final DataSourceRouter router;
+
+    /**
+     * Gli shard dei parametri climatici, oppure {@code null} se risiedono solo sulla
+     * connessione primaria.
+     */
+    private final WeatherShards shards;
+
+    /**
+     * Gli statement preparati sulle connessioni degli shard diversi dal primario.
+     */
+    private final Map<Integer, StatementCache> shardStatements = new ConcurrentHashMap<>();
+
+    /**
+     * Numero massimo di forme di query mantenute in cache.
+     */
+    private static final int MAX_QUERY_SHAPES = 256;
+
+    /**
+     * L'intervallo prima del cursore da cui riparte una lettura incrementale dei parametri
+     * climatici: copre la durata delle transazioni di inserimento, il ritardo delle repliche
+     * e la differenza tra gli orologi degli shard.
+     */
+    public static final Duration WEATHER_CURSOR_OVERLAP = Duration.ofMinutes(5);
+
+    /**
+     * Il testo SQL generato per ciascuna forma di query, ordinato per accesso.
+     */
+    private final Map<QueryShape, String> sqlByShape = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<QueryShape, String> eldest) {
+            return size() > MAX_QUERY_SHAPES;
+        }
+    };
+
+    /**
+     * La forma di una condizione di ricerca: colonna e operatore, indipendentemente dai
+     * valori stessi. Una condizione {@code IN} ha la stessa forma per qualsiasi numero di
+     * valori, tranne quando non ne ha nessuno.
+     *
+     * @param key      La colonna.
+     * @param operator L'operatore.
+     * @param empty    Se la condizione è una {@code IN} senza valori.
+     */
+    private record ConditionShape(String key, QueryCondition.Operator operator, boolean empty) {
+    }
+
+    /**
+     * La forma di una query: tabella e forme delle condizioni.
+     *
+     * @param table      La tabella.
+     * @param conditions Le forme delle condizioni.
+     */
+    private record QueryShape(String table, List<ConditionShape> conditions) {
+    }
+
+    /**
+     * L'impostazione dei parametri di uno statement preparato, a partire dall'indice indicato.
+     */
+    @FunctionalInterface
+    private interface ParameterBinder {
+        void bind(PreparedStatement stmt, int first) throws SQLException;
+    }
+
+    /**
+     * Una ricerca nell'archivio dei parametri climatici, che esclude le righe già lette
+     * dal database.
+     */
+    @FunctionalInterface
+    private interface ArchiveLookup {
+        List<RecordWeather> search(Set<Integer> liveIDs) throws SQLException;
+    }
+
+    /**
+     * Il mapper delle righe di {@code coordinatemonitoraggio}.
+     */
+    private static final RowMapper<RecordCity> CITY_MAPPER = new RowMapper<>(
+            (rs, c) -> new RecordCity(
+                    rs.getInt(c[0]),
+                    rs.getString(c[1]),
+                    rs.getString(c[2]),
+                    rs.getString(c[3]),
+                    rs.getString(c[4]),
+                    rs.getDouble(c[5]),
+                    rs.getDouble(c[6])),
+            "id", "name", "asciiname", "countrycode", "countryname", "latitude", "longitude");
+
+    /**
+     * Il mapper delle righe di {@code operatoriregistrati}.
+     */
+    private static final RowMapper<RecordOperator> OPERATOR_MAPPER = new RowMapper<>(
+            (rs, c) -> new RecordOperator(
+                    rs.getInt(c[0]),
+                    rs.getString(c[1]),
+                    rs.getString(c[2]),
+                    rs.getString(c[3]),
+                    rs.getString(c[4]),
+                    rs.getString(c[5]),
+                    RowMapper.getInteger(rs, c[6])),
+            "id", "namesurname", "taxcode", "email", "username", "password", "centerid");
+
+    /**
+     * Il mapper delle righe di {@code centrimonitoraggio}.
+     */
+    private static final RowMapper<RecordCenter> CENTER_MAPPER = new RowMapper<>(
+            (rs, c) -> {
+                java.sql.Array cityIds = rs.getArray(c[7]);
+                return new RecordCenter(
+                        rs.getInt(c[0]),
+                        rs.getString(c[1]),
+                        rs.getString(c[2]),
+                        rs.getString(c[3]),
+                        rs.getString(c[4]),
+                        rs.getString(c[5]),
+                        rs.getString(c[6]),
+                        cityIds == null ? new Integer[0] : (Integer[]) cityIds.getArray());
+            },
+            "id", "centername", "streetname", "streetnumber", "cap", "townname", "districtname", "cityids");
+
+    /**
+     * Le categorie meteorologiche, indicizzate per {@link WeatherTableData.Category#ordinal()}.
+     */
+    private static final WeatherTableData.Category[] CATEGORIES = WeatherTableData.Category.values();
+
+    /**
+     * Il mapper delle righe di {@code parametriclimatici}.
+     * <p>
+     *     I punteggi non inseriti sono {@code NULL} nel database e vengono letti come
+     *     {@code null}, distinti dal valore 0.
+     * </p>
+     */
+    static final RowMapper<RecordWeather> WEATHER_MAPPER = new RowMapper<>(
+            (rs, c) -> new RecordWeather(
+                    rs.getInt(c[0]),
+                    rs.getInt(c[1]),
+                    rs.getInt(c[2]),
+                    rs.getObject(c[3], LocalDate.class),
+                    new RecordWeather.WeatherData(RowMapper.getInteger(rs, c[4]), rs.getString(c[5])),
+                    new RecordWeather.WeatherData(RowMapper.getInteger(rs, c[6]), rs.getString(c[7])),
+                    new RecordWeather.WeatherData(RowMapper.getInteger(rs, c[8]), rs.getString(c[9])),
+                    new RecordWeather.WeatherData(RowMapper.getInteger(rs, c[10]), rs.getString(c[11])),
+                    new RecordWeather.WeatherData(RowMapper.getInteger(rs, c[12]), rs.getString(c[13])),
+                    new RecordWeather.WeatherData(RowMapper.getInteger(rs, c[14]), rs.getString(c[15])),
+                    new RecordWeather.WeatherData(RowMapper.getInteger(rs, c[16]), rs.getString(c[17]))),
+            "id", "cityid", "centerid", "date",
+            "windscore", "windcomment",
+            "humidityscore", "humiditycomment",
+            "pressurescore", "pressurecomment",
+            "temperaturescore", "temperaturecomment",
+            "precipitationscore", "precipitationcomment",
+            "glacierelevationscore", "glacierelevationcomment",
+            "glaciermassscore", "glaciermasscomment");
+
+    /**
+     * Le colonne che possono essere utilizzate nelle condizioni di ricerca, per ciascuna tabella.
+     */
+    private static final Map<String, Set<String>> ALLOWED_COLUMNS = Map.of(
+            "coordinatemonitoraggio", Set.of(
+                    "id", "name", "asciiname", "countrycode", "countryname", "latitude", "longitude"),
+            "operatoriregistrati", Set.of(
+                    "id", "namesurname", "taxcode", "email", "username", "password", "centerid"),
+            "parametriclimatici", Set.of(
+                    "id", "cityid", "centerid", "date", "insertedat",
+                    "windscore", "humidityscore", "pressurescore", "temperaturescore",
+                    "precipitationscore", "glacierelevationscore", "glaciermassscore"));
+
+    /**
+     * Il tipo SQL delle colonne ammesse nelle condizioni di ricerca, usato come tipo
+     * dell'array dei valori di una condizione {@code IN}: la conversione avviene sui
+     * valori e la colonna resta confrontabile con il suo indice.
+     */
+    private static final Map<String, String> COLUMN_TYPES = Map.ofEntries(
+            Map.entry("id", "integer"),
+            Map.entry("cityid", "integer"),
+            Map.entry("centerid", "integer"),
+            Map.entry("name", "varchar"),
+            Map.entry("asciiname", "varchar"),
+            Map.entry("countrycode", "bpchar"),
+            Map.entry("countryname", "varchar"),
+            Map.entry("latitude", "numeric"),
+            Map.entry("longitude", "numeric"),
+            Map.entry("namesurname", "varchar"),
+            Map.entry("taxcode", "varchar"),
+            Map.entry("email", "varchar"),
+            Map.entry("username", "varchar"),
+            Map.entry("password", "varchar"),
+            Map.entry("date", "date"),
+            Map.entry("insertedat", "timestamptz"),
+            Map.entry("windscore", "integer"),
+            Map.entry("humidityscore", "integer"),
+            Map.entry("pressurescore", "integer"),
+            Map.entry("temperaturescore", "integer"),
+            Map.entry("precipitationscore", "integer"),
+            Map.entry("glacierelevationscore", "integer"),
+            Map.entry("glaciermassscore", "integer"));
+
     /**
      * Costruttore che inizializza la connessione al database utilizzando un file
      * di configurazione.
@@ -60,8 +300,62 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
      * @throws RemoteException Se la connessione al database fallisce
      */
     public DataQueryImp(Connection connection) throws RemoteException {
+        this(connection, null, null, null, null);
+    }
+
+    /**
+     * Costruttore che utilizza la connessione specificata, unisce ai parametri climatici
+     * del database quelli presenti nell'archivio, serve le ricerche delle città dallo
+     * snapshot in memoria, distribuisce le letture tra le repliche e legge i parametri
+     * climatici dagli shard.
+     *
+     * @param connection  La connessione al database.
+     * @param archive     L'archivio dei parametri climatici meno recenti, oppure {@code null}.
+     * @param cityCatalog Lo snapshot delle città, oppure {@code null}.
+     * @param router      Il router delle letture verso le repliche, oppure {@code null}.
+     * @param shards      Gli shard dei parametri climatici, oppure {@code null}.
+     * @throws RemoteException Se si verifica un errore durante l'esportazione dell'oggetto remoto.
+     */
+    public DataQueryImp(Connection connection, WeatherArchive archive, CityCatalog cityCatalog,
+                        DataSourceRouter router, WeatherShards shards) throws RemoteException {
         super();
         this.conn = connection;
+        this.statements = new StatementCache(connection);
+        this.archive = archive;
+        this.cityCatalog = cityCatalog;
+        this.router = router;
+        this.shards = shards;
+        if (router != null) {
+            router.addCloseListener(this::invalidateStatements);
+        }
+    }
+
+    /**
+     * Chiude gli statement preparati sulla connessione specificata, che sta per essere
+     * chiusa; verranno preparati di nuovo al prossimo utilizzo.
+     *
+     * @param closing La connessione in chiusura.
+     */
+    private void invalidateStatements(Connection closing) {
+        if (statements.connection() == closing) {
+            statements.close();
+        }
+        shardStatements.values().removeIf(cache -> {
+            if (cache.connection() != closing) {
+                return false;
+            }
+            cache.close();
+            return true;
+        });
+    }
+
+    /**
+     * Chiude tutti gli statement preparati, alla chiusura del server.
+     */
+    public void closeStatements() {
+        statements.close();
+        shardStatements.values().forEach(StatementCache::close);
+        shardStatements.clear();
     }
 
     /**
@@ -75,17 +369,69 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
     @Override
     public synchronized RecordCity getCityBy(Integer ID) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        String sql = "SELECT * FROM coordinatemonitoraggio WHERE id = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return read(() -> {
+            if (cityCatalog != null) {
+                RecordCity city = cityCatalog.get(ID);
+                if (city == null) {
+                    throw new SQLException("Nessuna città trovata con l'ID specificato");
+                }
+                return city;
+            }
+
+            String sql = "SELECT * FROM coordinatemonitoraggio WHERE id = ?";
+            PreparedStatement stmt = readStatements().prepare(sql);
             stmt.setInt(1, ID);
             try (ResultSet rs = stmt.executeQuery()) {
+                int[] columns = CITY_MAPPER.columns(sql, rs);
                 if (rs.next()) {
-                    return mapResultSetToRecordCity(rs);
+                    return CITY_MAPPER.map(rs, columns);
                 } else {
                     throw new SQLException("Nessuna città trovata con l'ID specificato");
                 }
             }
-        }
+        });
+    }
+
+    /**
+     * Ottiene le informazioni di più città dal database in base ai loro ID, con un'unica query.
+     *
+     * @param ids Gli ID delle città da cercare.
+     * @return Un array di RecordCity allineato a {@code ids}, con {@code null} per gli ID non trovati.
+     * @throws SQLException     Se si verifica un errore durante l'esecuzione della query.
+     * @throws RemoteException  Se si verifica un errore di comunicazione RMI.
+     */
+    @Override
+    public synchronized RecordCity[] getCitiesByIds(Integer[] ids) throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        return read(() -> {
+            RecordCity[] cities = new RecordCity[ids.length];
+            if (ids.length == 0) {
+                return cities;
+            }
+            if (cityCatalog != null) {
+                for (int i = 0; i < ids.length; i++) {
+                    cities[i] = ids[i] == null ? null : cityCatalog.get(ids[i]);
+                }
+                return cities;
+            }
+
+            String sql = "SELECT * FROM coordinatemonitoraggio WHERE id = ANY(?)";
+            Map<Integer, RecordCity> found = new HashMap<>();
+            PreparedStatement stmt = readStatements().prepare(sql);
+            stmt.setArray(1, stmt.getConnection().createArrayOf("INTEGER", ids));
+            try (ResultSet rs = stmt.executeQuery()) {
+                int[] columns = CITY_MAPPER.columns(sql, rs);
+                while (rs.next()) {
+                    RecordCity city = CITY_MAPPER.map(rs, columns);
+                    found.put(city.ID(), city);
+                }
+            }
+
+            for (int i = 0; i < ids.length; i++) {
+                cities[i] = found.get(ids[i]);
+            }
+            return cities;
+        });
     }
 
     /**
@@ -99,17 +445,32 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
     @Override
     public synchronized RecordCity[] getCityBy(List<QueryCondition> conditions) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        String sql = "SELECT * FROM coordinatemonitoraggio WHERE " + createSQLCondition(conditions);
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return read(() -> {
+            if (cityCatalog != null && conditions.size() == 1
+                    && conditions.get(0).key().equalsIgnoreCase("asciiname")
+                    && conditions.get(0).value() instanceof String name) {
+                switch (conditions.get(0).operator()) {
+                    case EQUALS:
+                        return cityCatalog.byAsciiName(name);
+                    case STARTS_WITH:
+                        return cityCatalog.byAsciiNamePrefix(name);
+                    default:
+                        break;
+                }
+            }
+
+            String sql = conditionalSelect("coordinatemonitoraggio", conditions);
+            PreparedStatement stmt = readStatements().prepare(sql);
             setPreparedStatementValues(stmt, conditions);
             try (ResultSet rs = stmt.executeQuery()) {
+                int[] columns = CITY_MAPPER.columns(sql, rs);
                 List<RecordCity> cities = new ArrayList<>();
                 while (rs.next()) {
-                    cities.add(mapResultSetToRecordCity(rs));
+                    cities.add(CITY_MAPPER.map(rs, columns));
                 }
                 return cities.toArray(new RecordCity[0]);
             }
-        }
+        });
     }
 
     /**
@@ -123,17 +484,19 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
     @Override
     public synchronized RecordOperator getOperatorBy(Integer ID) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        String sql = "SELECT * FROM operatoriregistrati WHERE id = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return read(() -> {
+            String sql = "SELECT * FROM operatoriregistrati WHERE id = ?";
+            PreparedStatement stmt = readStatements().prepare(sql);
             stmt.setInt(1, ID);
             try (ResultSet rs = stmt.executeQuery()) {
+                int[] columns = OPERATOR_MAPPER.columns(sql, rs);
                 if (rs.next()) {
-                    return mapResultSetToRecordOperator(rs);
+                    return OPERATOR_MAPPER.map(rs, columns);
                 } else {
                     throw new SQLException("Nessun operatore trovato con l'ID specificato");
                 }
             }
-        }
+        });
     }
 
     /**
@@ -163,17 +526,19 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
     @Override
     public synchronized RecordOperator[] getOperatorBy(List<QueryCondition> conditions) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        String sql = "SELECT * FROM operatoriregistrati WHERE " + createSQLCondition(conditions);
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return read(() -> {
+            String sql = conditionalSelect("operatoriregistrati", conditions);
+            PreparedStatement stmt = readStatements().prepare(sql);
             setPreparedStatementValues(stmt, conditions);
             try (ResultSet rs = stmt.executeQuery()) {
+                int[] columns = OPERATOR_MAPPER.columns(sql, rs);
                 List<RecordOperator> operators = new ArrayList<>();
                 while (rs.next()) {
-                    operators.add(mapResultSetToRecordOperator(rs));
+                    operators.add(OPERATOR_MAPPER.map(rs, columns));
                 }
                 return operators.toArray(new RecordOperator[0]);
             }
-        }
+        });
     }
 
     /**
@@ -187,17 +552,19 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
     @Override
     public synchronized RecordCenter getCenterBy(Integer ID) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        String sql = "SELECT * FROM centrimonitoraggio WHERE id = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return read(() -> {
+            String sql = "SELECT * FROM centrimonitoraggio WHERE id = ?";
+            PreparedStatement stmt = readStatements().prepare(sql);
             stmt.setInt(1, ID);
             try (ResultSet rs = stmt.executeQuery()) {
+                int[] columns = CENTER_MAPPER.columns(sql, rs);
                 if (rs.next()) {
-                    return mapResultSetToRecordCenter(rs);
+                    return CENTER_MAPPER.map(rs, columns);
                 } else {
                     return null;
                 }
             }
-        }
+        });
     }
 
     /**
@@ -210,16 +577,18 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
     @Override
     public synchronized RecordCenter[] getCenters() throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        String sql = "SELECT * FROM centrimonitoraggio";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return read(() -> {
+            String sql = "SELECT * FROM centrimonitoraggio";
+            PreparedStatement stmt = readStatements().prepare(sql);
             try (ResultSet rs = stmt.executeQuery()) {
+                int[] columns = CENTER_MAPPER.columns(sql, rs);
                 List<RecordCenter> centers = new ArrayList<>();
                 while (rs.next()) {
-                    centers.add(mapResultSetToRecordCenter(rs));
+                    centers.add(CENTER_MAPPER.map(rs, columns));
                 }
                 return centers.toArray(new RecordCenter[0]);
             }
-        }
+        });
     }
 
     /**
@@ -240,6 +609,10 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
 
     /**
      * Ottiene i parametri climatici dal database in base a una lista di condizioni di ricerca.
+     * <p>
+     *     Se i parametri climatici sono distribuiti su più shard vengono interrogati in
+     *     parallelo solo gli shard delle città indicate dalle condizioni, oppure tutti.
+     * </p>
      *
      * @param conditions Le condizioni di ricerca.
      * @return Un array di RecordWeather contenente i parametri climatici che soddisfano le condizioni.
@@ -249,36 +622,605 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
     @Override
     public synchronized RecordWeather[] getWeatherBy(List<QueryCondition> conditions) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        String sql = "SELECT * FROM parametriclimatici WHERE " + createSQLCondition(conditions);
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            setPreparedStatementValues(stmt, conditions);
+        return read(() -> {
+            return gather(selectWeather(conditions, weathers -> weathers));
+        });
+    }
+
+    /**
+     * Ottiene i parametri climatici di una città inseriti dopo il cursore specificato.
+     * <p>
+     *     Il cursore è l'istante, secondo l'orologio del database, in cui è iniziata la
+     *     lettura precedente; ogni riga riceve dal database l'istante del proprio
+     *     inserimento. La query riparte da {@link #WEATHER_CURSOR_OVERLAP} prima del
+     *     cursore, così che le righe inserite prima della lettura precedente ma confermate
+     *     dopo vengano comunque restituite. La query interroga solo lo shard della città,
+     *     tramite l'indice su {@code (cityid, insertedat)}, e non consulta l'archivio.
+     * </p>
+     *
+     * @param cityID L'ID della città.
+     * @param cursor Il cursore della lettura precedente, oppure {@code null}.
+     * @return I nuovi parametri climatici della città, in ordine di ID, e il nuovo cursore.
+     * @throws IllegalArgumentException Se l'ID della città è nullo.
+     * @throws SQLException     Se si verifica un errore durante l'esecuzione della query.
+     * @throws RemoteException  Se si verifica un errore di comunicazione RMI.
+     */
+    @Override
+    public synchronized WeatherChanges getWeatherSince(Integer cityID, Instant cursor) throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        return read(() -> {
+            if (cityID == null) {
+                throw new IllegalArgumentException("ID della città non valido.");
+            }
+            Instant next = clock();
+            List<QueryCondition> conditions = new ArrayList<>();
+            conditions.add(new QueryCondition("cityid", cityID));
+            if (cursor != null) {
+                conditions.add(QueryCondition.of("insertedat", QueryCondition.Operator.GREATER_THAN,
+                        OffsetDateTime.ofInstant(cursor.minus(WEATHER_CURSOR_OVERLAP), ZoneOffset.UTC)));
+            }
+            String sql = conditionalSelect("parametriclimatici", conditions);
+            Collection<Integer> shardIDs = shards == null ? List.of(0) : shards.shardsFor(conditions);
+            RecordWeather[] weathers = gather(scatterWeather(shardIDs, sql, (stmt, first) -> setPreparedStatementValues(stmt, conditions, first),
+                    liveIDs -> List.of(), rows -> rows));
+            Arrays.sort(weathers, Comparator.comparingInt(RecordWeather::ID));
+            return new WeatherChanges(weathers, next);
+        });
+    }
+
+    /**
+     * Restituisce il cursore corrente delle letture incrementali dei parametri climatici.
+     *
+     * @return L'istante corrente secondo l'orologio del database.
+     * @throws SQLException     Se si verifica un errore durante l'esecuzione della query.
+     * @throws RemoteException  Se si verifica un errore di comunicazione RMI.
+     */
+    @Override
+    public synchronized Instant getWeatherCursor() throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        return read(this::clock);
+    }
+
+    /**
+     * Legge l'istante corrente dall'orologio del database delle letture.
+     *
+     * @return L'istante corrente.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     */
+    private Instant clock() throws SQLException {
+        PreparedStatement stmt = readStatements().prepare("SELECT clock_timestamp()");
+        try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return rs.getTimestamp(1).toInstant();
+        }
+    }
+
+    /**
+     * Ottiene i parametri climatici dal database relativi alle città del paese specificato.
+     *
+     * @param countryCode Il codice del paese.
+     * @return Un array di RecordWeather contenente i parametri climatici delle città del paese.
+     * @throws SQLException     Se si verifica un errore durante l'esecuzione della query.
+     * @throws RemoteException  Se si verifica un errore di comunicazione RMI.
+     */
+    @Override
+    public synchronized RecordWeather[] getWeatherByCountry(String countryCode) throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        return read(() -> {
+            return gather(selectWeatherByCountry(countryCode, weathers -> weathers));
+        });
+    }
+
+    /**
+     * Ottiene tutti i parametri climatici presenti nel database.
+     *
+     * @return Un array di RecordWeather contenente tutti i parametri climatici.
+     * @throws SQLException     Se si verifica un errore durante l'esecuzione della query.
+     * @throws RemoteException  Se si verifica un errore di comunicazione RMI.
+     */
+    @Override
+    public synchronized RecordWeather[] getWeathers() throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        return read(() -> {
+            return gather(selectWeather(List.of(), weathers -> weathers));
+        });
+    }
+
+    /**
+     * Aggrega i parametri climatici che soddisfano le condizioni di ricerca.
+     * <p>
+     *     L'aggregazione viene eseguita dal database: ogni shard interrogato restituisce
+     *     solo il numero di record per categoria, punteggio e commento, e i risultati
+     *     parziali vengono poi uniti. Le righe dell'archivio vengono aggregate una alla
+     *     volta. I parametri climatici non vengono quindi mai raccolti in memoria e il
+     *     metodo non trattiene il monitor dell'istanza durante la scansione.
+     * </p>
+     *
+     * @param conditions Le condizioni di ricerca; una lista vuota seleziona tutti i parametri climatici.
+     * @return I dati aggregati.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     * @throws IllegalArgumentException Se una colonna non è ammessa o una condizione non è valida.
+     */
+    public WeatherTableData aggregateWeatherBy(List<QueryCondition> conditions) throws SQLException {
+        Server.resetInactivityTimer();
+        return read(() -> {
+            String where = conditions.isEmpty() ? "TRUE" : createSQLCondition("parametriclimatici", conditions);
+            Collection<Integer> shardIDs = shards == null ? List.of(0) : shards.shardsFor(conditions);
+            return aggregateWeather(shardIDs, where,
+                    (stmt, first) -> setPreparedStatementValues(stmt, conditions, first), conditions);
+        });
+    }
+
+    /**
+     * Aggrega i parametri climatici delle città del paese specificato.
+     *
+     * @param countryCode Il codice del paese.
+     * @return I dati aggregati.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     * @see #aggregateWeatherBy(List)
+     */
+    public WeatherTableData aggregateWeatherByCountry(String countryCode) throws SQLException {
+        Server.resetInactivityTimer();
+        return read(() -> {
+            List<Integer> cityIDs;
+            synchronized (this) {
+                cityIDs = getCityIDsByCountry(countryCode);
+            }
+            if (cityIDs.isEmpty()) {
+                return new WeatherTableData();
+            }
+
+            Integer[] ids = cityIDs.toArray(new Integer[0]);
+            Collection<Integer> shardIDs = shards == null ? List.of(0) : shards.shardsForCities(cityIDs);
+            return aggregateWeather(shardIDs.isEmpty() ? Set.of(0) : shardIDs, "cityid = ANY (?)",
+                    (stmt, first) -> stmt.setArray(first, stmt.getConnection().createArrayOf("integer", ids)),
+                    List.of(QueryCondition.in("cityid", (Object[]) ids)));
+        });
+    }
+
+    /**
+     * Aggrega nel database i parametri climatici degli shard specificati, in parallelo se
+     * sono più di uno, e vi unisce le righe corrispondenti dell'archivio.
+     * <p>
+     *     Ogni shard utilizza uno statement dedicato, non condiviso con la cache, così da
+     *     poter essere eseguito senza il monitor dell'istanza. Da ciascuno shard vengono
+     *     escluse nella query stessa le città associate a un altro shard. L'archivio viene
+     *     letto una sola volta, qualunque sia lo shard delle città, escludendo le righe
+     *     ancora presenti su uno degli shard interrogati.
+     * </p>
+     *
+     * @param shardIDs          Gli shard da interrogare.
+     * @param where             La condizione SQL sulle colonne di {@code parametriclimatici}.
+     * @param binder            L'impostazione dei parametri della condizione.
+     * @param archiveConditions Le condizioni equivalenti da applicare all'archivio.
+     * @return I dati aggregati.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     */
+    private WeatherTableData aggregateWeather(Collection<Integer> shardIDs, String where, ParameterBinder binder,
+                                              List<QueryCondition> archiveConditions) throws SQLException {
+        Map<Integer, Connection> connections = new HashMap<>();
+        for (int shard : shardIDs) {
+            connections.put(shard, readConnection(shard));
+        }
+        Map<Integer, Integer> assignments = shards == null ? Map.of() : Map.copyOf(shards.assignments());
+        LocalDate archived = hasArchive() ? archive.latestDate() : null;
+        Set<Integer> liveIDs = ConcurrentHashMap.newKeySet();
+
+        WeatherShards.ShardTask<WeatherTableData> task = shard -> {
+            Integer[] owned = shards == null ? null : ownershipFilter(assignments, shard);
+            String ownership = owned == null ? "TRUE" : shard == 0 ? "NOT (p.cityid = ANY (?))" : "p.cityid = ANY (?)";
+            Connection connection = connections.get(shard);
+            if (archived != null) {
+                liveIDs.addAll(liveArchivedIDs(connection, ownership, owned, where, binder, archived));
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(aggregateSQL(ownership, where))) {
+                int first = 1;
+                if (owned != null) {
+                    stmt.setArray(first++, connection.createArrayOf("integer", owned));
+                }
+                binder.bind(stmt, first);
+                WeatherTableData data = new WeatherTableData();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        WeatherTableData.Category category = CATEGORIES[rs.getInt(1)];
+                        Integer score = RowMapper.getInteger(rs, 2);
+                        data.addGroup(category, score, rs.getString(3), rs.getLong(4));
+                    }
+                }
+                return data;
+            }
+        };
+
+        List<WeatherTableData> partials = shardIDs.size() == 1
+                ? List.of(task.run(shardIDs.iterator().next()))
+                : shards.scatter(shardIDs, task);
+        WeatherTableData result = new WeatherTableData();
+        for (WeatherTableData partial : partials) {
+            result.merge(partial);
+        }
+
+        if (archived != null) {
+            archive.forEach(archiveConditions, liveIDs, result::add);
+        }
+        return result;
+    }
+
+    /**
+     * Restituisce il testo SQL dell'aggregazione dei parametri climatici per categoria,
+     * punteggio e commento.
+     *
+     * @param ownership La condizione sulle città associate allo shard.
+     * @param where     La condizione di ricerca.
+     * @return Il testo SQL della query.
+     */
+    private static String aggregateSQL(String ownership, String where) {
+        StringJoiner values = new StringJoiner(", ");
+        for (WeatherTableData.Category category : CATEGORIES) {
+            String column = "p." + category.key().toLowerCase(Locale.ROOT);
+            values.add("(" + category.ordinal() + ", " + column + "score, " + column + "comment)");
+        }
+        return "SELECT s.category, s.score, s.comment, count(*) FROM parametriclimatici p " +
+                "CROSS JOIN LATERAL (VALUES " + values + ") AS s(category, score, comment) " +
+                "WHERE " + ownership + " AND (" + where + ") " +
+                "AND (s.score IS NOT NULL OR s.comment IS NOT NULL) " +
+                "GROUP BY s.category, s.score, s.comment";
+    }
+
+    /**
+     * Restituisce le città da includere o escludere nella lettura di uno shard.
+     *
+     * @param assignments Le associazioni tra città e shard.
+     * @param shard       Il numero dello shard.
+     * @return Per il primario le città associate a un altro shard, da escludere; per gli
+     *         altri shard le città a esso associate, le sole da includere.
+     */
+    private static Integer[] ownershipFilter(Map<Integer, Integer> assignments, int shard) {
+        List<Integer> cities = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : assignments.entrySet()) {
+            if ((entry.getValue() == shard) != (shard == 0)) {
+                cities.add(entry.getKey());
+            }
+        }
+        return cities.toArray(new Integer[0]);
+    }
+
+    /**
+     * Restituisce gli ID delle righe di uno shard che soddisfano la condizione e che
+     * possono essere presenti anche nell'archivio, cioè quelle con data non successiva
+     * all'ultima archiviata.
+     *
+     * @param connection La connessione allo shard.
+     * @param ownership  La condizione sulle città associate allo shard.
+     * @param owned      Le città della condizione di appartenenza, oppure {@code null}.
+     * @param where      La condizione di ricerca.
+     * @param binder     L'impostazione dei parametri della condizione.
+     * @param archived   L'ultima data archiviata.
+     * @return Gli ID delle righe da non leggere dall'archivio.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     */
+    private static Set<Integer> liveArchivedIDs(Connection connection, String ownership, Integer[] owned,
+                                                String where, ParameterBinder binder,
+                                                LocalDate archived) throws SQLException {
+        String sql = "SELECT p.id FROM parametriclimatici p WHERE " + ownership
+                + " AND p.date <= ? AND (" + where + ")";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int first = 1;
+            if (owned != null) {
+                stmt.setArray(first++, connection.createArrayOf("integer", owned));
+            }
+            stmt.setObject(first++, archived);
+            binder.bind(stmt, first);
+            Set<Integer> ids = new HashSet<>();
             try (ResultSet rs = stmt.executeQuery()) {
-                List<RecordWeather> weathers = new ArrayList<>();
                 while (rs.next()) {
-                    weathers.add(mapResultSetToRecordWeather(rs));
+                    ids.add(rs.getInt(1));
                 }
-                return weathers.toArray(new RecordWeather[0]);
             }
+            return ids;
         }
     }
 
+    /**
+     * Seleziona i parametri climatici che soddisfano le condizioni di ricerca e li elabora
+     * separatamente per ciascuno shard interrogato.
+     *
+     * @param conditions Le condizioni di ricerca; una lista vuota seleziona tutti i parametri climatici.
+     * @param partial    L'elaborazione dei parametri climatici di uno shard.
+     * @param <A>        Il tipo dei risultati parziali.
+     * @return I risultati parziali, uno per shard.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     */
+    private <A> List<A> selectWeather(List<QueryCondition> conditions,
+                                      Function<List<RecordWeather>, A> partial) throws SQLException {
+        String sql = conditions.isEmpty()
+                ? "SELECT * FROM parametriclimatici"
+                : conditionalSelect("parametriclimatici", conditions);
+        Collection<Integer> shardIDs = shards == null ? List.of(0) : shards.shardsFor(conditions);
+        return scatterWeather(shardIDs, sql, (stmt, first) -> setPreparedStatementValues(stmt, conditions, first),
+                liveIDs -> archive.search(conditions, liveIDs), partial);
+    }
+
+    /**
+     * Seleziona i parametri climatici delle città del paese specificato e li elabora
+     * separatamente per ciascuno shard interrogato.
+     *
+     * @param countryCode Il codice del paese.
+     * @param partial     L'elaborazione dei parametri climatici di uno shard.
+     * @param <A>         Il tipo dei risultati parziali.
+     * @return I risultati parziali, uno per shard.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     */
+    private <A> List<A> selectWeatherByCountry(String countryCode,
+                                               Function<List<RecordWeather>, A> partial) throws SQLException {
+        if (shards == null) {
+            String sql = "SELECT p.* FROM parametriclimatici p " +
+                    "JOIN coordinatemonitoraggio c ON c.id = p.cityid WHERE c.countrycode = ?";
+            return scatterWeather(List.of(0), sql, (stmt, first) -> stmt.setString(first, countryCode),
+                    liveIDs -> archive.searchByCities(getCityIDsByCountry(countryCode), liveIDs), partial);
+        }
+
+        // Le città risiedono solo sul primario: gli shard vengono filtrati per ID.
+        List<Integer> cityIDs = getCityIDsByCountry(countryCode);
+        Integer[] ids = cityIDs.toArray(new Integer[0]);
+        Set<Integer> shardIDs = shards.shardsForCities(cityIDs);
+        String sql = "SELECT * FROM parametriclimatici WHERE cityid = ANY (?)";
+        return scatterWeather(shardIDs.isEmpty() ? Set.of(0) : shardIDs, sql,
+                (stmt, first) -> stmt.setArray(first, stmt.getConnection().createArrayOf("integer", ids)),
+                liveIDs -> archive.searchByCities(cityIDs, liveIDs), partial);
+    }
+
+    /**
+     * Esegue la stessa query sui parametri climatici degli shard specificati, in parallelo
+     * se sono più di uno, ed elabora separatamente i risultati di ciascuno.
+     * <p>
+     *     Gli statement vengono scelti prima di avviare le query, nel thread della chiamata
+     *     RMI, in modo che il router delle letture riconosca il client. Dai risultati di
+     *     ciascuno shard vengono escluse le righe delle città associate a un altro shard,
+     *     presenti durante uno spostamento.
+     * </p>
+     * <p>
+     *     L'archivio contiene le righe di tutte le città, anche di quelle spostate dopo
+     *     l'archiviazione: viene quindi letto una sola volta, dopo gli shard, escludendo le
+     *     righe già lette da uno qualsiasi di essi, e le righe trovate vengono elaborate
+     *     come un risultato parziale aggiuntivo.
+     * </p>
+     *
+     * @param shardIDs      Gli shard da interrogare.
+     * @param sql           Il testo SQL della query.
+     * @param binder        L'impostazione dei parametri dello statement.
+     * @param archiveLookup La ricerca corrispondente nell'archivio.
+     * @param partial       L'elaborazione dei parametri climatici di uno shard.
+     * @param <A>           Il tipo dei risultati parziali.
+     * @return I risultati parziali, nell'ordine degli shard, seguiti da quello dell'archivio se non vuoto.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     */
+    private <A> List<A> scatterWeather(Collection<Integer> shardIDs, String sql, ParameterBinder binder,
+                                       ArchiveLookup archiveLookup,
+                                       Function<List<RecordWeather>, A> partial) throws SQLException {
+        Map<Integer, StatementCache> caches = new HashMap<>();
+        for (int shard : shardIDs) {
+            caches.put(shard, statementsFor(shard));
+        }
+        LocalDate archived = hasArchive() ? archive.latestDate() : null;
+        Set<Integer> liveIDs = ConcurrentHashMap.newKeySet();
+
+        WeatherShards.ShardTask<A> task = shard -> {
+            PreparedStatement stmt = caches.get(shard).prepare(sql);
+            binder.bind(stmt, 1);
+            List<RecordWeather> weathers = executeWeatherQuery(sql, stmt);
+            if (shards != null) {
+                weathers.removeIf(weather -> !shards.owns(weather.cityID(), shard));
+            }
+            if (archived != null) {
+                for (RecordWeather weather : weathers) {
+                    if (!weather.date().isAfter(archived)) {
+                        liveIDs.add(weather.ID());
+                    }
+                }
+            }
+            return partial.apply(weathers);
+        };
+
+        List<A> results = new ArrayList<>(shardIDs.size() == 1
+                ? List.of(task.run(shardIDs.iterator().next()))
+                : shards.scatter(shardIDs, task));
+        if (archived != null) {
+            List<RecordWeather> archivedRows = archiveLookup.search(liveIDs);
+            if (!archivedRows.isEmpty()) {
+                results.add(partial.apply(archivedRows));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Unisce i parametri climatici letti dai diversi shard.
+     *
+     * @param parts I parametri climatici di ciascuno shard.
+     * @return Un array con tutti i parametri climatici.
+     */
+    private static RecordWeather[] gather(List<List<RecordWeather>> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0).toArray(new RecordWeather[0]);
+        }
+        List<RecordWeather> weathers = new ArrayList<>();
+        for (List<RecordWeather> part : parts) {
+            weathers.addAll(part);
+        }
+        return weathers.toArray(new RecordWeather[0]);
+    }
+
+    /**
+     * Restituisce gli statement da utilizzare per leggere i parametri climatici di uno shard.
+     *
+     * @param shard Il numero dello shard.
+     * @return Gli statement scelti dal router per il primario, altrimenti quelli dello shard.
+     */
+    private StatementCache statementsFor(int shard) {
+        if (shard == 0) {
+            return readStatements();
+        }
+        return shardStatements.computeIfAbsent(shard, s -> new StatementCache(shards.connection(s)));
+    }
+
+    /**
+     * Esegue una query sui parametri climatici e mappa i risultati.
+     *
+     * @param sql  Il testo SQL dello statement.
+     * @param stmt Il PreparedStatement già popolato da eseguire.
+     * @return Una lista modificabile contenente i risultati della query.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     */
+    private List<RecordWeather> executeWeatherQuery(String sql, PreparedStatement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            int[] columns = WEATHER_MAPPER.columns(sql, rs);
+            List<RecordWeather> weathers = new ArrayList<>();
+            while (rs.next()) {
+                weathers.add(WEATHER_MAPPER.map(rs, columns));
+            }
+            return weathers;
+        }
+    }
+
+    /**
+     * Restituisce la connessione da utilizzare per leggere i parametri climatici di uno
+     * shard con statement non condivisi.
+     *
+     * @param shard Il numero dello shard.
+     * @return La connessione scelta dal router per il primario, altrimenti quella dello shard.
+     */
+    private Connection readConnection(int shard) {
+        if (shard == 0) {
+            return router == null ? conn : router.forRead().connection();
+        }
+        return shards.connection(shard);
+    }
+
+    /**
+     * Esegue una lettura tramite il router, che la ripete una volta sul primario se la
+     * replica scelta non risponde.
+     *
+     * @param task La lettura.
+     * @param <T>  Il tipo del risultato.
+     * @return Il risultato della lettura.
+     * @throws SQLException Se la lettura fallisce.
+     */
+    private <T> T read(DataSourceRouter.ReadTask<T> task) throws SQLException {
+        return router == null ? task.run() : router.read(task);
+    }
+
+    /**
+     * Restituisce gli statement della connessione da utilizzare per una lettura.
+     *
+     * @return Gli statement della replica scelta dal router, oppure della connessione primaria.
+     */
+    private StatementCache readStatements() {
+        return router == null ? statements : router.forRead();
+    }
+
+    /**
+     * Verifica se l'archivio dei parametri climatici contiene dei segmenti da consultare.
+     *
+     * @return {@code true} se l'archivio è presente e non vuoto, {@code false} altrimenti.
+     */
+    private boolean hasArchive() {
+        return archive != null && !archive.isEmpty();
+    }
+
+    /**
+     * Ottiene gli ID delle città del paese specificato.
+     *
+     * @param countryCode Il codice del paese.
+     * @return Gli ID delle città.
+     * @throws SQLException Se si verifica un errore durante l'esecuzione della query.
+     */
+    private List<Integer> getCityIDsByCountry(String countryCode) throws SQLException {
+        PreparedStatement stmt = readStatements().prepare("SELECT id FROM coordinatemonitoraggio WHERE countrycode = ?");
+        stmt.setString(1, countryCode);
+        try (ResultSet rs = stmt.executeQuery()) {
+            List<Integer> ids = new ArrayList<>();
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Restituisce il testo SQL di una selezione sulla tabella con le condizioni specificate.
+     * <p>
+     *     Il testo viene generato una sola volta per ciascuna forma di query e poi riletto
+     *     dalla cache; anche lo statement preparato corrispondente viene riutilizzato.
+     * </p>
+     *
+     * @param table      La tabella su cui viene eseguita la query.
+     * @param conditions Le condizioni di ricerca.
+     * @return Il testo SQL della query.
+     * @throws IllegalArgumentException Se una colonna non è ammessa o una condizione non è valida.
+     */
+    private String conditionalSelect(String table, List<QueryCondition> conditions) {
+        List<ConditionShape> shapes = new ArrayList<>(conditions.size());
+        for (QueryCondition condition : conditions) {
+            boolean empty = condition.operator() == QueryCondition.Operator.IN && inValues(condition).length == 0;
+            shapes.add(new ConditionShape(condition.key(), condition.operator(), empty));
+        }
+
+        QueryShape shape = new QueryShape(table, shapes);
+        String sql = sqlByShape.get(shape);
+        if (sql == null) {
+            sql = "SELECT * FROM " + table + " WHERE " + createSQLCondition(table, conditions);
+            sqlByShape.put(shape, sql);
+        }
+        return sql;
+    }
+
     /**
      * Crea una stringa di condizione SQL basata su una lista di {@code QueryCondition}.
+     * <p>
+     *     Le colonne vengono verificate rispetto all'elenco delle colonne ammesse per la
+     *     tabella. Le conversioni di tipo avvengono solo sui valori e mai sulle colonne,
+     *     in modo che le condizioni possano sfruttare gli indici.
+     * </p>
      *
+     * @param table      La tabella su cui viene eseguita la query.
      * @param conditions Le condizioni di ricerca.
      * @return Una stringa rappresentante la condizione SQL.
+     * @throws IllegalArgumentException Se una colonna non è ammessa o una condizione non è valida.
      */
-    private String createSQLCondition(List<QueryCondition> conditions) {
+    private String createSQLCondition(String table, List<QueryCondition> conditions) {
+        if (conditions.isEmpty()) {
+            throw new IllegalArgumentException("Nessuna condizione di ricerca specificata.");
+        }
+
+        Set<String> columns = ALLOWED_COLUMNS.get(table);
         StringBuilder conditionString = new StringBuilder();
         for (int i = 0; i < conditions.size(); i++) {
             QueryCondition condition = conditions.get(i);
+            String column = condition.key().toLowerCase(Locale.ROOT);
+            if (!columns.contains(column)) {
+                throw new IllegalArgumentException("Colonna non valida per la tabella " + table + ": " + condition.key());
+            }
             if (i > 0) {
                 conditionString.append(" AND ");
             }
-            if (condition.value() instanceof java.util.Date) {
-                conditionString.append("CAST(").append(condition.key()).append(" AS DATE) = ?");
-            } else {
-                conditionString.append(condition.key()).append(" = ?");
+
+            switch (condition.operator()) {
+                case EQUALS -> conditionString.append(column).append(" = ?");
+                case LESS_THAN -> conditionString.append(column).append(" < ?");
+                case LESS_OR_EQUAL -> conditionString.append(column).append(" <= ?");
+                case GREATER_THAN -> conditionString.append(column).append(" > ?");
+                case GREATER_OR_EQUAL -> conditionString.append(column).append(" >= ?");
+                case BETWEEN -> conditionString.append(column).append(" >= ? AND ").append(column).append(" <= ?");
+                case IN -> {
+                    if (inValues(condition).length == 0) {
+                        conditionString.append("FALSE");
+                    } else {
+                        conditionString.append(column).append(" = ANY (?)");
+                    }
+                }
+                case STARTS_WITH -> conditionString.append(column).append(" LIKE ? ESCAPE '\\'");
+                case IS_NULL -> conditionString.append(column).append(" IS NULL");
+                case IS_NOT_NULL -> conditionString.append(column).append(" IS NOT NULL");
             }
         }
         return conditionString.toString();
@@ -286,102 +1228,99 @@ public class DataQueryImp extends UnicastRemoteObject implements DataQueryInterf
 
     /**
      * Imposta i valori dei parametri nel PreparedStatement basato sulle condizioni di ricerca.
+     * <p>
+     *     L'ordine dei parametri corrisponde a quello generato da
+     *     {@link #createSQLCondition(String, List)}.
+     * </p>
      *
      * @param stmt       Il PreparedStatement da popolare.
      * @param conditions Le condizioni di ricerca contenenti i valori dei parametri.
      * @throws SQLException Se si verifica un errore nell'impostazione dei valori dei parametri.
      */
     private void setPreparedStatementValues(PreparedStatement stmt, List<QueryCondition> conditions) throws SQLException {
-        for (int i = 0; i < conditions.size(); i++) {
-            Object value = conditions.get(i).value();
-            if (value instanceof java.util.Date) {
-                stmt.setDate(i + 1, new java.sql.Date(((java.util.Date) value).getTime()));
-            } else {
-                stmt.setObject(i + 1, value);
-            }
-        }
+        setPreparedStatementValues(stmt, conditions, 1);
     }
 
     /**
-     * Mappa un ResultSet a un oggetto RecordCity.
+     * Imposta i valori dei parametri nel PreparedStatement a partire dall'indice specificato.
      *
-     * @param rs Il ResultSet contenente i dati della città.
-     * @return Un oggetto RecordCity mappato dal ResultSet.
-     * @throws SQLException Se si verifica un errore durante la mappatura.
+     * @param stmt       Il PreparedStatement da popolare.
+     * @param conditions Le condizioni di ricerca contenenti i valori dei parametri.
+     * @param first      L'indice del primo parametro delle condizioni.
+     * @throws SQLException Se si verifica un errore nell'impostazione dei valori dei parametri.
+     * @see #setPreparedStatementValues(PreparedStatement, List)
      */
-    private RecordCity mapResultSetToRecordCity(ResultSet rs) throws SQLException {
-        return new RecordCity(
-                rs.getInt("id"),
-                rs.getString("name"),
-                rs.getString("asciiname"),
-                rs.getString("countrycode"),
-                rs.getString("countryname"),
-                rs.getDouble("latitude"),
-                rs.getDouble("longitude")
-        );
+    private static void setPreparedStatementValues(PreparedStatement stmt, List<QueryCondition> conditions,
+                                                   int first) throws SQLException {
+        int index = first;
+        for (QueryCondition condition : conditions) {
+            switch (condition.operator()) {
+                case EQUALS, LESS_THAN, LESS_OR_EQUAL, GREATER_THAN, GREATER_OR_EQUAL ->
+                        stmt.setObject(index++, toSQLValue(condition.value()));
+                case BETWEEN -> {
+                    stmt.setObject(index++, toSQLValue(condition.value()));
+                    stmt.setObject(index++, toSQLValue(condition.upperValue()));
+                }
+                case IN -> {
+                    Object[] values = inValues(condition);
+                    if (values.length > 0) {
+                        Object[] converted = new Object[values.length];
+                        for (int i = 0; i < values.length; i++) {
+                            converted[i] = toSQLValue(values[i]);
+                        }
+                        String type = COLUMN_TYPES.get(condition.key().toLowerCase(Locale.ROOT));
+                        stmt.setArray(index++, stmt.getConnection().createArrayOf(type, converted));
+                    }
+                }
+                case STARTS_WITH -> stmt.setString(index++, escapeLike(String.valueOf(condition.value())) + "%");
+                case IS_NULL, IS_NOT_NULL -> {
+                }
+            }
+        }
     }
 
     /**
-     * Mappa un ResultSet a un oggetto RecordOperator.
+     * Restituisce i valori di una condizione {@code IN}.
      *
-     * @param rs Il ResultSet contenente i dati dell'operatore.
-     * @return Un oggetto RecordOperator mappato dal ResultSet.
-     * @throws SQLException Se si verifica un errore durante la mappatura.
+     * @param condition La condizione.
+     * @return I valori della condizione.
+     * @throws IllegalArgumentException Se il valore della condizione non è un array.
      */
-    private RecordOperator mapResultSetToRecordOperator(ResultSet rs) throws SQLException {
-        return new RecordOperator(
-                rs.getInt("id"),
-                rs.getString("namesurname"),
-                rs.getString("taxcode"),
-                rs.getString("email"),
-                rs.getString("username"),
-                rs.getString("password"),
-                rs.getInt("centerid")
-        );
+    private static Object[] inValues(QueryCondition condition) {
+        if (condition.value() instanceof Object[] values) {
+            return values;
+        }
+        throw new IllegalArgumentException("La condizione IN richiede un array di valori: " + condition.key());
     }
 
     /**
-     * Mappa un ResultSet a un oggetto RecordCenter.
+     * Converte il valore di una condizione nel tipo utilizzato dal database.
+     * <p>
+     *     Le date {@link java.util.Date} vengono convertite in {@link LocalDate}, così da
+     *     confrontare direttamente la colonna di tipo {@code DATE} senza conversioni.
+     * </p>
      *
-     * @param rs Il ResultSet contenente i dati del centro di monitoraggio.
-     * @return Un oggetto RecordCenter mappato dal ResultSet.
-     * @throws SQLException Se si verifica un errore durante la mappatura.
+     * @param value Il valore da convertire.
+     * @return Il valore convertito.
      */
-    private RecordCenter mapResultSetToRecordCenter(ResultSet rs) throws SQLException {
-        Integer[] cityIds = (Integer[]) rs.getArray("cityids").getArray();
-        return new RecordCenter(
-                rs.getInt("id"),
-                rs.getString("centername"),
-                rs.getString("streetname"),
-                rs.getString("streetnumber"),
-                rs.getString("cap"),
-                rs.getString("townname"),
-                rs.getString("districtname"),
-                cityIds
-        );
+    private static Object toSQLValue(Object value) {
+        if (value instanceof java.sql.Date sqlDate) {
+            return sqlDate.toLocalDate();
+        }
+        if (value instanceof java.util.Date date) {
+            return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+        return value;
     }
 
     /**
-     * Mappa un ResultSet a un oggetto RecordWeather.
+     * Esegue l'escape dei caratteri speciali di {@code LIKE} in un prefisso.
      *
-     * @param rs Il ResultSet contenente i dati dei parametri climatici.
-     * @return Un oggetto RecordWeather mappato dal ResultSet.
-     * @throws SQLException Se si verifica un errore durante la mappatura.
+     * @param prefix Il prefisso.
+     * @return Il prefisso con i caratteri speciali preceduti da {@code \}.
      */
-    private RecordWeather mapResultSetToRecordWeather(ResultSet rs) throws SQLException {
-        return new RecordWeather(
-                rs.getInt("id"),
-                rs.getInt("cityid"),
-                rs.getInt("centerid"),
-                rs.getString("date"),
-                new RecordWeather.WeatherData(zeroToNull(rs.getInt("windscore")), rs.getString("windcomment")),
-                new RecordWeather.WeatherData(zeroToNull(rs.getInt("humidityscore")), rs.getString("humiditycomment")),
-                new RecordWeather.WeatherData(zeroToNull(rs.getInt("pressurescore")), rs.getString("pressurecomment")),
-                new RecordWeather.WeatherData(zeroToNull(rs.getInt("temperaturescore")), rs.getString("temperaturecomment")),
-                new RecordWeather.WeatherData(zeroToNull(rs.getInt("precipitationscore")), rs.getString("precipitationcomment")),
-                new RecordWeather.WeatherData(zeroToNull(rs.getInt("glacierelevationscore")), rs.getString("glacierelevationcomment")),
-                new RecordWeather.WeatherData(zeroToNull(rs.getInt("glaciermassscore")), rs.getString("glaciermasscomment"))
-        );
+    private static String escapeLike(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     /**
@@ -1,17 +1,24 @@
 package server.ImplementationRMI;
 
+import java.io.IOException;
 import java.io.Serial;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.sql.SQLException;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.UUID;
 
+import server.IngestLog;
+import server.DataSourceRouter;
 import server.Server;
+import server.SessionManager;
+import server.WeatherIngestQueue;
 import shared.interfacesRMI.LogicCenterInterface;
 import shared.interfacesRMI.DataHandlerInterface;
 import shared.interfacesRMI.DataQueryInterface;
+import shared.record.InsertResult;
 import shared.record.RecordCenter;
 import shared.record.RecordOperator;
 import shared.record.RecordWeather;
@@ -32,6 +39,7 @@ import shared.utils.Functions;
  * @see RecordCenter
  * @see RecordWeather
  * @see RecordOperator
+ * @see SessionManager
  * @see Functions
  * @serial exclude
  *
@@ -56,6 +64,23 @@ public class LogicCenterImp extends UnicastRemoteObject implements LogicCenterIn
      */
     private final DataQueryInterface dataQuery;
 
+    /**
+     * Il gestore delle sessioni degli operatori autenticati.
+     */
+    private final SessionManager sessions;
+
+    /**
+     * La coda di inserimento differito dei parametri climatici, oppure {@code null} se
+     * ogni inserimento viene scritto direttamente.
+     */
+    private final WeatherIngestQueue ingestQueue;
+
+    /**
+     * Il registro locale degli inserimenti, oppure {@code null} se i parametri climatici
+     * vengono scritti direttamente nel database.
+     */
+    private final IngestLog ingestLog;
+
     /**
      * Costruttore della classe {@code LogicCenterImp} che la inizializza cone le
      * interfacce necessarie.
@@ -63,11 +88,51 @@ public class LogicCenterImp extends UnicastRemoteObject implements LogicCenterIn
      * @param dataHandler Il gestore dei dati utilizzato per l'accesso ai dati
      *                    dell'applicazione.
      * @param dataQuery   L'interfaccia per le query sui dati.
+     * @param sessions    Il gestore delle sessioni degli operatori.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    public LogicCenterImp(DataHandlerInterface dataHandler, DataQueryInterface dataQuery,
+                          SessionManager sessions) throws RemoteException {
+        this(dataHandler, dataQuery, sessions, null);
+    }
+
+    /**
+     * Costruttore della classe {@code LogicCenterImp} che scrive i parametri climatici
+     * tramite la coda di inserimento differito specificata.
+     *
+     * @param dataHandler Il gestore dei dati utilizzato per l'accesso ai dati
+     *                    dell'applicazione.
+     * @param dataQuery   L'interfaccia per le query sui dati.
+     * @param sessions    Il gestore delle sessioni degli operatori.
+     * @param ingestQueue La coda di inserimento differito, oppure {@code null}.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    public LogicCenterImp(DataHandlerInterface dataHandler, DataQueryInterface dataQuery,
+                          SessionManager sessions, WeatherIngestQueue ingestQueue) throws RemoteException {
+        this(dataHandler, dataQuery, sessions, ingestQueue, null);
+    }
+
+    /**
+     * Costruttore della classe {@code LogicCenterImp} che registra i parametri climatici
+     * nel registro locale degli inserimenti specificato, da cui vengono poi inseriti nel
+     * database.
+     *
+     * @param dataHandler Il gestore dei dati utilizzato per l'accesso ai dati
+     *                    dell'applicazione.
+     * @param dataQuery   L'interfaccia per le query sui dati.
+     * @param sessions    Il gestore delle sessioni degli operatori.
+     * @param ingestQueue La coda di inserimento differito, oppure {@code null}.
+     * @param ingestLog   Il registro degli inserimenti, oppure {@code null}; se presente,
+     *                    ha la precedenza sulla coda.
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
      */
-    public LogicCenterImp(DataHandlerInterface dataHandler, DataQueryInterface dataQuery) throws RemoteException {
+    public LogicCenterImp(DataHandlerInterface dataHandler, DataQueryInterface dataQuery, SessionManager sessions,
+                          WeatherIngestQueue ingestQueue, IngestLog ingestLog) throws RemoteException {
         this.dataHandler = dataHandler;
         this.dataQuery = dataQuery;
+        this.sessions = sessions;
+        this.ingestQueue = ingestQueue;
+        this.ingestLog = ingestLog;
     }
 
     /**
@@ -81,14 +146,17 @@ public class LogicCenterImp extends UnicastRemoteObject implements LogicCenterIn
      * @param townName     Il nome del comune.
      * @param districtName Il nome della provincia.
      * @param cityIDs      Un array di ID di città associate al centro di monitoraggio.
-     * @param operatorID   L'ID dell'operatore associato al centro.
+     * @param sessionToken Il token della sessione dell'operatore associato al centro.
+     * @return L'operatore aggiornato con l'ID del nuovo centro.
      *
      * @throws IllegalArgumentException Se uno dei parametri non è valido.
+     * @throws IllegalStateException    Se la sessione non è valida o l'operatore è già associato a un centro.
      * @throws SQLException             Se si verifica un errore durante l'accesso al database.
      * @throws RemoteException          Se si verifica un errore di comunicazione RMI.
      */
     @Override
-    public synchronized void initNewCenter(
+    @SuppressWarnings("try")
+    public synchronized RecordOperator initNewCenter(
             String centerName,
             String streetName,
             String streetNumber,
@@ -96,78 +164,149 @@ public class LogicCenterImp extends UnicastRemoteObject implements LogicCenterIn
             String townName,
             String districtName,
             Integer[] cityIDs,
-            Integer operatorID) throws RemoteException, SQLException {
+            String sessionToken) throws RemoteException, SQLException {
 
         Server.resetInactivityTimer();
+        try (DataSourceRouter.SessionScope ignored = DataSourceRouter.bindSession(sessionToken)) {
+            RecordOperator currentOperator = sessions.require(sessionToken, SessionManager.Permission.CREATE_CENTER).operator();
+
+            validateCenterParameters(centerName, streetName, streetNumber, CAP, townName, districtName, cityIDs);
+
+            InsertResult<RecordCenter> result = dataHandler.addNewCenterForOperator(
+                    centerName,
+                    streetName,
+                    streetNumber,
+                    CAP,
+                    townName,
+                    districtName,
+                    cityIDs,
+                    currentOperator.ID());
+            if (result.isDuplicate()) {
+                throw new IllegalArgumentException("Il centro esiste già.");
+            }
 
-        validateCenterParameters(centerName, streetName, streetNumber, CAP, townName, districtName, cityIDs);
-
-        RecordCenter newCenter = dataHandler.addNewCenter(
-                centerName,
-                streetName,
-                streetNumber,
-                CAP,
-                townName,
-                districtName,
-                cityIDs);
-
-        RecordOperator currentOperator = dataQuery.getOperatorBy(operatorID);
-
-        RecordOperator updatedOperator = new RecordOperator(
-                currentOperator.ID(),
-                currentOperator.nameSurname(),
-                currentOperator.taxCode(),
-                currentOperator.email(),
-                currentOperator.username(),
-                currentOperator.password(),
-                newCenter.ID());
-
-        dataHandler.updateOperator(updatedOperator);
+            RecordOperator updatedOperator = new RecordOperator(
+                    currentOperator.ID(),
+                    currentOperator.nameSurname(),
+                    currentOperator.taxCode(),
+                    currentOperator.email(),
+                    currentOperator.username(),
+                    currentOperator.password(),
+                    result.record().ID());
+
+            sessions.update(sessionToken, updatedOperator);
+            return updatedOperator;
+        }
     }
 
     /**
      * Aggiunge nuovi dati climatici per una città specifica e li associa al centro di
      * monitoraggio dell'operatore specificato.
+     * <p>
+     * Se è configurata la coda di inserimento differito, i dati validati vengono accodati
+     * e il metodo termina quando il gruppo che li contiene è stato confermato. Il metodo
+     * non è sincronizzato, in modo che gli inserimenti concorrenti possano essere scritti
+     * nello stesso gruppo.
+     * </p>
      *
      * @param cityID     L'ID della città a cui sono associati i dati meteorologici.
-     * @param operatorID L'ID dell'operatore che aggiunge i dati.
+     * @param sessionToken Il token della sessione dell'operatore che aggiunge i dati.
      * @param date       La data relativa ai dati meteorologici.
      * @param tableDatas Una matrice di dati meteorologici da aggiungere.
      *
      * @throws IllegalArgumentException Se uno dei parametri non è valido.
+     * @throws IllegalStateException    Se la sessione non è valida o l'operatore non è associato a un centro.
      * @throws SQLException             Se si verifica un errore durante l'accesso al database.
      * @throws RemoteException          Se si verifica un errore di comunicazione RMI.
      */
     @Override
-    public synchronized void addDataToCenter(
+    public void addDataToCenter(
             Integer cityID,
-            Integer operatorID,
-            String date,
+            String sessionToken,
+            LocalDate date,
             Object[][] tableDatas) throws RemoteException, SQLException {
+        addDataToCenter(cityID, sessionToken, date, tableDatas, null);
+    }
+
+    /**
+     * Aggiunge nuovi dati climatici per una città specifica, identificando l'invio con
+     * l'ID specificato.
+     * <p>
+     * Se è configurato il registro locale degli inserimenti, i dati validati vengono
+     * aggiunti al registro e il metodo termina quando sono stati scritti sul disco;
+     * l'inserimento nel database avviene in seguito, una sola volta per ciascun ID.
+     * Se l'ID è specificato, l'inserimento diretto o tramite la coda di inserimento
+     * differito viene ignorato quando l'ID è già presente per la stessa data.
+     * </p>
+     *
+     * @param cityID       L'ID della città a cui sono associati i dati meteorologici.
+     * @param sessionToken Il token della sessione dell'operatore che aggiunge i dati.
+     * @param date         La data relativa ai dati meteorologici.
+     * @param tableDatas   Una matrice di dati meteorologici da aggiungere.
+     * @param requestID    L'ID dell'invio, oppure {@code null}.
+     *
+     * @throws IllegalArgumentException Se uno dei parametri non è valido.
+     * @throws IllegalStateException    Se la sessione non è valida o l'operatore non è associato a un centro.
+     * @throws SQLException             Se si verifica un errore durante l'accesso al database o al registro.
+     * @throws RemoteException          Se si verifica un errore di comunicazione RMI.
+     */
+    @Override
+    @SuppressWarnings("try")
+    public void addDataToCenter(
+            Integer cityID,
+            String sessionToken,
+            LocalDate date,
+            Object[][] tableDatas,
+            String requestID) throws RemoteException, SQLException {
 
         Server.resetInactivityTimer();
+        try (DataSourceRouter.SessionScope ignored = DataSourceRouter.bindSession(sessionToken)) {
+            Integer centerID = sessions.require(sessionToken, SessionManager.Permission.ADD_WEATHER).centerID();
+            validateWeatherData(date, tableDatas);
 
-        validateOperator(operatorID);
-        validateWeatherData(date, tableDatas);
+            List<RecordWeather.WeatherData> weatherDataList = new ArrayList<>();
+            for (Object[] tableData : tableDatas) {
+                Integer integerValue = (Integer) tableData[0];
+                String stringValue = (String) tableData[1];
+                weatherDataList.add(new RecordWeather.WeatherData(integerValue, stringValue));
+            }
+            RecordWeather weather = new RecordWeather(
+                    null,
+                    cityID,
+                    centerID,
+                    date,
+                    weatherDataList.get(0),
+                    weatherDataList.get(1),
+                    weatherDataList.get(2),
+                    weatherDataList.get(3),
+                    weatherDataList.get(4),
+                    weatherDataList.get(5),
+                    weatherDataList.get(6));
 
-        List<RecordWeather.WeatherData> weatherDataList = new ArrayList<>();
-        for (Object[] tableData : tableDatas) {
-            Integer integerValue = (Integer) tableData[0];
-            String stringValue = (String) tableData[1];
-            weatherDataList.add(new RecordWeather.WeatherData(integerValue, stringValue));
+            if (ingestLog != null) {
+                try {
+                    ingestLog.appendDurably(new IngestLog.Entry(parseRequestID(requestID), weather));
+                } catch (IOException e) {
+                    throw new SQLException("Impossibile registrare i dati climatici: " + e.getMessage(), "58030", e);
+                }
+            } else if (ingestQueue != null) {
+                ingestQueue.submit(weather, parseRequestID(requestID));
+            } else if (requestID != null) {
+                dataHandler.addNewWeather(weather, parseRequestID(requestID));
+            } else {
+                dataHandler.addNewWeather(
+                        weather.cityID(),
+                        weather.centerID(),
+                        weather.date(),
+                        weather.wind(),
+                        weather.humidity(),
+                        weather.pressure(),
+                        weather.temperature(),
+                        weather.precipitation(),
+                        weather.glacierElevation(),
+                        weather.glacierMass());
+            }
         }
-
-        dataHandler.addNewWeather(
-                cityID,
-                dataQuery.getOperatorBy(operatorID).centerID(),
-                date,
-                weatherDataList.get(0),
-                weatherDataList.get(1),
-                weatherDataList.get(2),
-                weatherDataList.get(3),
-                weatherDataList.get(4),
-                weatherDataList.get(5),
-                weatherDataList.get(6));
     }
 
     /**
@@ -180,12 +319,10 @@ public class LogicCenterImp extends UnicastRemoteObject implements LogicCenterIn
      * @param townName     Il nome del comune.
      * @param districtName Il nome della provincia.
      * @param cityIDs      Gli ID delle città associate.
-     * @throws RemoteException    Se si verifica un errore di comunicazione RMI.
-     * @throws SQLException       Se si verifica un errore di accesso al database.
      * @throws IllegalArgumentException Se uno qualsiasi dei parametri non è valido.
      */
     private void validateCenterParameters(String centerName, String streetName, String streetNumber, String CAP,
-                                          String townName, String districtName, Integer[] cityIDs) throws RemoteException, SQLException, IllegalArgumentException {
+                                          String townName, String districtName, Integer[] cityIDs) throws IllegalArgumentException {
         if (centerName.isBlank())
             throw new IllegalArgumentException("Il nome del centro non può essere vuoto.");
         if (streetName.isBlank())
@@ -200,30 +337,27 @@ public class LogicCenterImp extends UnicastRemoteObject implements LogicCenterIn
             throw new IllegalArgumentException("Il nome della provincia non può essere vuoto.");
 
         for (Integer cityID : cityIDs) {
-            if (cityID == null || dataQuery.getCityBy(cityID) == null) {
+            if (cityID == null) {
                 throw new IllegalArgumentException("ID della città non valido: " + cityID);
             }
         }
     }
 
     /**
-     * Valida l'operatore specificato assicurandosi che esista e sia associato a un centro di monitoraggio.
+     * Converte l'ID di un invio, generandone uno nuovo se non è specificato.
      *
-     * @param operatorID L'ID dell'operatore da validare.
-     * @throws RemoteException       Se si verifica un errore di comunicazione RMI.
-     * @throws SQLException          Se si verifica un errore di accesso al database.
-     * @throws NoSuchElementException Se l'operatore non esiste.
-     * @throws IllegalStateException  Se l'operatore non è associato a nessun centro di monitoraggio.
+     * @param requestID L'ID dell'invio, oppure {@code null}.
+     * @return L'ID dell'invio.
+     * @throws IllegalArgumentException Se l'ID non è un UUID valido.
      */
-    private void validateOperator(Integer operatorID) throws RemoteException, SQLException {
-        RecordOperator currentOperator = dataQuery.getOperatorBy(operatorID);
-
-        if (currentOperator == null) {
-            throw new NoSuchElementException("Nessun operatore trovato con ID specificato.");
+    private static UUID parseRequestID(String requestID) {
+        if (requestID == null) {
+            return UUID.randomUUID();
         }
-
-        if (currentOperator.centerID() == 0) {
-            throw new IllegalStateException("L'operatore non è associato a nessun centro di monitoraggio.");
+        try {
+            return UUID.fromString(requestID);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("ID dell'invio non valido.");
         }
     }
 
@@ -234,8 +368,8 @@ public class LogicCenterImp extends UnicastRemoteObject implements LogicCenterIn
      * @param tableDatas I dati climatici da validare.
      * @throws IllegalArgumentException Se i dati o la data non sono validi.
      */
-    private void validateWeatherData(String date, Object[][] tableDatas) {
-        if (date == null || date.isBlank() || !Functions.isDateValid(date)) {
+    public static void validateWeatherData(LocalDate date, Object[][] tableDatas) {
+        if (!Functions.isDateValid(date)) {
             throw new IllegalArgumentException("Data non valida.");
         }
 
@@ -1,15 +1,27 @@
 package server.ImplementationRMI;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serial;
+import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
 
 import server.Server;
+import server.WeatherAggregator;
+import server.WeatherEventDispatcher;
+import shared.interfacesRMI.DataQueryInterface;
 import shared.interfacesRMI.LogicCityInterface;
+import shared.interfacesRMI.WeatherListener;
+import shared.record.QueryCondition;
 import shared.record.RecordWeather;
 
 /**
@@ -21,6 +33,7 @@ import shared.record.RecordWeather;
  *
  * @see RecordWeather
  * @see WeatherTableData
+ * @see WeatherAggregator
  * @see LogicCityInterface
  * @serial exclude
  *
@@ -34,13 +47,44 @@ public class LogicCityImp extends UnicastRemoteObject implements LogicCityInterf
 
     @Serial
     private static final long serialVersionUID = 5L;
+
+    /**
+     * L'interfaccia per le query sui dati.
+     */
+    private final DataQueryInterface dataQuery;
+
+    /**
+     * L'aggregatore utilizzato per calcolare i dati meteorologici elaborati.
+     */
+    private final WeatherAggregator aggregator = new WeatherAggregator();
+
+    /**
+     * Il dispatcher degli eventi a cui vengono registrate le iscrizioni, oppure {@code null}.
+     */
+    private final WeatherEventDispatcher events;
+
     /**
      * Costruttore della classe {@code LogicCityImp}.
      *
+     * @param dataQuery L'interfaccia per le query sui dati.
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
      */
-    public LogicCityImp() throws RemoteException {
+    public LogicCityImp(DataQueryInterface dataQuery) throws RemoteException {
+        this(dataQuery, null);
+    }
+
+    /**
+     * Costruttore della classe {@code LogicCityImp} che gestisce le iscrizioni ai nuovi
+     * parametri climatici tramite il dispatcher specificato.
+     *
+     * @param dataQuery L'interfaccia per le query sui dati.
+     * @param events    Il dispatcher degli eventi, oppure {@code null}.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    public LogicCityImp(DataQueryInterface dataQuery, WeatherEventDispatcher events) throws RemoteException {
         super();
+        this.dataQuery = dataQuery;
+        this.events = events;
     }
 
     /**
@@ -49,36 +93,265 @@ public class LogicCityImp extends UnicastRemoteObject implements LogicCityInterf
      * Fornisce metodi per calcolare la media dei punteggi, il conteggio dei record
      * e i commenti per diverse categorie meteorologiche.
      * </p>
+     * <p>
+     * I dati sono accumulati in array primitivi indicizzati per {@link Category#ordinal()},
+     * senza boxing per ogni punteggio. Più istanze calcolate su porzioni diverse dei
+     * record possono essere combinate tramite {@link #merge(WeatherTableData)}.
+     * </p>
      */
-    public static class WeatherTableData {
+    public static class WeatherTableData implements Serializable {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Le categorie meteorologiche gestite, nell'ordine delle colonne di {@link RecordWeather}.
+         */
+        public enum Category {
+            WIND("wind"),
+            HUMIDITY("humidity"),
+            PRESSURE("pressure"),
+            TEMPERATURE("temperature"),
+            PRECIPITATION("precipitation"),
+            GLACIER_ELEVATION("glacierElevation"),
+            GLACIER_MASS("glacierMass");
+
+            /**
+             * Copia in cache di {@link #values()}, per evitare un'allocazione a ogni accesso.
+             */
+            private static final Category[] VALUES = values();
+
+            /**
+             * La chiave testuale della categoria.
+             */
+            private final String key;
+
+            Category(String key) {
+                this.key = key;
+            }
+
+            /**
+             * Restituisce la chiave testuale della categoria.
+             *
+             * @return La chiave della categoria.
+             */
+            public String key() {
+                return key;
+            }
+
+            /**
+             * Restituisce la categoria associata alla chiave specificata.
+             *
+             * @param key La chiave della categoria.
+             * @return La categoria corrispondente o {@code null} se la chiave non è valida.
+             */
+            public static Category fromKey(String key) {
+                if (key == null) {
+                    return null;
+                }
+                for (Category category : VALUES) {
+                    if (category.key.equals(key)) {
+                        return category;
+                    }
+                }
+                return null;
+            }
+
+            /**
+             * Estrae da un record il dato meteorologico relativo a questa categoria.
+             *
+             * @param record Il record meteorologico.
+             * @return Il dato meteorologico della categoria.
+             */
+            public RecordWeather.WeatherData of(RecordWeather record) {
+                return switch (this) {
+                    case WIND -> record.wind();
+                    case HUMIDITY -> record.humidity();
+                    case PRESSURE -> record.pressure();
+                    case TEMPERATURE -> record.temperature();
+                    case PRECIPITATION -> record.precipitation();
+                    case GLACIER_ELEVATION -> record.glacierElevation();
+                    case GLACIER_MASS -> record.glacierMass();
+                };
+            }
+        }
+
+        /**
+         * Numero di categorie meteorologiche.
+         */
+        public static final int CATEGORY_COUNT = Category.VALUES.length;
+
+        /**
+         * Punteggio massimo assegnabile a una categoria.
+         */
+        public static final int MAX_SCORE = 5;
 
         /**
          * Array di chiavi per i dati meteorologici.
          */
         public static final String[] KEYS = {
-                "wind",
-                "humidity",
-                "pressure",
-                "temperature",
-                "precipitation",
-                "glacierElevation",
-                "glacierMass"
+                Category.WIND.key(),
+                Category.HUMIDITY.key(),
+                Category.PRESSURE.key(),
+                Category.TEMPERATURE.key(),
+                Category.PRECIPITATION.key(),
+                Category.GLACIER_ELEVATION.key(),
+                Category.GLACIER_MASS.key()
         };
 
         /**
-         * Mappa per archiviare il punteggio per ciascuna categoria di dati.
+         * Somma dei punteggi per ciascuna categoria di dati.
+         */
+        private final long[] categoryScore = new long[CATEGORY_COUNT];
+
+        /**
+         * Conteggio dei record con punteggio per ciascuna categoria di dati.
          */
-        private final Map<String, Float> categoryScore = new HashMap<>();
+        private final long[] categoryRecordCounts = new long[CATEGORY_COUNT];
 
         /**
-         * Mappa per archiviare il conteggio dei record per ciascuna categoria di dati.
+         * Istogramma dei punteggi per ciascuna categoria: l'indice {@code [c][s]} conta
+         * i record della categoria {@code c} con punteggio {@code s}.
          */
-        private final Map<String, Integer> categoryRecordCounts = new HashMap<>();
+        private final long[][] categoryHistogram = new long[CATEGORY_COUNT][MAX_SCORE + 1];
 
         /**
-         * Mappa per archiviare i commenti relativi a ciascuna categoria di dati.
+         * Liste dei commenti relativi a ciascuna categoria di dati.
          */
-        private final Map<String, List<String>> categoryComments = new HashMap<>();
+        private final CommentList[] categoryComments = new CommentList[CATEGORY_COUNT];
+
+        /**
+         * Lista di commenti in cui si può solo aggiungere in coda.
+         * <p>
+         * Gli elementi già presenti non vengono mai modificati: una copia ottenuta con
+         * {@link #share()} condivide l'array con l'originale e ne legge solo la parte già
+         * occupata, mentre l'originale continua ad aggiungere nelle posizioni successive.
+         * La copia duplica l'array solo alla sua prima aggiunta.
+         * </p>
+         */
+        private static final class CommentList extends AbstractList<String> implements RandomAccess, Serializable {
+
+            @Serial
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * Array vuoto condiviso dalle liste senza commenti.
+             */
+            private static final String[] EMPTY = new String[0];
+
+            /**
+             * Capacità minima allocata alla prima aggiunta.
+             */
+            private static final int MIN_CAPACITY = 8;
+
+            /**
+             * Gli elementi della lista, validi fino a {@link #size}.
+             */
+            private transient String[] elements = EMPTY;
+
+            /**
+             * Il numero di elementi della lista.
+             */
+            private int size;
+
+            /**
+             * Indica se l'array è condiviso con un'altra lista e va copiato prima di aggiungere.
+             */
+            private transient boolean shared;
+
+            @Override
+            public String get(int index) {
+                Objects.checkIndex(index, size);
+                return elements[index];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean add(String comment) {
+                ensureCapacity(size + 1);
+                elements[size++] = comment;
+                modCount++;
+                return true;
+            }
+
+            /**
+             * Aggiunge in coda i commenti di un'altra lista.
+             *
+             * @param other La lista da aggiungere.
+             */
+            private void addAll(CommentList other) {
+                if (other.size == 0) {
+                    return;
+                }
+                ensureCapacity(size + other.size);
+                System.arraycopy(other.elements, 0, elements, size, other.size);
+                size += other.size;
+                modCount++;
+            }
+
+            /**
+             * Garantisce lo spazio per il numero di elementi specificato, copiando l'array
+             * se è pieno o condiviso.
+             *
+             * @param capacity Il numero di elementi da contenere.
+             */
+            private void ensureCapacity(int capacity) {
+                if (!shared && capacity <= elements.length) {
+                    return;
+                }
+                int grown = Math.max(elements.length + (elements.length >> 1), MIN_CAPACITY);
+                elements = Arrays.copyOf(elements, Math.max(grown, capacity));
+                shared = false;
+            }
+
+            /**
+             * Restituisce una lista con gli stessi elementi, che condivide l'array con questa.
+             *
+             * @return La lista condivisa.
+             */
+            private CommentList share() {
+                CommentList copy = new CommentList();
+                copy.elements = elements;
+                copy.size = size;
+                copy.shared = true;
+                return copy;
+            }
+
+            @Serial
+            private void writeObject(ObjectOutputStream out) throws IOException {
+                out.defaultWriteObject();
+                for (int i = 0; i < size; i++) {
+                    out.writeObject(elements[i]);
+                }
+            }
+
+            @Serial
+            private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+                in.defaultReadObject();
+                elements = size == 0 ? EMPTY : new String[size];
+                for (int i = 0; i < size; i++) {
+                    elements[i] = (String) in.readObject();
+                }
+            }
+        }
+
+        /**
+         * Costruisce un aggregatore vuoto, a cui aggiungere record con {@link #add(RecordWeather)}
+         * o altri aggregatori con {@link #merge(WeatherTableData)}.
+         * <p>
+         * Le liste dei commenti vengono allocate al primo commento della categoria, dato
+         * che la maggior parte dei record non ne contiene.
+         * </p>
+         */
+        public WeatherTableData() {
+            for (int i = 0; i < CATEGORY_COUNT; i++) {
+                categoryComments[i] = new CommentList();
+            }
+        }
 
         /**
          * Costruttore della classe {@code WeatherTableData}.
@@ -87,48 +360,129 @@ public class LogicCityImp extends UnicastRemoteObject implements LogicCityInterf
          * </p>
          *
          * @param weatherRecords Un array di record meteorologici.
-            * @throws IllegalArgumentException Se non vengono forniti dati meteorologici.
+         * @throws IllegalArgumentException Se non vengono forniti dati meteorologici.
          */
         public WeatherTableData(RecordWeather[] weatherRecords) {
+            this();
             if (weatherRecords == null || weatherRecords.length == 0) {
                 throw new IllegalArgumentException("Nessun dato meteorologico fornito.");
             }
 
             for (RecordWeather record : weatherRecords) {
-                processCategory(record.wind(), KEYS[0]);
-                processCategory(record.humidity(), KEYS[1]);
-                processCategory(record.pressure(), KEYS[2]);
-                processCategory(record.temperature(), KEYS[3]);
-                processCategory(record.precipitation(), KEYS[4]);
-                processCategory(record.glacierElevation(), KEYS[5]);
-                processCategory(record.glacierMass(), KEYS[6]);
+                add(record);
+            }
+        }
+
+        /**
+         * Aggiunge un record meteorologico ai dati aggregati.
+         *
+         * @param record Il record meteorologico da aggiungere.
+         */
+        public void add(RecordWeather record) {
+            processCategory(record.wind(), Category.WIND.ordinal());
+            processCategory(record.humidity(), Category.HUMIDITY.ordinal());
+            processCategory(record.pressure(), Category.PRESSURE.ordinal());
+            processCategory(record.temperature(), Category.TEMPERATURE.ordinal());
+            processCategory(record.precipitation(), Category.PRECIPITATION.ordinal());
+            processCategory(record.glacierElevation(), Category.GLACIER_ELEVATION.ordinal());
+            processCategory(record.glacierMass(), Category.GLACIER_MASS.ordinal());
+        }
+
+        /**
+         * Unisce ai dati correnti quelli di un altro aggregatore.
+         *
+         * @param other L'aggregatore da unire.
+         * @return Questo aggregatore, aggiornato.
+         */
+        public WeatherTableData merge(WeatherTableData other) {
+            for (int i = 0; i < CATEGORY_COUNT; i++) {
+                categoryScore[i] += other.categoryScore[i];
+                categoryRecordCounts[i] += other.categoryRecordCounts[i];
+                for (int s = 0; s <= MAX_SCORE; s++) {
+                    categoryHistogram[i][s] += other.categoryHistogram[i][s];
+                }
+                categoryComments[i].addAll(other.categoryComments[i]);
+            }
+            return this;
+        }
+
+        /**
+         * Restituisce una copia dei dati aggregati che non cambia con le aggiunte successive
+         * a questo aggregatore.
+         * <p>
+         * Vengono copiati solo i punteggi e i conteggi: le liste dei commenti condividono gli
+         * elementi già presenti, quindi il costo non dipende dal numero di record aggregati.
+         * </p>
+         *
+         * @return La copia dei dati aggregati.
+         */
+        public WeatherTableData snapshot() {
+            WeatherTableData copy = new WeatherTableData();
+            for (int i = 0; i < CATEGORY_COUNT; i++) {
+                copy.categoryScore[i] = categoryScore[i];
+                copy.categoryRecordCounts[i] = categoryRecordCounts[i];
+                System.arraycopy(categoryHistogram[i], 0, copy.categoryHistogram[i], 0, MAX_SCORE + 1);
+                copy.categoryComments[i] = categoryComments[i].share();
+            }
+            return copy;
+        }
+
+        /**
+         * Aggiunge ai dati aggregati un gruppo di record di una categoria con lo stesso
+         * punteggio e lo stesso commento, come quelli restituiti da un'aggregazione eseguita
+         * dal database.
+         *
+         * @param category La categoria meteorologica del gruppo.
+         * @param score    Il punteggio comune ai record, oppure {@code null}.
+         * @param comment  Il commento comune ai record, oppure {@code null}.
+         * @param count    Il numero di record del gruppo.
+         */
+        public void addGroup(Category category, Integer score, String comment, long count) {
+            int index = category.ordinal();
+            if (score != null) {
+                int value = score;
+                categoryScore[index] += value * count;
+                categoryRecordCounts[index] += count;
+                if (value >= 0 && value <= MAX_SCORE) {
+                    categoryHistogram[index][value] += count;
+                }
+            }
+
+            if (comment != null) {
+                CommentList comments = categoryComments[index];
+                for (long i = 0; i < count; i++) {
+                    comments.add(comment);
+                }
             }
         }
 
         /**
          * Processa i dati meteorologici per una categoria specifica.
          * <p>
-         * Aggiorna i punteggi, i conteggi dei record e i commenti per la categoria
-         * data.
+         * Aggiorna i punteggi, i conteggi dei record, l'istogramma e i commenti per la
+         * categoria data.
          * </p>
          *
          * @param data     I dati meteorologici da processare.
-         * @param category La categoria meteorologica a cui appartengono i dati.
+         * @param category L'indice della categoria meteorologica a cui appartengono i dati.
          */
-        private void processCategory(RecordWeather.WeatherData data, String category) {
+        private void processCategory(RecordWeather.WeatherData data, int category) {
             if (data == null) {
                 return;
             }
 
-            if (data.score() != null) {
-                categoryScore.put(category, categoryScore.getOrDefault(category, 0f) + data.score());
-                categoryRecordCounts.put(category, categoryRecordCounts.getOrDefault(category, 0) + 1);
+            Integer score = data.score();
+            if (score != null) {
+                int value = score;
+                categoryScore[category] += value;
+                categoryRecordCounts[category]++;
+                if (value >= 0 && value <= MAX_SCORE) {
+                    categoryHistogram[category][value]++;
+                }
             }
 
             if (data.comment() != null) {
-                List<String> comments = categoryComments.getOrDefault(category, new ArrayList<>());
-                comments.add(data.comment());
-                categoryComments.put(category, comments);
+                categoryComments[category].add(data.comment());
             }
         }
 
@@ -140,12 +494,23 @@ public class LogicCityImp extends UnicastRemoteObject implements LogicCityInterf
          *         record.
          */
         public Integer getCategoryAvgScore(String category) {
+            Category c = Category.fromKey(category);
+            return c == null ? null : getCategoryAvgScore(c);
+        }
 
-            Server.resetInactivityTimer();
-            if (category == null || getCategoryRecordCount(category) == 0) {
+        /**
+         * Ottiene la media dei punteggi per una categoria meteorologica specifica.
+         *
+         * @param category La categoria meteorologica desiderata.
+         * @return La media dei punteggi per la categoria o {@code null} se non ci sono
+         *         record.
+         */
+        public Integer getCategoryAvgScore(Category category) {
+            long count = categoryRecordCounts[category.ordinal()];
+            if (count == 0) {
                 return null;
             }
-            return Math.round(categoryScore.getOrDefault(category, 0.0f) / getCategoryRecordCount(category));
+            return Math.round((float) categoryScore[category.ordinal()] / count);
         }
 
         /**
@@ -155,20 +520,55 @@ public class LogicCityImp extends UnicastRemoteObject implements LogicCityInterf
          * @return Il conteggio dei record per la categoria.
          */
         public int getCategoryRecordCount(String category) {
-            Server.resetInactivityTimer();
-            return categoryRecordCounts.getOrDefault(category, 0);
+            Category c = Category.fromKey(category);
+            return c == null ? 0 : getCategoryRecordCount(c);
+        }
+
+        /**
+         * Ottiene il conteggio dei record per una categoria meteorologica specifica.
+         *
+         * @param category La categoria meteorologica desiderata.
+         * @return Il conteggio dei record per la categoria.
+         */
+        public int getCategoryRecordCount(Category category) {
+            return (int) categoryRecordCounts[category.ordinal()];
+        }
+
+        /**
+         * Ottiene il numero di record con il punteggio specificato per una categoria.
+         *
+         * @param category La categoria meteorologica desiderata.
+         * @param score    Il punteggio, compreso tra 0 e {@link #MAX_SCORE}.
+         * @return Il numero di record della categoria con quel punteggio.
+         */
+        public long getCategoryScoreCount(Category category, int score) {
+            if (score < 0 || score > MAX_SCORE) {
+                return 0;
+            }
+            return categoryHistogram[category.ordinal()][score];
         }
 
         /**
          * Ottiene una lista di commenti per una categoria meteorologica specifica.
          *
          * @param category La categoria meteorologica desiderata.
-         * @return Una lista di commenti per la categoria o una lista vuota se non ci
-         *         sono commenti.
+         * @return Una lista non modificabile di commenti per la categoria o una lista
+         *         vuota se non ci sono commenti.
          */
         public List<String> getCategoryComments(String category) {
-            Server.resetInactivityTimer();
-            return categoryComments.getOrDefault(category, new ArrayList<>());
+            Category c = Category.fromKey(category);
+            return c == null ? Collections.emptyList() : getCategoryComments(c);
+        }
+
+        /**
+         * Ottiene una lista di commenti per una categoria meteorologica specifica.
+         *
+         * @param category La categoria meteorologica desiderata.
+         * @return Una lista non modificabile di commenti per la categoria o una lista
+         *         vuota se non ci sono commenti.
+         */
+        public List<String> getCategoryComments(Category category) {
+            return Collections.unmodifiableList(categoryComments[category.ordinal()]);
         }
     }
 
@@ -186,6 +586,108 @@ public class LogicCityImp extends UnicastRemoteObject implements LogicCityInterf
         if (weatherRecords == null) {
             throw new IllegalArgumentException("L'array di record meteorologici non può essere nullo.");
         }
-        return new WeatherTableData(weatherRecords);
+        if (weatherRecords.length == 0) {
+            throw new IllegalArgumentException("Nessun dato meteorologico fornito.");
+        }
+        return aggregator.aggregate(weatherRecords);
+    }
+
+    /**
+     * Calcola i dati meteorologici elaborati di una città.
+     *
+     * @param cityID L'ID della città.
+     * @return Un oggetto {@code WeatherTableData} con i dati elaborati.
+     * @throws SQLException    Se si verifica un errore durante l'accesso al database.
+     * @throws RemoteException Se si verifica un errore durante la comunicazione RMI.
+     */
+    @Override
+    public WeatherTableData getCityWeatherTableData(Integer cityID) throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        return aggregator.aggregate(dataQuery.getWeatherBy(new QueryCondition("cityid", cityID)));
+    }
+
+    /**
+     * Calcola i dati meteorologici elaborati di tutte le città di un centro di monitoraggio.
+     *
+     * @param centerID L'ID del centro di monitoraggio.
+     * @return Un oggetto {@code WeatherTableData} con i dati elaborati.
+     * @throws SQLException    Se si verifica un errore durante l'accesso al database.
+     * @throws RemoteException Se si verifica un errore durante la comunicazione RMI.
+     */
+    @Override
+    public WeatherTableData getCenterWeatherTableData(Integer centerID) throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        if (dataQuery instanceof DataQueryImp local) {
+            return local.aggregateWeatherBy(List.of(new QueryCondition("centerid", centerID)));
+        }
+        return aggregator.aggregate(dataQuery.getWeatherBy(new QueryCondition("centerid", centerID)));
+    }
+
+    /**
+     * Calcola i dati meteorologici elaborati di tutte le città di un paese.
+     *
+     * @param countryCode Il codice del paese.
+     * @return Un oggetto {@code WeatherTableData} con i dati elaborati.
+     * @throws SQLException    Se si verifica un errore durante l'accesso al database.
+     * @throws RemoteException Se si verifica un errore durante la comunicazione RMI.
+     */
+    @Override
+    public WeatherTableData getCountryWeatherTableData(String countryCode) throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        if (dataQuery instanceof DataQueryImp local) {
+            return local.aggregateWeatherByCountry(countryCode);
+        }
+        return aggregator.aggregate(dataQuery.getWeatherByCountry(countryCode));
+    }
+
+    /**
+     * Calcola i dati meteorologici elaborati dell'intero sistema.
+     * <p>
+     * I dati di ciascuno shard vengono aggregati dal database e i risultati parziali
+     * vengono poi uniti con {@link WeatherTableData#merge(WeatherTableData)}.
+     * </p>
+     *
+     * @return Un oggetto {@code WeatherTableData} con i dati elaborati.
+     * @throws SQLException    Se si verifica un errore durante l'accesso al database.
+     * @throws RemoteException Se si verifica un errore durante la comunicazione RMI.
+     */
+    @Override
+    public WeatherTableData getGlobalWeatherTableData() throws SQLException, RemoteException {
+        Server.resetInactivityTimer();
+        if (dataQuery instanceof DataQueryImp local) {
+            return local.aggregateWeatherBy(List.of());
+        }
+        return aggregator.aggregate(dataQuery.getWeathers());
+    }
+
+    /**
+     * Iscrive un client ai nuovi parametri climatici delle città e dei centri specificati.
+     *
+     * @param listener  La callback del client.
+     * @param cityIDs   Gli ID delle città di interesse, oppure {@code null}.
+     * @param centerIDs Gli ID dei centri di monitoraggio di interesse, oppure {@code null}.
+     * @throws IllegalArgumentException Se non è specificata né una città né un centro.
+     * @throws IllegalStateException    Se il server non gestisce le iscrizioni.
+     */
+    @Override
+    public void subscribe(WeatherListener listener, Integer[] cityIDs, Integer[] centerIDs) {
+        Server.resetInactivityTimer();
+        if (events == null) {
+            throw new IllegalStateException("Le iscrizioni agli eventi non sono disponibili.");
+        }
+        events.subscribe(listener, cityIDs, centerIDs);
+    }
+
+    /**
+     * Annulla l'iscrizione di un client.
+     *
+     * @param listener La callback del client.
+     */
+    @Override
+    public void unsubscribe(WeatherListener listener) {
+        Server.resetInactivityTimer();
+        if (events != null) {
+            events.unsubscribe(listener);
+        }
     }
 }
@@ -9,11 +9,16 @@ import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.util.List;
 
+import server.OperatorUniquenessFilter;
+import server.DataSourceRouter;
 import server.Server;
+import server.SessionManager;
 import shared.interfacesRMI.LogicOperatorInterface;
 import shared.interfacesRMI.DataHandlerInterface;
 import shared.interfacesRMI.DataQueryInterface;
+import shared.record.InsertResult;
 import shared.record.RecordOperator;
+import shared.record.RecordSession;
 import shared.record.QueryCondition;
 
 /**
@@ -25,6 +30,9 @@ import shared.record.QueryCondition;
  * </p>
  *
  * @see RecordOperator
+ * @see RecordSession
+ * @see SessionManager
+ * @see OperatorUniquenessFilter
  * @see QueryCondition
  * @see DataHandlerInterface
  * @see DataQueryInterface
@@ -53,33 +61,54 @@ public class LogicOperatorImp extends UnicastRemoteObject implements LogicOperat
      */
     private final DataQueryInterface dataQuery;
 
+    /**
+     * Gestore delle sessioni degli operatori autenticati.
+     */
+    private final SessionManager sessions;
+
+    /**
+     * Filtri in memoria dei valori univoci degli operatori registrati.
+     */
+    private final OperatorUniquenessFilter uniqueness;
+
+    /**
+     * Gli oggetti remoti che eseguono le letture per conto delle sessioni.
+     */
+    private final SessionReadViews readViews;
+
     /**
      * Costruttore della classe {@code LogicOperatorImp}.
      *
      * @param dataHandler Il gestore dei dati utilizzato per l'accesso ai dati degli
      *                    operatori.
      * @param dataQuery   L'interfaccia per le query sui dati.
+     * @param sessions    Il gestore delle sessioni degli operatori.
+     * @param uniqueness  I filtri dei valori univoci degli operatori registrati.
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
      */
-    public LogicOperatorImp(DataHandlerInterface dataHandler, DataQueryInterface dataQuery) throws RemoteException {
+    public LogicOperatorImp(DataHandlerInterface dataHandler, DataQueryInterface dataQuery,
+                            SessionManager sessions, OperatorUniquenessFilter uniqueness) throws RemoteException {
         super();
         this.dataHandler = dataHandler;
         this.dataQuery = dataQuery;
+        this.sessions = sessions;
+        this.uniqueness = uniqueness;
+        this.readViews = new SessionReadViews(dataQuery, sessions);
     }
 
     /**
      * Effettua il login di un operatore utilizzando il nome utente e la password
-     * forniti.
+     * forniti e apre una nuova sessione.
      *
      * @param username Il nome utente dell'operatore.
      * @param password La password dell'operatore.
-     * @return Il record dell'operatore se le credenziali sono corrette, {@code null} altrimenti.
+     * @return La sessione aperta se le credenziali sono corrette, {@code null} altrimenti.
      * @throws RemoteException Se si verifica un errore durante la comunicazione remota.
      * @throws IllegalArgumentException Se il nome utente o la password sono vuoti.ù
      * @throws SQLException Se si verifica un errore durante l'accesso ai dati.
      */
     @Override
-    public synchronized RecordOperator performLogin(String username, String password) throws RemoteException, SQLException {
+    public synchronized RecordSession performLogin(String username, String password) throws RemoteException, SQLException {
         Server.resetInactivityTimer();
         validateLoginInputs(username, password);
 
@@ -88,7 +117,7 @@ public class LogicOperatorImp extends UnicastRemoteObject implements LogicOperat
                 new QueryCondition("password", hashPassword(username, password))
         );
             RecordOperator[] result = dataQuery.getOperatorBy(conditions);
-            return result.length == 1 ? result[0] : null;
+            return result.length == 1 ? sessions.open(result[0]) : null;
     }
 
     /**
@@ -113,67 +142,138 @@ public class LogicOperatorImp extends UnicastRemoteObject implements LogicOperat
 
         Server.resetInactivityTimer();
         validateRegistrationInputs(nameSurname, taxCode, email, username, password);
+        checkUniqueness(OperatorUniquenessFilter.Field.USERNAME, username);
+        checkUniqueness(OperatorUniquenessFilter.Field.EMAIL, email);
+        checkUniqueness(OperatorUniquenessFilter.Field.TAX_CODE, taxCode);
 
-        dataHandler.addNewOperator(nameSurname, taxCode, email, username,
+        InsertResult<RecordOperator> result = dataHandler.addNewOperator(nameSurname, taxCode, email, username,
                     hashPassword(username, password), centerID);
+
+        if (result.isDuplicate()) {
+            uniqueness.recordDatabaseRejection();
+            throw new IllegalArgumentException(switch (result.duplicate()) {
+                case EMAIL -> "Indirizzo email già registrato.";
+                case TAX_CODE -> "Codice fiscale già registrato.";
+                default -> "Username già esistente.";
+            });
+        }
+        uniqueness.add(result.record());
     }
 
     /**
      * Modifica i dati dell'operatore corrente riguardanti il centro a esso
      * associato.
      * <p>
-     * Questo metodo cerca un centro con l'ID specificato e aggiorna l'operatore
-     * corrente con l'ID del centro trovato.
+     * L'operatore viene ricavato dalla sessione senza interrogare il database. Il
+     * permesso della sessione non basta: l'aggiornamento avviene solo se nel database
+     * l'operatore non è ancora associato a un centro, così che un'altra sessione dello
+     * stesso operatore non possa associarlo a un secondo centro. Dopo l'aggiornamento
+     * la sessione riceve il nuovo centro e i relativi permessi.
      * </p>
      *
-     * @param operatorID L'ID dell'operatore da aggiornare.
+     * @param sessionToken Il token della sessione dell'operatore da aggiornare.
      * @param centerID   L'ID del centro di monitoraggio da associare all'operatore.
      * @return Il record dell'operatore aggiornato.
      * @throws SQLException Se si verifica un errore durante l'accesso ai dati o
      *                      durante l'aggiornamento.
      * @throws RemoteException Se si verifica un errore durante la comunicazione remota.
-     * @throws IllegalStateException Se l'operatore è già associato a un centro.
+     * @throws IllegalStateException Se la sessione non è valida o l'operatore è già associato a un centro.
      */
     @Override
-    public synchronized RecordOperator associateCenter(Integer operatorID, Integer centerID) throws SQLException, RemoteException {
+    @SuppressWarnings("try")
+    public synchronized RecordOperator associateCenter(String sessionToken, Integer centerID) throws SQLException, RemoteException {
         Server.resetInactivityTimer();
-        RecordOperator currentOperator = dataQuery.getOperatorBy(operatorID);
+        try (DataSourceRouter.SessionScope ignored = DataSourceRouter.bindSession(sessionToken)) {
+            RecordOperator currentOperator = sessions.require(sessionToken, SessionManager.Permission.ASSOCIATE_CENTER).operator();
 
-        if (currentOperator.centerID() != 0) {
-            throw new IllegalStateException("L'operatore è già associato a un centro.");
+            RecordOperator updatedOperator = new RecordOperator(
+                    currentOperator.ID(),
+                    currentOperator.nameSurname(),
+                    currentOperator.taxCode(),
+                    currentOperator.email(),
+                    currentOperator.username(),
+                    currentOperator.password(),
+                    centerID);
+
+            if (!dataHandler.associateOperatorCenter(currentOperator.ID(), centerID)) {
+                throw new IllegalStateException("L'operatore è già associato a un centro.");
+            }
+            sessions.update(sessionToken, updatedOperator);
+            return updatedOperator;
         }
+    }
+
+    /**
+     * Chiude la sessione dell'operatore. Un token non valido o già chiuso viene ignorato.
+     *
+     * @param sessionToken Il token della sessione da chiudere.
+     * @throws RemoteException Se si verifica un errore durante la comunicazione remota.
+     */
+    @Override
+    public void logout(String sessionToken) throws RemoteException {
+        Server.resetInactivityTimer();
+        sessions.close(sessionToken);
+        readViews.close(sessionToken);
+    }
 
-        RecordOperator updatedOperator = new RecordOperator(
-                currentOperator.ID(),
-                currentOperator.nameSurname(),
-                currentOperator.taxCode(),
-                currentOperator.email(),
-                currentOperator.username(),
-                currentOperator.password(),
-                centerID);
-
-        dataHandler.updateOperator(updatedOperator);
-        return updatedOperator;
+    /**
+     * Restituisce un oggetto remoto per le query sui dati che esegue le letture per conto
+     * della sessione, così che dopo una scrittura dell'operatore le letture successive
+     * vengano servite dal database primario anziché da una replica non ancora aggiornata.
+     * L'oggetto resta valido fino alla chiusura o alla scadenza della sessione.
+     *
+     * @param sessionToken Il token della sessione.
+     * @return L'oggetto remoto per le query della sessione.
+     * @throws RemoteException Se si verifica un errore durante la comunicazione remota.
+     * @throws IllegalStateException Se la sessione non è valida o è scaduta.
+     */
+    @Override
+    public DataQueryInterface openReadSession(String sessionToken) throws RemoteException {
+        Server.resetInactivityTimer();
+        return readViews.open(sessionToken);
     }
 
     /**
-     * Verifica se il formato del nome utente è valido e che non ci sia un
-     * duplicato nel sistema.
+     * Verifica se il formato del nome utente è valido.
+     * <p>
+     * L'unicità non viene verificata qui: è garantita dal vincolo sul database e
+     * segnalata dall'esito dell'inserimento.
+     * </p>
      *
      * @param username Il nome utente da verificare.
-     * @return {@code true} se il formato è valido e non esiste già, {@code false} altrimenti.
+     * @return {@code true} se il formato è valido, {@code false} altrimenti.
+     */
+    private boolean isValidUsername(String username) {
+        String usernamePattern = "^[a-zA-Z0-9._-]{3,}$";
+        return username.matches(usernamePattern);
+    }
+
+    /**
+     * Verifica che un valore univoco non sia già registrato.
+     * <p>
+     * Se il filtro in memoria indica che il valore è sicuramente libero, il database non
+     * viene interrogato; in caso di possibile duplicato la verifica avviene sul database.
+     * </p>
+     *
+     * @param field Il campo da verificare.
+     * @param value Il valore da verificare.
+     * @throws IllegalArgumentException Se il valore è già registrato.
      * @throws SQLException Se si verifica un errore durante l'accesso ai dati.
      * @throws RemoteException Se si verifica un errore durante la comunicazione remota.
      */
-    private boolean isValidUsername(String username) throws SQLException, RemoteException {
-        String usernamePattern = "^[a-zA-Z0-9._-]{3,}$";
-        if (!username.matches(usernamePattern)) {
-            return false;
+    private void checkUniqueness(OperatorUniquenessFilter.Field field, String value) throws SQLException, RemoteException {
+        if (!uniqueness.mightBeTaken(field, value)) {
+            return;
         }
 
-        QueryCondition condition = new QueryCondition("username", username);
-            RecordOperator[] result = dataQuery.getOperatorBy(condition);
-            return result.length == 0;
+        if (dataQuery.getOperatorBy(new QueryCondition(field.column(), value)).length > 0) {
+            throw new IllegalArgumentException(switch (field) {
+                case USERNAME -> "Username già esistente.";
+                case EMAIL -> "Indirizzo email già registrato.";
+                case TAX_CODE -> "Codice fiscale già registrato.";
+            });
+        }
+        uniqueness.recordFalsePositive();
     }
 
     /**
@@ -223,11 +323,9 @@ public class LogicOperatorImp extends UnicastRemoteObject implements LogicOperat
      * @param username    Il nome utente da validare.
      * @param password    La password da validare.
      * @throws IllegalArgumentException Se uno dei dati inseriti non è valido.
-     * @throws RemoteException Se si verifica un errore durante la comunicazione remota.
-     * @throws SQLException Se si verifica un errore durante l'accesso ai dati.
      */
     private void validateRegistrationInputs(String nameSurname, String taxCode, String email,
-                                            String username, String password) throws RemoteException, SQLException {
+                                            String username, String password) {
         String nameSurnamePattern = "^[a-zA-Z\\s]+$";
         String taxCodePattern = "^[A-Z]{6}\\d{2}[A-Z]\\d{2}[A-Z]\\d{3}[A-Z]$";
         String emailPattern = "^[\\w-.]+@([\\w-]+\\.)+[\\w-]{2,4}$";
@@ -243,7 +341,7 @@ public class LogicOperatorImp extends UnicastRemoteObject implements LogicOperat
             throw new IllegalArgumentException("Indirizzo email non valido! Esempio atteso: esempio@mail.com.");
         }
         if (!isValidUsername(username)) {
-            throw new IllegalArgumentException("Username non valido/già esistente! Esempio atteso: utente_01.");
+            throw new IllegalArgumentException("Username non valido! Esempio atteso: utente_01.");
         }
         if (!password.matches(passwordPattern)) {
             throw new IllegalArgumentException("Password non valida! Deve essere lunga almeno 8 caratteri, con una maiuscola e un carattere speciale. Esempio: Password@123.");
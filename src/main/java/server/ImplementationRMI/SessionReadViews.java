@@ -0,0 +1,161 @@
+package server.ImplementationRMI;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import server.DataSourceRouter;
+import server.SessionManager;
+import shared.interfacesRMI.DataQueryInterface;
+
+/**
+ * La classe {@code SessionReadViews} esporta, per ciascuna sessione che lo richiede, un
+ * oggetto remoto che esegue le query sui dati per conto di quella sessione.
+ * <p>
+ * Ogni chiamata ricevuta dall'oggetto viene eseguita con la sessione associata al thread
+ * tramite {@link DataSourceRouter#bindSession(String)}, così che dopo una scrittura
+ * dell'operatore le sue letture vengano servite dal primario. Gli oggetti delle sessioni
+ * chiuse o scadute vengono rimossi dall'esportazione.
+ * </p>
+ *
+ * @see DataSourceRouter
+ * @see SessionManager
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+final class SessionReadViews {
+
+    /**
+     * Un oggetto esportato e il relativo stub.
+     *
+     * @param view L'oggetto esportato.
+     * @param stub Lo stub restituito ai client.
+     */
+    private record View(DataQueryInterface view, DataQueryInterface stub) {
+    }
+
+    /**
+     * L'interfaccia per le query sui dati a cui vengono delegate le chiamate.
+     */
+    private final DataQueryInterface dataQuery;
+
+    /**
+     * Il gestore delle sessioni degli operatori.
+     */
+    private final SessionManager sessions;
+
+    /**
+     * Gli oggetti esportati, indicizzati per token della sessione.
+     */
+    private final Map<String, View> views = new HashMap<>();
+
+    /**
+     * Costruisce il gestore degli oggetti di lettura delle sessioni.
+     *
+     * @param dataQuery L'interfaccia per le query sui dati.
+     * @param sessions  Il gestore delle sessioni.
+     */
+    SessionReadViews(DataQueryInterface dataQuery, SessionManager sessions) {
+        this.dataQuery = dataQuery;
+        this.sessions = sessions;
+    }
+
+    /**
+     * Restituisce lo stub dell'oggetto di lettura della sessione, esportandolo se necessario.
+     *
+     * @param token Il token della sessione.
+     * @return Lo stub.
+     * @throws IllegalStateException Se la sessione non è aperta.
+     * @throws RemoteException Se l'esportazione fallisce.
+     */
+    synchronized DataQueryInterface open(String token) throws RemoteException {
+        sweep();
+        if (!sessions.isOpen(token)) {
+            throw new IllegalStateException("Sessione non valida o scaduta. Effettua nuovamente il login.");
+        }
+
+        View existing = views.get(token);
+        if (existing != null) {
+            return existing.stub();
+        }
+        DataQueryInterface view = newView(token);
+        DataQueryInterface stub = (DataQueryInterface) UnicastRemoteObject.exportObject(view, 0);
+        views.put(token, new View(view, stub));
+        return stub;
+    }
+
+    /**
+     * Rimuove dall'esportazione l'oggetto di lettura della sessione, se presente.
+     *
+     * @param token Il token della sessione.
+     */
+    synchronized void close(String token) {
+        View view = token == null ? null : views.remove(token);
+        if (view != null) {
+            unexport(view);
+        }
+    }
+
+    /**
+     * Rimuove dall'esportazione gli oggetti delle sessioni non più aperte.
+     */
+    private void sweep() {
+        Iterator<Map.Entry<String, View>> iterator = views.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, View> entry = iterator.next();
+            if (!sessions.isOpen(entry.getKey())) {
+                iterator.remove();
+                unexport(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Crea l'oggetto che esegue le query per conto della sessione specificata.
+     *
+     * @param token Il token della sessione.
+     * @return L'oggetto creato, non ancora esportato.
+     */
+    @SuppressWarnings("try")
+    private DataQueryInterface newView(String token) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> "SessionReadView";
+                };
+            }
+            try (DataSourceRouter.SessionScope ignored = DataSourceRouter.bindSession(token)) {
+                return method.invoke(dataQuery, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return (DataQueryInterface) Proxy.newProxyInstance(
+                DataQueryInterface.class.getClassLoader(), new Class<?>[]{DataQueryInterface.class}, handler);
+    }
+
+    /**
+     * Rimuove un oggetto dall'esportazione, interrompendo le chiamate in corso.
+     *
+     * @param view L'oggetto.
+     */
+    private static void unexport(View view) {
+        try {
+            UnicastRemoteObject.unexportObject(view.view(), true);
+        } catch (NoSuchObjectException e) {
+            // Già rimosso.
+        }
+    }
+}
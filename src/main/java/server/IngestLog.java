@@ -0,0 +1,985 @@
+package server;
+
+import shared.record.RecordWeather;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * La classe {@code IngestLog} è un registro locale, in sola aggiunta, dei parametri
+ * climatici inviati dagli operatori, che ne garantisce la conservazione anche quando il
+ * database non è raggiungibile.
+ * <p>
+ * Il registro è composto da segmenti di dimensione fissa, mappati in memoria. Ogni voce
+ * contiene l'ID della richiesta del client e i parametri climatici, preceduti dalla
+ * lunghezza e dal CRC32 del contenuto. Un invio viene confermato al client solo dopo che
+ * la sua voce è stata scritta sul disco: le scritture concorrenti vengono raggruppate, in
+ * modo che una sola sincronizzazione confermi tutte le voci aggiunte nel frattempo.
+ * </p>
+ * <p>
+ * Un thread dedicato rilegge le voci a partire dall'ultimo punto di ripresa salvato e le
+ * inserisce nella tabella {@code parametriclimatici}; se il database non è raggiungibile
+ * riprova periodicamente. Le righe vengono inserite con l'ID della richiesta, su cui il
+ * database impone l'unicità: una voce riletta più volte, ad esempio dopo un riavvio
+ * avvenuto prima del salvataggio del punto di ripresa, viene quindi inserita una sola
+ * volta. I segmenti completamente inseriti vengono eliminati.
+ * </p>
+ * <p>
+ * Una voce già confermata che il database rifiuta per dati non validi non viene persa:
+ * prima di superarla, il registro la aggiunge al file degli scarti {@value #REJECTED_FILE},
+ * nella stessa directory e con lo stesso formato delle voci dei segmenti, da cui può essere
+ * letta con {@link #readRejected(Path)}. Il punto di ripresa viene salvato sul disco, insieme
+ * alla directory, prima che i segmenti già inseriti vengano eliminati.
+ * </p>
+ *
+ * @see server.ImplementationRMI.DataHandlerImp#addNewWeathers(List, List)
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class IngestLog implements AutoCloseable {
+
+    /**
+     * La dimensione, in byte, di ciascun segmento.
+     */
+    public static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Il valore che identifica i file di segmento: "CMIL".
+     */
+    private static final int MAGIC = 0x434D494C;
+
+    /**
+     * La versione del formato dei segmenti.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * La dimensione, in byte, dell'intestazione di un segmento.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * La dimensione, in byte, dell'intestazione di una voce: lunghezza e CRC32.
+     */
+    private static final int ENTRY_HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * L'estensione dei file di segmento.
+     */
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    /**
+     * Il file con il punto di ripresa della rilettura.
+     */
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /**
+     * Il file delle voci rifiutate dal database.
+     */
+    public static final String REJECTED_FILE = "rejected.dlq";
+
+    /**
+     * Il valore con cui viene registrato un punteggio assente.
+     */
+    private static final int NULL_SCORE = Integer.MIN_VALUE;
+
+    /**
+     * Il numero massimo di voci inserite nel database con una sola operazione.
+     */
+    private static final int MAX_REPLAY_BATCH = 500;
+
+    /**
+     * Intervallo, in millisecondi, tra due controlli di nuove voci da rileggere.
+     */
+    private static final long REPLAY_IDLE_MILLIS = 200;
+
+    /**
+     * Intervallo, in millisecondi, prima di riprovare l'inserimento dopo un errore del database.
+     */
+    private static final long RETRY_MILLIS = 5_000;
+
+    /**
+     * Una voce del registro.
+     *
+     * @param requestID L'ID della richiesta del client.
+     * @param weather   I parametri climatici; l'ID viene ignorato.
+     */
+    public record Entry(UUID requestID, RecordWeather weather) {
+    }
+
+    /**
+     * La destinazione delle voci rilette.
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        /**
+         * Inserisce i parametri climatici nel database.
+         *
+         * @param requestIDs Gli ID delle richieste.
+         * @param weathers   I parametri climatici, nello stesso ordine.
+         * @return Per ciascuna voce, nello stesso ordine, l'errore che ne ha impedito
+         *         l'inserimento, oppure {@code null} se è stata inserita.
+         */
+        SQLException[] write(List<UUID> requestIDs, List<RecordWeather> weathers);
+    }
+
+    /**
+     * Le metriche del registro.
+     *
+     * @param appended     Il numero di voci aggiunte.
+     * @param syncs        Il numero di sincronizzazioni sul disco.
+     * @param replayed     Il numero di voci inserite nel database.
+     * @param rejected     Il numero di voci rifiutate dal database e spostate nel file degli scarti.
+     * @param deadLetters  Il numero di voci presenti nel file degli scarti, comprese quelle
+     *                     delle esecuzioni precedenti.
+     * @param pendingBytes I byte del registro non ancora inseriti nel database.
+     */
+    public record Metrics(long appended, long syncs, long replayed, long rejected, long deadLetters, long pendingBytes) {
+    }
+
+    /**
+     * Un segmento del registro mappato in memoria.
+     */
+    private static final class Segment {
+
+        /**
+         * Il numero progressivo del segmento.
+         */
+        private final long sequence;
+
+        /**
+         * Il percorso del file.
+         */
+        private final Path path;
+
+        /**
+         * Il canale del file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Il contenuto del file mappato in memoria.
+         */
+        private final MappedByteBuffer buffer;
+
+        private Segment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * La directory che contiene i segmenti.
+     */
+    private final Path directory;
+
+    /**
+     * I segmenti, ordinati per numero progressivo.
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /**
+     * Il segmento in cui vengono aggiunte le voci.
+     */
+    private Segment current;
+
+    /**
+     * La posizione, nel segmento corrente, della prossima voce.
+     */
+    private int writeOffset;
+
+    /**
+     * La posizione successiva all'ultima voce aggiunta.
+     */
+    private long writtenPosition;
+
+    /**
+     * Il monitor delle sincronizzazioni sul disco.
+     */
+    private final Object syncLock = new Object();
+
+    /**
+     * La posizione fino alla quale le voci sono state scritte sul disco.
+     */
+    private long durablePosition;
+
+    /**
+     * Indica se è in corso una sincronizzazione.
+     */
+    private boolean syncing;
+
+    /**
+     * La posizione della prossima voce da inserire nel database.
+     */
+    private volatile long checkpoint;
+
+    /**
+     * Il numero di voci aggiunte.
+     */
+    private final AtomicLong appended = new AtomicLong();
+
+    /**
+     * Il numero di sincronizzazioni sul disco.
+     */
+    private final AtomicLong syncs = new AtomicLong();
+
+    /**
+     * Il numero di voci inserite nel database.
+     */
+    private final AtomicLong replayed = new AtomicLong();
+
+    /**
+     * Il numero di voci rifiutate dal database e spostate nel file degli scarti.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Il numero di voci presenti nel file degli scarti.
+     */
+    private final AtomicLong deadLetters = new AtomicLong();
+
+    /**
+     * Il canale del file degli scarti, aperto alla prima voce rifiutata.
+     */
+    private FileChannel rejectedChannel;
+
+    /**
+     * Il thread di rilettura.
+     */
+    private Thread replayThread;
+
+    /**
+     * Indica se il registro è stato chiuso.
+     */
+    private volatile boolean closed;
+
+    private IngestLog(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Apre il registro nella directory specificata, creandola se necessario, e recupera la
+     * posizione di scrittura dall'ultimo segmento, ignorando un'eventuale voce incompleta.
+     *
+     * @param directory La directory del registro.
+     * @return Il registro.
+     * @throws IOException Se si verifica un errore di accesso ai file o un segmento non è valido.
+     */
+    public static IngestLog open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        IngestLog log = new IngestLog(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    long sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    log.segments.put(sequence, mapSegment(sequence, path));
+                }
+            }
+        }
+
+        log.deadLetters.set(readRejected(directory).size());
+        long checkpoint = log.loadCheckpoint();
+        if (log.segments.isEmpty()) {
+            log.current = log.createSegment(checkpoint < 0 ? 0 : sequenceOf(checkpoint));
+            log.writeOffset = HEADER_SIZE;
+        } else {
+            log.current = log.segments.lastEntry().getValue();
+            int offset = HEADER_SIZE;
+            int next;
+            while ((next = nextEntry(log.current.buffer, offset)) > 0) {
+                offset = next;
+            }
+            log.writeOffset = offset;
+        }
+        log.writtenPosition = position(log.current.sequence, log.writeOffset);
+        log.durablePosition = log.writtenPosition;
+        log.checkpoint = checkpoint < 0 ? position(log.segments.firstKey(), HEADER_SIZE) : checkpoint;
+        return log;
+    }
+
+    /**
+     * Avvia il thread che inserisce le voci nel database.
+     *
+     * @param sink La destinazione delle voci.
+     */
+    public synchronized void start(Sink sink) {
+        if (replayThread != null) {
+            return;
+        }
+        replayThread = new Thread(() -> replay(sink), "ingest-log-replay");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    /**
+     * Aggiunge una voce al registro e attende che sia stata scritta sul disco.
+     *
+     * @param entry La voce.
+     * @throws IOException Se la voce non può essere scritta.
+     */
+    public void appendDurably(Entry entry) throws IOException {
+        awaitDurable(append(entry));
+    }
+
+    /**
+     * Aggiunge una voce al registro, senza attendere la scrittura sul disco.
+     *
+     * @param entry La voce.
+     * @return La posizione successiva alla voce, da passare a {@link #awaitDurable(long)}.
+     * @throws IOException Se il registro è chiuso o la voce è troppo grande.
+     */
+    public synchronized long append(Entry entry) throws IOException {
+        if (closed) {
+            throw new IOException("Registro degli inserimenti chiuso.");
+        }
+        byte[] payload = encode(entry);
+        int size = ENTRY_HEADER_SIZE + payload.length;
+        if (size > SEGMENT_SIZE - HEADER_SIZE) {
+            throw new IOException("Voce troppo grande per il registro degli inserimenti.");
+        }
+        if (writeOffset + size > SEGMENT_SIZE) {
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        MappedByteBuffer buffer = current.buffer;
+        buffer.putInt(writeOffset + Integer.BYTES, (int) crc.getValue());
+        buffer.put(writeOffset + ENTRY_HEADER_SIZE, payload);
+        // La lunghezza viene scritta per ultima: una voce incompleta ha lunghezza nulla o CRC errato.
+        buffer.putInt(writeOffset, payload.length);
+        writeOffset += size;
+        writtenPosition = position(current.sequence, writeOffset);
+        appended.incrementAndGet();
+        return writtenPosition;
+    }
+
+    /**
+     * Attende che le voci fino alla posizione specificata siano state scritte sul disco.
+     * <p>
+     * Se non è in corso una sincronizzazione, il thread chiamante la esegue per tutte le
+     * voci aggiunte fino a quel momento; altrimenti attende la sincronizzazione in corso
+     * ed eventualmente ne esegue una nuova.
+     * </p>
+     *
+     * @param position La posizione successiva all'ultima voce da attendere.
+     * @throws IOException Se la sincronizzazione fallisce o l'attesa viene interrotta.
+     */
+    public void awaitDurable(long position) throws IOException {
+        while (true) {
+            synchronized (syncLock) {
+                while (durablePosition < position && syncing) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Attesa della scrittura sul disco interrotta.");
+                    }
+                }
+                if (durablePosition >= position) {
+                    return;
+                }
+                syncing = true;
+            }
+
+            long upTo = -1;
+            try {
+                Segment segment;
+                synchronized (this) {
+                    segment = current;
+                    upTo = writtenPosition;
+                }
+                segment.buffer.force();
+                syncs.incrementAndGet();
+            } catch (RuntimeException e) {
+                upTo = -1;
+                throw new IOException("Errore durante la scrittura del registro sul disco.", e);
+            } finally {
+                synchronized (syncLock) {
+                    durablePosition = Math.max(durablePosition, upTo);
+                    syncing = false;
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Restituisce le metriche del registro.
+     *
+     * @return Le metriche correnti.
+     */
+    public Metrics getMetrics() {
+        long written;
+        synchronized (this) {
+            written = writtenPosition;
+        }
+        return new Metrics(appended.get(), syncs.get(), replayed.get(), rejected.get(), deadLetters.get(),
+                Math.max(0, written - checkpoint));
+    }
+
+    /**
+     * Interrompe la rilettura e chiude i segmenti, dopo averli scritti sul disco.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = replayThread;
+            replayThread = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            current.buffer.force();
+            for (Segment segment : segments.values()) {
+                closeQuietly(segment);
+            }
+            segments.clear();
+        }
+        if (rejectedChannel != null) {
+            try {
+                rejectedChannel.close();
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura del file degli scarti: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Legge le voci del file degli scarti del registro nella directory specificata,
+     * ignorando un'eventuale voce finale incompleta.
+     * <p>
+     * Una voce può comparire più volte se il server si è arrestato dopo averla spostata e
+     * prima di salvare il punto di ripresa: le voci vengono restituite una sola volta per
+     * ID della richiesta.
+     * </p>
+     *
+     * @param directory La directory del registro.
+     * @return Le voci rifiutate, nell'ordine in cui sono state scartate.
+     * @throws IOException Se il file non può essere letto.
+     */
+    public static List<Entry> readRejected(Path directory) throws IOException {
+        Path path = directory.resolve(REJECTED_FILE);
+        if (!Files.exists(path)) {
+            return List.of();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        Map<UUID, Entry> entries = new LinkedHashMap<>();
+        int offset = 0;
+        while (offset + ENTRY_HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > buffer.limit() - offset - ENTRY_HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(offset + ENTRY_HEADER_SIZE, length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+            Entry entry = decode(payload);
+            entries.putIfAbsent(entry.requestID(), entry);
+            offset += ENTRY_HEADER_SIZE + length;
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Il ciclo del thread di rilettura: inserisce nel database le voci successive al punto
+     * di ripresa, fino alla chiusura del registro.
+     *
+     * @param sink La destinazione delle voci.
+     */
+    private void replay(Sink sink) {
+        while (!closed) {
+            try {
+                List<Entry> entries = new ArrayList<>();
+                List<Long> ends = new ArrayList<>();
+                read(entries, ends);
+                if (entries.isEmpty()) {
+                    Thread.sleep(REPLAY_IDLE_MILLIS);
+                    continue;
+                }
+
+                int done = apply(sink, entries);
+                if (done > 0) {
+                    checkpoint = ends.get(done - 1);
+                    saveCheckpoint(checkpoint);
+                    deleteReplayedSegments();
+                }
+                if (done < entries.size()) {
+                    Thread.sleep(RETRY_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Errore durante la rilettura del registro degli inserimenti: " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserisce le voci nel database.
+     * <p>
+     * Le voci rifiutate dal database per dati non validi vengono spostate nel file degli
+     * scarti; se invece una voce non può essere inserita per un altro errore, ad esempio
+     * perché il database non è raggiungibile, l'inserimento si interrompe e verrà ripetuto
+     * da quella voce.
+     * </p>
+     *
+     * @param sink    La destinazione delle voci.
+     * @param entries Le voci da inserire.
+     * @return Il numero di voci iniziali inserite o scartate, dopo le quali riprendere.
+     * @throws IOException Se una voce rifiutata non può essere scritta nel file degli scarti.
+     */
+    private int apply(Sink sink, List<Entry> entries) throws IOException {
+        SQLException[] failures = write(sink, entries);
+        for (int i = 0; i < entries.size(); i++) {
+            SQLException failure = failures[i];
+            if (failure != null && isDataError(failure) && entries.size() > 1) {
+                // L'inserimento dello shard è stato annullato da una voce: la voce viene riscritta da sola.
+                failure = write(sink, List.of(entries.get(i)))[0];
+            }
+            if (failure == null) {
+                replayed.incrementAndGet();
+            } else if (isDataError(failure)) {
+                deadLetter(entries.get(i));
+                rejected.incrementAndGet();
+                System.err.println("Voce del registro degli inserimenti rifiutata e spostata in " + REJECTED_FILE
+                        + " (" + entries.get(i).requestID() + "): " + failure.getMessage());
+            } else {
+                return i;
+            }
+        }
+        return entries.size();
+    }
+
+    /**
+     * Aggiunge una voce al file degli scarti e la scrive sul disco, prima che il punto di
+     * ripresa la superi.
+     *
+     * @param entry La voce rifiutata.
+     * @throws IOException Se la voce non può essere scritta.
+     */
+    private void deadLetter(Entry entry) throws IOException {
+        if (rejectedChannel == null) {
+            rejectedChannel = FileChannel.open(directory.resolve(REJECTED_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        byte[] payload = encode(entry);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            rejectedChannel.write(buffer);
+        }
+        rejectedChannel.force(true);
+        deadLetters.incrementAndGet();
+    }
+
+    /**
+     * Scrive le voci, trasformando gli errori imprevisti in errori di tutte le voci.
+     *
+     * @param sink    La destinazione delle voci.
+     * @param entries Le voci da scrivere.
+     * @return Gli errori delle singole voci.
+     */
+    private static SQLException[] write(Sink sink, List<Entry> entries) {
+        List<UUID> requestIDs = new ArrayList<>(entries.size());
+        List<RecordWeather> weathers = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            requestIDs.add(entry.requestID());
+            weathers.add(entry.weather());
+        }
+        try {
+            return sink.write(requestIDs, weathers);
+        } catch (RuntimeException e) {
+            SQLException[] failures = new SQLException[entries.size()];
+            SQLException failure = new SQLException("Errore durante l'inserimento delle voci.", e);
+            for (int i = 0; i < failures.length; i++) {
+                failures[i] = failure;
+            }
+            return failures;
+        }
+    }
+
+    /**
+     * Verifica se un errore del database dipende dai dati inseriti, e non si risolverebbe
+     * quindi ripetendo l'inserimento.
+     *
+     * @param e L'errore.
+     * @return {@code true} per le eccezioni sui dati (classe 22) e le violazioni di vincoli (classe 23).
+     */
+    private static boolean isDataError(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    /**
+     * Legge le voci successive al punto di ripresa già scritte sul disco.
+     *
+     * @param entries La lista a cui aggiungere le voci.
+     * @param ends    La lista a cui aggiungere la posizione successiva a ciascuna voce.
+     */
+    private void read(List<Entry> entries, List<Long> ends) {
+        long limit;
+        synchronized (syncLock) {
+            limit = durablePosition;
+        }
+        long position = checkpoint;
+        synchronized (this) {
+            while (entries.size() < MAX_REPLAY_BATCH && position < limit) {
+                Segment segment = segments.get(sequenceOf(position));
+                int offset = offsetOf(position);
+                int next = segment == null ? -1 : nextEntry(segment.buffer, offset);
+                if (next < 0) {
+                    // Fine del segmento: si prosegue con il successivo, se esiste.
+                    Map.Entry<Long, Segment> following = segments.higherEntry(sequenceOf(position));
+                    if (following == null) {
+                        return;
+                    }
+                    position = position(following.getKey(), HEADER_SIZE);
+                    continue;
+                }
+                entries.add(decode(segment.buffer.slice(offset + ENTRY_HEADER_SIZE, next - offset - ENTRY_HEADER_SIZE)));
+                position = position(segment.sequence, next);
+                ends.add(position);
+            }
+        }
+    }
+
+    /**
+     * Elimina i segmenti le cui voci sono state tutte inserite nel database.
+     */
+    private synchronized void deleteReplayedSegments() {
+        long sequence = sequenceOf(checkpoint);
+        while (!segments.isEmpty() && segments.firstKey() < sequence && segments.firstKey() < current.sequence) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            closeQuietly(segment);
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                System.err.println("Impossibile eliminare il segmento " + segment.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Crea un nuovo segmento dopo aver scritto sul disco quello corrente, le cui voci
+     * risultano così tutte confermate.
+     *
+     * @throws IOException Se il nuovo segmento non può essere creato.
+     */
+    private void roll() throws IOException {
+        current.buffer.force();
+        syncs.incrementAndGet();
+        long end = writtenPosition;
+        synchronized (syncLock) {
+            durablePosition = Math.max(durablePosition, end);
+            syncLock.notifyAll();
+        }
+        current = createSegment(current.sequence + 1);
+        writeOffset = HEADER_SIZE;
+        writtenPosition = position(current.sequence, writeOffset);
+    }
+
+    /**
+     * Crea e mappa in memoria un nuovo segmento vuoto.
+     *
+     * @param sequence Il numero progressivo del segmento.
+     * @return Il segmento.
+     * @throws IOException Se il file non può essere creato.
+     */
+    private Segment createSegment(long sequence) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(SEGMENT_SIZE);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(Integer.BYTES, VERSION);
+        buffer.putLong(2 * Integer.BYTES, sequence);
+        buffer.force();
+        Segment segment = new Segment(sequence, path, channel, buffer);
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    /**
+     * Mappa in memoria un segmento esistente, verificandone l'intestazione.
+     *
+     * @param sequence Il numero progressivo atteso.
+     * @param path     Il percorso del file.
+     * @return Il segmento.
+     * @throws IOException Se il file non è un segmento valido.
+     */
+    private static Segment mapSegment(long sequence, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() != SEGMENT_SIZE) {
+            channel.close();
+            throw new IOException("Dimensione non valida del segmento " + path);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION
+                || buffer.getLong(2 * Integer.BYTES) != sequence) {
+            channel.close();
+            throw new IOException("Intestazione non valida del segmento " + path);
+        }
+        return new Segment(sequence, path, channel, buffer);
+    }
+
+    /**
+     * Verifica la voce alla posizione specificata di un segmento.
+     *
+     * @param buffer Il contenuto del segmento.
+     * @param offset La posizione della voce.
+     * @return La posizione successiva alla voce, oppure {@code -1} se non c'è una voce
+     *         valida in quella posizione.
+     */
+    private static int nextEntry(ByteBuffer buffer, int offset) {
+        if (offset + ENTRY_HEADER_SIZE > SEGMENT_SIZE) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > SEGMENT_SIZE - offset - ENTRY_HEADER_SIZE) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + ENTRY_HEADER_SIZE, length));
+        if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+            return -1;
+        }
+        return offset + ENTRY_HEADER_SIZE + length;
+    }
+
+    /**
+     * Codifica una voce.
+     *
+     * @param entry La voce.
+     * @return Il contenuto della voce.
+     */
+    private static byte[] encode(Entry entry) {
+        RecordWeather weather = entry.weather();
+        RecordWeather.WeatherData[] data = dataOf(weather);
+        byte[][] comments = new byte[data.length][];
+        int size = 2 * Long.BYTES + 2 * Integer.BYTES + Long.BYTES;
+        for (int i = 0; i < data.length; i++) {
+            String comment = data[i].comment();
+            comments[i] = comment == null ? null : comment.getBytes(StandardCharsets.UTF_8);
+            size += 2 * Integer.BYTES + (comments[i] == null ? 0 : comments[i].length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(entry.requestID().getMostSignificantBits());
+        buffer.putLong(entry.requestID().getLeastSignificantBits());
+        buffer.putInt(weather.cityID());
+        buffer.putInt(weather.centerID());
+        buffer.putLong(weather.date().toEpochDay());
+        for (int i = 0; i < data.length; i++) {
+            Integer score = data[i].score();
+            buffer.putInt(score == null ? NULL_SCORE : score);
+            buffer.putInt(comments[i] == null ? -1 : comments[i].length);
+            if (comments[i] != null) {
+                buffer.put(comments[i]);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodifica una voce.
+     *
+     * @param buffer Il contenuto della voce.
+     * @return La voce.
+     */
+    private static Entry decode(ByteBuffer buffer) {
+        UUID requestID = new UUID(buffer.getLong(), buffer.getLong());
+        int cityID = buffer.getInt();
+        int centerID = buffer.getInt();
+        LocalDate date = LocalDate.ofEpochDay(buffer.getLong());
+        RecordWeather.WeatherData[] data = new RecordWeather.WeatherData[7];
+        for (int i = 0; i < data.length; i++) {
+            int score = buffer.getInt();
+            int length = buffer.getInt();
+            String comment = null;
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                comment = new String(bytes, StandardCharsets.UTF_8);
+            }
+            data[i] = new RecordWeather.WeatherData(score == NULL_SCORE ? null : score, comment);
+        }
+        return new Entry(requestID, new RecordWeather(null, cityID, centerID, date,
+                data[0], data[1], data[2], data[3], data[4], data[5], data[6]));
+    }
+
+    /**
+     * Restituisce i dati delle categorie dei parametri climatici, nell'ordine delle colonne.
+     *
+     * @param weather I parametri climatici.
+     * @return I dati delle categorie.
+     */
+    private static RecordWeather.WeatherData[] dataOf(RecordWeather weather) {
+        return new RecordWeather.WeatherData[]{
+                weather.wind(), weather.humidity(), weather.pressure(), weather.temperature(),
+                weather.precipitation(), weather.glacierElevation(), weather.glacierMass()};
+    }
+
+    /**
+     * Carica il punto di ripresa salvato.
+     *
+     * @return La posizione salvata, oppure {@code -1} se non è presente o non è valida.
+     * @throws IOException Se il file non può essere letto.
+     */
+    private long loadCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() != Long.BYTES + Integer.BYTES) {
+            return -1;
+        }
+        long position = buffer.getLong();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, Long.BYTES);
+        return (int) crc.getValue() == buffer.getInt() ? position : -1;
+    }
+
+    /**
+     * Salva il punto di ripresa, sostituendo atomicamente il file precedente.
+     * <p>
+     * Il nuovo file e la directory vengono scritti sul disco prima di restituire, dato che
+     * subito dopo i segmenti già inseriti vengono eliminati: un punto di ripresa perso dopo
+     * l'eliminazione indicherebbe un segmento non più esistente.
+     * </p>
+     *
+     * @param position La posizione della prossima voce da inserire.
+     * @throws IOException Se il file non può essere scritto.
+     */
+    private void saveCheckpoint(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        buffer.putLong(position);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, Long.BYTES);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+    }
+
+    /**
+     * Scrive sul disco la directory del registro, così che la sostituzione del punto di
+     * ripresa sopravviva a un arresto improvviso. Sui sistemi che non consentono di aprire
+     * una directory la sincronizzazione non è disponibile e viene omessa.
+     *
+     * @throws IOException Se la sincronizzazione fallisce.
+     */
+    private void forceDirectory() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Chiude il canale di un segmento, ignorando gli errori.
+     *
+     * @param segment Il segmento.
+     */
+    private static void closeQuietly(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            System.err.println("Errore durante la chiusura del segmento " + segment.path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Calcola la posizione assoluta di un punto di un segmento.
+     *
+     * @param sequence Il numero progressivo del segmento.
+     * @param offset   La posizione nel segmento.
+     * @return La posizione assoluta.
+     */
+    private static long position(long sequence, int offset) {
+        return sequence * SEGMENT_SIZE + offset;
+    }
+
+    /**
+     * Restituisce il numero progressivo del segmento di una posizione assoluta.
+     *
+     * @param position La posizione assoluta.
+     * @return Il numero progressivo del segmento.
+     */
+    private static long sequenceOf(long position) {
+        return position / SEGMENT_SIZE;
+    }
+
+    /**
+     * Restituisce la posizione nel segmento di una posizione assoluta.
+     *
+     * @param position La posizione assoluta.
+     * @return La posizione nel segmento.
+     */
+    private static int offsetOf(long position) {
+        return (int) (position % SEGMENT_SIZE);
+    }
+}
@@ -0,0 +1,355 @@
+package server;
+
+import shared.record.RecordOperator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe {@code OperatorUniquenessFilter} mantiene in memoria tre {@link BloomFilter}
+ * con gli username, le email e i codici fiscali degli operatori registrati.
+ * <p>
+ * I filtri vengono costruiti all'avvio del server leggendo la tabella
+ * {@code operatoriregistrati} e aggiornati a ogni nuova registrazione. Quando un filtro
+ * risponde che un valore è sicuramente libero non serve interrogare il database; per i
+ * possibili duplicati il database resta l'unica fonte attendibile.
+ * </p>
+ * <p>
+ * La risposta dei filtri è solo un'indicazione: con più server sullo stesso database un
+ * operatore registrato su un altro server è assente dai filtri locali finché non vengono
+ * aggiornati da {@link #refresh(Connection)}, eseguito periodicamente dopo
+ * {@link #start(Connection, long)}. Per questo l'inserimento si basa sempre sui vincoli di
+ * unicità del database, che rifiutano anche i duplicati non segnalati dai filtri.
+ * </p>
+ * <p>
+ * La classe raccoglie inoltre le metriche dei controlli, tra cui il tasso di falsi
+ * positivi osservato e quello stimato dal riempimento dei filtri.
+ * </p>
+ *
+ * @see BloomFilter
+ * @see RecordOperator
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class OperatorUniquenessFilter {
+
+    /**
+     * Numero minimo di valori per cui vengono dimensionati i filtri.
+     */
+    private static final int MIN_EXPECTED_INSERTIONS = 10_000;
+
+    /**
+     * Probabilità di falso positivo desiderata per ciascun filtro.
+     */
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    /**
+     * Intervallo predefinito, in secondi, tra due aggiornamenti dei filtri dal database.
+     */
+    public static final long DEFAULT_REFRESH_SECONDS = 60;
+
+    /**
+     * Numero di ID già letti che vengono riletti a ogni aggiornamento, perché gli ID
+     * vengono assegnati all'inserimento e non al commit: una registrazione con un ID
+     * più basso può diventare visibile dopo una con un ID più alto.
+     */
+    private static final int REFRESH_ID_OVERLAP = 1_000;
+
+    /**
+     * I campi univoci di un operatore.
+     */
+    public enum Field {
+        /** Lo username. */
+        USERNAME("username"),
+        /** L'indirizzo email. */
+        EMAIL("email"),
+        /** Il codice fiscale. */
+        TAX_CODE("taxcode");
+
+        /**
+         * Il nome della colonna corrispondente.
+         */
+        private final String column;
+
+        Field(String column) {
+            this.column = column;
+        }
+
+        /**
+         * Restituisce il nome della colonna corrispondente al campo.
+         *
+         * @return Il nome della colonna.
+         */
+        public String column() {
+            return column;
+        }
+    }
+
+    /**
+     * Le metriche dei controlli effettuati.
+     *
+     * @param checks                     Il numero totale di controlli.
+     * @param definitelyFree             I controlli risolti in memoria come valori liberi.
+     * @param probableHits               I controlli che hanno richiesto una verifica sul database.
+     * @param falsePositives             I possibili duplicati smentiti dal database.
+     * @param databaseRejections         Gli inserimenti rifiutati dai vincoli del database come duplicati.
+     * @param refreshes                  Gli aggiornamenti dei filtri dal database.
+     * @param observedFalsePositiveRate  La frazione di valori liberi segnalati come possibili duplicati.
+     * @param expectedFalsePositiveRate  La probabilità di falso positivo stimata, la maggiore tra i filtri.
+     */
+    public record Metrics(long checks,
+                          long definitelyFree,
+                          long probableHits,
+                          long falsePositives,
+                          long databaseRejections,
+                          long refreshes,
+                          double observedFalsePositiveRate,
+                          double expectedFalsePositiveRate) {
+    }
+
+    /**
+     * I filtri, indicizzati per {@link Field#ordinal()}.
+     */
+    private final BloomFilter[] filters;
+
+    /**
+     * Il numero totale di controlli.
+     */
+    private final AtomicLong checks = new AtomicLong();
+
+    /**
+     * Il numero di controlli risolti in memoria come valori liberi.
+     */
+    private final AtomicLong definitelyFree = new AtomicLong();
+
+    /**
+     * Il numero di controlli che hanno richiesto una verifica sul database.
+     */
+    private final AtomicLong probableHits = new AtomicLong();
+
+    /**
+     * Il numero di possibili duplicati smentiti dal database.
+     */
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * Il numero di inserimenti rifiutati dai vincoli del database come duplicati.
+     */
+    private final AtomicLong databaseRejections = new AtomicLong();
+
+    /**
+     * Il numero di aggiornamenti dei filtri dal database.
+     */
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * L'ID più alto tra gli operatori letti dal database.
+     */
+    private int lastOperatorID;
+
+    /**
+     * L'esecutore degli aggiornamenti periodici, oppure {@code null} se non avviati.
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * La connessione dedicata agli aggiornamenti periodici, oppure {@code null}.
+     */
+    private Connection refreshConnection;
+
+    /**
+     * Costruisce filtri vuoti dimensionati per il numero di operatori specificato.
+     *
+     * @param expectedOperators Il numero di operatori previsti.
+     */
+    public OperatorUniquenessFilter(long expectedOperators) {
+        long expected = Math.max(MIN_EXPECTED_INSERTIONS, expectedOperators);
+        filters = new BloomFilter[Field.values().length];
+        for (int i = 0; i < filters.length; i++) {
+            filters[i] = new BloomFilter(expected, FALSE_POSITIVE_PROBABILITY);
+        }
+    }
+
+    /**
+     * Costruisce i filtri a partire dagli operatori registrati nel database.
+     * <p>
+     * I filtri vengono dimensionati per il doppio degli operatori attuali, in modo da
+     * mantenere basso il tasso di falsi positivi con le registrazioni successive.
+     * </p>
+     *
+     * @param conn La connessione al database.
+     * @return I filtri costruiti.
+     * @throws SQLException Se si verifica un errore durante la lettura degli operatori.
+     */
+    public static OperatorUniquenessFilter load(Connection conn) throws SQLException {
+        long count;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT count(*) FROM operatoriregistrati");
+             ResultSet rs = stmt.executeQuery()) {
+            count = rs.next() ? rs.getLong(1) : 0;
+        }
+
+        OperatorUniquenessFilter filter = new OperatorUniquenessFilter(count * 2);
+        filter.refresh(conn);
+        return filter;
+    }
+
+    /**
+     * Aggiunge ai filtri gli operatori registrati nel database dopo l'ultimo aggiornamento,
+     * compresi quelli registrati da altri server.
+     * <p>
+     * Vengono riletti anche gli ultimi {@value #REFRESH_ID_OVERLAP} ID già visti: aggiungere
+     * di nuovo un valore a un filtro non ha effetti.
+     * </p>
+     *
+     * @param conn La connessione al database.
+     * @return Il numero di operatori letti.
+     * @throws SQLException Se si verifica un errore durante la lettura degli operatori.
+     */
+    public synchronized int refresh(Connection conn) throws SQLException {
+        int read = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT id, username, email, taxcode FROM operatoriregistrati WHERE id > ? ORDER BY id")) {
+            stmt.setInt(1, Math.max(0, lastOperatorID - REFRESH_ID_OVERLAP));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lastOperatorID = Math.max(lastOperatorID, rs.getInt(1));
+                    add(rs.getString(2), rs.getString(3), rs.getString(4));
+                    read++;
+                }
+            }
+        }
+        refreshes.incrementAndGet();
+        return read;
+    }
+
+    /**
+     * Avvia l'aggiornamento periodico dei filtri dal database.
+     *
+     * @param conn          Una connessione dedicata agli aggiornamenti, chiusa da {@link #close()}.
+     * @param periodSeconds L'intervallo, in secondi, tra due aggiornamenti.
+     */
+    public synchronized void start(Connection conn, long periodSeconds) {
+        if (executor != null) {
+            return;
+        }
+        refreshConnection = conn;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "operator-filter-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                refresh(conn);
+            } catch (SQLException e) {
+                System.err.println("Errore durante l'aggiornamento dei filtri degli operatori: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Interrompe l'aggiornamento periodico e chiude la connessione dedicata.
+     */
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (refreshConnection != null) {
+            try {
+                refreshConnection.close();
+            } catch (SQLException e) {
+                System.err.println("Errore durante la chiusura della connessione dei filtri: " + e.getMessage());
+            }
+            refreshConnection = null;
+        }
+    }
+
+    /**
+     * Verifica in memoria se un valore potrebbe essere già registrato.
+     *
+     * @param field Il campo da verificare.
+     * @param value Il valore da verificare.
+     * @return {@code false} se il valore è sicuramente libero, {@code true} se deve
+     *         essere verificato sul database.
+     */
+    public boolean mightBeTaken(Field field, String value) {
+        checks.incrementAndGet();
+        if (filters[field.ordinal()].mightContain(value)) {
+            probableHits.incrementAndGet();
+            return true;
+        }
+        definitelyFree.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Registra che un possibile duplicato è stato smentito dal database.
+     */
+    public void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    /**
+     * Registra che un inserimento è stato rifiutato dai vincoli del database come
+     * duplicato, per esempio perché l'operatore è stato registrato da un altro server.
+     */
+    public void recordDatabaseRejection() {
+        databaseRejections.incrementAndGet();
+    }
+
+    /**
+     * Aggiunge ai filtri i valori univoci di un operatore.
+     *
+     * @param operator L'operatore registrato.
+     */
+    public void add(RecordOperator operator) {
+        add(operator.username(), operator.email(), operator.taxCode());
+    }
+
+    /**
+     * Restituisce le metriche dei controlli effettuati.
+     *
+     * @return Le metriche correnti.
+     */
+    public Metrics getMetrics() {
+        long free = definitelyFree.get();
+        long falsePositive = falsePositives.get();
+        double expected = 0;
+        for (BloomFilter filter : filters) {
+            expected = Math.max(expected, filter.expectedFalsePositiveRate());
+        }
+        return new Metrics(
+                checks.get(),
+                free,
+                probableHits.get(),
+                falsePositive,
+                databaseRejections.get(),
+                refreshes.get(),
+                free + falsePositive == 0 ? 0 : (double) falsePositive / (free + falsePositive),
+                expected);
+    }
+
+    /**
+     * Aggiunge ai filtri i valori specificati.
+     *
+     * @param username Lo username.
+     * @param email    L'indirizzo email.
+     * @param taxCode  Il codice fiscale.
+     */
+    private synchronized void add(String username, String email, String taxCode) {
+        filters[Field.USERNAME.ordinal()].put(username);
+        filters[Field.EMAIL.ordinal()].put(email);
+        filters[Field.TAX_CODE.ordinal()].put(taxCode);
+    }
+}
@@ -0,0 +1,415 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * La classe {@code PartitionScheduler} crea periodicamente le partizioni per data della
+ * tabella {@code parametriclimatici}.
+ * <p>
+ * La tabella è partizionata per intervalli di date ({@code PARTITION BY RANGE (date)}),
+ * in modo che gli inserimenti non finiscano nella partizione di default e che le
+ * ricerche per intervallo di date leggano solo le partizioni interessate.
+ * </p>
+ * <p>
+ * La regola è la seguente: esiste una partizione per ogni periodo compreso tra quello
+ * della data più vecchia presente nella tabella (o il periodo corrente meno
+ * {@code periodsBehind}, se più vecchio) e il periodo corrente più {@code periodsAhead}
+ * ({@link #periodStarts}). Gli strumenti che importano dati storici creano prima le
+ * partizioni del proprio intervallo con {@link #ensurePartitions(LocalDate, LocalDate)}.
+ * </p>
+ * <p>
+ * Se la partizione di default contiene già righe di un periodo, per esempio righe
+ * inserite prima della creazione della partizione, la partizione del periodo viene
+ * creata come tabella separata, le righe vi vengono spostate dalla partizione di default
+ * e la tabella viene collegata con {@code ATTACH PARTITION}, il tutto in un'unica
+ * transazione che blocca per il tempo necessario la partizione di default. Ogni periodo
+ * viene spostato in una transazione distinta.
+ * </p>
+ * <p>
+ * Con più server sullo stesso database i controlli periodici vengono eseguiti solo
+ * dall'istanza incaricata della manutenzione ({@link ClusterLeader}).
+ * </p>
+ * <p>
+ * Se la tabella non è partizionata, come nei database creati prima dell'introduzione
+ * del partizionamento, lo scheduler non esegue alcuna operazione.
+ * </p>
+ *
+ * @see DataBaseManager
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class PartitionScheduler implements AutoCloseable {
+
+    /**
+     * La tabella partizionata.
+     */
+    private static final String TABLE = "parametriclimatici";
+
+    /**
+     * La partizione di default della tabella, creata da {@link DataBaseManager}.
+     */
+    private static final String DEFAULT_PARTITION = TABLE + "_default";
+
+    /**
+     * Intervallo, in ore, tra due controlli delle partizioni.
+     */
+    private static final long CHECK_INTERVAL_HOURS = 24;
+
+    /**
+     * L'ampiezza delle partizioni.
+     */
+    public enum Granularity {
+        /** Una partizione per mese, con suffisso {@code _pAAAAMM}. */
+        MONTHLY(DateTimeFormatter.ofPattern("uuuuMM")),
+        /** Una partizione per anno, con suffisso {@code _pAAAA}. */
+        YEARLY(DateTimeFormatter.ofPattern("uuuu"));
+
+        /**
+         * Il formato del suffisso del nome delle partizioni.
+         */
+        private final DateTimeFormatter suffix;
+
+        Granularity(DateTimeFormatter suffix) {
+            this.suffix = suffix;
+        }
+
+        /**
+         * Restituisce l'inizio del periodo che contiene la data specificata.
+         *
+         * @param date La data.
+         * @return Il primo giorno del periodo.
+         */
+        LocalDate startOf(LocalDate date) {
+            return this == MONTHLY ? date.withDayOfMonth(1) : date.withDayOfYear(1);
+        }
+
+        /**
+         * Restituisce l'inizio del periodo successivo o precedente.
+         *
+         * @param start   L'inizio di un periodo.
+         * @param periods Il numero di periodi da aggiungere, anche negativo.
+         * @return L'inizio del periodo risultante.
+         */
+        LocalDate plus(LocalDate start, long periods) {
+            return this == MONTHLY ? start.plusMonths(periods) : start.plusYears(periods);
+        }
+    }
+
+    /**
+     * La connessione dedicata allo scheduler, chiusa da {@link #close()}.
+     */
+    private final Connection conn;
+
+    /**
+     * L'ampiezza delle partizioni.
+     */
+    private final Granularity granularity;
+
+    /**
+     * Il numero di periodi precedenti a quello corrente per cui creare le partizioni.
+     */
+    private final int periodsBehind;
+
+    /**
+     * Il numero di periodi successivi a quello corrente per cui creare le partizioni.
+     */
+    private final int periodsAhead;
+
+    /**
+     * L'esecutore dei controlli periodici.
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Costruisce uno scheduler per la connessione specificata.
+     *
+     * @param conn          Una connessione dedicata allo scheduler, chiusa da {@link #close()}:
+     *                      lo spostamento delle righe dalla partizione di default usa transazioni.
+     * @param granularity   L'ampiezza delle partizioni.
+     * @param periodsBehind Il numero di periodi precedenti da mantenere partizionati.
+     * @param periodsAhead  Il numero di periodi successivi da creare in anticipo.
+     */
+    public PartitionScheduler(Connection conn, Granularity granularity, int periodsBehind, int periodsAhead) {
+        this.conn = conn;
+        this.granularity = granularity;
+        this.periodsBehind = periodsBehind;
+        this.periodsAhead = periodsAhead;
+    }
+
+    /**
+     * Crea subito le partizioni mancanti e pianifica i controlli successivi.
+     */
+    public void start() {
+        start(() -> true);
+    }
+
+    /**
+     * Pianifica i controlli periodici, eseguiti solo quando la condizione indicata è vera.
+     *
+     * @param leadership Restituisce {@code true} se l'istanza è incaricata della manutenzione.
+     */
+    public synchronized void start(BooleanSupplier leadership) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "partition-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> {
+            if (leadership.getAsBoolean()) {
+                runSafely();
+            }
+        }, 0, CHECK_INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    /**
+     * Crea le partizioni mancanti per i periodi gestiti dallo scheduler, a partire da
+     * quello della data più vecchia presente nella tabella.
+     *
+     * @return Il numero di partizioni create.
+     * @throws SQLException Se si verifica un errore durante la lettura del catalogo.
+     */
+    public synchronized int ensurePartitions() throws SQLException {
+        if (!isPartitioned(conn)) {
+            return 0;
+        }
+
+        LocalDate earliest = null;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT min(date) FROM " + TABLE);
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                earliest = rs.getObject(1, LocalDate.class);
+            }
+        }
+        return createPartitions(periodStarts(granularity, earliest, LocalDate.now(), periodsBehind, periodsAhead));
+    }
+
+    /**
+     * Crea le partizioni mancanti per tutti i periodi che intersecano l'intervallo
+     * specificato, per esempio prima di importare dati storici.
+     *
+     * @param from La prima data dell'intervallo, inclusa.
+     * @param to   L'ultima data dell'intervallo, inclusa.
+     * @return Il numero di partizioni create.
+     * @throws SQLException Se si verifica un errore durante la lettura del catalogo.
+     */
+    public synchronized int ensurePartitions(LocalDate from, LocalDate to) throws SQLException {
+        if (!isPartitioned(conn)) {
+            return 0;
+        }
+
+        List<LocalDate> starts = new ArrayList<>();
+        for (LocalDate start = granularity.startOf(from); !start.isAfter(to); start = granularity.plus(start, 1)) {
+            starts.add(start);
+        }
+        return createPartitions(starts);
+    }
+
+    /**
+     * Restituisce l'inizio dei periodi che devono avere una partizione: da quello della
+     * data più vecchia presente, o dal periodo corrente meno {@code periodsBehind} se più
+     * vecchio, fino al periodo corrente più {@code periodsAhead}.
+     *
+     * @param granularity   L'ampiezza delle partizioni.
+     * @param earliest      La data più vecchia presente nella tabella, oppure {@code null} se vuota.
+     * @param today         La data corrente.
+     * @param periodsBehind Il numero di periodi precedenti da mantenere partizionati.
+     * @param periodsAhead  Il numero di periodi successivi da creare in anticipo.
+     * @return L'inizio dei periodi, in ordine crescente.
+     */
+    public static List<LocalDate> periodStarts(Granularity granularity, LocalDate earliest, LocalDate today,
+                                               int periodsBehind, int periodsAhead) {
+        LocalDate current = granularity.startOf(today);
+        LocalDate first = granularity.plus(current, -periodsBehind);
+        if (earliest != null && earliest.isBefore(first)) {
+            first = granularity.startOf(earliest);
+        }
+        LocalDate last = granularity.plus(current, periodsAhead);
+
+        List<LocalDate> starts = new ArrayList<>();
+        for (LocalDate start = first; !start.isAfter(last); start = granularity.plus(start, 1)) {
+            starts.add(start);
+        }
+        return starts;
+    }
+
+    /**
+     * Crea le partizioni mancanti per i periodi specificati.
+     *
+     * @param starts L'inizio dei periodi.
+     * @return Il numero di partizioni create.
+     */
+    private int createPartitions(List<LocalDate> starts) {
+        int created = 0;
+        for (LocalDate from : starts) {
+            if (createPartition(from, granularity.plus(from, 1))) {
+                created++;
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Verifica se la tabella dei parametri climatici è partizionata.
+     *
+     * @param conn La connessione al database.
+     * @return {@code true} se la tabella è partizionata, {@code false} altrimenti.
+     * @throws SQLException Se si verifica un errore durante la lettura del catalogo.
+     */
+    public static boolean isPartitioned(Connection conn) throws SQLException {
+        String sql = "SELECT relkind FROM pg_class WHERE oid = to_regclass(?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, TABLE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && "p".equals(rs.getString(1));
+            }
+        }
+    }
+
+    /**
+     * Interrompe i controlli periodici e chiude la connessione dedicata.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.err.println("Errore durante la chiusura della connessione delle partizioni: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Crea, se non esiste, la partizione per l'intervallo specificato.
+     * <p>
+     * Se la partizione di default contiene righe dell'intervallo, queste vengono spostate
+     * nella nuova partizione con {@link #moveFromDefault(String, LocalDate, LocalDate)}.
+     * </p>
+     *
+     * @param from L'inizio dell'intervallo, incluso.
+     * @param to   La fine dell'intervallo, esclusa.
+     * @return {@code true} se la partizione è stata creata, {@code false} altrimenti.
+     */
+    private boolean createPartition(LocalDate from, LocalDate to) {
+        String name = TABLE + "_p" + granularity.suffix.format(from);
+        try {
+            if (DataBaseManager.checkTableExistence(conn, name)) {
+                return false;
+            }
+            if (defaultHasRows(from, to)) {
+                int moved = moveFromDefault(name, from, to);
+                System.out.println("Partizione creata: " + name + " (" + moved + " righe spostate dalla partizione di default)");
+                return true;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + TABLE +
+                        " FOR VALUES FROM ('" + from + "') TO ('" + to + "');");
+            }
+            System.out.println("Partizione creata: " + name);
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Impossibile creare la partizione " + name + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Verifica se la partizione di default contiene righe dell'intervallo specificato.
+     *
+     * @param from L'inizio dell'intervallo, incluso.
+     * @param to   La fine dell'intervallo, esclusa.
+     * @return {@code true} se esistono righe nell'intervallo, {@code false} altrimenti.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    private boolean defaultHasRows(LocalDate from, LocalDate to) throws SQLException {
+        if (!DataBaseManager.checkTableExistence(conn, DEFAULT_PARTITION)) {
+            return false;
+        }
+        String sql = "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE date >= ? AND date < ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setObject(1, from);
+            stmt.setObject(2, to);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Crea la partizione dell'intervallo spostandovi le righe presenti nella partizione di
+     * default, in un'unica transazione.
+     * <p>
+     * La partizione di default viene bloccata in modo esclusivo, così che nessuna riga
+     * dell'intervallo vi venga inserita tra lo spostamento e il collegamento della nuova
+     * partizione; gli indici e i vincoli della tabella vengono creati sulla partizione al
+     * momento del collegamento.
+     * </p>
+     *
+     * @param name Il nome della partizione.
+     * @param from L'inizio dell'intervallo, incluso.
+     * @param to   La fine dell'intervallo, esclusa.
+     * @return Il numero di righe spostate.
+     * @throws SQLException Se si verifica un errore; la transazione viene annullata.
+     */
+    private int moveFromDefault(String name, LocalDate from, LocalDate to) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            int moved;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("LOCK TABLE " + DEFAULT_PARTITION + " IN ACCESS EXCLUSIVE MODE");
+                stmt.executeUpdate("CREATE TABLE " + name + " (LIKE " + TABLE + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            }
+            String move = "WITH moved AS (DELETE FROM " + DEFAULT_PARTITION + " WHERE date >= ? AND date < ? RETURNING *) " +
+                    "INSERT INTO " + name + " SELECT * FROM moved";
+            try (PreparedStatement stmt = conn.prepareStatement(move)) {
+                stmt.setObject(1, from);
+                stmt.setObject(2, to);
+                moved = stmt.executeUpdate();
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("ALTER TABLE " + TABLE + " ATTACH PARTITION " + name +
+                        " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            }
+            conn.commit();
+            return moved;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Esegue un controllo delle partizioni senza propagare gli errori all'esecutore.
+     */
+    private void runSafely() {
+        try {
+            ensurePartitions();
+        } catch (SQLException e) {
+            System.err.println("Errore durante il controllo delle partizioni: " + e.getMessage());
+        }
+    }
+}
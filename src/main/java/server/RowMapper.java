@@ -0,0 +1,127 @@
+package server;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * La classe {@code RowMapper} converte le righe di un {@link ResultSet} in record
+ * leggendo le colonne per posizione.
+ * <p>
+ * Le colonne richieste vengono dichiarate per nome alla costruzione del mapper; le loro
+ * posizioni vengono risolte una sola volta per ciascuna forma di query (il testo SQL) e
+ * poi riutilizzate per tutte le righe e tutte le esecuzioni successive. La costruzione
+ * del record è affidata a un {@link RowReader} scritto esplicitamente per ogni tipo,
+ * senza reflection.
+ * </p>
+ *
+ * @param <T> Il tipo del record prodotto.
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public final class RowMapper<T> {
+
+    /**
+     * Costruisce un record a partire dalla riga corrente di un {@link ResultSet}.
+     *
+     * @param <T> Il tipo del record prodotto.
+     */
+    @FunctionalInterface
+    public interface RowReader<T> {
+
+        /**
+         * Legge la riga corrente.
+         *
+         * @param rs      Il ResultSet posizionato sulla riga da leggere.
+         * @param columns Le posizioni delle colonne, nell'ordine in cui sono state dichiarate.
+         * @return Il record costruito.
+         * @throws SQLException Se si verifica un errore durante la lettura.
+         */
+        T read(ResultSet rs, int[] columns) throws SQLException;
+    }
+
+    /**
+     * Numero massimo di forme di query di cui vengono memorizzate le posizioni.
+     */
+    private static final int MAX_LAYOUTS = 256;
+
+    /**
+     * I nomi delle colonne lette dal mapper.
+     */
+    private final String[] columnNames;
+
+    /**
+     * La funzione che costruisce il record.
+     */
+    private final RowReader<T> reader;
+
+    /**
+     * Le posizioni delle colonne già risolte, indicizzate per testo SQL.
+     */
+    private final Map<String, int[]> layouts = new ConcurrentHashMap<>();
+
+    /**
+     * Costruisce un mapper per le colonne specificate.
+     *
+     * @param reader      La funzione che costruisce il record.
+     * @param columnNames I nomi delle colonne, nell'ordine in cui il reader le legge.
+     */
+    public RowMapper(RowReader<T> reader, String... columnNames) {
+        this.reader = reader;
+        this.columnNames = columnNames.clone();
+    }
+
+    /**
+     * Restituisce le posizioni delle colonne per la query specificata, risolvendole
+     * sul ResultSet solo alla prima esecuzione.
+     *
+     * @param sql Il testo SQL della query che ha prodotto il ResultSet.
+     * @param rs  Il ResultSet.
+     * @return Le posizioni delle colonne.
+     * @throws SQLException Se una colonna non è presente nel ResultSet.
+     */
+    public int[] columns(String sql, ResultSet rs) throws SQLException {
+        int[] columns = layouts.get(sql);
+        if (columns == null) {
+            columns = new int[columnNames.length];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = rs.findColumn(columnNames[i]);
+            }
+            if (layouts.size() >= MAX_LAYOUTS) {
+                layouts.clear();
+            }
+            layouts.put(sql, columns);
+        }
+        return columns;
+    }
+
+    /**
+     * Converte la riga corrente del ResultSet in un record.
+     *
+     * @param rs      Il ResultSet posizionato sulla riga da leggere.
+     * @param columns Le posizioni restituite da {@link #columns(String, ResultSet)}.
+     * @return Il record costruito.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    public T map(ResultSet rs, int[] columns) throws SQLException {
+        return reader.read(rs, columns);
+    }
+
+    /**
+     * Legge un intero che può essere nullo, distinguendo {@code NULL} dal valore 0.
+     *
+     * @param rs     Il ResultSet.
+     * @param column La posizione della colonna.
+     * @return Il valore letto, oppure {@code null} se la colonna è {@code NULL}.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    public static Integer getInteger(ResultSet rs, int column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+}
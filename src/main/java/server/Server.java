@@ -4,11 +4,15 @@ import server.ImplementationRMI.*;
 import shared.interfacesRMI.*;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.RemoteException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Period;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -18,12 +22,45 @@ public class Server {
     private static Connection conn;
     private static final String csvFilePath = "/geonames-and-coordinates.CSV";
     private static final int TIMEOUT_MINUTES = 5;
+    private static final String ARCHIVE_PROPERTY = "climatemonitoring.archive";
+    private static final String ARCHIVE_RETENTION_PROPERTY = "climatemonitoring.archiveRetention";
+    private static final String ARCHIVE_DIRECTORY_PROPERTY = "climatemonitoring.archiveDirectory";
+    private static final String DEFAULT_ARCHIVE_DIRECTORY = "weather-archive";
+    private static final Period DEFAULT_ARCHIVE_RETENTION = Period.ofYears(2);
+    private static final String CITY_CATALOG_FILE = "city-catalog.bin";
+    private static final long READ_YOUR_WRITES_MILLIS = 5_000;
+    private static final String REGISTRY_PORT_PROPERTY = "climatemonitoring.registryPort";
+    private static final int DEFAULT_REGISTRY_PORT = 1099;
+    static final String SHARDS_PROPERTY = "climatemonitoring.shards";
+    private static final String INGEST_QUEUE_PROPERTY = "climatemonitoring.ingestQueue";
+    private static final String INGEST_LOG_PROPERTY = "climatemonitoring.ingestLog";
+    private static final String INGEST_LOG_DIRECTORY = "ingest-log";
+    private static final String RMI_RESPONSE_TIMEOUT_PROPERTY = "sun.rmi.transport.tcp.responseTimeout";
+    private static final String CALLBACK_TIMEOUT_MILLIS = "10000";
+    static final PartitionScheduler.Granularity PARTITION_GRANULARITY = PartitionScheduler.Granularity.MONTHLY;
     private static ScheduledExecutorService executor;
+    private static OperatorUniquenessFilter operatorFilter;
+    private static ClusterLeader clusterLeader;
+    private static PartitionScheduler partitionScheduler;
+    private static WeatherArchive weatherArchive;
+    private static DataSourceRouter router;
+    private static WeatherShards weatherShards;
+    private static WeatherIngestQueue ingestQueue;
+    private static IngestLog ingestLog;
+    private static WeatherEventDispatcher weatherEvents;
+    private static WeatherEventRelay weatherRelay;
+    private static DataQueryImp dataQuery;
+    private static DataHandlerImp dataHandler;
 
     public static void main(String[] args) {
 
+        // Limita l'attesa delle callback dei client, in modo che un client bloccato non occupi i thread degli eventi.
+        if (System.getProperty(RMI_RESPONSE_TIMEOUT_PROPERTY) == null) {
+            System.setProperty(RMI_RESPONSE_TIMEOUT_PROPERTY, CALLBACK_TIMEOUT_MILLIS);
+        }
+
         try {
-            if (args.length == 2) {
+            if (args.length == 2 || args.length == 3) {
                 conn = new DataBaseManager(args[0], args[1]).getConnection();
 
                 if (!DataBaseManager.checkTableExistence(conn, "coordinatemonitoraggio")) {
@@ -31,18 +68,62 @@ public class Server {
                     DataBaseManager.populateCoordinateMonitoraggio(conn, csvFilePath);
                 }
 
+                // Con più server sullo stesso database la manutenzione viene eseguita da una sola istanza.
+                clusterLeader = new ClusterLeader(args[0], args[1]);
+                clusterLeader.start();
+                if (clusterLeader.isLeader()) {
+                    DataBaseManager.ensureUniqueConstraints(conn);
+                    DataBaseManager.ensureIndexes(conn);
+                }
+                partitionScheduler = new PartitionScheduler(DataBaseManager.connect(args[0], args[1]),
+                        PARTITION_GRANULARITY, 12, 3);
+                partitionScheduler.start(clusterLeader::isLeader);
+
             } else {
-                System.out.println("Utilizzo: java -jar Server.jar [host password]");
+                System.out.println("Utilizzo: java -jar Server.jar [host password [replica1,replica2,...]]");
                 System.exit(1);
             }
 
-            DataQueryInterface dataQuery = new DataQueryImp(conn);
-            DataHandlerInterface dataHandler = new DataHandlerImp(dataQuery);
-            LogicOperatorInterface logicOperator = new LogicOperatorImp(dataHandler, dataQuery);
-            LogicCenterInterface logicCenter = new LogicCenterImp(dataHandler, dataQuery);
-            LogicCityInterface logicCity = new LogicCityImp();
+            if (Boolean.getBoolean(ARCHIVE_PROPERTY)) {
+                weatherArchive = new WeatherArchive(Path.of(System.getProperty(ARCHIVE_DIRECTORY_PROPERTY, DEFAULT_ARCHIVE_DIRECTORY)));
+                weatherArchive.start(DataBaseManager.connect(args[0], args[1]), archiveRetention(), clusterLeader::isLeader);
+            }
+
+            CityCatalog cityCatalog = CityCatalog.load(conn, Path.of(CITY_CATALOG_FILE));
+
+            List<String> replicaHosts = args.length == 3 ? List.of(args[2].split(",")) : List.of();
+            router = new DataSourceRouter(conn, replicaHosts, args[1], READ_YOUR_WRITES_MILLIS);
+            router.start();
+
+            List<String> shardHosts = shardHosts();
+            if (!shardHosts.isEmpty()) {
+                weatherShards = new WeatherShards(conn, shardHosts, args[1]);
+                weatherShards.start();
+            }
+
+            dataQuery = new DataQueryImp(conn, weatherArchive, cityCatalog, router, weatherShards);
+            weatherEvents = new WeatherEventDispatcher();
+            weatherRelay = new WeatherEventRelay(args[0], args[1], weatherEvents, dataQuery);
+            weatherRelay.start();
+            dataHandler = new DataHandlerImp(dataQuery, router, weatherShards, weatherRelay);
+            if (Boolean.getBoolean(INGEST_QUEUE_PROPERTY)) {
+                ingestQueue = new WeatherIngestQueue(dataHandler::addNewWeathers, router,
+                        WeatherIngestQueue.DEFAULT_CAPACITY, WeatherIngestQueue.DEFAULT_MAX_BATCH,
+                        WeatherIngestQueue.DEFAULT_MAX_DELAY_MILLIS);
+                ingestQueue.start();
+            }
+            if (Boolean.getBoolean(INGEST_LOG_PROPERTY)) {
+                ingestLog = IngestLog.open(Path.of(INGEST_LOG_DIRECTORY));
+                ingestLog.start((requestIDs, weathers) -> dataHandler.addNewWeathers(weathers, requestIDs));
+            }
+            SessionManager sessions = new SessionManager();
+            operatorFilter = OperatorUniquenessFilter.load(conn);
+            operatorFilter.start(DataBaseManager.connect(args[0], args[1]), OperatorUniquenessFilter.DEFAULT_REFRESH_SECONDS);
+            LogicOperatorInterface logicOperator = new LogicOperatorImp(dataHandler, dataQuery, sessions, operatorFilter);
+            LogicCenterInterface logicCenter = new LogicCenterImp(dataHandler, dataQuery, sessions, ingestQueue, ingestLog);
+            LogicCityInterface logicCity = new LogicCityImp(dataQuery, weatherEvents);
 
-            Registry registry = LocateRegistry.createRegistry(1099);
+            Registry registry = LocateRegistry.createRegistry(Integer.getInteger(REGISTRY_PORT_PROPERTY, DEFAULT_REGISTRY_PORT));
 
             registry.rebind("DataQuery", dataQuery);
             registry.rebind("DataHandler", dataHandler);
@@ -63,6 +144,41 @@ public class Server {
         }
     }
 
+    /**
+     * Restituisce il periodo per cui i parametri climatici restano nella tabella prima di
+     * essere archiviati, indicato dalla proprietà di sistema
+     * {@code climatemonitoring.archiveRetention} nel formato ISO-8601 (per esempio {@code P2Y}).
+     *
+     * @return Il periodo di conservazione, due anni se la proprietà non è impostata.
+     * @throws IllegalArgumentException Se il periodo non è valido o non è positivo.
+     */
+    static Period archiveRetention() {
+        String property = System.getProperty(ARCHIVE_RETENTION_PROPERTY, "").trim();
+        if (property.isEmpty()) {
+            return DEFAULT_ARCHIVE_RETENTION;
+        }
+        try {
+            Period retention = Period.parse(property);
+            if (retention.isNegative() || retention.isZero()) {
+                throw new IllegalArgumentException("Il periodo di conservazione deve essere positivo: " + property);
+            }
+            return retention;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Periodo di conservazione non valido: " + property, e);
+        }
+    }
+
+    /**
+     * Restituisce gli host degli shard dei parametri climatici indicati dalla proprietà
+     * di sistema {@code climatemonitoring.shards}.
+     *
+     * @return Gli host degli shard, vuota se i parametri climatici risiedono solo sul primario.
+     */
+    static List<String> shardHosts() {
+        String property = System.getProperty(SHARDS_PROPERTY, "").trim();
+        return property.isEmpty() ? List.of() : List.of(property.split(","));
+    }
+
     /**
      * Avvia un timer per la chiusura del server in caso di inattività.
      */
@@ -86,10 +202,51 @@ public class Server {
      */
     private static void shutdown() {
         try {
+            if (ingestLog != null) {
+                ingestLog.close();
+                System.out.println("Registro degli inserimenti: " + ingestLog.getMetrics());
+            }
+            if (ingestQueue != null) {
+                ingestQueue.close();
+                System.out.println("Coda di inserimento: " + ingestQueue.getMetrics());
+            }
+            if (weatherRelay != null) {
+                weatherRelay.close();
+                System.out.println("Distribuzione degli eventi: " + weatherRelay.getMetrics());
+            }
+            if (weatherEvents != null) {
+                weatherEvents.close();
+                System.out.println("Eventi dei parametri climatici: " + weatherEvents.getMetrics());
+            }
+            if (dataHandler != null) {
+                dataHandler.closeStatements();
+            }
+            if (dataQuery != null) {
+                dataQuery.closeStatements();
+            }
             if (conn != null && !conn.isClosed()) {
                 conn.close();
                 System.out.println("Connessione al database chiusa.");
             }
+            if (router != null) {
+                router.close();
+            }
+            if (weatherShards != null) {
+                weatherShards.close();
+            }
+            if (weatherArchive != null) {
+                weatherArchive.close();
+            }
+            if (partitionScheduler != null) {
+                partitionScheduler.close();
+            }
+            if (clusterLeader != null) {
+                clusterLeader.close();
+            }
+            if (operatorFilter != null) {
+                operatorFilter.close();
+                System.out.println("Filtri di unicità operatori: " + operatorFilter.getMetrics());
+            }
             System.out.println("Server inattivo da troppo tempo, terminazione in corso...");
             System.exit(0);
         } catch (SQLException e) {
@@ -0,0 +1,237 @@
+package server;
+
+import shared.record.RecordOperator;
+import shared.record.RecordSession;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La classe {@code SessionManager} gestisce in memoria le sessioni degli operatori
+ * autenticati.
+ * <p>
+ * Al login viene generato un token casuale associato a una {@link Session} che contiene
+ * l'operatore, il centro di monitoraggio e i permessi. Le operazioni di scrittura
+ * risolvono il token in memoria, senza interrogare il database.
+ * </p>
+ * <p>
+ * Ogni sessione scade dopo un periodo di inattività; la scadenza viene rinnovata a ogni
+ * utilizzo e le sessioni scadute vengono rimosse all'apertura di nuove sessioni.
+ * </p>
+ *
+ * @see RecordSession
+ * @see RecordOperator
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class SessionManager {
+
+    /**
+     * Durata predefinita di inattività dopo la quale una sessione scade, in millisecondi.
+     */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * Numero di byte casuali che compongono un token.
+     */
+    private static final int TOKEN_BYTES = 32;
+
+    /**
+     * Messaggio restituito quando il token non corrisponde a una sessione valida.
+     */
+    private static final String INVALID_SESSION = "Sessione non valida o scaduta. Effettua nuovamente il login.";
+
+    /**
+     * I permessi che una sessione può concedere.
+     */
+    public enum Permission {
+        /** Associazione dell'operatore a un centro esistente. */
+        ASSOCIATE_CENTER,
+        /** Creazione di un nuovo centro di monitoraggio. */
+        CREATE_CENTER,
+        /** Inserimento di dati climatici per il centro dell'operatore. */
+        ADD_WEATHER
+    }
+
+    /**
+     * Una sessione aperta.
+     *
+     * @param operator    L'operatore autenticato.
+     * @param centerID    L'ID del centro dell'operatore, {@code 0} se non associato.
+     * @param permissions I permessi concessi.
+     * @param expiresAt   L'istante di scadenza, in millisecondi.
+     */
+    public record Session(RecordOperator operator, Integer centerID, Set<Permission> permissions, long expiresAt) {
+
+        /**
+         * Verifica se la sessione è scaduta.
+         *
+         * @param now L'istante corrente, in millisecondi.
+         * @return {@code true} se la sessione è scaduta, {@code false} altrimenti.
+         */
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    /**
+     * Le sessioni aperte, indicizzate per token.
+     */
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Il generatore dei token.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * La durata di inattività dopo la quale una sessione scade, in millisecondi.
+     */
+    private final long ttlMillis;
+
+    /**
+     * Costruisce un gestore con la durata di sessione predefinita.
+     */
+    public SessionManager() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Costruisce un gestore con la durata di sessione specificata.
+     *
+     * @param ttlMillis La durata di inattività dopo la quale una sessione scade, in millisecondi.
+     */
+    public SessionManager(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Apre una nuova sessione per l'operatore specificato.
+     *
+     * @param operator L'operatore autenticato.
+     * @return La sessione aperta, con il relativo token.
+     */
+    public RecordSession open(RecordOperator operator) {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.isExpired(now));
+
+        String token = newToken();
+        sessions.put(token, newSession(operator, now));
+        return new RecordSession(token, operator);
+    }
+
+    /**
+     * Restituisce la sessione associata al token, rinnovandone la scadenza, e verifica
+     * che conceda il permesso richiesto.
+     *
+     * @param token      Il token della sessione.
+     * @param permission Il permesso richiesto.
+     * @return La sessione.
+     * @throws IllegalStateException Se la sessione non esiste, è scaduta o non concede il permesso.
+     */
+    public Session require(String token, Permission permission) {
+        Session session = resolve(token);
+        if (!session.permissions().contains(permission)) {
+            throw new IllegalStateException(switch (permission) {
+                case ADD_WEATHER -> "L'operatore non è associato a nessun centro di monitoraggio.";
+                case ASSOCIATE_CENTER, CREATE_CENTER -> "L'operatore è già associato a un centro.";
+            });
+        }
+        return session;
+    }
+
+    /**
+     * Aggiorna l'operatore associato a una sessione, ricalcolandone centro e permessi.
+     *
+     * @param token    Il token della sessione.
+     * @param operator L'operatore aggiornato.
+     * @throws IllegalStateException Se la sessione non esiste o è scaduta.
+     */
+    public void update(String token, RecordOperator operator) {
+        long now = System.currentTimeMillis();
+        Session updated = sessions.computeIfPresent(token,
+                (key, session) -> session.isExpired(now) ? null : newSession(operator, now));
+        if (updated == null) {
+            throw new IllegalStateException(INVALID_SESSION);
+        }
+    }
+
+    /**
+     * Verifica se la sessione associata al token è aperta, senza rinnovarne la scadenza.
+     *
+     * @param token Il token della sessione.
+     * @return {@code true} se la sessione esiste e non è scaduta, {@code false} altrimenti.
+     */
+    public boolean isOpen(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        return session != null && !session.isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Chiude la sessione associata al token, se esiste.
+     *
+     * @param token Il token della sessione.
+     * @return {@code true} se la sessione era aperta, {@code false} altrimenti.
+     */
+    public boolean close(String token) {
+        return token != null && sessions.remove(token) != null;
+    }
+
+    /**
+     * Restituisce la sessione associata al token, rinnovandone la scadenza.
+     *
+     * @param token Il token della sessione.
+     * @return La sessione.
+     * @throws IllegalStateException Se la sessione non esiste o è scaduta.
+     */
+    private Session resolve(String token) {
+        if (token == null) {
+            throw new IllegalStateException(INVALID_SESSION);
+        }
+
+        long now = System.currentTimeMillis();
+        Session session = sessions.computeIfPresent(token, (key, current) -> current.isExpired(now)
+                ? null
+                : new Session(current.operator(), current.centerID(), current.permissions(), now + ttlMillis));
+        if (session == null) {
+            throw new IllegalStateException(INVALID_SESSION);
+        }
+        return session;
+    }
+
+    /**
+     * Crea una sessione per l'operatore, derivandone i permessi dal centro associato.
+     *
+     * @param operator L'operatore.
+     * @param now      L'istante corrente, in millisecondi.
+     * @return La sessione creata.
+     */
+    private Session newSession(RecordOperator operator, long now) {
+        Integer centerID = operator.centerID() == null ? 0 : operator.centerID();
+        Set<Permission> permissions = centerID == 0
+                ? EnumSet.of(Permission.ASSOCIATE_CENTER, Permission.CREATE_CENTER)
+                : EnumSet.of(Permission.ADD_WEATHER);
+        return new Session(operator, centerID, Collections.unmodifiableSet(permissions), now + ttlMillis);
+    }
+
+    /**
+     * Genera un nuovo token casuale.
+     *
+     * @return Il token generato.
+     */
+    private String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,347 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * La classe {@code ShardMoveTool} sposta i parametri climatici di una città su un altro
+ * shard mentre i server restano in funzione.
+ * <p>
+ * Lo spostamento avviene in più fasi, separate da attese pari a due aggiornamenti della
+ * mappa degli shard, in modo che tutti i server abbiano recepito ogni modifica:
+ * </p>
+ * <ol>
+ *     <li>la città viene associata esplicitamente allo shard di origine;</li>
+ *     <li>le righe vengono copiate sullo shard di destinazione, dove le letture le ignorano
+ *     finché la città resta associata all'origine;</li>
+ *     <li>la sequenza degli ID della destinazione viene portata oltre quella
+ *     dell'origine, in modo che i nuovi ID della città restino crescenti;</li>
+ *     <li>la città viene associata allo shard di destinazione;</li>
+ *     <li>le righe scritte sull'origine prima che i server recepissero la nuova
+ *     associazione vengono copiate;</li>
+ *     <li>vengono eliminate dallo shard di origine solo le righe copiate, ripetendo
+ *     copia ed eliminazione finché sull'origine non restano righe della città.</li>
+ * </ol>
+ * <p>
+ * Gli ID delle righe vengono mantenuti, dato che le sequenze dei diversi shard generano
+ * ID disgiunti. Gli shard sono indicati, come per il server, dalla proprietà di sistema
+ * {@code climatemonitoring.shards}.
+ * </p>
+ *
+ * @see WeatherShards
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class ShardMoveTool {
+
+    /**
+     * Numero di righe inserite per ciascun batch.
+     */
+    private static final int BATCH_SIZE = 1_000;
+
+    /**
+     * Attesa, in millisecondi, affinché tutti i server recepiscano una modifica della mappa.
+     */
+    private static final long PROPAGATION_MILLIS = 2 * WeatherShards.REFRESH_SECONDS * 1_000;
+
+    /**
+     * Margine minimo di ID lasciato tra la sequenza dell'origine e quella della destinazione.
+     */
+    private static final long MIN_SEQUENCE_MARGIN = 1_000L * WeatherShards.MAX_SHARDS;
+
+    /**
+     * Fattore di sicurezza applicato al numero di ID che l'origine può assegnare prima che
+     * i server recepiscano la nuova associazione.
+     */
+    private static final int SEQUENCE_MARGIN_FACTOR = 2;
+
+    /**
+     * Numero massimo di ripetizioni di copia ed eliminazione delle righe rimaste sull'origine.
+     */
+    private static final int MAX_DRAIN_ROUNDS = 5;
+
+    /**
+     * Il risultato di una copia.
+     *
+     * @param inserted Il numero di righe inserite sulla destinazione.
+     * @param ids      Gli ID di tutte le righe lette dall'origine, ora presenti anche sulla destinazione.
+     */
+    private record Copy(int inserted, List<Integer> ids) {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 4) {
+            System.out.println("Utilizzo: java -D" + Server.SHARDS_PROPERTY + "=shard1,shard2,... "
+                    + "-cp Server.jar server.ShardMoveTool host password idCittà shardDestinazione");
+            System.exit(1);
+        }
+
+        try (Connection conn = new DataBaseManager(args[0], args[1]).getConnection();
+             WeatherShards shards = new WeatherShards(conn, Server.shardHosts(), args[1])) {
+            int cityID = Integer.parseInt(args[2]);
+            int target = Integer.parseInt(args[3]);
+            if (target < 0 || target >= shards.size()) {
+                throw new IllegalArgumentException("Shard di destinazione non valido: " + target);
+            }
+            move(shards, cityID, target, PROPAGATION_MILLIS);
+        } catch (SQLException e) {
+            System.err.println("Si è verificato un SQLException: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Spostamento interrotto.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sposta i parametri climatici della città sullo shard di destinazione.
+     *
+     * @param shards            Gli shard.
+     * @param cityID            L'ID della città.
+     * @param target            Il numero dello shard di destinazione.
+     * @param propagationMillis L'attesa, in millisecondi, affinché tutti i server recepiscano
+     *                          una modifica della mappa.
+     * @throws SQLException         Se si verifica un errore durante l'accesso al database.
+     * @throws InterruptedException Se l'attesa tra le fasi viene interrotta.
+     */
+    public static void move(WeatherShards shards, int cityID, int target, long propagationMillis)
+            throws SQLException, InterruptedException {
+        int source = shards.shardOf(cityID);
+        if (source == target) {
+            System.out.println("La città " + cityID + " è già sullo shard " + target + ".");
+            return;
+        }
+        Connection primary = shards.connection(0);
+        // Campione della sequenza dell'origine, da cui stimare la frequenza delle scritture.
+        long sampledAt = System.currentTimeMillis();
+        long sampledValue = lastValue(shards.connection(source), sequenceOf(shards.connection(source)));
+
+        try (PreparedStatement stmt = primary.prepareStatement(
+                "INSERT INTO shardmap (cityid, shard) VALUES (?, ?) ON CONFLICT (cityid) DO NOTHING")) {
+            stmt.setInt(1, cityID);
+            stmt.setInt(2, source);
+            stmt.executeUpdate();
+        }
+        System.out.println("Città " + cityID + " associata allo shard " + source + ", attesa della propagazione...");
+        Thread.sleep(propagationMillis);
+
+        Copy copied = copy(shards.connection(source), shards.connection(target), cityID);
+        System.out.println("Copiate " + copied.inserted() + " righe sullo shard " + target + ".");
+
+        advanceSequence(shards.connection(source), shards.connection(target), target,
+                sampledValue, sampledAt, propagationMillis);
+
+        try (PreparedStatement stmt = primary.prepareStatement("UPDATE shardmap SET shard = ? WHERE cityid = ? AND shard = ?")) {
+            stmt.setInt(1, target);
+            stmt.setInt(2, cityID);
+            stmt.setInt(3, source);
+            if (stmt.executeUpdate() != 1) {
+                throw new SQLException("L'associazione della città " + cityID + " è stata modificata durante lo spostamento.");
+            }
+        }
+        System.out.println("Città " + cityID + " associata allo shard " + target + ", attesa della propagazione...");
+        Thread.sleep(propagationMillis);
+
+        // Le righe scritte sull'origine dopo una copia non vengono eliminate, ma copiate al giro successivo.
+        for (int round = 0; round < MAX_DRAIN_ROUNDS; round++) {
+            copied = copy(shards.connection(source), shards.connection(target), cityID);
+            if (copied.ids().isEmpty()) {
+                System.out.println("Spostamento della città " + cityID + " completato.");
+                return;
+            }
+            System.out.println("Copiate " + copied.inserted() + " righe scritte durante lo spostamento.");
+            int deleted = deleteCopied(shards.connection(source), cityID, copied.ids());
+            System.out.println("Eliminate " + deleted + " righe dallo shard " + source + ".");
+        }
+        System.err.println("Sullo shard " + source + " vengono ancora scritte righe della città " + cityID
+                + ": verificare che tutti i server abbiano recepito la nuova associazione e ripetere lo spostamento.");
+    }
+
+    /**
+     * Copia i parametri climatici della città da uno shard all'altro, ignorando le righe
+     * già presenti sulla destinazione.
+     *
+     * @param from   La connessione allo shard di origine.
+     * @param to     La connessione allo shard di destinazione.
+     * @param cityID L'ID della città.
+     * @return Il numero di righe inserite e gli ID delle righe lette.
+     * @throws SQLException Se si verifica un errore durante la copia.
+     */
+    private static Copy copy(Connection from, Connection to, int cityID) throws SQLException {
+        String insertSql = "INSERT INTO parametriclimatici (" + WeatherShards.WEATHER_COLUMNS + ") VALUES ("
+                + String.join(", ", Collections.nCopies(WeatherShards.WEATHER_COLUMN_COUNT, "?"))
+                + ") ON CONFLICT (id, date) DO NOTHING";
+        boolean autoCommit = to.getAutoCommit();
+        to.setAutoCommit(false);
+        try (PreparedStatement select = from.prepareStatement(
+                     "SELECT " + WeatherShards.WEATHER_COLUMNS + " FROM parametriclimatici WHERE cityid = ?");
+             PreparedStatement insert = to.prepareStatement(insertSql)) {
+            select.setInt(1, cityID);
+            List<Integer> ids = new ArrayList<>();
+            int inserted = 0;
+            int pending = 0;
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt("id"));
+                    for (int i = 1; i <= WeatherShards.WEATHER_COLUMN_COUNT; i++) {
+                        insert.setObject(i, rs.getObject(i));
+                    }
+                    insert.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        inserted += sum(insert.executeBatch());
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0) {
+                inserted += sum(insert.executeBatch());
+            }
+            to.commit();
+            return new Copy(inserted, ids);
+        } catch (SQLException e) {
+            to.rollback();
+            throw e;
+        } finally {
+            to.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Elimina dallo shard di origine le righe della città già copiate sulla destinazione,
+     * in un'unica transazione. Le righe scritte dopo la copia restano sull'origine.
+     *
+     * @param from   La connessione allo shard di origine.
+     * @param cityID L'ID della città.
+     * @param ids    Gli ID delle righe copiate.
+     * @return Il numero di righe eliminate.
+     * @throws SQLException Se si verifica un errore durante l'eliminazione.
+     */
+    private static int deleteCopied(Connection from, int cityID, List<Integer> ids) throws SQLException {
+        boolean autoCommit = from.getAutoCommit();
+        from.setAutoCommit(false);
+        try (PreparedStatement stmt = from.prepareStatement(
+                "DELETE FROM parametriclimatici WHERE cityid = ? AND id = ANY (?)")) {
+            int deleted = 0;
+            for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+                List<Integer> batch = ids.subList(start, Math.min(ids.size(), start + BATCH_SIZE));
+                stmt.setInt(1, cityID);
+                stmt.setArray(2, from.createArrayOf("integer", batch.toArray()));
+                deleted += stmt.executeUpdate();
+            }
+            from.commit();
+            return deleted;
+        } catch (SQLException e) {
+            from.rollback();
+            throw e;
+        } finally {
+            from.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Porta la sequenza degli ID dello shard di destinazione oltre quella dell'origine,
+     * mantenendo il resto proprio della destinazione.
+     * <p>
+     * In questo modo gli ID delle righe della città restano crescenti nell'ordine di
+     * inserimento anche dopo lo spostamento. Il margine copre le righe che l'origine può
+     * ancora assegnare prima che i server recepiscano la nuova associazione: è stimato
+     * dalla frequenza delle scritture osservata sull'origine dall'inizio dello spostamento,
+     * così che la sequenza, di tipo {@code integer}, avanzi solo quanto necessario.
+     * </p>
+     *
+     * @param from              La connessione allo shard di origine.
+     * @param to                La connessione allo shard di destinazione.
+     * @param target            Il numero dello shard di destinazione.
+     * @param sampledValue      Il valore della sequenza dell'origine all'inizio dello spostamento.
+     * @param sampledAt         L'istante, in millisecondi, in cui è stato letto {@code sampledValue}.
+     * @param propagationMillis L'attesa, in millisecondi, affinché tutti i server recepiscano
+     *                          una modifica della mappa.
+     * @throws SQLException Se si verifica un errore durante l'aggiornamento della sequenza o
+     *                      se la sequenza supererebbe il massimo valore di un {@code integer}.
+     */
+    private static void advanceSequence(Connection from, Connection to, int target, long sampledValue,
+                                        long sampledAt, long propagationMillis) throws SQLException {
+        long sourceLast = lastValue(from, sequenceOf(from));
+        long elapsed = Math.max(1, System.currentTimeMillis() - sampledAt);
+        double perMilli = (double) Math.max(0, sourceLast - sampledValue) / elapsed;
+        long margin = Math.max(MIN_SEQUENCE_MARGIN,
+                (long) Math.ceil(perMilli * (propagationMillis + elapsed) * SEQUENCE_MARGIN_FACTOR));
+
+        String sequence = sequenceOf(to);
+        long targetLast = lastValue(to, sequence);
+        long minimum = sourceLast + margin;
+        if (targetLast >= minimum) {
+            return;
+        }
+        long value = minimum + Math.floorMod(target - minimum, WeatherShards.MAX_SHARDS);
+        if (value > Integer.MAX_VALUE) {
+            throw new SQLException("La sequenza degli ID dello shard " + target + " supererebbe il valore massimo ("
+                    + value + ").");
+        }
+        try (PreparedStatement stmt = to.prepareStatement("SELECT setval(?::regclass, ?, true)")) {
+            stmt.setString(1, sequence);
+            stmt.setLong(2, value);
+            stmt.executeQuery().close();
+        }
+        System.out.println("Sequenza degli ID dello shard " + target + " portata a " + value + ".");
+    }
+
+    /**
+     * Restituisce il nome della sequenza degli ID dei parametri climatici.
+     *
+     * @param conn La connessione allo shard.
+     * @return Il nome della sequenza.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    private static String sequenceOf(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_get_serial_sequence('parametriclimatici', 'id')")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    /**
+     * Restituisce l'ultimo valore assegnato da una sequenza.
+     *
+     * @param conn     La connessione allo shard.
+     * @param sequence Il nome della sequenza.
+     * @return L'ultimo valore della sequenza.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    private static long lastValue(Connection conn, String sequence) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT last_value FROM " + sequence)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Somma i conteggi restituiti dall'esecuzione di un batch.
+     *
+     * @param counts I conteggi delle righe modificate da ciascun comando.
+     * @return Il numero totale di righe modificate.
+     */
+    private static int sum(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += Math.max(count, 0);
+        }
+        return total;
+    }
+}
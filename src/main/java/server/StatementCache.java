@@ -0,0 +1,128 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * La classe {@code StatementCache} mantiene aperti e riutilizza i {@link PreparedStatement}
+ * creati su una connessione, indicizzati per testo SQL.
+ * <p>
+ * Riutilizzare lo stesso oggetto permette al driver PostgreSQL di passare, dopo alcune
+ * esecuzioni, a uno statement preparato lato server, il cui piano viene riutilizzato dal
+ * database. La cache ha una dimensione massima e chiude gli statement usati meno di recente.
+ * </p>
+ * <p>
+ * Gli statement restituiti non devono essere chiusi dal chiamante e non sono thread-safe:
+ * ciascun oggetto che usa la connessione mantiene la propria cache e la utilizza sotto il
+ * proprio lock.
+ * </p>
+ *
+ * @see PreparedStatement
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class StatementCache implements AutoCloseable {
+
+    /**
+     * Numero massimo predefinito di statement mantenuti aperti.
+     */
+    public static final int DEFAULT_MAX_STATEMENTS = 64;
+
+    /**
+     * La connessione su cui vengono creati gli statement.
+     */
+    private final Connection conn;
+
+    /**
+     * Gli statement aperti, indicizzati per testo SQL e ordinati per accesso.
+     */
+    private final Map<String, PreparedStatement> statements;
+
+    /**
+     * Costruisce una cache con la dimensione predefinita.
+     *
+     * @param conn La connessione su cui creare gli statement.
+     */
+    public StatementCache(Connection conn) {
+        this(conn, DEFAULT_MAX_STATEMENTS);
+    }
+
+    /**
+     * Costruisce una cache con la dimensione specificata.
+     *
+     * @param conn          La connessione su cui creare gli statement.
+     * @param maxStatements Il numero massimo di statement mantenuti aperti.
+     */
+    public StatementCache(Connection conn, int maxStatements) {
+        this.conn = conn;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxStatements) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Restituisce lo statement per il testo SQL specificato, creandolo se non è in cache.
+     * <p>
+     * I parametri di uno statement riutilizzato vengono azzerati.
+     * </p>
+     *
+     * @param sql Il testo SQL.
+     * @return Lo statement pronto per l'impostazione dei parametri.
+     * @throws SQLException Se si verifica un errore durante la creazione dello statement.
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = conn.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * Chiude tutti gli statement in cache.
+     */
+    /**
+     * Restituisce la connessione su cui vengono preparati gli statement.
+     *
+     * @return La connessione della cache.
+     */
+    public Connection connection() {
+        return conn;
+    }
+
+    @Override
+    public synchronized void close() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+    /**
+     * Chiude uno statement ignorando eventuali errori.
+     *
+     * @param stmt Lo statement da chiudere.
+     */
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            System.err.println("Errore durante la chiusura di uno statement: " + e.getMessage());
+        }
+    }
+}
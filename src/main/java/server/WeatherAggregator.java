@@ -0,0 +1,165 @@
+package server;
+
+import server.ImplementationRMI.LogicCityImp.WeatherTableData;
+import shared.record.RecordWeather;
+
+import java.io.Serial;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * La classe {@code WeatherAggregator} calcola i dati aggregati di {@link WeatherTableData}
+ * su grandi quantità di record meteorologici, suddividendo il lavoro tra i thread di un
+ * {@link ForkJoinPool}.
+ * <p>
+ * Viene utilizzata per i record già presenti in memoria, cioè quelli inviati dal client e
+ * quelli letti per una singola città; l'aggregazione per centro, paese e globale avviene
+ * invece nel database.
+ * </p>
+ * <p>
+ * L'array di record viene diviso ricorsivamente in porzioni; ogni porzione viene aggregata
+ * in un {@code WeatherTableData} parziale e i risultati vengono combinati con
+ * {@link WeatherTableData#merge(WeatherTableData)}.
+ * </p>
+ * <p>
+ * La soglia sotto la quale l'input viene aggregato direttamente nel thread chiamante è
+ * ricavata dal parallelismo del pool: la suddivisione avviene solo se ogni thread riceve
+ * almeno una porzione di {@value #MIN_CHUNK_SIZE} record, e mai con un pool di un solo
+ * thread. La dimensione delle porzioni dipende invece dal numero di record.
+ * </p>
+ *
+ * @see WeatherTableData
+ * @see ForkJoinPool
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherAggregator {
+
+    /**
+     * Dimensione minima di una porzione elaborata da un singolo task.
+     */
+    private static final int MIN_CHUNK_SIZE = 2_048;
+
+    /**
+     * Numero di porzioni da generare per ciascun thread del pool, per bilanciare il carico.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Il pool utilizzato per l'aggregazione parallela.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Costruisce un aggregatore che utilizza il pool comune di {@link ForkJoinPool}.
+     */
+    public WeatherAggregator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Costruisce un aggregatore che utilizza il pool specificato.
+     *
+     * @param pool Il pool da utilizzare per l'aggregazione parallela.
+     */
+    public WeatherAggregator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Aggrega i record meteorologici specificati.
+     *
+     * @param weatherRecords I record meteorologici da aggregare.
+     * @return I dati aggregati; vuoti se non sono presenti record.
+     */
+    public WeatherTableData aggregate(RecordWeather[] weatherRecords) {
+        if (weatherRecords == null || weatherRecords.length == 0) {
+            return new WeatherTableData();
+        }
+
+        if (weatherRecords.length < sequentialLimit()) {
+            return aggregateRange(weatherRecords, 0, weatherRecords.length);
+        }
+
+        return pool.invoke(new AggregateTask(weatherRecords, 0, weatherRecords.length,
+                chunkSize(weatherRecords.length)));
+    }
+
+    /**
+     * Calcola il numero di record sotto il quale l'aggregazione avviene nel thread
+     * chiamante, in base al parallelismo del pool.
+     *
+     * @return Il numero minimo di record per l'aggregazione parallela.
+     */
+    private int sequentialLimit() {
+        int parallelism = pool.getParallelism();
+        return parallelism <= 1 ? Integer.MAX_VALUE : MIN_CHUNK_SIZE * parallelism;
+    }
+
+    /**
+     * Calcola la dimensione delle porzioni in base al numero di record e al parallelismo del pool.
+     *
+     * @param size Il numero totale di record.
+     * @return La dimensione di una porzione.
+     */
+    private int chunkSize(int size) {
+        int chunks = Math.max(1, pool.getParallelism() * CHUNKS_PER_THREAD);
+        return Math.max(MIN_CHUNK_SIZE, size / chunks);
+    }
+
+    /**
+     * Aggrega in modo sequenziale i record dell'intervallo specificato.
+     *
+     * @param weatherRecords I record meteorologici.
+     * @param from           L'indice del primo record (incluso).
+     * @param to             L'indice dell'ultimo record (escluso).
+     * @return I dati aggregati dell'intervallo.
+     */
+    private static WeatherTableData aggregateRange(RecordWeather[] weatherRecords, int from, int to) {
+        WeatherTableData result = new WeatherTableData();
+        for (int i = from; i < to; i++) {
+            result.add(weatherRecords[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Task ricorsivo che aggrega una porzione dei record, dividendola a metà finché
+     * non è più piccola della soglia.
+     */
+    private static class AggregateTask extends RecursiveTask<WeatherTableData> {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final RecordWeather[] weatherRecords;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        AggregateTask(RecordWeather[] weatherRecords, int from, int to, int threshold) {
+            this.weatherRecords = weatherRecords;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected WeatherTableData compute() {
+            if (to - from <= threshold) {
+                return aggregateRange(weatherRecords, from, to);
+            }
+
+            int middle = (from + to) >>> 1;
+            AggregateTask left = new AggregateTask(weatherRecords, from, middle, threshold);
+            AggregateTask right = new AggregateTask(weatherRecords, middle, to, threshold);
+            left.fork();
+            WeatherTableData rightResult = right.compute();
+            return left.join().merge(rightResult);
+        }
+    }
+}
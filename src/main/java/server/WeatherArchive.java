@@ -0,0 +1,888 @@
+package server;
+
+import shared.record.QueryCondition;
+import shared.record.RecordWeather;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * La classe {@code WeatherArchive} gestisce l'archivio dei parametri climatici meno
+ * recenti.
+ * <p>
+ * Le righe di {@code parametriclimatici} più vecchie della soglia di conservazione vengono
+ * spostate periodicamente in file colonnari compressi ({@link WeatherSegment}), ordinati
+ * per città e data, e rimosse dalla tabella. Le query sui parametri climatici leggono i
+ * segmenti tramite {@link #search(List, Set)} e ne uniscono i risultati a quelli del
+ * database.
+ * </p>
+ * <p>
+ * L'archiviazione viene eseguita solo dall'istanza incaricata della manutenzione, un mese
+ * alla volta: le righe vengono lette in streaming e scritte in segmenti di al più
+ * {@value #SEGMENT_ROWS} righe, per cui la memoria usata non dipende dalla quantità di
+ * dati da archiviare.
+ * </p>
+ * <p>
+ * Ogni segmento viene pubblicato nella tabella {@code weathersegments} del database, che
+ * è condiviso da tutti i server; la cartella locale contiene solo una copia dei segmenti,
+ * aggiornata periodicamente da {@link #synchronize()}. Le righe archiviate vengono
+ * cancellate dalla tabella dei parametri climatici solo dopo
+ * {@value #PURGE_GRACE_MINUTES} minuti dalla pubblicazione, quando tutte le istanze hanno
+ * già scaricato il segmento; fino ad allora, in lettura prevale la copia del database.
+ * </p>
+ *
+ * @see WeatherSegment
+ * @see ClusterLeader
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherArchive implements AutoCloseable {
+
+    /**
+     * L'estensione dei file dei segmenti.
+     */
+    private static final String SEGMENT_EXTENSION = ".cmwa";
+
+    /**
+     * Intervallo, in ore, tra due archiviazioni.
+     */
+    private static final long ARCHIVE_INTERVAL_HOURS = 24;
+
+    /**
+     * Intervallo, in minuti, tra due sincronizzazioni dei segmenti con il database.
+     */
+    private static final long SYNC_INTERVAL_MINUTES = 10;
+
+    /**
+     * Tempo minimo, in minuti, tra la pubblicazione di un segmento e la cancellazione delle
+     * sue righe dalla tabella: deve superare ampiamente l'intervallo di sincronizzazione.
+     */
+    private static final long PURGE_GRACE_MINUTES = 60;
+
+    /**
+     * Numero massimo di righe di un segmento.
+     */
+    private static final int SEGMENT_ROWS = 100_000;
+
+    /**
+     * Numero di righe lette dal database a ogni richiesta durante l'archiviazione.
+     */
+    private static final int FETCH_SIZE = 1_000;
+
+    /**
+     * Numero massimo di ID cancellati con una singola istruzione.
+     */
+    private static final int DELETE_BATCH = 10_000;
+
+    /**
+     * La creazione della tabella dei segmenti pubblicati.
+     */
+    private static final String SQL_SEGMENT_TABLE = "CREATE TABLE IF NOT EXISTS weathersegments (" +
+            "name VARCHAR(100) PRIMARY KEY, " +
+            "data BYTEA NOT NULL, " +
+            "publishedat TIMESTAMPTZ NOT NULL DEFAULT now(), " +
+            "purged BOOLEAN NOT NULL DEFAULT false);";
+
+    /**
+     * Le colonne numeriche dei parametri climatici, nell'ordine dei parametri di {@link RecordWeather}.
+     */
+    private static final String[] SCORE_COLUMNS = {
+            "windscore", "humidityscore", "pressurescore", "temperaturescore",
+            "precipitationscore", "glacierelevationscore", "glaciermassscore"
+    };
+
+    /**
+     * Le colonne dei commenti, nell'ordine dei parametri di {@link RecordWeather}.
+     */
+    private static final String[] COMMENT_COLUMNS = {
+            "windcomment", "humiditycomment", "pressurecomment", "temperaturecomment",
+            "precipitationcomment", "glacierelevationcomment", "glaciermasscomment"
+    };
+
+    /**
+     * La cartella dei segmenti.
+     */
+    private final Path directory;
+
+    /**
+     * I segmenti aperti.
+     */
+    private final List<WeatherSegment> segments = new CopyOnWriteArrayList<>();
+
+    /**
+     * I segmenti aperti, indicizzati per nome senza estensione.
+     */
+    private final Map<String, WeatherSegment> segmentsByName = new ConcurrentHashMap<>();
+
+    /**
+     * Il numero di segmenti scritti da questa istanza, usato per renderne unici i nomi.
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * La connessione dedicata all'archivio, chiusa da {@link #close()}, oppure {@code null}
+     * se l'archivio non è stato avviato.
+     */
+    private Connection conn;
+
+    /**
+     * L'esecutore delle archiviazioni e delle sincronizzazioni periodiche.
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Costruisce un archivio nella cartella specificata e apre i segmenti presenti,
+     * eliminando i segmenti temporanei lasciati da un'archiviazione interrotta.
+     *
+     * @param directory La cartella dei segmenti, creata se non esiste.
+     * @throws IOException Se si verifica un errore durante l'apertura dei segmenti.
+     */
+    public WeatherArchive(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.tmp")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_EXTENSION)) {
+            for (Path file : files) {
+                addSegment(file);
+            }
+        }
+    }
+
+    /**
+     * Verifica se l'archivio contiene dei segmenti.
+     *
+     * @return {@code true} se l'archivio è vuoto, {@code false} altrimenti.
+     */
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    /**
+     * Sincronizza subito i segmenti con il database e avvia le attività periodiche: la
+     * sincronizzazione, eseguita da tutte le istanze, e l'archiviazione delle righe più
+     * vecchie della soglia indicata, eseguita solo quando la condizione indicata è vera.
+     *
+     * @param conn       Una connessione dedicata all'archivio, chiusa da {@link #close()}.
+     * @param retention  Il periodo per cui le righe restano nella tabella.
+     * @param leadership Restituisce {@code true} se l'istanza è incaricata della manutenzione.
+     * @throws SQLException Se si verifica un errore durante la creazione della tabella dei segmenti.
+     */
+    public synchronized void start(Connection conn, Period retention, BooleanSupplier leadership) throws SQLException {
+        if (executor != null) {
+            return;
+        }
+        this.conn = conn;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(SQL_SEGMENT_TABLE);
+        }
+        runSafely(this::synchronize);
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "weather-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> runSafely(this::synchronize),
+                SYNC_INTERVAL_MINUTES, SYNC_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        executor.scheduleAtFixedRate(() -> {
+            if (leadership.getAsBoolean()) {
+                runSafely(() -> {
+                    purge();
+                    archiveOlderThan(LocalDate.now().minus(retention));
+                });
+            }
+        }, 0, ARCHIVE_INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    /**
+     * Archivia le righe con data precedente a quella indicata, un mese alla volta.
+     * <p>
+     * L'archiviazione viene saltata se esistono segmenti pubblicati da meno di
+     * {@value #PURGE_GRACE_MINUTES} minuti le cui righe non sono ancora state cancellate:
+     * quelle righe verrebbero altrimenti archiviate una seconda volta.
+     * </p>
+     *
+     * @param before La data limite, esclusa.
+     * @return Il numero di righe archiviate.
+     * @throws SQLException Se si verifica un errore durante la lettura delle righe o la pubblicazione.
+     * @throws IOException  Se si verifica un errore durante la scrittura dei segmenti.
+     */
+    public synchronized int archiveOlderThan(LocalDate before) throws SQLException, IOException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT EXISTS (SELECT 1 FROM weathersegments WHERE NOT purged)");
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next() && rs.getBoolean(1)) {
+                return 0;
+            }
+        }
+
+        int archived = 0;
+        LocalDate month = earliestDate(LocalDate.MIN, before);
+        while (month != null) {
+            month = month.withDayOfMonth(1);
+            LocalDate end = month.plusMonths(1).isBefore(before) ? month.plusMonths(1) : before;
+            archived += archiveRange(month, end);
+            month = earliestDate(end, before);
+        }
+        return archived;
+    }
+
+    /**
+     * Scarica i segmenti pubblicati da altre istanze e pubblica quelli presenti solo nella
+     * cartella locale, per esempio quelli scritti prima dell'introduzione della tabella dei
+     * segmenti.
+     *
+     * @throws SQLException Se si verifica un errore durante la lettura o la scrittura della tabella.
+     * @throws IOException  Se si verifica un errore durante la scrittura o la lettura dei file.
+     */
+    public synchronized void synchronize() throws SQLException, IOException {
+        Set<String> published = new HashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT name FROM weathersegments");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                published.add(rs.getString(1));
+            }
+        }
+
+        for (String name : published) {
+            if (segmentsByName.containsKey(name)) {
+                continue;
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT data FROM weathersegments WHERE name = ?")) {
+                stmt.setString(1, name);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        Path temporary = directory.resolve(name + ".tmp");
+                        try (FileChannel channel = FileChannel.open(temporary,
+                                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                            channel.write(ByteBuffer.wrap(rs.getBytes(1)));
+                            channel.force(true);
+                        }
+                        Path file = directory.resolve(name + SEGMENT_EXTENSION);
+                        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+                        addSegment(file);
+                    }
+                }
+            }
+        }
+
+        for (String name : segmentsByName.keySet()) {
+            if (!published.contains(name)) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO weathersegments (name, data, purged) VALUES (?, ?, true) ON CONFLICT (name) DO NOTHING")) {
+                    stmt.setString(1, name);
+                    stmt.setBytes(2, Files.readAllBytes(directory.resolve(name + SEGMENT_EXTENSION)));
+                    stmt.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancella dalla tabella dei parametri climatici le righe dei segmenti pubblicati da
+     * almeno {@value #PURGE_GRACE_MINUTES} minuti. Ogni segmento viene trattato in una
+     * transazione distinta, che cancella le sue righe e lo segna come completato.
+     *
+     * @return Il numero di righe cancellate.
+     * @throws SQLException Se si verifica un errore durante la cancellazione.
+     * @throws IOException  Se si verifica un errore durante la sincronizzazione dei segmenti.
+     */
+    public synchronized int purge() throws SQLException, IOException {
+        List<String> names = new ArrayList<>();
+        String sql = "SELECT name FROM weathersegments WHERE NOT purged AND publishedat < now() - make_interval(mins => ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, PURGE_GRACE_MINUTES);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            return 0;
+        }
+
+        synchronize();
+        int deleted = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for (String name : names) {
+                WeatherSegment segment = segmentsByName.get(name);
+                if (segment == null) {
+                    continue;
+                }
+                String delete = "DELETE FROM parametriclimatici WHERE id = ANY(?) AND date >= ? AND date <= ?";
+                try (PreparedStatement stmt = conn.prepareStatement(delete)) {
+                    for (int start = 0; start < segment.rowCount(); start += DELETE_BATCH) {
+                        int end = Math.min(segment.rowCount(), start + DELETE_BATCH);
+                        Integer[] ids = new Integer[end - start];
+                        for (int row = start; row < end; row++) {
+                            ids[row - start] = segment.id(row);
+                        }
+                        stmt.setArray(1, conn.createArrayOf("INTEGER", ids));
+                        stmt.setObject(2, segment.minDate());
+                        stmt.setObject(3, segment.maxDate());
+                        deleted += stmt.executeUpdate();
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE weathersegments SET purged = true WHERE name = ?")) {
+                    stmt.setString(1, name);
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        System.out.println("Parametri climatici archiviati rimossi dalla tabella: " + deleted + " righe.");
+        return deleted;
+    }
+
+    /**
+     * Restituisce la data più vecchia tra le righe comprese nell'intervallo specificato.
+     *
+     * @param from La prima data, inclusa.
+     * @param to   L'ultima data, esclusa.
+     * @return La data più vecchia, oppure {@code null} se l'intervallo non contiene righe.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    private LocalDate earliestDate(LocalDate from, LocalDate to) throws SQLException {
+        String sql = from == LocalDate.MIN
+                ? "SELECT min(date) FROM parametriclimatici WHERE date < ?"
+                : "SELECT min(date) FROM parametriclimatici WHERE date < ? AND date >= ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setObject(1, to);
+            if (from != LocalDate.MIN) {
+                stmt.setObject(2, from);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getObject(1, LocalDate.class) : null;
+            }
+        }
+    }
+
+    /**
+     * Archivia le righe dell'intervallo specificato in uno o più segmenti e li pubblica
+     * nel database in un'unica transazione.
+     * <p>
+     * Le righe vengono lette in streaming, ordinate per città e data, e scritte in un nuovo
+     * segmento ogni {@value #SEGMENT_ROWS} righe. Se la pubblicazione fallisce, i segmenti
+     * scritti vengono eliminati e le righe restano solo nel database.
+     * </p>
+     *
+     * @param from La prima data, inclusa.
+     * @param to   L'ultima data, esclusa.
+     * @return Il numero di righe archiviate.
+     * @throws SQLException Se si verifica un errore durante la lettura o la pubblicazione.
+     * @throws IOException  Se si verifica un errore durante la scrittura dei segmenti.
+     */
+    private int archiveRange(LocalDate from, LocalDate to) throws SQLException, IOException {
+        List<String> created = new ArrayList<>();
+        int archived = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            String sql = "SELECT * FROM parametriclimatici WHERE date >= ? AND date < ? ORDER BY cityid, date, id";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(FETCH_SIZE);
+                stmt.setObject(1, from);
+                stmt.setObject(2, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    List<RecordWeather> chunk = new ArrayList<>();
+                    while (rs.next()) {
+                        chunk.add(readRow(rs));
+                        if (chunk.size() == SEGMENT_ROWS) {
+                            created.add(publish(from, chunk));
+                            archived += chunk.size();
+                            chunk.clear();
+                        }
+                    }
+                    if (!chunk.isEmpty()) {
+                        created.add(publish(from, chunk));
+                        archived += chunk.size();
+                    }
+                }
+            }
+            conn.commit();
+        } catch (SQLException | IOException e) {
+            conn.rollback();
+            for (String name : created) {
+                removeSegment(name);
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        if (archived > 0) {
+            System.out.println("Parametri climatici archiviati: " + archived + " righe dal " + from
+                    + " in " + created.size() + " segmenti.");
+        }
+        return archived;
+    }
+
+    /**
+     * Scrive un segmento con le righe specificate, lo rende visibile in lettura e lo
+     * inserisce nella tabella dei segmenti nella transazione corrente.
+     *
+     * @param from Il primo giorno del periodo archiviato, usato nel nome.
+     * @param rows Le righe, ordinate per città e data.
+     * @return Il nome del segmento.
+     * @throws SQLException Se si verifica un errore durante la pubblicazione.
+     * @throws IOException  Se si verifica un errore durante la scrittura del segmento.
+     */
+    private String publish(LocalDate from, List<RecordWeather> rows) throws SQLException, IOException {
+        String name = "segment-" + from + "-" + System.currentTimeMillis() + "-" + written.incrementAndGet();
+        Path temporary = directory.resolve(name + ".tmp");
+        Path file = directory.resolve(name + SEGMENT_EXTENSION);
+        WeatherSegment.write(temporary, rows);
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        addSegment(file);
+
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO weathersegments (name, data) VALUES (?, ?)")) {
+            stmt.setString(1, name);
+            stmt.setBytes(2, Files.readAllBytes(file));
+            stmt.executeUpdate();
+        }
+        return name;
+    }
+
+    /**
+     * Apre un segmento e lo rende visibile in lettura.
+     *
+     * @param file Il file del segmento.
+     * @throws IOException Se si verifica un errore durante l'apertura.
+     */
+    private void addSegment(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        String name = fileName.substring(0, fileName.length() - SEGMENT_EXTENSION.length());
+        WeatherSegment segment = WeatherSegment.open(file);
+        segmentsByName.put(name, segment);
+        segments.add(segment);
+    }
+
+    /**
+     * Rimuove un segmento non pubblicato, eliminandone il file.
+     *
+     * @param name Il nome del segmento.
+     * @throws IOException Se si verifica un errore durante l'eliminazione del file.
+     */
+    private void removeSegment(String name) throws IOException {
+        WeatherSegment segment = segmentsByName.remove(name);
+        if (segment != null) {
+            segments.remove(segment);
+        }
+        Files.deleteIfExists(directory.resolve(name + SEGMENT_EXTENSION));
+    }
+
+    /**
+     * Un'attività dell'archivio che può fallire con un errore di database o di I/O.
+     */
+    private interface ArchiveTask {
+
+        /**
+         * Esegue l'attività.
+         *
+         * @throws SQLException Se si verifica un errore di database.
+         * @throws IOException  Se si verifica un errore di I/O.
+         */
+        void run() throws SQLException, IOException;
+    }
+
+    /**
+     * Esegue un'attività senza propagare gli errori all'esecutore.
+     *
+     * @param task L'attività.
+     */
+    private void runSafely(ArchiveTask task) {
+        try {
+            task.run();
+        } catch (SQLException | IOException e) {
+            System.err.println("Errore durante l'archiviazione dei parametri climatici: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cerca nei segmenti le righe che soddisfano tutte le condizioni.
+     * <p>
+     * I segmenti il cui intervallo di date non interseca le condizioni sulla data vengono
+     * saltati; le condizioni di uguaglianza o appartenenza sulla città vengono risolte con
+     * una ricerca binaria.
+     * </p>
+     *
+     * @param conditions Le condizioni sulle colonne di {@code parametriclimatici}.
+     * @param liveIDs    Gli ID delle righe già lette dal database, da non restituire.
+     * @return Le righe archiviate che soddisfano le condizioni.
+     */
+    public List<RecordWeather> search(List<QueryCondition> conditions, Set<Integer> liveIDs) {
+        List<RecordWeather> result = new ArrayList<>();
+        forEach(conditions, liveIDs, result::add);
+        return result;
+    }
+
+    /**
+     * Passa all'azione specificata, una alla volta, le righe dei segmenti che soddisfano
+     * tutte le condizioni, senza raccoglierle in memoria.
+     *
+     * @param conditions Le condizioni sulle colonne di {@code parametriclimatici}.
+     * @param liveIDs    Gli ID delle righe già lette dal database, da non restituire.
+     * @param action     L'azione da eseguire su ciascuna riga.
+     * @see #search(List, Set)
+     */
+    public void forEach(List<QueryCondition> conditions, Set<Integer> liveIDs, Consumer<RecordWeather> action) {
+        LocalDate from = LocalDate.MIN;
+        LocalDate to = LocalDate.MAX;
+        Collection<Integer> cities = null;
+        for (QueryCondition condition : conditions) {
+            String column = condition.key().toLowerCase();
+            if (column.equals("date")) {
+                LocalDate lower = lowerBound(condition);
+                LocalDate upper = upperBound(condition);
+                if (lower != null && lower.isAfter(from)) {
+                    from = lower;
+                }
+                if (upper != null && upper.isBefore(to)) {
+                    to = upper;
+                }
+            } else if (column.equals("cityid") && cities == null) {
+                if (condition.operator() == QueryCondition.Operator.EQUALS && condition.value() instanceof Number number) {
+                    cities = List.of(number.intValue());
+                } else if (condition.operator() == QueryCondition.Operator.IN && condition.value() instanceof Object[] values) {
+                    Set<Integer> ids = new HashSet<>();
+                    for (Object value : values) {
+                        if (value instanceof Number number) {
+                            ids.add(number.intValue());
+                        }
+                    }
+                    cities = ids;
+                }
+            }
+        }
+
+        for (WeatherSegment segment : segments) {
+            if (segment.maxDate().isBefore(from) || segment.minDate().isAfter(to)) {
+                continue;
+            }
+            if (cities == null) {
+                collect(segment, 0, segment.rowCount(), -1, conditions, liveIDs, action);
+            } else {
+                for (int city : cities) {
+                    collect(segment, segment.firstRowOf(city), segment.rowCount(), city, conditions, liveIDs, action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restituisce la data più recente presente nei segmenti.
+     * <p>
+     * Solo le righe del database con data non successiva a questa possono essere presenti
+     * anche nell'archivio, perché lasciate da un'archiviazione interrotta.
+     * </p>
+     *
+     * @return La data più recente archiviata, oppure {@code null} se l'archivio è vuoto.
+     */
+    public LocalDate latestDate() {
+        LocalDate latest = null;
+        for (WeatherSegment segment : segments) {
+            if (latest == null || segment.maxDate().isAfter(latest)) {
+                latest = segment.maxDate();
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Cerca nei segmenti le righe delle città specificate.
+     *
+     * @param cityIDs Gli ID delle città.
+     * @param liveIDs Gli ID delle righe già lette dal database, da non restituire.
+     * @return Le righe archiviate delle città.
+     */
+    public List<RecordWeather> searchByCities(Collection<Integer> cityIDs, Set<Integer> liveIDs) {
+        if (cityIDs.isEmpty()) {
+            return List.of();
+        }
+        return search(List.of(QueryCondition.in("cityid", cityIDs.toArray())), liveIDs);
+    }
+
+    /**
+     * Interrompe le attività periodiche e chiude la connessione dedicata.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            running = executor;
+            executor = null;
+        }
+        if (running != null) {
+            running.shutdownNow();
+            try {
+                running.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    System.err.println("Errore durante la chiusura della connessione dell'archivio: " + e.getMessage());
+                }
+                conn = null;
+            }
+        }
+    }
+
+    /**
+     * Passa all'azione le righe di un intervallo del segmento che soddisfano le condizioni.
+     *
+     * @param segment    Il segmento.
+     * @param start      La prima riga da esaminare.
+     * @param end        La riga successiva all'ultima da esaminare.
+     * @param city       La città a cui limitare la scansione, oppure -1 per tutte.
+     * @param conditions Le condizioni di ricerca.
+     * @param liveIDs    Gli ID delle righe da escludere.
+     * @param action     L'azione da eseguire sulle righe.
+     */
+    private static void collect(WeatherSegment segment, int start, int end, int city,
+                                List<QueryCondition> conditions, Set<Integer> liveIDs, Consumer<RecordWeather> action) {
+        for (int row = start; row < end; row++) {
+            if (city != -1 && segment.cityID(row) != city) {
+                return;
+            }
+            RecordWeather weather = segment.read(row);
+            if (!liveIDs.contains(weather.ID()) && matches(weather, conditions)) {
+                action.accept(weather);
+            }
+        }
+    }
+
+    /**
+     * Verifica se una riga soddisfa tutte le condizioni, con la stessa semantica delle
+     * condizioni SQL generate da {@code DataQueryImp}.
+     *
+     * @param weather    La riga.
+     * @param conditions Le condizioni.
+     * @return {@code true} se la riga soddisfa tutte le condizioni, {@code false} altrimenti.
+     */
+    private static boolean matches(RecordWeather weather, List<QueryCondition> conditions) {
+        for (QueryCondition condition : conditions) {
+            Object actual = columnValue(weather, condition.key().toLowerCase());
+            Object expected = condition.value();
+            boolean match = switch (condition.operator()) {
+                case IS_NULL -> actual == null;
+                case IS_NOT_NULL -> actual != null;
+                case STARTS_WITH -> actual instanceof String text && expected != null
+                        && text.startsWith(expected.toString());
+                case IN -> {
+                    boolean found = false;
+                    for (Object value : (Object[]) expected) {
+                        Integer result = compare(actual, value);
+                        found |= result != null && result == 0;
+                    }
+                    yield found;
+                }
+                case BETWEEN -> {
+                    Integer lower = compare(actual, expected);
+                    Integer upper = compare(actual, condition.upperValue());
+                    yield lower != null && upper != null && lower >= 0 && upper <= 0;
+                }
+                case EQUALS -> test(compare(actual, expected), result -> result == 0);
+                case LESS_THAN -> test(compare(actual, expected), result -> result < 0);
+                case LESS_OR_EQUAL -> test(compare(actual, expected), result -> result <= 0);
+                case GREATER_THAN -> test(compare(actual, expected), result -> result > 0);
+                case GREATER_OR_EQUAL -> test(compare(actual, expected), result -> result >= 0);
+            };
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Confronta il valore di una colonna con il valore di una condizione.
+     *
+     * @param actual   Il valore della colonna.
+     * @param expected Il valore della condizione.
+     * @return Il risultato del confronto, oppure {@code null} se uno dei due valori è
+     *         nullo o i tipi non sono confrontabili, come per un confronto SQL con {@code NULL}.
+     */
+    private static Integer compare(Object actual, Object expected) {
+        if (actual == null || expected == null) {
+            return null;
+        }
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return Long.compare(a.longValue(), e.longValue());
+        }
+        if (actual instanceof LocalDate a) {
+            LocalDate e = toLocalDate(expected);
+            return e == null ? null : a.compareTo(e);
+        }
+        if (actual instanceof String a) {
+            return a.compareTo(expected.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Verifica il risultato di un confronto.
+     *
+     * @param result    Il risultato di {@link #compare(Object, Object)}.
+     * @param predicate Il criterio da verificare.
+     * @return {@code false} se il confronto non è valido, altrimenti l'esito del criterio.
+     */
+    private static boolean test(Integer result, IntPredicate predicate) {
+        return result != null && predicate.test(result);
+    }
+
+    /**
+     * Converte il valore di una condizione sulla data in un {@link LocalDate}.
+     *
+     * @param value Il valore della condizione.
+     * @return La data, oppure {@code null} se il valore non rappresenta una data.
+     */
+    private static LocalDate toLocalDate(Object value) {
+        if (value instanceof LocalDate date) {
+            return date;
+        }
+        if (value instanceof java.sql.Date date) {
+            return date.toLocalDate();
+        }
+        if (value instanceof java.util.Date date) {
+            return new java.sql.Date(date.getTime()).toLocalDate();
+        }
+        if (value instanceof String text) {
+            try {
+                return LocalDate.parse(text);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Restituisce il limite inferiore imposto da una condizione sulla data.
+     *
+     * @param condition La condizione.
+     * @return La data minima ammessa, oppure {@code null} se la condizione non la limita.
+     */
+    private static LocalDate lowerBound(QueryCondition condition) {
+        return switch (condition.operator()) {
+            case EQUALS, GREATER_THAN, GREATER_OR_EQUAL, BETWEEN -> toLocalDate(condition.value());
+            default -> null;
+        };
+    }
+
+    /**
+     * Restituisce il limite superiore imposto da una condizione sulla data.
+     *
+     * @param condition La condizione.
+     * @return La data massima ammessa, oppure {@code null} se la condizione non la limita.
+     */
+    private static LocalDate upperBound(QueryCondition condition) {
+        return switch (condition.operator()) {
+            case EQUALS, LESS_THAN, LESS_OR_EQUAL -> toLocalDate(condition.value());
+            case BETWEEN -> toLocalDate(condition.upperValue());
+            default -> null;
+        };
+    }
+
+    /**
+     * Restituisce il valore di una colonna di {@code parametriclimatici} per la riga specificata.
+     *
+     * @param weather La riga.
+     * @param column  Il nome della colonna, in minuscolo.
+     * @return Il valore della colonna.
+     * @throws IllegalArgumentException Se la colonna non esiste.
+     */
+    private static Object columnValue(RecordWeather weather, String column) {
+        switch (column) {
+            case "id":
+                return weather.ID();
+            case "cityid":
+                return weather.cityID();
+            case "centerid":
+                return weather.centerID();
+            case "date":
+                return weather.date();
+            default:
+                RecordWeather.WeatherData[] data = {
+                        weather.wind(), weather.humidity(), weather.pressure(), weather.temperature(),
+                        weather.precipitation(), weather.glacierElevation(), weather.glacierMass()
+                };
+                for (int i = 0; i < data.length; i++) {
+                    if (SCORE_COLUMNS[i].equals(column)) {
+                        return data[i].score();
+                    }
+                    if (COMMENT_COLUMNS[i].equals(column)) {
+                        return data[i].comment();
+                    }
+                }
+                throw new IllegalArgumentException("Colonna non valida: " + column);
+        }
+    }
+
+    /**
+     * Legge una riga di {@code parametriclimatici} da archiviare.
+     *
+     * @param rs Il ResultSet posizionato sulla riga.
+     * @return La riga letta.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    private static RecordWeather readRow(ResultSet rs) throws SQLException {
+        RecordWeather.WeatherData[] data = new RecordWeather.WeatherData[SCORE_COLUMNS.length];
+        for (int i = 0; i < data.length; i++) {
+            int score = rs.getInt(SCORE_COLUMNS[i]);
+            data[i] = new RecordWeather.WeatherData(rs.wasNull() ? null : score, rs.getString(COMMENT_COLUMNS[i]));
+        }
+        return new RecordWeather(
+                rs.getInt("id"),
+                rs.getInt("cityid"),
+                rs.getInt("centerid"),
+                rs.getObject("date", LocalDate.class),
+                data[0], data[1], data[2], data[3], data[4], data[5], data[6]);
+    }
+}
@@ -0,0 +1,347 @@
+package server;
+
+import shared.interfacesRMI.WeatherListener;
+import shared.record.RecordWeather;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe {@code WeatherEventDispatcher} inoltra ai client iscritti i parametri
+ * climatici inseriti sul server.
+ * <p>
+ * Ogni iscritto ha una coda limitata di eventi in attesa di consegna. La pubblicazione
+ * non blocca mai il thread che ha inserito i dati: gli eventi vengono solo accodati,
+ * mentre la consegna tramite le callback RMI avviene su un gruppo dedicato di thread,
+ * raggruppando in una sola chiamata gli eventi accumulati nel frattempo. Un iscritto la
+ * cui coda è piena, o la cui callback fallisce, viene rimosso: il client dovrà iscriversi
+ * di nuovo e ricaricare i dati.
+ * </p>
+ * <p>
+ * Con più istanze del server, i parametri climatici inseriti dalle altre istanze vengono
+ * ricevuti tramite {@link WeatherEventRelay}: un client riceve gli eventi di tutte le
+ * scritture, qualunque sia l'istanza a cui si è iscritto.
+ * </p>
+ *
+ * @see WeatherListener
+ * @see WeatherEventRelay
+ * @see server.ImplementationRMI.LogicCityImp
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherEventDispatcher implements AutoCloseable {
+
+    /**
+     * Il numero predefinito di eventi in attesa per ciascun iscritto.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1_000;
+
+    /**
+     * Il numero predefinito di thread che consegnano gli eventi.
+     */
+    public static final int DEFAULT_DELIVERY_THREADS = 4;
+
+    /**
+     * Il numero massimo di eventi consegnati con una sola chiamata.
+     */
+    private static final int MAX_DELIVERY_BATCH = 256;
+
+    /**
+     * Le metriche del dispatcher.
+     *
+     * @param subscribers Il numero di iscritti.
+     * @param published   Il numero di eventi accodati agli iscritti.
+     * @param delivered   Il numero di eventi consegnati.
+     * @param dropped     Il numero di iscritti rimossi perché lenti o non raggiungibili.
+     */
+    public record Metrics(int subscribers, long published, long delivered, long dropped) {
+    }
+
+    /**
+     * Un client iscritto, con i filtri e la coda dei suoi eventi.
+     */
+    private static final class Subscriber {
+
+        /**
+         * La callback del client.
+         */
+        private final WeatherListener listener;
+
+        /**
+         * Gli ID delle città di interesse.
+         */
+        private final Set<Integer> cityIDs;
+
+        /**
+         * Gli ID dei centri di monitoraggio di interesse.
+         */
+        private final Set<Integer> centerIDs;
+
+        /**
+         * Gli eventi in attesa di consegna.
+         */
+        private final ArrayBlockingQueue<RecordWeather> queue;
+
+        /**
+         * Indica se la consegna degli eventi è in corso o già pianificata.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Indica se l'iscrizione è stata rimossa.
+         */
+        private volatile boolean removed;
+
+        private Subscriber(WeatherListener listener, Set<Integer> cityIDs, Set<Integer> centerIDs, int capacity) {
+            this.listener = listener;
+            this.cityIDs = cityIDs;
+            this.centerIDs = centerIDs;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Verifica se il client è interessato ai parametri climatici specificati.
+         *
+         * @param weather I parametri climatici.
+         * @return {@code true} se la città o il centro sono tra quelli di interesse.
+         */
+        private boolean matches(RecordWeather weather) {
+            return cityIDs.contains(weather.cityID()) || centerIDs.contains(weather.centerID());
+        }
+    }
+
+    /**
+     * Gli iscritti, indicizzati per callback.
+     */
+    private final Map<WeatherListener, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Il numero di eventi in attesa per ciascun iscritto.
+     */
+    private final int queueCapacity;
+
+    /**
+     * I thread che consegnano gli eventi.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Il numero di eventi accodati.
+     */
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * Il numero di eventi consegnati.
+     */
+    private final AtomicLong delivered = new AtomicLong();
+
+    /**
+     * Il numero di iscritti rimossi.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Costruisce un dispatcher con le dimensioni predefinite.
+     */
+    public WeatherEventDispatcher() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_DELIVERY_THREADS);
+    }
+
+    /**
+     * Costruisce un dispatcher.
+     *
+     * @param queueCapacity   Il numero massimo di eventi in attesa per ciascun iscritto.
+     * @param deliveryThreads Il numero di thread che consegnano gli eventi.
+     */
+    public WeatherEventDispatcher(int queueCapacity, int deliveryThreads) {
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(deliveryThreads, runnable -> {
+            Thread thread = new Thread(runnable, "weather-events-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Iscrive un client, sostituendo un'eventuale iscrizione precedente della stessa callback
+     * con filtri diversi; un'iscrizione identica viene mantenuta.
+     *
+     * @param listener  La callback del client.
+     * @param cityIDs   Gli ID delle città di interesse, oppure {@code null}.
+     * @param centerIDs Gli ID dei centri di monitoraggio di interesse, oppure {@code null}.
+     * @throws IllegalArgumentException Se la callback è nulla o non è specificato alcun filtro.
+     */
+    public void subscribe(WeatherListener listener, Integer[] cityIDs, Integer[] centerIDs) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Callback non valida.");
+        }
+        Set<Integer> cities = toSet(cityIDs);
+        Set<Integer> centers = toSet(centerIDs);
+        if (cities.isEmpty() && centers.isEmpty()) {
+            throw new IllegalArgumentException("Specificare almeno una città o un centro di monitoraggio.");
+        }
+        subscribers.compute(listener, (key, previous) -> {
+            // Un rinnovo con gli stessi filtri mantiene gli eventi già accodati.
+            if (previous != null && !previous.removed
+                    && previous.cityIDs.equals(cities) && previous.centerIDs.equals(centers)) {
+                return previous;
+            }
+            if (previous != null) {
+                previous.removed = true;
+            }
+            return new Subscriber(listener, cities, centers, queueCapacity);
+        });
+    }
+
+    /**
+     * Annulla l'iscrizione di un client.
+     *
+     * @param listener La callback del client.
+     */
+    public void unsubscribe(WeatherListener listener) {
+        if (listener == null) {
+            return;
+        }
+        Subscriber subscriber = subscribers.remove(listener);
+        if (subscriber != null) {
+            subscriber.removed = true;
+        }
+    }
+
+    /**
+     * Accoda i parametri climatici inseriti agli iscritti interessati, senza attendere la
+     * consegna.
+     *
+     * @param weathers I parametri climatici inseriti, con il loro ID.
+     */
+    public void publish(List<RecordWeather> weathers) {
+        if (weathers.isEmpty() || subscribers.isEmpty()) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers.values()) {
+            boolean queued = false;
+            for (RecordWeather weather : weathers) {
+                if (!subscriber.matches(weather)) {
+                    continue;
+                }
+                if (!subscriber.queue.offer(weather)) {
+                    drop(subscriber, "troppi eventi in attesa");
+                    queued = false;
+                    break;
+                }
+                published.incrementAndGet();
+                queued = true;
+            }
+            if (queued) {
+                schedule(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Restituisce le metriche del dispatcher.
+     *
+     * @return Le metriche correnti.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(subscribers.size(), published.get(), delivered.get(), dropped.get());
+    }
+
+    /**
+     * Interrompe la consegna degli eventi e rimuove tutti gli iscritti.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.removed = true;
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * Pianifica la consegna degli eventi di un iscritto, se non è già in corso.
+     *
+     * @param subscriber L'iscritto.
+     */
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> deliver(subscriber));
+            } catch (RejectedExecutionException e) {
+                subscriber.scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Consegna gli eventi in attesa di un iscritto, finché la sua coda non è vuota.
+     *
+     * @param subscriber L'iscritto.
+     */
+    private void deliver(Subscriber subscriber) {
+        List<RecordWeather> batch = new ArrayList<>();
+        while (true) {
+            while (!subscriber.removed && subscriber.queue.drainTo(batch, MAX_DELIVERY_BATCH) > 0) {
+                try {
+                    subscriber.listener.weatherAdded(batch.toArray(new RecordWeather[0]));
+                    delivered.addAndGet(batch.size());
+                } catch (RemoteException | RuntimeException e) {
+                    drop(subscriber, e.getMessage());
+                }
+                batch.clear();
+            }
+            subscriber.scheduled.set(false);
+            // Un evento accodato dopo l'ultimo controllo potrebbe non aver pianificato la consegna.
+            if (subscriber.removed || subscriber.queue.isEmpty() || !subscriber.scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rimuove un iscritto lento o non raggiungibile.
+     *
+     * @param subscriber L'iscritto.
+     * @param reason     Il motivo della rimozione.
+     */
+    private void drop(Subscriber subscriber, String reason) {
+        subscriber.removed = true;
+        subscriber.queue.clear();
+        if (subscribers.remove(subscriber.listener, subscriber)) {
+            dropped.incrementAndGet();
+            System.err.println("Iscrizione agli eventi rimossa: " + reason);
+        }
+    }
+
+    /**
+     * Converte un array di ID in un insieme, ignorando gli elementi nulli.
+     *
+     * @param ids Gli ID, oppure {@code null}.
+     * @return L'insieme degli ID.
+     */
+    private static Set<Integer> toSet(Integer[] ids) {
+        if (ids == null) {
+            return Set.of();
+        }
+        return Set.copyOf(Arrays.stream(ids).filter(Objects::nonNull).toList());
+    }
+}
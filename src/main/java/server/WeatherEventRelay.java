@@ -0,0 +1,461 @@
+package server;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import shared.interfacesRMI.DataQueryInterface;
+import shared.record.QueryCondition;
+import shared.record.RecordWeather;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe {@code WeatherEventRelay} distribuisce tra tutte le istanze del server i
+ * parametri climatici inseriti, tramite i comandi {@code LISTEN} e {@code NOTIFY} del
+ * database primario.
+ * <p>
+ * I parametri climatici inseriti da questa istanza vengono consegnati subito ai suoi
+ * iscritti e poi notificati, da un thread dedicato, sul canale {@link #CHANNEL}. Ogni
+ * istanza resta in ascolto sul canale con una connessione dedicata e inoltra al proprio
+ * {@link WeatherEventDispatcher} le notifiche delle altre istanze: un client riceve quindi
+ * gli eventi di tutte le scritture, indipendentemente dal server a cui si è iscritto.
+ * </p>
+ * <p>
+ * Una notifica contiene i record completi, codificati in Base64. Un record troppo grande
+ * per il limite del database viene notificato solo con i suoi ID e letto dalle altre
+ * istanze al momento della ricezione. Le notifiche inviate mentre la connessione di
+ * ascolto è caduta vengono perse: i client le recuperano con il successivo caricamento
+ * dei dati della città.
+ * </p>
+ *
+ * @see WeatherEventDispatcher
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherEventRelay implements AutoCloseable {
+
+    /**
+     * Il canale delle notifiche dei parametri climatici inseriti.
+     */
+    public static final String CHANNEL = "parametriclimatici_inseriti";
+
+    /**
+     * La dimensione massima, in byte, di una notifica: il database accetta al più 8000 byte.
+     */
+    private static final int MAX_PAYLOAD_BYTES = 7_900;
+
+    /**
+     * Il tempo massimo, in millisecondi, di attesa delle notifiche per ciascuna verifica.
+     */
+    private static final int POLL_MILLIS = 1_000;
+
+    /**
+     * Intervallo, in millisecondi, prima di riaprire una connessione di ascolto caduta.
+     */
+    private static final long RETRY_MILLIS = 5_000;
+
+    /**
+     * Il prefisso di una riga che contiene un record codificato.
+     */
+    private static final char RECORD_LINE = 'R';
+
+    /**
+     * Il prefisso di una riga che contiene solo gli ID di un record.
+     */
+    private static final char REFERENCE_LINE = 'I';
+
+    /**
+     * Le metriche della distribuzione degli eventi.
+     *
+     * @param sent     Il numero di notifiche inviate.
+     * @param received Il numero di record ricevuti dalle altre istanze.
+     * @param resolved Il numero di record letti dal database perché troppo grandi per una notifica.
+     * @param failures Il numero di errori nell'invio o nella ricezione delle notifiche.
+     */
+    public record Metrics(long sent, long received, long resolved, long failures) {
+    }
+
+    /**
+     * L'host del database primario.
+     */
+    private final String host;
+
+    /**
+     * La password del database.
+     */
+    private final String password;
+
+    /**
+     * Il dispatcher a cui consegnare gli eventi.
+     */
+    private final WeatherEventDispatcher dispatcher;
+
+    /**
+     * L'interfaccia con cui leggere i record notificati solo con i loro ID.
+     */
+    private final DataQueryInterface dataQuery;
+
+    /**
+     * L'identificativo di questa istanza, con cui vengono ignorate le proprie notifiche.
+     */
+    private final String instanceID = UUID.randomUUID().toString();
+
+    /**
+     * L'esecutore che invia le notifiche, nell'ordine degli inserimenti.
+     */
+    private final ExecutorService sender;
+
+    /**
+     * La connessione con cui vengono inviate le notifiche, utilizzata solo da {@link #sender}.
+     */
+    private Connection notifyConn;
+
+    /**
+     * Il thread in ascolto delle notifiche, oppure {@code null} se non avviato.
+     */
+    private Thread listener;
+
+    /**
+     * Indica se la distribuzione è stata interrotta.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Il numero di notifiche inviate.
+     */
+    private final AtomicLong sent = new AtomicLong();
+
+    /**
+     * Il numero di record ricevuti dalle altre istanze.
+     */
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * Il numero di record letti dal database.
+     */
+    private final AtomicLong resolved = new AtomicLong();
+
+    /**
+     * Il numero di errori.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Costruisce la distribuzione degli eventi per il database specificato.
+     *
+     * @param host       L'host del database primario.
+     * @param password   La password del database.
+     * @param dispatcher Il dispatcher a cui consegnare gli eventi.
+     * @param dataQuery  L'interfaccia con cui leggere i record troppo grandi per una notifica.
+     */
+    public WeatherEventRelay(String host, String password, WeatherEventDispatcher dispatcher, DataQueryInterface dataQuery) {
+        this.host = host;
+        this.password = password;
+        this.dispatcher = dispatcher;
+        this.dataQuery = dataQuery;
+        this.sender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "weather-relay-notify");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Avvia il thread in ascolto delle notifiche delle altre istanze.
+     */
+    public synchronized void start() {
+        if (listener != null || closed) {
+            return;
+        }
+        listener = new Thread(this::listen, "weather-relay-listen");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    /**
+     * Consegna i parametri climatici inseriti agli iscritti di questa istanza e li notifica
+     * alle altre, senza attendere l'invio.
+     *
+     * @param weathers I parametri climatici inseriti, con il loro ID.
+     */
+    public void publish(List<RecordWeather> weathers) {
+        if (weathers.isEmpty()) {
+            return;
+        }
+        dispatcher.publish(weathers);
+        if (closed) {
+            return;
+        }
+        List<RecordWeather> copy = List.copyOf(weathers);
+        try {
+            sender.execute(() -> send(copy));
+        } catch (RejectedExecutionException e) {
+            // Distribuzione interrotta.
+        }
+    }
+
+    /**
+     * Restituisce le metriche della distribuzione.
+     *
+     * @return Le metriche correnti.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(sent.get(), received.get(), resolved.get(), failures.get());
+    }
+
+    /**
+     * Interrompe l'invio e la ricezione delle notifiche.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = listener;
+            listener = null;
+        }
+        try {
+            sender.execute(() -> {
+                closeQuietly(notifyConn);
+                notifyConn = null;
+            });
+        } catch (RejectedExecutionException e) {
+            // Già interrotta.
+        }
+        sender.shutdown();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Invia le notifiche dei parametri climatici inseriti, suddividendoli in modo da
+     * rispettare la dimensione massima di una notifica.
+     *
+     * @param weathers I parametri climatici.
+     */
+    private void send(List<RecordWeather> weathers) {
+        try {
+            if (notifyConn == null) {
+                notifyConn = DataBaseManager.connect(host, password);
+            }
+            try (PreparedStatement stmt = notifyConn.prepareStatement("SELECT pg_notify(?, ?)")) {
+                for (String payload : payloads(weathers)) {
+                    stmt.setString(1, CHANNEL);
+                    stmt.setString(2, payload);
+                    stmt.executeQuery().close();
+                    sent.incrementAndGet();
+                }
+            }
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            System.err.println("Errore nell'invio delle notifiche dei parametri climatici: " + e.getMessage());
+            closeQuietly(notifyConn);
+            notifyConn = null;
+        }
+    }
+
+    /**
+     * Suddivide i parametri climatici nelle notifiche da inviare.
+     *
+     * @param weathers I parametri climatici.
+     * @return Il contenuto delle notifiche.
+     */
+    private List<String> payloads(List<RecordWeather> weathers) {
+        List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder(instanceID);
+        for (RecordWeather weather : weathers) {
+            String line = line(weather);
+            if (payload.length() + 1 + line.length() > MAX_PAYLOAD_BYTES && payload.length() > instanceID.length()) {
+                payloads.add(payload.toString());
+                payload = new StringBuilder(instanceID);
+            }
+            payload.append('\n').append(line);
+        }
+        payloads.add(payload.toString());
+        return payloads;
+    }
+
+    /**
+     * Codifica un record come riga di una notifica: il record completo se rientra nel
+     * limite, altrimenti solo la città e l'ID.
+     *
+     * @param weather Il record.
+     * @return La riga.
+     */
+    private String line(RecordWeather weather) {
+        try {
+            String encoded = RECORD_LINE + Base64.getEncoder().encodeToString(encode(weather));
+            if (instanceID.length() + 1 + encoded.length() <= MAX_PAYLOAD_BYTES) {
+                return encoded;
+            }
+        } catch (IOException e) {
+            // Un commento troppo lungo per la codifica: il record viene notificato con i suoi ID.
+        }
+        return REFERENCE_LINE + weather.cityID() + ":" + weather.ID();
+    }
+
+    /**
+     * Resta in ascolto delle notifiche finché la distribuzione non viene interrotta,
+     * riaprendo la connessione se cade.
+     */
+    private void listen() {
+        while (!closed) {
+            Connection conn = null;
+            try {
+                conn = DataBaseManager.connect(host, password);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                while (!closed) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        receive(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (closed) {
+                    break;
+                }
+                failures.incrementAndGet();
+                System.err.println("Connessione delle notifiche dei parametri climatici persa: " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            } finally {
+                closeQuietly(conn);
+            }
+        }
+    }
+
+    /**
+     * Consegna agli iscritti i record di una notifica di un'altra istanza.
+     *
+     * @param payload Il contenuto della notifica.
+     */
+    private void receive(String payload) {
+        String[] lines = payload.split("\n");
+        if (lines.length < 2 || lines[0].equals(instanceID)) {
+            return;
+        }
+        List<RecordWeather> weathers = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            try {
+                if (line.charAt(0) == RECORD_LINE) {
+                    weathers.add(decode(Base64.getDecoder().decode(line.substring(1))));
+                } else if (line.charAt(0) == REFERENCE_LINE) {
+                    String[] ids = line.substring(1).split(":");
+                    RecordWeather[] found = dataQuery.getWeatherBy(List.of(
+                            new QueryCondition("cityid", Integer.parseInt(ids[0])),
+                            new QueryCondition("id", Integer.parseInt(ids[1]))));
+                    weathers.addAll(List.of(found));
+                    resolved.addAndGet(found.length);
+                }
+            } catch (IOException | SQLException | RuntimeException e) {
+                failures.incrementAndGet();
+                System.err.println("Notifica dei parametri climatici non valida: " + e.getMessage());
+            }
+        }
+        received.addAndGet(weathers.size());
+        dispatcher.publish(weathers);
+    }
+
+    /**
+     * Codifica un record in forma binaria.
+     *
+     * @param weather Il record.
+     * @return I byte del record.
+     * @throws IOException Se un commento è troppo lungo per la codifica.
+     */
+    private static byte[] encode(RecordWeather weather) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(weather.ID());
+            out.writeInt(weather.cityID());
+            out.writeInt(weather.centerID());
+            out.writeLong(weather.date().toEpochDay());
+            for (RecordWeather.WeatherData data : new RecordWeather.WeatherData[]{weather.wind(), weather.humidity(),
+                    weather.pressure(), weather.temperature(), weather.precipitation(),
+                    weather.glacierElevation(), weather.glacierMass()}) {
+                boolean hasScore = data != null && data.score() != null;
+                boolean hasComment = data != null && data.comment() != null;
+                out.writeBoolean(hasScore);
+                if (hasScore) {
+                    out.writeInt(data.score());
+                }
+                out.writeBoolean(hasComment);
+                if (hasComment) {
+                    out.writeUTF(data.comment());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodifica un record codificato con {@link #encode(RecordWeather)}.
+     *
+     * @param bytes I byte del record.
+     * @return Il record.
+     * @throws IOException Se i byte non sono validi.
+     */
+    private static RecordWeather decode(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int id = in.readInt();
+            int cityID = in.readInt();
+            int centerID = in.readInt();
+            LocalDate date = LocalDate.ofEpochDay(in.readLong());
+            RecordWeather.WeatherData[] data = new RecordWeather.WeatherData[7];
+            for (int i = 0; i < data.length; i++) {
+                Integer score = in.readBoolean() ? in.readInt() : null;
+                String comment = in.readBoolean() ? in.readUTF() : null;
+                data[i] = new RecordWeather.WeatherData(score, comment);
+            }
+            return new RecordWeather(id, cityID, centerID, date,
+                    data[0], data[1], data[2], data[3], data[4], data[5], data[6]);
+        }
+    }
+
+    /**
+     * Chiude una connessione, ignorando gli errori.
+     *
+     * @param conn La connessione, oppure {@code null}.
+     */
+    private static void closeQuietly(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            // La connessione viene comunque abbandonata.
+        }
+    }
+}
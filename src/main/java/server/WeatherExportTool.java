@@ -0,0 +1,583 @@
+package server;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import shared.record.QueryCondition;
+import shared.record.RecordWeather;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * La classe {@code WeatherExportTool} esporta su un file locale i parametri climatici,
+ * eventualmente filtrati per centro di monitoraggio, città, paese e intervallo di date.
+ * <p>
+ * Le righe vengono trasferite con {@code COPY ... TO STDOUT} e scritte sul file man mano
+ * che arrivano, senza essere mai raccolte in memoria: la memoria utilizzata non dipende
+ * dal numero di righe esportate. Il formato può essere CSV, con una riga di intestazione,
+ * oppure il formato binario di PostgreSQL, più compatto e ricaricabile con
+ * {@code COPY ... FROM ... (FORMAT binary)}.
+ * </p>
+ * <p>
+ * Se i parametri climatici sono distribuiti su più shard, indicati come per il server dalla
+ * proprietà di sistema {@code climatemonitoring.shards}, vengono interrogati in sequenza
+ * solo gli shard che possono contenere le città richieste, escludendo le righe delle città
+ * associate a un altro shard durante uno spostamento. Nel formato binario ogni shard viene
+ * scritto in un file separato, con il numero dello shard come suffisso.
+ * </p>
+ * <p>
+ * Se l'intervallo richiesto può comprendere righe più vecchie della soglia di conservazione
+ * del server, indicata come per il server dalla proprietà di sistema
+ * {@code climatemonitoring.archiveRetention}, vengono esportati anche i parametri climatici dell'archivio: i segmenti
+ * vengono scaricati dal database in una cartella temporanea e le loro righe vengono
+ * filtrate con gli stessi criteri e scritte una alla volta. Le righe ancora presenti anche
+ * nel database, perché archiviate da poco, vengono esportate una sola volta. Nel formato
+ * CSV le righe archiviate seguono quelle del database nello stesso file; nel formato
+ * binario vengono scritte in un file separato, con il suffisso {@code .archive}.
+ * </p>
+ *
+ * @see WeatherShards
+ * @see WeatherArchive
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherExportTool {
+
+    /**
+     * Le colonne esportate, nell'ordine del file: quelle della tabella, escluso l'ID della
+     * richiesta del client.
+     */
+    private static final String EXPORT_COLUMNS = Arrays.stream(WeatherShards.WEATHER_COLUMNS.split(","))
+            .map(String::trim)
+            .filter(column -> !column.equals("requestid"))
+            .collect(Collectors.joining(", "));
+
+    /**
+     * L'intestazione del formato binario di {@code COPY}: la firma, i flag e la lunghezza
+     * dell'estensione dell'intestazione.
+     */
+    private static final byte[] BINARY_HEADER = {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    /**
+     * La data da cui il formato binario di {@code COPY} conta i giorni.
+     */
+    private static final LocalDate BINARY_EPOCH = LocalDate.of(2000, 1, 1);
+
+    /**
+     * La dimensione, in byte, del buffer di scrittura del file.
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * I formati di esportazione.
+     */
+    private enum Format {
+        CSV,
+        BINARY
+    }
+
+    /**
+     * I filtri dell'esportazione.
+     *
+     * @param centerID L'ID del centro di monitoraggio, oppure {@code null}.
+     * @param cityIDs  Gli ID delle città, oppure {@code null} per tutte le città.
+     * @param from     La prima data inclusa, oppure {@code null}.
+     * @param to       L'ultima data inclusa, oppure {@code null}.
+     */
+    private record Filter(Integer centerID, Set<Integer> cityIDs, LocalDate from, LocalDate to) {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Utilizzo: java [-D" + Server.SHARDS_PROPERTY + "=shard1,shard2,...] "
+                    + "-cp Server.jar server.WeatherExportTool host password file "
+                    + "[--center id] [--cities id1,id2,...] [--country codice] "
+                    + "[--from aaaa-mm-gg] [--to aaaa-mm-gg] [--format csv|binary]");
+            System.exit(1);
+        }
+
+        try {
+            Path file = Path.of(args[2]);
+            Integer centerID = null;
+            Set<Integer> cityIDs = null;
+            String countryCode = null;
+            LocalDate from = null;
+            LocalDate to = null;
+            Format format = Format.CSV;
+            for (int i = 3; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Valore mancante per l'opzione " + args[i]);
+                }
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--center" -> centerID = Integer.parseInt(value);
+                    case "--cities" -> {
+                        cityIDs = new LinkedHashSet<>();
+                        for (String id : value.split(",")) {
+                            cityIDs.add(Integer.parseInt(id.trim()));
+                        }
+                    }
+                    case "--country" -> countryCode = value.trim();
+                    case "--from" -> from = LocalDate.parse(value);
+                    case "--to" -> to = LocalDate.parse(value);
+                    case "--format" -> format = Format.valueOf(value.trim().toUpperCase());
+                    default -> throw new IllegalArgumentException("Opzione non valida: " + args[i]);
+                }
+            }
+
+            try (Connection conn = new DataBaseManager(args[0], args[1]).getConnection()) {
+                if (countryCode != null) {
+                    cityIDs = intersect(cityIDs, citiesOfCountry(conn, countryCode));
+                }
+                Filter filter = new Filter(centerID, cityIDs, from, to);
+                List<String> shardHosts = Server.shardHosts();
+                long start = System.nanoTime();
+                long rows;
+                Path archiveDirectory = null;
+                WeatherArchive archive = null;
+                try {
+                    // Le righe successive alla soglia di conservazione non possono essere archiviate.
+                    Period retention = Server.archiveRetention();
+                    LocalDate cutoff = LocalDate.now().minus(retention).withDayOfMonth(1);
+                    if (from == null || from.isBefore(cutoff)) {
+                        archiveDirectory = Files.createTempDirectory("weather-export");
+                        archive = new WeatherArchive(archiveDirectory);
+                        archive.start(DataBaseManager.connect(args[0], args[1]), retention, () -> false);
+                    }
+                    if (shardHosts.isEmpty()) {
+                        rows = export(List.of(conn), null, archive, filter, format, file);
+                    } else {
+                        try (WeatherShards shards = new WeatherShards(conn, shardHosts, args[1])) {
+                            List<Connection> connections = new ArrayList<>();
+                            for (int shard = 0; shard < shards.size(); shard++) {
+                                connections.add(shards.connection(shard));
+                            }
+                            rows = export(connections, shards, archive, filter, format, file);
+                        }
+                    }
+                } finally {
+                    if (archive != null) {
+                        archive.close();
+                    }
+                    if (archiveDirectory != null) {
+                        deleteDirectory(archiveDirectory);
+                    }
+                }
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                System.out.println("Esportate " + rows + " righe in " + millis + " ms.");
+            }
+        } catch (SQLException e) {
+            System.err.println("Si è verificato un SQLException: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Si è verificata una IOException: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Esporta i parametri climatici degli shard che possono contenere le città richieste e
+     * quelli dell'archivio.
+     *
+     * @param connections Le connessioni agli shard, nell'ordine degli shard.
+     * @param shards      Gli shard, oppure {@code null} se i parametri climatici risiedono solo sul primario.
+     * @param archive     L'archivio, oppure {@code null} se l'intervallo richiesto non può comprendere righe archiviate.
+     * @param filter      I filtri dell'esportazione.
+     * @param format      Il formato del file.
+     * @param file        Il file di destinazione.
+     * @return Il numero di righe esportate.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     * @throws IOException  Se si verifica un errore durante la scrittura del file.
+     */
+    private static long export(List<Connection> connections, WeatherShards shards, WeatherArchive archive,
+                               Filter filter, Format format, Path file) throws SQLException, IOException {
+        Collection<Integer> targets = new TreeSet<>();
+        if (shards == null) {
+            targets.add(0);
+        } else if (filter.cityIDs() != null) {
+            targets.addAll(shards.shardsForCities(filter.cityIDs()));
+            if (targets.isEmpty()) {
+                // Nessuna città richiesta: il file viene comunque creato, vuoto.
+                targets.add(0);
+            }
+        } else {
+            for (int shard = 0; shard < connections.size(); shard++) {
+                targets.add(shard);
+            }
+        }
+
+        boolean splitFiles = format == Format.BINARY && targets.size() > 1;
+        long rows = 0;
+        OutputStream out = null;
+        try {
+            for (int shard : targets) {
+                if (out == null || splitFiles) {
+                    if (out != null) {
+                        out.close();
+                    }
+                    Path target = splitFiles ? Path.of(file + ".shard" + shard) : file;
+                    out = new BufferedOutputStream(Files.newOutputStream(target), WRITE_BUFFER_SIZE);
+                    if (format == Format.CSV) {
+                        out.write((EXPORT_COLUMNS.replace(" ", "") + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                Connection conn = connections.get(shard);
+                Set<Integer> excluded = shards == null ? Set.of() : excludedCities(shards, shard, filter.cityIDs());
+                String query = selectSql(conn, EXPORT_COLUMNS, filter, excluded);
+                CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+                rows += copy.copyOut("COPY (" + query + ") TO STDOUT WITH (FORMAT "
+                        + (format == Format.CSV ? "csv" : "binary") + ")", out);
+            }
+
+            if (archive != null && !archive.isEmpty()) {
+                Set<Integer> liveIDs = liveArchivedIDs(connections, shards, targets, filter, archive.latestDate());
+                if (format == Format.BINARY) {
+                    out.close();
+                    out = new BufferedOutputStream(Files.newOutputStream(Path.of(file + ".archive")), WRITE_BUFFER_SIZE);
+                }
+                rows += exportArchive(archive, filter, liveIDs, format, out);
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Costruisce la query delle righe di uno shard che soddisfano i filtri, caricando in
+     * tabelle temporanee gli insiemi di città da includere ed escludere.
+     * <p>
+     * Il comando {@code COPY} non accetta parametri: i valori dei filtri vengono inseriti
+     * nel testo SQL solo come numeri e date già convertiti, mai come testo fornito
+     * dall'utente.
+     * </p>
+     *
+     * @param conn     La connessione allo shard.
+     * @param columns  Le colonne da leggere.
+     * @param filter   I filtri dell'esportazione.
+     * @param excluded Le città da escludere perché associate a un altro shard.
+     * @return La query.
+     * @throws SQLException Se le tabelle temporanee non possono essere create.
+     */
+    private static String selectSql(Connection conn, String columns, Filter filter, Set<Integer> excluded) throws SQLException {
+        List<String> conditions = new ArrayList<>();
+        if (filter.cityIDs() != null) {
+            loadCityTable(conn, "export_cities", filter.cityIDs());
+            conditions.add("p.cityid IN (SELECT cityid FROM export_cities)");
+        }
+        if (!excluded.isEmpty()) {
+            loadCityTable(conn, "export_excluded", excluded);
+            conditions.add("NOT EXISTS (SELECT 1 FROM export_excluded e WHERE e.cityid = p.cityid)");
+        }
+        if (filter.centerID() != null) {
+            conditions.add("p.centerid = " + filter.centerID().intValue());
+        }
+        if (filter.from() != null) {
+            conditions.add("p.date >= DATE '" + filter.from() + "'");
+        }
+        if (filter.to() != null) {
+            conditions.add("p.date <= DATE '" + filter.to() + "'");
+        }
+
+        return "SELECT " + columns + " FROM parametriclimatici p"
+                + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions));
+    }
+
+    /**
+     * Restituisce gli ID delle righe del database che soddisfano i filtri e che possono
+     * essere presenti anche nell'archivio, perché archiviate da poco e non ancora cancellate.
+     *
+     * @param connections Le connessioni agli shard, nell'ordine degli shard.
+     * @param shards      Gli shard, oppure {@code null}.
+     * @param targets     Gli shard esportati.
+     * @param filter      I filtri dell'esportazione.
+     * @param latest      La data più recente presente nell'archivio.
+     * @return Gli ID delle righe.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    private static Set<Integer> liveArchivedIDs(List<Connection> connections, WeatherShards shards,
+                                                Collection<Integer> targets, Filter filter,
+                                                LocalDate latest) throws SQLException {
+        LocalDate to = filter.to() == null || latest.isBefore(filter.to()) ? latest : filter.to();
+        Filter archived = new Filter(filter.centerID(), filter.cityIDs(), filter.from(), to);
+        Set<Integer> ids = new HashSet<>();
+        for (int shard : targets) {
+            Connection conn = connections.get(shard);
+            Set<Integer> excluded = shards == null ? Set.of() : excludedCities(shards, shard, filter.cityIDs());
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(selectSql(conn, "p.id", archived, excluded))) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Scrive le righe dell'archivio che soddisfano i filtri, escluse quelle ancora presenti
+     * nel database, nello stesso formato delle righe del database.
+     *
+     * @param archive L'archivio.
+     * @param filter  I filtri dell'esportazione.
+     * @param liveIDs Gli ID delle righe già esportate dal database.
+     * @param format  Il formato del file.
+     * @param out     Il flusso di destinazione.
+     * @return Il numero di righe scritte.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    private static long exportArchive(WeatherArchive archive, Filter filter, Set<Integer> liveIDs,
+                                      Format format, OutputStream out) throws IOException {
+        List<QueryCondition> conditions = new ArrayList<>();
+        if (filter.cityIDs() != null) {
+            conditions.add(QueryCondition.in("cityid", filter.cityIDs().toArray()));
+        }
+        if (filter.centerID() != null) {
+            conditions.add(new QueryCondition("centerid", filter.centerID()));
+        }
+        if (filter.from() != null) {
+            conditions.add(QueryCondition.of("date", QueryCondition.Operator.GREATER_OR_EQUAL, filter.from()));
+        }
+        if (filter.to() != null) {
+            conditions.add(QueryCondition.of("date", QueryCondition.Operator.LESS_OR_EQUAL, filter.to()));
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        long[] rows = {0};
+        try {
+            if (format == Format.BINARY) {
+                data.write(BINARY_HEADER);
+            }
+            archive.forEach(conditions, liveIDs, weather -> {
+                try {
+                    if (format == Format.CSV) {
+                        writeCsv(data, weather);
+                    } else {
+                        writeBinary(data, weather);
+                    }
+                    rows[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (format == Format.BINARY) {
+                data.writeShort(-1);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        data.flush();
+        return rows[0];
+    }
+
+    /**
+     * Restituisce i valori di una riga nell'ordine di {@link #EXPORT_COLUMNS}: ID, città,
+     * centro, data e, per ciascun parametro, punteggio e commento.
+     *
+     * @param weather La riga.
+     * @return I valori, con {@code null} per quelli mancanti.
+     */
+    private static Object[] values(RecordWeather weather) {
+        RecordWeather.WeatherData[] data = {weather.wind(), weather.humidity(), weather.pressure(),
+                weather.temperature(), weather.precipitation(), weather.glacierElevation(), weather.glacierMass()};
+        Object[] values = new Object[4 + 2 * data.length];
+        values[0] = weather.ID();
+        values[1] = weather.cityID();
+        values[2] = weather.centerID();
+        values[3] = weather.date();
+        for (int i = 0; i < data.length; i++) {
+            values[4 + 2 * i] = data[i] == null ? null : data[i].score();
+            values[5 + 2 * i] = data[i] == null ? null : data[i].comment();
+        }
+        return values;
+    }
+
+    /**
+     * Scrive una riga in formato CSV, con le stesse regole di {@code COPY}: i valori nulli
+     * sono vuoti, mentre il testo vuoto o con separatori, virgolette o ritorni a capo viene
+     * racchiuso tra virgolette.
+     *
+     * @param out     Il flusso di destinazione.
+     * @param weather La riga.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    private static void writeCsv(OutputStream out, RecordWeather weather) throws IOException {
+        StringBuilder line = new StringBuilder();
+        Object[] values = values(weather);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            Object value = values[i];
+            if (value instanceof String text) {
+                if (text.isEmpty() || text.chars().anyMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r')) {
+                    line.append('"').append(text.replace("\"", "\"\"")).append('"');
+                } else {
+                    line.append(text);
+                }
+            } else if (value != null) {
+                line.append(value);
+            }
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Scrive una riga nel formato binario di {@code COPY}: il numero di colonne e, per
+     * ciascuna, la lunghezza in byte seguita dal valore, oppure {@code -1} se nullo.
+     *
+     * @param out     Il flusso di destinazione.
+     * @param weather La riga.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    private static void writeBinary(DataOutputStream out, RecordWeather weather) throws IOException {
+        Object[] values = values(weather);
+        out.writeShort(values.length);
+        for (Object value : values) {
+            if (value == null) {
+                out.writeInt(-1);
+            } else if (value instanceof Integer number) {
+                out.writeInt(Integer.BYTES);
+                out.writeInt(number);
+            } else if (value instanceof LocalDate date) {
+                out.writeInt(Integer.BYTES);
+                out.writeInt((int) ChronoUnit.DAYS.between(BINARY_EPOCH, date));
+            } else {
+                byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        }
+    }
+
+    /**
+     * Elimina una cartella e il suo contenuto.
+     *
+     * @param directory La cartella.
+     * @throws IOException Se un file non può essere eliminato.
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Crea, o svuota, una tabella temporanea con gli ID delle città specificate.
+     *
+     * @param conn    La connessione allo shard.
+     * @param table   Il nome della tabella.
+     * @param cityIDs Gli ID delle città.
+     * @throws SQLException Se la tabella non può essere creata o popolata.
+     */
+    private static void loadCityTable(Connection conn, String table, Set<Integer> cityIDs) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TEMP TABLE IF NOT EXISTS " + table + " (cityid integer PRIMARY KEY)");
+            stmt.executeUpdate("TRUNCATE " + table);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO " + table + " SELECT DISTINCT unnest(?::integer[])")) {
+            stmt.setArray(1, conn.createArrayOf("integer", cityIDs.toArray(new Integer[0])));
+            stmt.executeUpdate();
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("ANALYZE " + table);
+        }
+    }
+
+    /**
+     * Restituisce le città le cui righe presenti sullo shard non vanno esportate perché la
+     * città è associata a un altro shard.
+     *
+     * @param shards  Gli shard.
+     * @param shard   Il numero dello shard interrogato.
+     * @param cityIDs Le città richieste, oppure {@code null} per tutte.
+     * @return Gli ID delle città da escludere.
+     */
+    private static Set<Integer> excludedCities(WeatherShards shards, int shard, Set<Integer> cityIDs) {
+        Set<Integer> excluded = new HashSet<>();
+        for (Map.Entry<Integer, Integer> entry : shards.assignments().entrySet()) {
+            if (entry.getValue() != shard && (cityIDs == null || cityIDs.contains(entry.getKey()))) {
+                excluded.add(entry.getKey());
+            }
+        }
+        return excluded;
+    }
+
+    /**
+     * Restituisce gli ID delle città del paese specificato.
+     *
+     * @param conn        La connessione al database primario.
+     * @param countryCode Il codice del paese.
+     * @return Gli ID delle città.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    private static Set<Integer> citiesOfCountry(Connection conn, String countryCode) throws SQLException {
+        Set<Integer> cityIDs = new LinkedHashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM coordinatemonitoraggio WHERE countrycode = ?")) {
+            stmt.setString(1, countryCode);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    cityIDs.add(rs.getInt(1));
+                }
+            }
+        }
+        return cityIDs;
+    }
+
+    /**
+     * Restituisce l'intersezione di due insiemi di città.
+     *
+     * @param first  Il primo insieme, oppure {@code null} per tutte le città.
+     * @param second Il secondo insieme.
+     * @return Le città presenti in entrambi gli insiemi.
+     */
+    private static Set<Integer> intersect(Set<Integer> first, Set<Integer> second) {
+        if (first == null) {
+            return second;
+        }
+        Set<Integer> result = new LinkedHashSet<>(first);
+        result.retainAll(second);
+        return result;
+    }
+}
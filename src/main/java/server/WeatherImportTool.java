@@ -0,0 +1,699 @@
+package server;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import server.ImplementationRMI.LogicCenterImp;
+import server.ImplementationRMI.LogicCityImp.WeatherTableData;
+import shared.record.RecordWeather;
+import shared.utils.Constants;
+import shared.utils.Functions;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * La classe {@code WeatherImportTool} importa da un file locale i parametri climatici
+ * storici di un centro di monitoraggio.
+ * <p>
+ * Ogni riga del file contiene un parametro climatico nel formato di
+ * {@link RecordWeather#toString()}: ID, ID della città, ID del centro, data e i sette dati
+ * meteorologici, separati da {@link Constants#CSV_SEPARATOR}, con punteggio e commento
+ * separati da {@link Constants#CSV_SUB_SEPARATOR}. L'ID presente nel file viene ignorato:
+ * le righe importate ricevono un nuovo ID dal database.
+ * </p>
+ * <p>
+ * Il file viene letto a blocchi. Le righe di un blocco vengono validate in parallelo con le
+ * stesse regole dell'inserimento da client, mentre il blocco precedente viene caricato
+ * tramite {@code COPY} in una tabella temporanea e da lì inserito in
+ * {@code parametriclimatici}, sullo shard a cui è associata ciascuna città. Le righe non
+ * valide, o riferite a città e centri inesistenti, vengono scritte con il motivo dello
+ * scarto nel file {@code <file>.rejected}.
+ * </p>
+ * <p>
+ * Prima di caricare un blocco vengono create sullo shard le partizioni dei mesi delle sue
+ * righe ({@link PartitionScheduler#ensurePartitions(LocalDate, LocalDate)}), così che i
+ * dati storici non finiscano nella partizione di default. Le righe più vecchie della
+ * soglia di conservazione vengono poi spostate nell'archivio dal server, un mese alla
+ * volta ({@link WeatherArchive#archiveOlderThan(LocalDate)}).
+ * </p>
+ * <p>
+ * Dopo ogni blocco il numero di righe elaborate e la lunghezza del file delle righe
+ * scartate vengono salvati nel file {@code <file>.checkpoint}, da cui un'importazione
+ * interrotta riprende: il file delle righe scartate viene prima troncato alla lunghezza
+ * salvata, così che le righe di un blocco interrotto non vengano riportate due volte.
+ * Ogni riga è inserita con un ID di richiesta derivato dai suoi campi, escluso l'ID
+ * ignorato, quindi le righe già importate prima dell'interruzione, così come le righe che
+ * differiscono solo per l'ID, non vengono duplicate.
+ * </p>
+ *
+ * @see WeatherExportTool
+ * @see LogicCenterImp#validateWeatherData(LocalDate, Object[][])
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherImportTool {
+
+    /**
+     * Numero di righe lette e caricate per ciascun blocco.
+     */
+    private static final int BATCH_SIZE = 10_000;
+
+    /**
+     * Numero di campi di una riga.
+     */
+    private static final int FIELD_COUNT = 4 + WeatherTableData.CATEGORY_COUNT;
+
+    /**
+     * Le colonne caricate, nell'ordine in cui vengono scritte nella tabella temporanea.
+     */
+    private static final String IMPORT_COLUMNS = "requestid, cityid, centerid, date, windscore, windcomment, " +
+            "humidityscore, humiditycomment, pressurescore, pressurecomment, temperaturescore, " +
+            "temperaturecomment, precipitationscore, precipitationcomment, glacierelevationscore, " +
+            "glacierelevationcomment, glaciermassscore, glaciermasscomment";
+
+    /**
+     * Il separatore dei campi di una riga.
+     */
+    private static final Pattern FIELD_SEPARATOR = Pattern.compile(Pattern.quote(Constants.CSV_SEPARATOR));
+
+    /**
+     * Una riga del file, con i parametri climatici letti oppure il motivo dello scarto.
+     *
+     * @param number  Il numero della riga, a partire da 1.
+     * @param text    Il testo della riga.
+     * @param weather I parametri climatici, oppure {@code null} se la riga è scartata.
+     * @param error   Il motivo dello scarto, oppure {@code null}.
+     */
+    private record Line(long number, String text, RecordWeather weather, String error) {
+
+        /**
+         * Restituisce una copia della riga scartata per il motivo specificato.
+         *
+         * @param reason Il motivo dello scarto.
+         * @return La riga scartata.
+         */
+        private Line reject(String reason) {
+            return new Line(number, text, null, reason);
+        }
+    }
+
+    /**
+     * Un blocco di righe validate.
+     *
+     * @param end   Il numero dell'ultima riga del blocco.
+     * @param lines Le righe del blocco, escluse quelle vuote.
+     */
+    private record Batch(long end, List<Line> lines) {
+    }
+
+    /**
+     * Lo stato salvato nel checkpoint.
+     *
+     * @param done       Il numero di righe elaborate.
+     * @param reportSize La lunghezza, in byte, del file delle righe scartate.
+     */
+    private record Checkpoint(long done, long reportSize) {
+    }
+
+    /**
+     * Il file di checkpoint dell'importazione.
+     */
+    private final Path checkpoint;
+
+    /**
+     * La connessione al database primario.
+     */
+    private final Connection primary;
+
+    /**
+     * Gli shard, oppure {@code null} se i parametri climatici risiedono solo sul primario.
+     */
+    private final WeatherShards shards;
+
+    /**
+     * Gli scheduler delle partizioni, uno per shard nell'ordine degli shard.
+     */
+    private final List<PartitionScheduler> partitions;
+
+    /**
+     * I mesi di cui sono già state create le partizioni, per ciascuno shard.
+     */
+    private final Map<Integer, Set<LocalDate>> partitionedMonths = new HashMap<>();
+
+    /**
+     * Gli ID delle città di cui è già stata verificata l'esistenza.
+     */
+    private final Set<Integer> knownCities = new HashSet<>();
+
+    /**
+     * Gli ID dei centri di monitoraggio di cui è già stata verificata l'esistenza.
+     */
+    private final Set<Integer> knownCenters = new HashSet<>();
+
+    /**
+     * Il numero di righe inserite.
+     */
+    private long imported;
+
+    /**
+     * Il numero di righe valide già presenti nel database.
+     */
+    private long duplicates;
+
+    /**
+     * Il numero di righe scartate.
+     */
+    private long rejected;
+
+    private WeatherImportTool(Path checkpoint, Connection primary, WeatherShards shards,
+                              List<PartitionScheduler> partitions) {
+        this.checkpoint = checkpoint;
+        this.primary = primary;
+        this.shards = shards;
+        this.partitions = partitions;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4 || (args.length == 4 && !args[3].equals("--restart"))) {
+            System.out.println("Utilizzo: java [-D" + Server.SHARDS_PROPERTY + "=shard1,shard2,...] "
+                    + "-cp Server.jar server.WeatherImportTool host password file [--restart]");
+            System.exit(1);
+        }
+
+        Path file = Path.of(args[2]);
+        Path checkpoint = Path.of(args[2] + ".checkpoint");
+        Path report = Path.of(args[2] + ".rejected");
+        List<PartitionScheduler> partitions = new ArrayList<>();
+        try (Connection conn = new DataBaseManager(args[0], args[1]).getConnection()) {
+            if (args.length == 4) {
+                Files.deleteIfExists(checkpoint);
+                Files.deleteIfExists(report);
+            }
+            List<String> shardHosts = Server.shardHosts();
+            List<String> hosts = new ArrayList<>();
+            hosts.add(args[0]);
+            for (String host : shardHosts) {
+                hosts.add(host.trim());
+            }
+            for (String host : hosts) {
+                partitions.add(new PartitionScheduler(DataBaseManager.connect(host, args[1]),
+                        Server.PARTITION_GRANULARITY, 0, 0));
+            }
+            if (shardHosts.isEmpty()) {
+                new WeatherImportTool(checkpoint, conn, null, partitions).importFile(file, report);
+            } else {
+                try (WeatherShards shards = new WeatherShards(conn, shardHosts, args[1])) {
+                    new WeatherImportTool(checkpoint, conn, shards, partitions).importFile(file, report);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Si è verificato un SQLException: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Si è verificata una IOException: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } finally {
+            for (PartitionScheduler scheduler : partitions) {
+                scheduler.close();
+            }
+        }
+    }
+
+    /**
+     * Importa il file, riprendendo dall'ultimo checkpoint.
+     *
+     * @param file   Il file da importare.
+     * @param report Il file in cui scrivere le righe scartate.
+     * @throws SQLException Se si verifica un errore durante il caricamento.
+     * @throws IOException  Se si verifica un errore durante la lettura o la scrittura dei file.
+     */
+    private void importFile(Path file, Path report) throws SQLException, IOException {
+        long size = Files.size(file);
+        Checkpoint resume = readCheckpoint(size, report);
+        long done = resume.done();
+        if (done > 0) {
+            System.out.println("Ripresa dell'importazione dalla riga " + (done + 1) + ".");
+        }
+
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             FileChannel reportChannel = FileChannel.open(report, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             Writer rejectedWriter = new BufferedWriter(Channels.newWriter(reportChannel, StandardCharsets.UTF_8))) {
+            // Le righe scartate dopo l'ultimo checkpoint vengono riportate di nuovo dalla ripresa.
+            reportChannel.truncate(resume.reportSize());
+            reportChannel.position(resume.reportSize());
+            for (long skipped = 0; skipped < done; skipped++) {
+                if (reader.readLine() == null) {
+                    throw new IllegalArgumentException("Il checkpoint supera la lunghezza del file.");
+                }
+            }
+
+            CompletableFuture<Batch> next = validateNext(reader, done);
+            while (next != null) {
+                Batch batch = join(next);
+                // La validazione del blocco successivo prosegue durante il caricamento.
+                next = validateNext(reader, batch.end());
+
+                List<Line> lines = checkReferences(batch.lines());
+                load(lines);
+                for (Line line : lines) {
+                    if (line.error() != null) {
+                        rejectedWriter.write(line.number() + Constants.CSV_SEPARATOR + line.error()
+                                + Constants.CSV_SEPARATOR + line.text() + System.lineSeparator());
+                        rejected++;
+                    }
+                }
+                rejectedWriter.flush();
+                reportChannel.force(true);
+                writeCheckpoint(new Checkpoint(batch.end(), reportChannel.position()), size);
+                System.out.println("Elaborate " + batch.end() + " righe.");
+            }
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Importate " + imported + " righe, " + duplicates + " già presenti, "
+                + rejected + " scartate in " + millis + " ms.");
+        if (rejected > 0) {
+            System.out.println("Le righe scartate sono riportate in " + report + ".");
+        }
+    }
+
+    /**
+     * Legge il blocco di righe successivo e ne avvia la validazione in parallelo.
+     *
+     * @param reader Il lettore del file.
+     * @param done   Il numero di righe già lette.
+     * @return La validazione del blocco, oppure {@code null} se il file è terminato.
+     * @throws IOException Se si verifica un errore durante la lettura.
+     */
+    private static CompletableFuture<Batch> validateNext(BufferedReader reader, long done) throws IOException {
+        List<String> texts = new ArrayList<>(BATCH_SIZE);
+        String text;
+        while (texts.size() < BATCH_SIZE && (text = reader.readLine()) != null) {
+            texts.add(text);
+        }
+        if (texts.isEmpty()) {
+            return null;
+        }
+        return CompletableFuture.supplyAsync(() -> new Batch(done + texts.size(),
+                IntStream.range(0, texts.size())
+                        .parallel()
+                        .filter(i -> !texts.get(i).isBlank())
+                        .mapToObj(i -> parse(done + i + 1, texts.get(i)))
+                        .toList()));
+    }
+
+    /**
+     * Legge e valida una riga del file.
+     *
+     * @param number Il numero della riga.
+     * @param text   Il testo della riga.
+     * @return La riga, con i parametri climatici oppure il motivo dello scarto.
+     */
+    private static Line parse(long number, String text) {
+        Line line = new Line(number, text, null, null);
+        String[] fields = FIELD_SEPARATOR.split(text, -1);
+        if (fields.length != FIELD_COUNT) {
+            return line.reject("Numero di campi non valido: " + fields.length + ".");
+        }
+
+        Integer cityID = parseInteger(fields[1]);
+        if (cityID == null) {
+            return line.reject("ID della città non valido.");
+        }
+        Integer centerID = parseInteger(fields[2]);
+        if (centerID == null) {
+            return line.reject("ID del centro di monitoraggio non valido.");
+        }
+        LocalDate date = Functions.parseDate(fields[3]);
+
+        Object[][] tableDatas = new Object[WeatherTableData.CATEGORY_COUNT][];
+        for (int i = 0; i < tableDatas.length; i++) {
+            String field = fields[4 + i];
+            int separator = field.indexOf(Constants.CSV_SUB_SEPARATOR);
+            if (separator < 0) {
+                return line.reject("Dato meteorologico non valido: " + field + ".");
+            }
+            String score = field.substring(0, separator).trim();
+            boolean empty = score.isEmpty() || score.equals(Constants.EMPTY_STRING);
+            Integer value = empty ? null : parseInteger(score);
+            if (!empty && value == null) {
+                return line.reject("Punteggio non valido: " + score + ".");
+            }
+            String comment = field.substring(separator + 1);
+            tableDatas[i] = new Object[]{value, comment.equals("null") ? null : comment};
+        }
+
+        try {
+            LogicCenterImp.validateWeatherData(date, tableDatas);
+        } catch (IllegalArgumentException e) {
+            return line.reject(e.getMessage());
+        }
+
+        RecordWeather.WeatherData[] data = new RecordWeather.WeatherData[tableDatas.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new RecordWeather.WeatherData((Integer) tableDatas[i][0], (String) tableDatas[i][1]);
+        }
+        return new Line(number, text, new RecordWeather(null, cityID, centerID, date,
+                data[0], data[1], data[2], data[3], data[4], data[5], data[6]), null);
+    }
+
+    /**
+     * Converte un campo in un intero.
+     *
+     * @param field Il campo.
+     * @return L'intero, oppure {@code null} se il campo non è un intero valido.
+     */
+    private static Integer parseInteger(String field) {
+        try {
+            return Integer.valueOf(field.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Scarta le righe riferite a città o centri di monitoraggio inesistenti, verificandone
+     * l'esistenza sul database primario.
+     *
+     * @param lines Le righe del blocco.
+     * @return Le righe, con le righe non valide scartate.
+     * @throws SQLException Se si verifica un errore durante la verifica.
+     */
+    private List<Line> checkReferences(List<Line> lines) throws SQLException {
+        Set<Integer> cities = new HashSet<>();
+        Set<Integer> centers = new HashSet<>();
+        for (Line line : lines) {
+            if (line.weather() != null) {
+                cities.add(line.weather().cityID());
+                centers.add(line.weather().centerID());
+            }
+        }
+        cities.removeAll(knownCities);
+        centers.removeAll(knownCenters);
+        knownCities.addAll(existing("coordinatemonitoraggio", cities));
+        knownCenters.addAll(existing("centrimonitoraggio", centers));
+
+        List<Line> checked = new ArrayList<>(lines.size());
+        for (Line line : lines) {
+            RecordWeather weather = line.weather();
+            if (weather != null && !knownCities.contains(weather.cityID())) {
+                line = line.reject("Città inesistente: " + weather.cityID() + ".");
+            } else if (weather != null && !knownCenters.contains(weather.centerID())) {
+                line = line.reject("Centro di monitoraggio inesistente: " + weather.centerID() + ".");
+            }
+            checked.add(line);
+        }
+        return checked;
+    }
+
+    /**
+     * Restituisce gli ID presenti nella tabella specificata.
+     *
+     * @param table La tabella.
+     * @param ids   Gli ID da verificare.
+     * @return Gli ID presenti.
+     * @throws SQLException Se si verifica un errore durante la lettura.
+     */
+    private Set<Integer> existing(String table, Set<Integer> ids) throws SQLException {
+        Set<Integer> found = new HashSet<>();
+        if (ids.isEmpty()) {
+            return found;
+        }
+        try (PreparedStatement stmt = primary.prepareStatement("SELECT id FROM " + table + " WHERE id = ANY(?)")) {
+            stmt.setArray(1, primary.createArrayOf("integer", ids.toArray(new Integer[0])));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    found.add(rs.getInt(1));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Carica le righe valide del blocco, raggruppate per shard.
+     *
+     * @param lines Le righe del blocco.
+     * @throws SQLException Se si verifica un errore durante il caricamento.
+     * @throws IOException  Se si verifica un errore durante il trasferimento delle righe.
+     */
+    private void load(List<Line> lines) throws SQLException, IOException {
+        Map<Integer, List<Line>> byShard = new TreeMap<>();
+        for (Line line : lines) {
+            if (line.weather() != null) {
+                int shard = shards == null ? 0 : shards.assign(line.weather().cityID());
+                byShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(line);
+            }
+        }
+        for (Map.Entry<Integer, List<Line>> entry : byShard.entrySet()) {
+            ensurePartitions(entry.getKey(), entry.getValue());
+            Connection conn = shards == null ? primary : shards.connection(entry.getKey());
+            int inserted = loadShard(conn, entry.getValue());
+            imported += inserted;
+            duplicates += entry.getValue().size() - inserted;
+        }
+    }
+
+    /**
+     * Crea sullo shard le partizioni dei mesi delle righe non ancora verificati.
+     *
+     * @param shard Lo shard.
+     * @param lines Le righe valide da caricare sullo shard.
+     * @throws SQLException Se le partizioni non possono essere create.
+     */
+    private void ensurePartitions(int shard, List<Line> lines) throws SQLException {
+        Set<LocalDate> months = partitionedMonths.computeIfAbsent(shard, key -> new HashSet<>());
+        LocalDate from = null;
+        LocalDate to = null;
+        for (Line line : lines) {
+            LocalDate month = line.weather().date().withDayOfMonth(1);
+            if (!months.contains(month)) {
+                from = from == null || month.isBefore(from) ? month : from;
+                to = to == null || month.isAfter(to) ? month : to;
+            }
+        }
+        if (from == null) {
+            return;
+        }
+        partitions.get(shard).ensurePartitions(from, to);
+        for (LocalDate month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            months.add(month);
+        }
+    }
+
+    /**
+     * Carica le righe su uno shard in un'unica transazione, tramite {@code COPY} in una
+     * tabella temporanea, ignorando quelle già importate.
+     *
+     * @param conn  La connessione allo shard.
+     * @param lines Le righe valide da caricare.
+     * @return Il numero di righe inserite.
+     * @throws SQLException Se si verifica un errore durante il caricamento.
+     * @throws IOException  Se si verifica un errore durante il trasferimento delle righe.
+     */
+    private static int loadShard(Connection conn, List<Line> lines) throws SQLException, IOException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TEMP TABLE IF NOT EXISTS import_staging ON COMMIT DELETE ROWS AS SELECT "
+                    + IMPORT_COLUMNS + " FROM parametriclimatici WITH NO DATA");
+            PGConnection pg = conn.unwrap(PGConnection.class);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new PGCopyOutputStream(pg,
+                    "COPY import_staging (" + IMPORT_COLUMNS + ") FROM STDIN WITH (FORMAT csv)"), StandardCharsets.UTF_8))) {
+                for (Line line : lines) {
+                    writeCsv(out, line);
+                }
+            }
+            int inserted = stmt.executeUpdate("INSERT INTO parametriclimatici (" + IMPORT_COLUMNS + ") SELECT "
+                    + IMPORT_COLUMNS + " FROM import_staging ON CONFLICT (requestid, date) DO NOTHING");
+            conn.commit();
+            return inserted;
+        } catch (SQLException | IOException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Scrive una riga valida nel formato CSV atteso da {@code COPY}.
+     *
+     * @param out  La destinazione.
+     * @param line La riga.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    private static void writeCsv(Writer out, Line line) throws IOException {
+        RecordWeather weather = line.weather();
+        out.write(requestID(weather).toString());
+        out.write(',');
+        out.write(weather.cityID().toString());
+        out.write(',');
+        out.write(weather.centerID().toString());
+        out.write(',');
+        out.write(weather.date().toString());
+        for (RecordWeather.WeatherData data : new RecordWeather.WeatherData[]{weather.wind(), weather.humidity(),
+                weather.pressure(), weather.temperature(), weather.precipitation(), weather.glacierElevation(),
+                weather.glacierMass()}) {
+            out.write(',');
+            if (data.score() != null) {
+                out.write(data.score().toString());
+            }
+            out.write(',');
+            if (data.comment() != null) {
+                out.write('"');
+                out.write(data.comment().replace("\"", "\"\""));
+                out.write('"');
+            }
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Calcola l'ID di richiesta di una riga a partire dai campi normalizzati, escluso l'ID
+     * presente nel file: la stessa riga riceve lo stesso ID anche se esportata con un ID
+     * diverso o scritta con spazi o commenti vuoti differenti.
+     *
+     * @param weather I parametri climatici della riga.
+     * @return L'ID di richiesta.
+     */
+    private static UUID requestID(RecordWeather weather) {
+        StringBuilder key = new StringBuilder()
+                .append(weather.cityID()).append(Constants.CSV_SEPARATOR)
+                .append(weather.centerID()).append(Constants.CSV_SEPARATOR)
+                .append(weather.date());
+        for (RecordWeather.WeatherData data : new RecordWeather.WeatherData[]{weather.wind(), weather.humidity(),
+                weather.pressure(), weather.temperature(), weather.precipitation(), weather.glacierElevation(),
+                weather.glacierMass()}) {
+            key.append(Constants.CSV_SEPARATOR).append(data.score())
+                    .append(Constants.CSV_SUB_SEPARATOR).append(data.comment());
+        }
+        return UUID.nameUUIDFromBytes(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Legge lo stato dell'importazione dal checkpoint.
+     * <p>
+     * Senza checkpoint l'importazione riparte dall'inizio e le righe scartate presenti nel
+     * file, riferite a un blocco mai completato, vengono eliminate. Un checkpoint scritto
+     * prima che vi fosse salvata la lunghezza del file delle righe scartate conserva il
+     * file per intero.
+     * </p>
+     *
+     * @param size   La dimensione attuale del file.
+     * @param report Il file delle righe scartate.
+     * @return Lo stato dell'importazione.
+     * @throws IOException Se il checkpoint non può essere letto.
+     */
+    private Checkpoint readCheckpoint(long size, Path report) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return new Checkpoint(0, 0);
+        }
+        String[] values = Files.readString(checkpoint, StandardCharsets.UTF_8).trim().split(Constants.CSV_SEPARATOR);
+        try {
+            if (values.length < 2 || values.length > 3 || Long.parseLong(values[1]) != size) {
+                throw new IllegalArgumentException("Il file è cambiato dall'ultima importazione: usare --restart.");
+            }
+            long reportSize = values.length == 3 ? Long.parseLong(values[2])
+                    : Files.exists(report) ? Files.size(report) : 0;
+            return new Checkpoint(Long.parseLong(values[0]), reportSize);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Checkpoint non valido: usare --restart.");
+        }
+    }
+
+    /**
+     * Salva lo stato dell'importazione, sostituendo il checkpoint in modo atomico e
+     * scrivendolo sul disco prima di proseguire.
+     *
+     * @param state Lo stato dell'importazione.
+     * @param size  La dimensione del file.
+     * @throws IOException Se il checkpoint non può essere scritto.
+     */
+    private void writeCheckpoint(Checkpoint state, long size) throws IOException {
+        Path temporary = Path.of(checkpoint + ".tmp");
+        byte[] content = (state.done() + Constants.CSV_SEPARATOR + size + Constants.CSV_SEPARATOR
+                + state.reportSize()).getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(content));
+            channel.force(true);
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+    }
+
+    /**
+     * Scrive sul disco la cartella del checkpoint, così che la sua sostituzione sopravviva
+     * a un arresto improvviso. Sui sistemi che non consentono di aprire una cartella la
+     * sincronizzazione viene omessa.
+     *
+     * @throws IOException Se la sincronizzazione fallisce.
+     */
+    private void forceDirectory() throws IOException {
+        Path directory = checkpoint.toAbsolutePath().getParent();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Attende la validazione di un blocco.
+     *
+     * @param batch La validazione del blocco.
+     * @return Il blocco validato.
+     */
+    private static Batch join(CompletableFuture<Batch> batch) {
+        try {
+            return batch.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package server;
+
+import shared.record.RecordWeather;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe {@code WeatherIngestQueue} raccoglie i parametri climatici inviati dagli
+ * operatori e li scrive nel database a gruppi, con un solo commit per gruppo.
+ * <p>
+ * Le righe, già validate, vengono inserite in una coda limitata; un thread dedicato le
+ * preleva in gruppi di al più {@code maxBatch} righe, attendendo al massimo
+ * {@code maxDelayMillis} millisecondi dall'arrivo della prima, e le scrive con un'unica
+ * operazione. Ogni chiamante resta in attesa finché il gruppo che contiene la sua riga non
+ * è stato confermato, e riceve l'eventuale errore della propria riga: se la scrittura di un
+ * gruppo fallisce, le sue righe vengono riscritte singolarmente per isolare quelle non valide.
+ * Ogni riga porta con sé l'ID della richiesta del client, così che un invio ripetuto dopo
+ * un timeout non venga inserito due volte.
+ * </p>
+ * <p>
+ * Se la coda è piena per più di {@link #ENQUEUE_TIMEOUT_MILLIS} millisecondi, la riga viene
+ * rifiutata, in modo che i client non attendano indefinitamente in caso di sovraccarico.
+ * </p>
+ *
+ * @see server.ImplementationRMI.DataHandlerImp#addNewWeathers(List, List)
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherIngestQueue implements AutoCloseable {
+
+    /**
+     * La capacità predefinita della coda.
+     */
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    /**
+     * Il numero massimo predefinito di righe per gruppo.
+     */
+    public static final int DEFAULT_MAX_BATCH = 500;
+
+    /**
+     * L'attesa massima predefinita, in millisecondi, per completare un gruppo.
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 20;
+
+    /**
+     * Attesa massima, in millisecondi, per l'inserimento di una riga nella coda piena.
+     */
+    public static final long ENQUEUE_TIMEOUT_MILLIS = 5_000;
+
+    /**
+     * Intervallo, in millisecondi, con cui il thread di scrittura verifica la chiusura.
+     */
+    private static final long POLL_MILLIS = 200;
+
+    /**
+     * Tempo massimo, in millisecondi, di attesa dello svuotamento della coda alla chiusura.
+     */
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * La scrittura di un gruppo di righe nel database.
+     */
+    @FunctionalInterface
+    public interface BatchWriter {
+
+        /**
+         * Scrive le righe specificate.
+         *
+         * @param weathers   Le righe da scrivere.
+         * @param requestIDs Gli ID delle richieste delle righe, nello stesso ordine; un ID può
+         *                   essere {@code null}.
+         * @return Per ciascuna riga, nello stesso ordine, l'errore che ne ha impedito la
+         *         scrittura, oppure {@code null} se è stata scritta.
+         */
+        SQLException[] write(List<RecordWeather> weathers, List<UUID> requestIDs);
+    }
+
+    /**
+     * Le metriche della coda.
+     *
+     * @param queueDepth          Il numero di righe attualmente in coda.
+     * @param capacity            La capacità della coda.
+     * @param batches             Il numero di gruppi scritti.
+     * @param rows                Il numero di righe scritte nei gruppi.
+     * @param averageBatchSize    Il numero medio di righe per gruppo.
+     * @param maxBatchSize        Il numero massimo di righe di un gruppo.
+     * @param averageCommitMillis La durata media, in millisecondi, della scrittura di un gruppo.
+     * @param maxCommitMillis     La durata massima, in millisecondi, della scrittura di un gruppo.
+     * @param rejected            Il numero di righe rifiutate perché la coda era piena.
+     */
+    public record Metrics(int queueDepth,
+                          int capacity,
+                          long batches,
+                          long rows,
+                          double averageBatchSize,
+                          int maxBatchSize,
+                          double averageCommitMillis,
+                          double maxCommitMillis,
+                          long rejected) {
+    }
+
+    /**
+     * Una riga in attesa di scrittura, con la conferma da completare.
+     *
+     * @param weather   La riga.
+     * @param requestID L'ID della richiesta, oppure {@code null}.
+     * @param ack       La conferma, completata alla scrittura o con l'errore della riga.
+     */
+    private record Pending(RecordWeather weather, UUID requestID, CompletableFuture<Void> ack) {
+    }
+
+    /**
+     * La coda delle righe in attesa.
+     */
+    private final BlockingQueue<Pending> queue;
+
+    /**
+     * La capacità della coda.
+     */
+    private final int capacity;
+
+    /**
+     * La scrittura dei gruppi di righe.
+     */
+    private final BatchWriter writer;
+
+    /**
+     * Il router delle letture a cui segnalare le scritture, oppure {@code null}.
+     */
+    private final DataSourceRouter router;
+
+    /**
+     * Il numero massimo di righe per gruppo.
+     */
+    private final int maxBatch;
+
+    /**
+     * L'attesa massima, in nanosecondi, per completare un gruppo.
+     */
+    private final long maxDelayNanos;
+
+    /**
+     * Il numero di gruppi scritti.
+     */
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Il numero di righe scritte nei gruppi.
+     */
+    private final AtomicLong rows = new AtomicLong();
+
+    /**
+     * Il numero massimo di righe di un gruppo.
+     */
+    private final AtomicInteger maxBatchSize = new AtomicInteger();
+
+    /**
+     * La durata complessiva, in nanosecondi, delle scritture dei gruppi.
+     */
+    private final AtomicLong commitNanos = new AtomicLong();
+
+    /**
+     * La durata massima, in nanosecondi, della scrittura di un gruppo.
+     */
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    /**
+     * Il numero di righe rifiutate perché la coda era piena.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Il thread di scrittura.
+     */
+    private Thread writerThread;
+
+    /**
+     * Indica se la coda è stata chiusa.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Costruisce una coda con i parametri specificati.
+     *
+     * @param writer         La scrittura dei gruppi di righe.
+     * @param router         Il router delle letture a cui segnalare le scritture, oppure {@code null}.
+     * @param capacity       La capacità della coda.
+     * @param maxBatch       Il numero massimo di righe per gruppo.
+     * @param maxDelayMillis L'attesa massima, in millisecondi, per completare un gruppo.
+     * @throws IllegalArgumentException Se la capacità o la dimensione dei gruppi non sono positive.
+     */
+    public WeatherIngestQueue(BatchWriter writer, DataSourceRouter router, int capacity, int maxBatch, long maxDelayMillis) {
+        if (capacity <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("La capacità e la dimensione dei gruppi devono essere positive.");
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.writer = writer;
+        this.router = router;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    }
+
+    /**
+     * Avvia il thread di scrittura.
+     */
+    public synchronized void start() {
+        if (writerThread != null) {
+            return;
+        }
+        writerThread = new Thread(this::run, "weather-ingest-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Inserisce una riga nella coda e attende che venga scritta nel database.
+     *
+     * @param weather   La riga da scrivere; l'ID viene ignorato.
+     * @param requestID L'ID della richiesta del client, oppure {@code null}; una riga con un
+     *                  ID già scritto per la stessa data viene considerata scritta.
+     * @throws SQLException Se la coda è piena o chiusa, oppure se la scrittura della riga fallisce.
+     */
+    public void submit(RecordWeather weather, UUID requestID) throws SQLException {
+        if (closed) {
+            throw new SQLException("Coda di inserimento chiusa.");
+        }
+        Pending pending = new Pending(weather, requestID, new CompletableFuture<>());
+        try {
+            if (!queue.offer(pending, ENQUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new SQLException("Coda di inserimento piena, riprovare più tardi.", "53400");
+            }
+            if (closed && queue.remove(pending)) {
+                throw new SQLException("Coda di inserimento chiusa.");
+            }
+            pending.ack().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Inserimento interrotto.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("Errore durante l'inserimento.", e.getCause());
+        }
+        if (router != null) {
+            router.recordWrite();
+        }
+    }
+
+    /**
+     * Restituisce le metriche della coda.
+     *
+     * @return Le metriche correnti.
+     */
+    public Metrics getMetrics() {
+        long batchCount = batches.get();
+        long rowCount = rows.get();
+        return new Metrics(
+                queue.size(),
+                capacity,
+                batchCount,
+                rowCount,
+                batchCount == 0 ? 0 : (double) rowCount / batchCount,
+                maxBatchSize.get(),
+                batchCount == 0 ? 0 : commitNanos.get() / 1e6 / batchCount,
+                maxCommitNanos.get() / 1e6,
+                rejected.get());
+    }
+
+    /**
+     * Chiude la coda, attendendo la scrittura delle righe già inserite.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (writerThread != null) {
+            try {
+                writerThread.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writerThread = null;
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.ack().completeExceptionally(new SQLException("Coda di inserimento chiusa."));
+        }
+    }
+
+    /**
+     * Il ciclo del thread di scrittura: preleva i gruppi dalla coda e li scrive, fino alla
+     * chiusura della coda.
+     */
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Scrive un gruppo di righe e completa le conferme dei chiamanti.
+     *
+     * @param batch Il gruppo di righe.
+     */
+    private void flush(List<Pending> batch) {
+        List<RecordWeather> weathers = new ArrayList<>(batch.size());
+        List<UUID> requestIDs = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            weathers.add(pending.weather());
+            requestIDs.add(pending.requestID());
+        }
+
+        long start = System.nanoTime();
+        SQLException[] failures = write(weathers, requestIDs);
+        long elapsed = System.nanoTime() - start;
+        batches.incrementAndGet();
+        rows.addAndGet(batch.size());
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+        commitNanos.addAndGet(elapsed);
+        maxCommitNanos.accumulateAndGet(elapsed, Math::max);
+
+        for (int i = 0; i < batch.size(); i++) {
+            SQLException failure = failures[i];
+            if (failure != null && batch.size() > 1) {
+                // Il gruppo dello shard è stato annullato: la riga viene riscritta da sola.
+                failure = write(List.of(weathers.get(i)), Collections.singletonList(requestIDs.get(i)))[0];
+            }
+            if (failure == null) {
+                batch.get(i).ack().complete(null);
+            } else {
+                batch.get(i).ack().completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Scrive le righe, trasformando gli errori imprevisti in errori di tutte le righe.
+     *
+     * @param weathers   Le righe da scrivere.
+     * @param requestIDs Gli ID delle richieste delle righe.
+     * @return Gli errori delle singole righe.
+     */
+    private SQLException[] write(List<RecordWeather> weathers, List<UUID> requestIDs) {
+        try {
+            return writer.write(weathers, requestIDs);
+        } catch (RuntimeException e) {
+            SQLException[] failures = new SQLException[weathers.size()];
+            SQLException failure = new SQLException("Errore durante la scrittura del gruppo.", e);
+            Arrays.fill(failures, failure);
+            return failures;
+        }
+    }
+}
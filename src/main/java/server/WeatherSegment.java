@@ -0,0 +1,503 @@
+package server;
+
+import shared.record.RecordWeather;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * La classe {@code WeatherSegment} rappresenta un file di archivio in formato colonnare
+ * contenente parametri climatici ordinati per città e data.
+ * <p>
+ * Il file è composto da un'intestazione di {@value #HEADER_SIZE} byte seguita dalle colonne:
+ * </p>
+ * <ul>
+ *     <li>ID, città, centro e data (in giorni dall'epoca) come interi a 32 bit;</li>
+ *     <li>i sette punteggi, compressi a bit con la larghezza minima per colonna
+ *     (0 indica un punteggio assente);</li>
+ *     <li>i sette commenti come indici a bit in un dizionario comune
+ *     (0 indica un commento assente);</li>
+ *     <li>il dizionario dei commenti, compresso con deflate.</li>
+ * </ul>
+ * <p>
+ * In lettura il file viene mappato in memoria con un {@link MappedByteBuffer}: le colonne
+ * vengono lette direttamente dal buffer e solo il dizionario viene decompresso all'apertura.
+ * L'ordinamento per città permette di individuare le righe di una città con una ricerca
+ * binaria. Le istanze sono immutabili e thread-safe.
+ * </p>
+ *
+ * @see WeatherArchive
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public final class WeatherSegment {
+
+    /**
+     * Il valore iniziale dei file di archivio ("CMWA").
+     */
+    private static final int MAGIC = 0x434D5741;
+
+    /**
+     * La versione del formato.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * La dimensione dell'intestazione, in byte.
+     */
+    static final int HEADER_SIZE = 64;
+
+    /**
+     * Il numero di parametri climatici di ogni riga.
+     */
+    private static final int PARAMETERS = 7;
+
+    /**
+     * Il buffer mappato sul file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Il numero di righe.
+     */
+    private final int rowCount;
+
+    /**
+     * La data minima delle righe.
+     */
+    private final LocalDate minDate;
+
+    /**
+     * La data massima delle righe.
+     */
+    private final LocalDate maxDate;
+
+    /**
+     * Il valore sottratto a ciascun punteggio prima della compressione, per colonna.
+     */
+    private final int[] scoreBases = new int[PARAMETERS];
+
+    /**
+     * La larghezza in bit dei punteggi, per colonna.
+     */
+    private final int[] scoreWidths = new int[PARAMETERS];
+
+    /**
+     * La larghezza in bit degli indici dei commenti.
+     */
+    private final int commentWidth;
+
+    /**
+     * La posizione di inizio delle colonne compresse a bit: prima i punteggi, poi i commenti.
+     */
+    private final int[] packedOffsets = new int[PARAMETERS * 2];
+
+    /**
+     * Il dizionario dei commenti.
+     */
+    private final String[] dictionary;
+
+    /**
+     * Costruisce un segmento a partire dal buffer del file.
+     *
+     * @param buffer Il buffer contenente il file.
+     * @throws IOException Se il file non è un segmento valido.
+     */
+    private WeatherSegment(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Formato del segmento non valido.");
+        }
+
+        rowCount = buffer.getInt(8);
+        minDate = LocalDate.ofEpochDay(buffer.getInt(12));
+        maxDate = LocalDate.ofEpochDay(buffer.getInt(16));
+        int dictionarySize = buffer.getInt(20);
+        int dictionaryLength = buffer.getInt(24);
+        for (int i = 0; i < PARAMETERS; i++) {
+            scoreBases[i] = buffer.getInt(28 + i * 4);
+            scoreWidths[i] = buffer.get(56 + i);
+        }
+        commentWidth = buffer.get(63);
+
+        int offset = HEADER_SIZE + rowCount * 4 * Integer.BYTES;
+        for (int i = 0; i < packedOffsets.length; i++) {
+            packedOffsets[i] = offset;
+            offset += packedLongs(rowCount, i < PARAMETERS ? scoreWidths[i] : commentWidth) * Long.BYTES;
+        }
+
+        dictionary = readDictionary(buffer, offset, dictionaryLength, dictionarySize);
+    }
+
+    /**
+     * Apre un segmento mappandolo in memoria.
+     *
+     * @param file Il file del segmento.
+     * @return Il segmento aperto.
+     * @throws IOException Se si verifica un errore di lettura o il file non è valido.
+     */
+    public static WeatherSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new WeatherSegment(buffer);
+        }
+    }
+
+    /**
+     * Scrive un segmento con le righe specificate e lo sincronizza sul disco.
+     *
+     * @param file    Il file da creare.
+     * @param weathers Le righe da scrivere, già ordinate per città e data.
+     * @throws IOException Se si verifica un errore di scrittura.
+     */
+    public static void write(Path file, List<RecordWeather> weathers) throws IOException {
+        int n = weathers.size();
+        int[][] scores = new int[PARAMETERS][n];
+        int[][] comments = new int[PARAMETERS][n];
+        int[] bases = new int[PARAMETERS];
+        int[] widths = new int[PARAMETERS];
+        Map<String, Integer> dictionary = new HashMap<>();
+        ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+        int minDay = Integer.MAX_VALUE;
+        int maxDay = Integer.MIN_VALUE;
+
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(dictionaryBytes,
+                new Deflater(Deflater.BEST_COMPRESSION)))) {
+            for (int p = 0; p < PARAMETERS; p++) {
+                int min = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                for (RecordWeather weather : weathers) {
+                    Integer score = parameter(weather, p).score();
+                    if (score != null) {
+                        min = Math.min(min, score);
+                        max = Math.max(max, score);
+                    }
+                }
+                bases[p] = min == Integer.MAX_VALUE ? 0 : min;
+                widths[p] = min == Integer.MAX_VALUE ? 0 : bitsFor((long) max - min + 1);
+
+                for (int r = 0; r < n; r++) {
+                    RecordWeather.WeatherData data = parameter(weathers.get(r), p);
+                    scores[p][r] = data.score() == null ? 0 : data.score() - bases[p] + 1;
+
+                    String comment = data.comment();
+                    if (comment == null) {
+                        comments[p][r] = 0;
+                    } else {
+                        Integer index = dictionary.get(comment);
+                        if (index == null) {
+                            index = dictionary.size() + 1;
+                            dictionary.put(comment, index);
+                            byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+                            out.writeInt(bytes.length);
+                            out.write(bytes);
+                        }
+                        comments[p][r] = index;
+                    }
+                }
+            }
+        }
+        int commentWidth = bitsFor(dictionary.size());
+
+        for (RecordWeather weather : weathers) {
+            int day = (int) weather.date().toEpochDay();
+            minDay = Math.min(minDay, day);
+            maxDay = Math.max(maxDay, day);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(n == 0 ? 0 : minDay);
+            out.writeInt(n == 0 ? 0 : maxDay);
+            out.writeInt(dictionary.size());
+            out.writeInt(dictionaryBytes.size());
+            for (int base : bases) {
+                out.writeInt(base);
+            }
+            for (int width : widths) {
+                out.writeByte(width);
+            }
+            out.writeByte(commentWidth);
+
+            for (RecordWeather weather : weathers) {
+                out.writeInt(weather.ID());
+            }
+            for (RecordWeather weather : weathers) {
+                out.writeInt(weather.cityID());
+            }
+            for (RecordWeather weather : weathers) {
+                out.writeInt(weather.centerID());
+            }
+            for (RecordWeather weather : weathers) {
+                out.writeInt((int) weather.date().toEpochDay());
+            }
+            for (int p = 0; p < PARAMETERS; p++) {
+                writePacked(out, scores[p], widths[p]);
+            }
+            for (int p = 0; p < PARAMETERS; p++) {
+                writePacked(out, comments[p], commentWidth);
+            }
+            dictionaryBytes.writeTo(out);
+
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Restituisce il numero di righe del segmento.
+     *
+     * @return Il numero di righe.
+     */
+    public int rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Restituisce la data minima delle righe del segmento.
+     *
+     * @return La data minima.
+     */
+    public LocalDate minDate() {
+        return minDate;
+    }
+
+    /**
+     * Restituisce la data massima delle righe del segmento.
+     *
+     * @return La data massima.
+     */
+    public LocalDate maxDate() {
+        return maxDate;
+    }
+
+    /**
+     * Restituisce l'ID della riga specificata senza ricostruire l'intera riga.
+     *
+     * @param row L'indice della riga.
+     * @return L'ID della riga.
+     */
+    public int id(int row) {
+        return intColumn(0, row);
+    }
+
+    /**
+     * Restituisce la città della riga specificata senza ricostruire l'intera riga.
+     *
+     * @param row L'indice della riga.
+     * @return L'ID della città.
+     */
+    public int cityID(int row) {
+        return intColumn(1, row);
+    }
+
+    /**
+     * Restituisce l'indice della prima riga della città specificata o, se la città non è
+     * presente, della prima riga di una città successiva.
+     *
+     * @param cityID L'ID della città.
+     * @return L'indice della riga, compreso tra 0 e {@link #rowCount()}.
+     */
+    public int firstRowOf(int cityID) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cityID(mid) < cityID) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Ricostruisce la riga specificata.
+     *
+     * @param row L'indice della riga.
+     * @return I parametri climatici della riga.
+     */
+    public RecordWeather read(int row) {
+        RecordWeather.WeatherData[] data = new RecordWeather.WeatherData[PARAMETERS];
+        for (int p = 0; p < PARAMETERS; p++) {
+            long score = packed(p, scoreWidths[p], row);
+            long comment = packed(PARAMETERS + p, commentWidth, row);
+            data[p] = new RecordWeather.WeatherData(
+                    score == 0 ? null : (int) (score - 1 + scoreBases[p]),
+                    comment == 0 ? null : dictionary[(int) comment - 1]);
+        }
+        return new RecordWeather(
+                intColumn(0, row),
+                intColumn(1, row),
+                intColumn(2, row),
+                LocalDate.ofEpochDay(intColumn(3, row)),
+                data[0], data[1], data[2], data[3], data[4], data[5], data[6]);
+    }
+
+    /**
+     * Legge un valore di una colonna di interi.
+     *
+     * @param column L'indice della colonna (ID, città, centro, data).
+     * @param row    L'indice della riga.
+     * @return Il valore letto.
+     */
+    private int intColumn(int column, int row) {
+        return buffer.getInt(HEADER_SIZE + (column * rowCount + row) * Integer.BYTES);
+    }
+
+    /**
+     * Legge un valore di una colonna compressa a bit.
+     *
+     * @param column L'indice della colonna compressa.
+     * @param width  La larghezza in bit dei valori.
+     * @param row    L'indice della riga.
+     * @return Il valore letto.
+     */
+    private long packed(int column, int width, int row) {
+        if (width == 0) {
+            return 0;
+        }
+        long bit = (long) row * width;
+        int base = packedOffsets[column] + (int) (bit >>> 6) * Long.BYTES;
+        int shift = (int) (bit & 63);
+        long value = buffer.getLong(base) >>> shift;
+        if (shift + width > Long.SIZE) {
+            value |= buffer.getLong(base + Long.BYTES) << (Long.SIZE - shift);
+        }
+        return value & ((1L << width) - 1);
+    }
+
+    /**
+     * Scrive una colonna compressa a bit.
+     *
+     * @param out    Lo stream di destinazione.
+     * @param values I valori, non negativi e rappresentabili con la larghezza indicata.
+     * @param width  La larghezza in bit dei valori.
+     * @throws IOException Se si verifica un errore di scrittura.
+     */
+    private static void writePacked(DataOutputStream out, int[] values, int width) throws IOException {
+        long[] words = new long[packedLongs(values.length, width)];
+        for (int r = 0; r < values.length && width > 0; r++) {
+            long bit = (long) r * width;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            words[word] |= (long) values[r] << shift;
+            if (shift + width > Long.SIZE) {
+                words[word + 1] |= (long) values[r] >>> (Long.SIZE - shift);
+            }
+        }
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Legge e decomprime il dizionario dei commenti.
+     *
+     * @param buffer Il buffer del file.
+     * @param offset La posizione del dizionario.
+     * @param length La lunghezza compressa del dizionario.
+     * @param size   Il numero di commenti del dizionario.
+     * @return I commenti, nell'ordine dei rispettivi indici.
+     * @throws IOException Se il dizionario non è valido.
+     */
+    private static String[] readDictionary(ByteBuffer buffer, int offset, int length, int size) throws IOException {
+        byte[] compressed = new byte[length];
+        buffer.get(offset, compressed);
+
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(Math.max(length * 4, 64));
+        try {
+            inflater.setInput(compressed);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(chunk);
+                if (read == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Dizionario dei commenti troncato.");
+                }
+                raw.write(chunk, 0, read);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Dizionario dei commenti non valido.", e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer entries = ByteBuffer.wrap(raw.toByteArray());
+        String[] dictionary = new String[size];
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[entries.getInt()];
+            entries.get(bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Restituisce il parametro climatico con l'indice specificato.
+     *
+     * @param weather La riga.
+     * @param index   L'indice del parametro, nell'ordine delle colonne della tabella.
+     * @return Il parametro climatico.
+     */
+    private static RecordWeather.WeatherData parameter(RecordWeather weather, int index) {
+        return switch (index) {
+            case 0 -> weather.wind();
+            case 1 -> weather.humidity();
+            case 2 -> weather.pressure();
+            case 3 -> weather.temperature();
+            case 4 -> weather.precipitation();
+            case 5 -> weather.glacierElevation();
+            default -> weather.glacierMass();
+        };
+    }
+
+    /**
+     * Calcola il numero di bit necessari a rappresentare i valori da 0 al massimo indicato.
+     *
+     * @param max Il valore massimo.
+     * @return Il numero di bit.
+     */
+    private static int bitsFor(long max) {
+        return Long.SIZE - Long.numberOfLeadingZeros(max);
+    }
+
+    /**
+     * Calcola il numero di parole da 64 bit occupate da una colonna compressa.
+     *
+     * @param rows  Il numero di righe.
+     * @param width La larghezza in bit dei valori.
+     * @return Il numero di parole.
+     */
+    private static int packedLongs(int rows, int width) {
+        return (int) (((long) rows * width + Long.SIZE - 1) / Long.SIZE);
+    }
+}
@@ -0,0 +1,605 @@
+package server;
+
+import shared.record.QueryCondition;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La classe {@code WeatherShards} distribuisce i parametri climatici tra più database,
+ * suddividendoli per città.
+ * <p>
+ * Lo shard {@code 0} è il database primario, che ospita anche le città, i centri di
+ * monitoraggio e gli operatori; gli altri shard contengono solo la tabella
+ * {@code parametriclimatici}. La tabella {@code shardmap} del primario associa ogni città
+ * allo shard che ne contiene i parametri climatici: le città senza associazione sono
+ * servite dal primario, e alla prima scrittura vengono assegnate a uno shard in base
+ * al loro ID. Le associazioni sono mantenute in memoria e ricaricate periodicamente,
+ * così da recepire gli spostamenti eseguiti con {@link ShardMoveTool}.
+ * </p>
+ * <p>
+ * Le sequenze degli ID di ciascuno shard avanzano di {@link #MAX_SHARDS} a partire da
+ * resti diversi, in modo che gli ID dei parametri climatici restino univoci tra tutti
+ * gli shard e le righe possano essere spostate senza modificarli.
+ * </p>
+ *
+ * @see DataBaseManager
+ * @see ShardMoveTool
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public class WeatherShards implements AutoCloseable {
+
+    /**
+     * Numero massimo di shard, pari all'incremento delle sequenze degli ID.
+     */
+    public static final int MAX_SHARDS = 16;
+
+    /**
+     * Intervallo, in secondi, tra due aggiornamenti delle associazioni tra città e shard.
+     */
+    public static final long REFRESH_SECONDS = 10;
+
+    /**
+     * Le colonne della tabella {@code parametriclimatici} copiate tra gli shard, nell'ordine
+     * di creazione. L'istante di inserimento è escluso: una riga copiata riceve quello della
+     * copia, così che le letture incrementali dei client la trovino sul nuovo shard.
+     */
+    public static final String WEATHER_COLUMNS = "id, cityid, centerid, date, windscore, windcomment, " +
+            "humidityscore, humiditycomment, pressurescore, pressurecomment, temperaturescore, " +
+            "temperaturecomment, precipitationscore, precipitationcomment, glacierelevationscore, " +
+            "glacierelevationcomment, glaciermassscore, glaciermasscomment, requestid";
+
+    /**
+     * Il numero di colonne in {@link #WEATHER_COLUMNS}.
+     */
+    public static final int WEATHER_COLUMN_COUNT = 19;
+
+    /**
+     * La creazione della tabella delle associazioni tra città e shard.
+     */
+    private static final String SQL_SHARD_MAP = "CREATE TABLE IF NOT EXISTS shardmap (" +
+            "cityid INTEGER PRIMARY KEY REFERENCES coordinatemonitoraggio(id), " +
+            "shard INTEGER NOT NULL);";
+
+    /**
+     * Le connessioni agli shard, indicizzate per numero di shard.
+     */
+    private final List<Connection> connections = new ArrayList<>();
+
+    /**
+     * Gli host degli shard, indicizzati per numero di shard, usati nei messaggi.
+     */
+    private final List<String> hosts = new ArrayList<>();
+
+    /**
+     * Le associazioni note tra città e shard.
+     */
+    private volatile Map<Integer, Integer> shardByCity = new ConcurrentHashMap<>();
+
+    /**
+     * L'esecutore delle query parallele sugli shard.
+     */
+    private final ExecutorService queryExecutor;
+
+    /**
+     * L'esecutore degli aggiornamenti periodici delle associazioni.
+     */
+    private ScheduledExecutorService refreshExecutor;
+
+    /**
+     * Un'operazione eseguita su un singolo shard.
+     *
+     * @param <T> Il tipo del risultato.
+     */
+    @FunctionalInterface
+    public interface ShardTask<T> {
+
+        /**
+         * Esegue l'operazione sullo shard.
+         *
+         * @param shard Il numero dello shard.
+         * @return Il risultato parziale dello shard.
+         * @throws SQLException Se si verifica un errore durante l'accesso al database.
+         */
+        T run(int shard) throws SQLException;
+    }
+
+    /**
+     * Collega gli shard, crea le tabelle mancanti, configura le sequenze degli ID e carica
+     * le associazioni tra città e shard.
+     *
+     * @param primary    La connessione al database primario, che costituisce lo shard {@code 0}.
+     * @param shardHosts Gli host degli altri shard, eventualmente nella forma {@code host:porta}.
+     * @param password   La password per l'autenticazione agli shard.
+     * @throws SQLException             Se uno shard non è raggiungibile o la configurazione fallisce.
+     * @throws IllegalArgumentException Se gli shard sono più di {@link #MAX_SHARDS}.
+     */
+    public WeatherShards(Connection primary, List<String> shardHosts, String password) throws SQLException {
+        this(primary, connect(shardHosts, password), trimmed(shardHosts));
+    }
+
+    /**
+     * Configura gli shard a partire da connessioni già aperte: crea le tabelle mancanti,
+     * configura le sequenze degli ID e carica le associazioni tra città e shard.
+     *
+     * @param primary          La connessione al database primario, che costituisce lo shard {@code 0}.
+     * @param shardConnections Le connessioni agli altri shard, chiuse da {@link #close()}.
+     * @param shardHosts       Gli host degli altri shard, nello stesso ordine, usati nei messaggi.
+     * @throws SQLException             Se la configurazione fallisce.
+     * @throws IllegalArgumentException Se gli shard sono più di {@link #MAX_SHARDS}.
+     */
+    public WeatherShards(Connection primary, List<Connection> shardConnections, List<String> shardHosts) throws SQLException {
+        if (shardConnections.size() + 1 > MAX_SHARDS) {
+            throw new IllegalArgumentException("Sono ammessi al massimo " + MAX_SHARDS + " shard.");
+        }
+        connections.add(primary);
+        hosts.add("primario");
+        connections.addAll(shardConnections);
+        hosts.addAll(shardHosts);
+        try {
+            for (Connection conn : shardConnections) {
+                DataBaseManager.createWeatherShardTable(conn);
+            }
+            try (Statement stmt = primary.createStatement()) {
+                stmt.executeUpdate(SQL_SHARD_MAP);
+            }
+            configureSequences();
+            refresh();
+        } catch (SQLException e) {
+            closeShards();
+            throw e;
+        }
+
+        queryExecutor = Executors.newFixedThreadPool(connections.size(), runnable -> {
+            Thread thread = new Thread(runnable, "weather-shard-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Avvia l'aggiornamento periodico delle associazioni tra città e shard.
+     */
+    public synchronized void start() {
+        if (refreshExecutor != null) {
+            return;
+        }
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-map-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (SQLException e) {
+                System.err.println("Errore durante l'aggiornamento della mappa degli shard: " + e.getMessage());
+            }
+        }, REFRESH_SECONDS, REFRESH_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Restituisce il numero di shard, incluso il primario.
+     *
+     * @return Il numero di shard.
+     */
+    public int size() {
+        return connections.size();
+    }
+
+    /**
+     * Restituisce la connessione a uno shard.
+     *
+     * @param shard Il numero dello shard.
+     * @return La connessione.
+     */
+    public Connection connection(int shard) {
+        return connections.get(shard);
+    }
+
+    /**
+     * Restituisce lo shard che contiene i parametri climatici della città.
+     *
+     * @param cityID L'ID della città.
+     * @return Il numero dello shard, {@code 0} se la città non è ancora stata assegnata.
+     * @throws SQLException Se si verifica un errore durante la lettura della mappa.
+     */
+    public int shardOf(int cityID) throws SQLException {
+        Integer shard = shardByCity.get(cityID);
+        if (shard == null) {
+            shard = lookup(cityID);
+        }
+        return shard == null ? 0 : shard;
+    }
+
+    /**
+     * Restituisce lo shard su cui scrivere i parametri climatici della città, assegnandola
+     * a uno shard se necessario.
+     * <p>
+     * Le città che hanno già parametri climatici sul primario vi restano assegnate; le
+     * altre vengono distribuite tra gli shard in base al loro ID.
+     * </p>
+     *
+     * @param cityID L'ID della città.
+     * @return Il numero dello shard.
+     * @throws SQLException Se si verifica un errore durante l'accesso alla mappa.
+     */
+    public int assign(int cityID) throws SQLException {
+        Integer shard = shardByCity.get(cityID);
+        if (shard == null) {
+            shard = lookup(cityID);
+        }
+        if (shard != null) {
+            return shard;
+        }
+
+        Connection primary = connections.get(0);
+        int candidate;
+        try (PreparedStatement stmt = primary.prepareStatement("SELECT 1 FROM parametriclimatici WHERE cityid = ? LIMIT 1")) {
+            stmt.setInt(1, cityID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                candidate = rs.next() ? 0 : Math.floorMod(cityID, connections.size());
+            }
+        }
+        try (PreparedStatement stmt = primary.prepareStatement(
+                "INSERT INTO shardmap (cityid, shard) VALUES (?, ?) ON CONFLICT (cityid) DO NOTHING")) {
+            stmt.setInt(1, cityID);
+            stmt.setInt(2, candidate);
+            stmt.executeUpdate();
+        }
+        // Un altro server potrebbe aver assegnato la città nel frattempo.
+        shard = lookup(cityID);
+        return shard == null ? candidate : shard;
+    }
+
+    /**
+     * Restituisce le associazioni tra città e shard attualmente in memoria.
+     *
+     * @return Una vista non modificabile delle associazioni, indicizzate per ID della città.
+     */
+    public Map<Integer, Integer> assignments() {
+        return Collections.unmodifiableMap(shardByCity);
+    }
+
+    /**
+     * Verifica se una riga della città letta dallo shard specificato appartiene a quello
+     * shard secondo le associazioni in memoria.
+     * <p>
+     * Durante lo spostamento di una città le sue righe sono presenti su due shard: solo
+     * quelle dello shard associato vengono considerate, così da non contarle due volte.
+     * </p>
+     *
+     * @param cityID L'ID della città.
+     * @param shard  Il numero dello shard da cui è stata letta la riga.
+     * @return {@code true} se la riga deve essere considerata.
+     */
+    public boolean owns(int cityID, int shard) {
+        Integer owner = shardByCity.get(cityID);
+        return owner == null || owner == shard;
+    }
+
+    /**
+     * Restituisce gli shard da interrogare per le condizioni di ricerca specificate.
+     * <p>
+     * Se le condizioni limitano la ricerca a una o più città vengono restituiti solo gli
+     * shard che le contengono; altrimenti tutti gli shard.
+     * </p>
+     *
+     * @param conditions Le condizioni di ricerca sui parametri climatici.
+     * @return I numeri degli shard, in ordine crescente.
+     * @throws SQLException Se si verifica un errore durante la lettura della mappa.
+     */
+    public Set<Integer> shardsFor(List<QueryCondition> conditions) throws SQLException {
+        for (QueryCondition condition : conditions) {
+            if (!"cityid".equals(condition.key().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            if (condition.operator() == QueryCondition.Operator.EQUALS) {
+                Integer cityID = toCityID(condition.value());
+                if (cityID != null) {
+                    return Set.of(shardOf(cityID));
+                }
+            } else if (condition.operator() == QueryCondition.Operator.IN
+                    && condition.value() instanceof Object[] values) {
+                List<Integer> cityIDs = new ArrayList<>();
+                for (Object value : values) {
+                    Integer cityID = toCityID(value);
+                    if (cityID == null) {
+                        return all();
+                    }
+                    cityIDs.add(cityID);
+                }
+                return shardsForCities(cityIDs);
+            }
+        }
+        return all();
+    }
+
+    /**
+     * Restituisce gli shard che contengono i parametri climatici delle città specificate.
+     *
+     * @param cityIDs Gli ID delle città.
+     * @return I numeri degli shard, in ordine crescente.
+     */
+    public Set<Integer> shardsForCities(Collection<Integer> cityIDs) {
+        Set<Integer> shards = new TreeSet<>();
+        Map<Integer, Integer> map = shardByCity;
+        for (Integer cityID : cityIDs) {
+            shards.add(map.getOrDefault(cityID, 0));
+            if (shards.size() == connections.size()) {
+                break;
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Esegue un'operazione in parallelo sugli shard specificati e ne raccoglie i risultati.
+     *
+     * @param shards Gli shard su cui eseguire l'operazione.
+     * @param task   L'operazione.
+     * @param <T>    Il tipo dei risultati.
+     * @return I risultati parziali, nell'ordine degli shard.
+     * @throws SQLException Se l'operazione fallisce su almeno uno shard.
+     */
+    public <T> List<T> scatter(Collection<Integer> shards, ShardTask<T> task) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>();
+        for (int shard : shards) {
+            futures.add(queryExecutor.submit(() -> task.run(shard)));
+        }
+
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrogazione degli shard interrotta.", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException("Errore durante l'interrogazione degli shard.", cause);
+        }
+    }
+
+    /**
+     * Ricarica dal primario le associazioni tra città e shard.
+     *
+     * @throws SQLException Se si verifica un errore durante la lettura della mappa.
+     */
+    public void refresh() throws SQLException {
+        Map<Integer, Integer> map = new ConcurrentHashMap<>();
+        try (Statement stmt = connections.get(0).createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT cityid, shard FROM shardmap")) {
+            while (rs.next()) {
+                int shard = rs.getInt(2);
+                if (shard < 0 || shard >= connections.size()) {
+                    throw new SQLException("La città " + rs.getInt(1) + " è assegnata allo shard " + shard
+                            + ", non configurato su questo server.");
+                }
+                map.put(rs.getInt(1), shard);
+            }
+        }
+        shardByCity = map;
+    }
+
+    /**
+     * Interrompe le attività in background e chiude le connessioni agli shard diversi dal
+     * primario.
+     */
+    @Override
+    public synchronized void close() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+            refreshExecutor = null;
+        }
+        queryExecutor.shutdownNow();
+        closeShards();
+    }
+
+    /**
+     * Legge dal primario lo shard associato alla città, aggiornando la mappa in memoria.
+     *
+     * @param cityID L'ID della città.
+     * @return Il numero dello shard, oppure {@code null} se la città non è assegnata.
+     * @throws SQLException Se si verifica un errore durante la lettura della mappa.
+     */
+    private Integer lookup(int cityID) throws SQLException {
+        try (PreparedStatement stmt = connections.get(0).prepareStatement("SELECT shard FROM shardmap WHERE cityid = ?")) {
+            stmt.setInt(1, cityID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                int shard = rs.getInt(1);
+                shardByCity.put(cityID, shard);
+                return shard;
+            }
+        }
+    }
+
+    /**
+     * Configura le sequenze degli ID di tutti gli shard, in modo che avanzino di
+     * {@link #MAX_SHARDS} a partire dal resto pari al numero dello shard e da un valore
+     * superiore a tutti gli ID già utilizzati.
+     * <p>
+     * Le sequenze già configurate non vengono modificate.
+     * </p>
+     *
+     * @throws SQLException Se si verifica un errore durante la configurazione.
+     */
+    private void configureSequences() throws SQLException {
+        Map<Integer, String> toConfigure = new HashMap<>();
+        long maxID = 0;
+        for (int shard = 0; shard < connections.size(); shard++) {
+            Connection conn = connections.get(shard);
+            String sequence;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT pg_get_serial_sequence('parametriclimatici', 'id')")) {
+                rs.next();
+                sequence = rs.getString(1);
+            }
+
+            long increment;
+            long lastValue;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT seqincrement FROM pg_sequence WHERE seqrelid = ?::regclass")) {
+                stmt.setString(1, sequence);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    increment = rs.getLong(1);
+                }
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT last_value FROM " + sequence)) {
+                rs.next();
+                lastValue = rs.getLong(1);
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COALESCE(max(id), 0) FROM parametriclimatici")) {
+                rs.next();
+                maxID = Math.max(maxID, Math.max(lastValue, rs.getLong(1)));
+            }
+
+            if (increment != MAX_SHARDS || Math.floorMod(lastValue, MAX_SHARDS) != shard) {
+                toConfigure.put(shard, sequence);
+            }
+        }
+
+        for (Map.Entry<Integer, String> entry : toConfigure.entrySet()) {
+            int shard = entry.getKey();
+            long start = maxID + 1 + Math.floorMod(shard - (maxID + 1), MAX_SHARDS);
+            Connection conn = connections.get(shard);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("ALTER SEQUENCE " + entry.getValue() + " INCREMENT BY " + MAX_SHARDS);
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT setval(?::regclass, ?, false)")) {
+                stmt.setString(1, entry.getValue());
+                stmt.setLong(2, start);
+                stmt.executeQuery().close();
+            }
+            System.out.println("Sequenza degli ID configurata per lo shard " + hosts.get(shard) + ": inizio " + start);
+        }
+    }
+
+    /**
+     * Restituisce tutti gli shard.
+     *
+     * @return I numeri degli shard, in ordine crescente.
+     */
+    private Set<Integer> all() {
+        Set<Integer> shards = new TreeSet<>();
+        for (int shard = 0; shard < connections.size(); shard++) {
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    /**
+     * Converte il valore di una condizione sulla città in un ID.
+     *
+     * @param value Il valore della condizione.
+     * @return L'ID della città, oppure {@code null} se il valore non è un intero.
+     */
+    private static Integer toCityID(Object value) {
+        if (value instanceof Number number) {
+            return number.intValue();
+        }
+        try {
+            return value == null ? null : Integer.valueOf(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Apre le connessioni agli shard specificati, chiudendo quelle già aperte se una fallisce.
+     *
+     * @param shardHosts Gli host degli shard.
+     * @param password   La password per l'autenticazione agli shard.
+     * @return Le connessioni, nello stesso ordine degli host.
+     * @throws SQLException             Se uno shard non è raggiungibile.
+     * @throws IllegalArgumentException Se gli shard sono più di {@link #MAX_SHARDS}.
+     */
+    private static List<Connection> connect(List<String> shardHosts, String password) throws SQLException {
+        if (shardHosts.size() + 1 > MAX_SHARDS) {
+            throw new IllegalArgumentException("Sono ammessi al massimo " + MAX_SHARDS + " shard.");
+        }
+        List<Connection> opened = new ArrayList<>();
+        try {
+            for (String host : shardHosts) {
+                opened.add(DataBaseManager.connect(host.trim(), password));
+            }
+            return opened;
+        } catch (SQLException e) {
+            for (Connection conn : opened) {
+                try {
+                    conn.close();
+                } catch (SQLException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Restituisce gli host specificati senza spazi iniziali e finali.
+     *
+     * @param shardHosts Gli host degli shard.
+     * @return Gli host normalizzati.
+     */
+    private static List<String> trimmed(List<String> shardHosts) {
+        List<String> result = new ArrayList<>();
+        for (String host : shardHosts) {
+            result.add(host.trim());
+        }
+        return result;
+    }
+
+    /**
+     * Chiude le connessioni agli shard diversi dal primario.
+     */
+    private void closeShards() {
+        for (int shard = 1; shard < connections.size(); shard++) {
+            try {
+                connections.get(shard).close();
+            } catch (SQLException e) {
+                System.err.println("Errore durante la chiusura dello shard " + hosts.get(shard) + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package shared.interfacesRMI;
 
+import shared.record.InsertResult;
 import shared.record.RecordCenter;
 import shared.record.RecordOperator;
 import shared.record.RecordWeather;
@@ -7,6 +8,8 @@ import shared.record.RecordWeather;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.UUID;
 
 /**
  * L'interfaccia {@code DataHandlerInterface} è un'interfaccia remota che permette di definire i metodi che possono
@@ -17,6 +20,7 @@ import java.sql.SQLException;
  * </p>
  *
  * @see Remote
+ * @see InsertResult
  * @see RecordCenter
  * @see RecordOperator
  * @see RecordWeather
@@ -38,10 +42,11 @@ public interface DataHandlerInterface extends Remote {
      * @param username Il nome utente per l'accesso dell'operatore.
      * @param password La password per l'accesso dell'operatore.
      * @param centerID L'ID del centro di monitoraggio a cui l'operatore è associato.
+     * @return L'esito dell'inserimento, con l'operatore creato o il vincolo di unicità violato.
      * @throws SQLException Se si verifica un errore durante l'interazione con il database.
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
      */
-    void addNewOperator(String nameSurname,
+    InsertResult<RecordOperator> addNewOperator(String nameSurname,
                         String taxCode,
                         String email,
                         String username,
@@ -58,11 +63,11 @@ public interface DataHandlerInterface extends Remote {
      * @param townName Il nome del comune in cui si trova il centro.
      * @param districtName Il nome della provincia in cui si trova il centro.
      * @param cityIDs Gli ID delle città monitorate dal centro.
-     * @return Il record del centro di monitoraggio appena creato.
+     * @return L'esito dell'inserimento, con il centro creato o il duplicato rilevato.
      * @throws SQLException Se si verifica un errore durante l'interazione con il database.
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
      */
-    RecordCenter addNewCenter(String centerName,
+    InsertResult<RecordCenter> addNewCenter(String centerName,
                               String streetName,
                               String streetNumber,
                               String CAP,
@@ -70,12 +75,44 @@ public interface DataHandlerInterface extends Remote {
                               String districtName,
                               Integer[] cityIDs) throws SQLException, RemoteException;
 
+    /**
+     * Crea un nuovo centro di monitoraggio e lo associa all'operatore specificato
+     * con un'unica istruzione eseguita in una sola transazione.
+     * <p>
+     *     Il centro viene inserito solo se tutte le città esistono, se non esiste già un
+     *     centro con gli stessi dati e se l'operatore non è associato ad alcun centro;
+     *     in caso contrario il database non viene modificato.
+     * </p>
+     *
+     * @param centerName Il nome del centro di monitoraggio.
+     * @param streetName Il nome della via in cui si trova il centro.
+     * @param streetNumber Il numero civico del centro.
+     * @param CAP Il codice di avviamento postale (CAP) del centro.
+     * @param townName Il nome del comune in cui si trova il centro.
+     * @param districtName Il nome della provincia in cui si trova il centro.
+     * @param cityIDs Gli ID delle città monitorate dal centro.
+     * @param operatorID L'ID dell'operatore da associare al centro.
+     * @return L'esito dell'inserimento, con il centro creato o il duplicato rilevato.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     * @throws IllegalArgumentException Se una città non esiste.
+     * @throws IllegalStateException Se l'operatore non esiste o è già associato a un centro.
+     */
+    InsertResult<RecordCenter> addNewCenterForOperator(String centerName,
+                                         String streetName,
+                                         String streetNumber,
+                                         String CAP,
+                                         String townName,
+                                         String districtName,
+                                         Integer[] cityIDs,
+                                         Integer operatorID) throws SQLException, RemoteException;
+
     /**
      * Aggiunge nuovi dati meteorologici al sistema.
      *
      * @param cityID L'ID della città a cui si riferiscono i dati meteorologici.
      * @param centerID L'ID del centro di monitoraggio che ha raccolto i dati.
-     * @param date La data di raccolta dei dati nel formato "yyyy-MM-dd".
+     * @param date La data di raccolta dei dati.
      * @param wind I dati relativi al vento.
      * @param humidity I dati relativi all'umidità.
      * @param pressure I dati relativi alla pressione atmosferica.
@@ -88,7 +125,7 @@ public interface DataHandlerInterface extends Remote {
      */
     void addNewWeather(Integer cityID,
                        Integer centerID,
-                       String date,
+                       LocalDate date,
                        RecordWeather.WeatherData wind,
                        RecordWeather.WeatherData humidity,
                        RecordWeather.WeatherData pressure,
@@ -97,6 +134,21 @@ public interface DataHandlerInterface extends Remote {
                        RecordWeather.WeatherData glacierElevation,
                        RecordWeather.WeatherData glacierMass) throws SQLException, RemoteException;
 
+    /**
+     * Aggiunge nuovi dati meteorologici al sistema, associandoli all'ID della richiesta del
+     * client che li ha inviati.
+     * <p>
+     *     Se per la stessa data è già presente una riga con lo stesso ID di richiesta, i dati
+     *     vengono considerati già inseriti: un invio ripetuto dopo un timeout non crea duplicati.
+     * </p>
+     *
+     * @param weather I dati meteorologici da aggiungere; l'ID viene ignorato.
+     * @param requestID L'ID della richiesta, oppure {@code null}.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    void addNewWeather(RecordWeather weather, UUID requestID) throws SQLException, RemoteException;
+
 
     /**
      * Aggiorna le informazioni di un operatore esistente nel sistema.
@@ -106,4 +158,20 @@ public interface DataHandlerInterface extends Remote {
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
      */
     void updateOperator(RecordOperator operator) throws SQLException, RemoteException;
+
+    /**
+     * Associa un centro di monitoraggio a un operatore che non è ancora associato ad alcun centro.
+     * <p>
+     *     La verifica e l'aggiornamento avvengono nella stessa istruzione sul database,
+     *     così che due richieste concorrenti non possano associare l'operatore a due centri.
+     * </p>
+     *
+     * @param operatorID L'ID dell'operatore.
+     * @param centerID L'ID del centro di monitoraggio da associare.
+     * @return {@code true} se l'operatore è stato associato, {@code false} se non esiste
+     *         o è già associato a un centro.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    boolean associateOperatorCenter(Integer operatorID, Integer centerID) throws SQLException, RemoteException;
 }
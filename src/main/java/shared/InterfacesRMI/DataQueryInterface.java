@@ -5,11 +5,13 @@ import shared.record.RecordCity;
 import shared.record.RecordOperator;
 import shared.record.RecordWeather;
 import shared.record.QueryCondition;
+import shared.record.WeatherChanges;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -44,6 +46,17 @@ public interface DataQueryInterface extends Remote {
      */
     RecordCity getCityBy(Integer ID) throws SQLException, RemoteException;
 
+    /**
+     * Ottiene i dettagli di più città in base ai loro ID, con un'unica interrogazione.
+     *
+     * @param ids Gli ID delle città.
+     * @return Un array allineato a {@code ids}: l'elemento in posizione {@code i} è la città
+     *         con ID {@code ids[i]}, oppure {@code null} se la città non esiste.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    RecordCity[] getCitiesByIds(Integer[] ids) throws SQLException, RemoteException;
+
     /**
      * Ottiene un array di città che soddisfano le condizioni specificate.
      *
@@ -123,6 +136,58 @@ public interface DataQueryInterface extends Remote {
      */
     RecordWeather[] getWeatherBy(List<QueryCondition> conditions) throws SQLException, RemoteException;
 
+    /**
+     * Ottiene i dati meteorologici di una città confermati nel database dopo la lettura
+     * che ha restituito il cursore specificato.
+     * <p>
+     *     Il cursore segue l'ordine di conferma delle scritture e non quello degli ID, che
+     *     vengono assegnati all'inserimento: un record con ID più basso confermato dopo la
+     *     lettura precedente viene quindi restituito. Per tenere conto delle transazioni
+     *     ancora in corso, del ritardo delle repliche e della differenza tra gli orologi
+     *     degli shard, la lettura riparte da un intervallo prima del cursore e può
+     *     restituire record già ricevuti. Sono restituiti solo i dati ancora presenti nel
+     *     database, esclusi quelli già spostati nell'archivio.
+     * </p>
+     *
+     * @param cityID L'ID della città.
+     * @param cursor Il cursore restituito dalla lettura precedente o da
+     *               {@link #getWeatherCursor()}, oppure {@code null} per ottenere tutti i dati.
+     * @return I nuovi record meteorologici della città e il cursore da cui riprendere.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    WeatherChanges getWeatherSince(Integer cityID, Instant cursor) throws SQLException, RemoteException;
+
+    /**
+     * Restituisce il cursore corrente delle letture incrementali, da ottenere prima di un
+     * caricamento completo dei dati di una città per riprendere poi con
+     * {@link #getWeatherSince(Integer, Instant)}.
+     *
+     * @return Il cursore corrente.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    Instant getWeatherCursor() throws SQLException, RemoteException;
+
+    /**
+     * Ottiene un array di dati meteorologici relativi alle città del paese specificato.
+     *
+     * @param countryCode Il codice del paese.
+     * @return Un array di record meteorologici delle città del paese.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    RecordWeather[] getWeatherByCountry(String countryCode) throws SQLException, RemoteException;
+
+    /**
+     * Ottiene un array di tutti i dati meteorologici presenti nel sistema.
+     *
+     * @return Un array di tutti i record meteorologici.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    RecordWeather[] getWeathers() throws SQLException, RemoteException;
+
     /**
      * Restituisce la connessione al database.
      *
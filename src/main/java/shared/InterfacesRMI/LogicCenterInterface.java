@@ -1,10 +1,12 @@
 package shared.interfacesRMI;
 
 import shared.record.RecordCenter;
+import shared.record.RecordOperator;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.sql.SQLException;
+import java.time.LocalDate;
 
 /**
  * L'interfaccia {@code LogicCenterInterface} è un'interfaccia remota che permette di definire i metodi che possono
@@ -35,11 +37,12 @@ public interface LogicCenterInterface extends Remote {
      * @param townName     Il nome della città in cui si trova il centro.
      * @param districtName Il nome della provincia in cui si trova il centro.
      * @param cityIDs      Un array di ID delle città associate al centro.
-     * @param operatorID   L'ID dell'operatore associato al centro.
+     * @param sessionToken Il token della sessione dell'operatore da associare al centro.
+     * @return L'operatore aggiornato con l'ID del nuovo centro.
      * @throws SQLException    Se si verifica un errore durante l'interazione con il database.
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
      */
-    void initNewCenter(
+    RecordOperator initNewCenter(
             String centerName,
             String streetName,
             String streetNumber,
@@ -47,14 +50,14 @@ public interface LogicCenterInterface extends Remote {
             String townName,
             String districtName,
             Integer[] cityIDs,
-            Integer operatorID) throws SQLException, RemoteException;
+            String sessionToken) throws SQLException, RemoteException;
 
     /**
      * Aggiunge dati meteorologici a un centro di monitoraggio specifico.
      *
      * @param cityID     L'ID della città a cui i dati meteorologici si riferiscono.
-     * @param operatorID L'ID dell'operatore che aggiunge i dati.
-     * @param date       La data in cui i dati sono stati rilevati, in formato "yyyy-MM-dd".
+     * @param sessionToken Il token della sessione dell'operatore che aggiunge i dati.
+     * @param date       La data in cui i dati sono stati rilevati.
      * @param tableData  I dati meteorologici organizzati in una tabella.
      *                   Ogni riga rappresenta un parametro meteorologico e contiene due valori:
      *                   un intero per il punteggio e una stringa per eventuali commenti.
@@ -63,7 +66,31 @@ public interface LogicCenterInterface extends Remote {
      */
     void addDataToCenter(
             Integer cityID,
-            Integer operatorID,
-            String date,
+            String sessionToken,
+            LocalDate date,
             Object[][] tableData) throws SQLException, RemoteException;
+
+    /**
+     * Aggiunge dati meteorologici a un centro di monitoraggio specifico, identificando
+     * l'invio con un ID generato dal client.
+     * <p>
+     * Il server usa l'ID per evitare che un invio ripetuto con lo stesso ID, ad esempio
+     * dopo un errore di comunicazione, produca righe duplicate.
+     * </p>
+     *
+     * @param cityID       L'ID della città a cui i dati meteorologici si riferiscono.
+     * @param sessionToken Il token della sessione dell'operatore che aggiunge i dati.
+     * @param date         La data in cui i dati sono stati rilevati.
+     * @param tableData    I dati meteorologici organizzati in una tabella.
+     * @param requestID    L'ID dell'invio, in formato UUID, oppure {@code null} per
+     *                     generarne uno sul server.
+     * @throws SQLException    Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    void addDataToCenter(
+            Integer cityID,
+            String sessionToken,
+            LocalDate date,
+            Object[][] tableData,
+            String requestID) throws SQLException, RemoteException;
 }
@@ -5,15 +5,16 @@ import shared.record.RecordWeather;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.sql.SQLException;
 
 /**
  * L'interfaccia remota {@code LogicCityInterface} è utilizzata per esporre i metodi
  * che permettono di ottenere i dati relativi alle città, in particolare i dati
  * metereologici.
  * <p>
- *     Questa interfaccia estende l'interfaccia {@link Remote} e dichiara un solo metodo
- *     {@link #getWeatherTableData(RecordWeather[])} che permette di ottenere i dati
- *     metereologici di una città.
+ *     Questa interfaccia estende l'interfaccia {@link Remote} e dichiara i metodi
+ *     che permettono di ottenere i dati metereologici aggregati di una città, di un
+ *     centro di monitoraggio, di un paese o dell'intero sistema.
  * </p>
  *
  * @see Remote
@@ -39,4 +40,65 @@ public interface LogicCityInterface extends Remote {
      * @throws IllegalArgumentException Se l'array di record meteorologici è nullo o vuoto.
      */
     LogicCityImp.WeatherTableData getWeatherTableData(RecordWeather[] weatherRecords) throws RemoteException;
+
+    /**
+     * Calcola e restituisce i dati tabellari aggregati di una città.
+     *
+     * @param cityID L'ID della città.
+     * @return Un oggetto {@link LogicCityImp.WeatherTableData} con i dati aggregati della città.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    LogicCityImp.WeatherTableData getCityWeatherTableData(Integer cityID) throws SQLException, RemoteException;
+
+    /**
+     * Calcola e restituisce i dati tabellari aggregati di tutte le città di un centro di monitoraggio.
+     *
+     * @param centerID L'ID del centro di monitoraggio.
+     * @return Un oggetto {@link LogicCityImp.WeatherTableData} con i dati aggregati del centro.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    LogicCityImp.WeatherTableData getCenterWeatherTableData(Integer centerID) throws SQLException, RemoteException;
+
+    /**
+     * Calcola e restituisce i dati tabellari aggregati di tutte le città di un paese.
+     *
+     * @param countryCode Il codice del paese.
+     * @return Un oggetto {@link LogicCityImp.WeatherTableData} con i dati aggregati del paese.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    LogicCityImp.WeatherTableData getCountryWeatherTableData(String countryCode) throws SQLException, RemoteException;
+
+    /**
+     * Calcola e restituisce i dati tabellari aggregati di tutti i dati meteorologici del sistema.
+     *
+     * @return Un oggetto {@link LogicCityImp.WeatherTableData} con i dati aggregati globali.
+     * @throws SQLException Se si verifica un errore durante l'interazione con il database.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    LogicCityImp.WeatherTableData getGlobalWeatherTableData() throws SQLException, RemoteException;
+
+    /**
+     * Iscrive un client ai nuovi parametri climatici delle città e dei centri di
+     * monitoraggio specificati, sostituendo un'eventuale iscrizione precedente dello
+     * stesso client.
+     *
+     * @param listener  L'oggetto esportato dal client che riceve gli eventi.
+     * @param cityIDs   Gli ID delle città di interesse, oppure {@code null}.
+     * @param centerIDs Gli ID dei centri di monitoraggio di interesse, oppure {@code null}.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     * @throws IllegalArgumentException Se non è specificata né una città né un centro.
+     * @throws IllegalStateException Se il server non gestisce le iscrizioni.
+     */
+    void subscribe(WeatherListener listener, Integer[] cityIDs, Integer[] centerIDs) throws RemoteException;
+
+    /**
+     * Annulla l'iscrizione di un client; se il client non è iscritto, il metodo non ha effetto.
+     *
+     * @param listener L'oggetto esportato dal client.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    void unsubscribe(WeatherListener listener) throws RemoteException;
 }
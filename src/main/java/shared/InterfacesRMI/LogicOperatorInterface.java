@@ -1,6 +1,7 @@
 package shared.interfacesRMI;
 
 import shared.record.RecordOperator;
+import shared.record.RecordSession;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
@@ -16,6 +17,7 @@ import java.sql.SQLException;
  *
  * @see Remote
  * @see RecordOperator
+ * @see RecordSession
  *
  * @author Andrea Tettamanti
  * @author Luca Mascetti
@@ -25,16 +27,18 @@ import java.sql.SQLException;
  */
 public interface LogicOperatorInterface extends Remote {
     /**
-     * Esegue il login di un operatore verificando le credenziali fornite.
+     * Esegue il login di un operatore verificando le credenziali fornite e apre una
+     * sessione sul server.
      *
      * @param username Il nome utente dell'operatore.
      * @param password La password dell'operatore.
-     * @return Un oggetto {@link RecordOperator} contenente i dettagli dell'operatore se il login ha successo.
+     * @return Un oggetto {@link RecordSession} contenente il token della sessione e i dettagli
+     *         dell'operatore se il login ha successo, {@code null} altrimenti.
      * @throws SQLException Se si verifica un errore durante l'interazione con il database.
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
      * @throws IllegalArgumentException Se il nome utente o la password sono nulli o vuoti.
      */
-    RecordOperator performLogin(String username, String password) throws SQLException, RemoteException;
+    RecordSession performLogin(String username, String password) throws SQLException, RemoteException;
 
     /**
      * Registra un nuovo operatore con le informazioni fornite.
@@ -57,14 +61,35 @@ public interface LogicOperatorInterface extends Remote {
                              Integer centerID) throws SQLException, RemoteException;
 
     /**
-     * Associa un operatore a un centro di monitoraggio specifico.
+     * Associa l'operatore della sessione a un centro di monitoraggio specifico.
      *
-     * @param operatorID L'ID dell'operatore da associare.
+     * @param sessionToken Il token della sessione dell'operatore da associare.
      * @param centerID L'ID del centro di monitoraggio al quale associare l'operatore.
      * @return Un oggetto {@link RecordOperator} aggiornato con l'ID del centro associato.
      * @throws SQLException Se si verifica un errore durante l'interazione con il database.
      * @throws RemoteException Se si verifica un errore di comunicazione RMI.
-     * @throws IllegalArgumentException Se uno degli ID forniti è nullo o non valido.
+     * @throws IllegalStateException Se la sessione non è valida o l'operatore è già associato a un centro.
      */
-    RecordOperator associateCenter(Integer operatorID, Integer centerID) throws SQLException, RemoteException;
+    RecordOperator associateCenter(String sessionToken, Integer centerID) throws SQLException, RemoteException;
+
+    /**
+     * Chiude la sessione dell'operatore. Un token non valido o già chiuso viene ignorato.
+     *
+     * @param sessionToken Il token della sessione da chiudere.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    void logout(String sessionToken) throws RemoteException;
+
+    /**
+     * Restituisce un'interfaccia per le query sui dati che esegue le letture per conto della
+     * sessione, sullo stesso server che l'ha aperta. Dopo una scrittura dell'operatore, le
+     * letture eseguite tramite questa interfaccia vedono subito i dati scritti anche se il
+     * server distribuisce le letture tra repliche del database.
+     *
+     * @param sessionToken Il token della sessione.
+     * @return L'interfaccia per le query della sessione.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     * @throws IllegalStateException Se la sessione non è valida o è scaduta.
+     */
+    DataQueryInterface openReadSession(String sessionToken) throws RemoteException;
 }
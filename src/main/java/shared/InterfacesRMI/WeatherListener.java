@@ -0,0 +1,41 @@
+package shared.interfacesRMI;
+
+import shared.record.RecordWeather;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * L'interfaccia remota {@code WeatherListener} è implementata dai client che vogliono
+ * ricevere dal server i nuovi parametri climatici delle città o dei centri di
+ * monitoraggio a cui si sono iscritti.
+ * <p>
+ *     Il client esporta un oggetto che implementa questa interfaccia e lo registra con
+ *     {@link LogicCityInterface#subscribe(WeatherListener, Integer[], Integer[])}; il
+ *     server lo invoca ogni volta che vengono inseriti nuovi parametri climatici.
+ * </p>
+ *
+ * @see Remote
+ * @see LogicCityInterface
+ * @see RecordWeather
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public interface WeatherListener extends Remote {
+
+    /**
+     * Riceve i parametri climatici inseriti, nell'ordine di inserimento.
+     * <p>
+     *     Il metodo dovrebbe terminare rapidamente: i client che non ricevono gli eventi
+     *     abbastanza velocemente vengono rimossi dalle iscrizioni.
+     * </p>
+     *
+     * @param weathers I parametri climatici inseriti, con il loro ID.
+     * @throws RemoteException Se si verifica un errore di comunicazione RMI.
+     */
+    void weatherAdded(RecordWeather[] weathers) throws RemoteException;
+}
@@ -0,0 +1,70 @@
+package shared.record;
+
+import java.io.Serializable;
+
+/**
+ * Il record {@code InsertResult} rappresenta l'esito di un inserimento nel database.
+ * <p>
+ * Se l'inserimento è avvenuto, {@link #record()} contiene il record creato e
+ * {@link #duplicate()} vale {@link Duplicate#NONE}; altrimenti {@link #record()} è
+ * {@code null} e {@link #duplicate()} indica il vincolo di unicità violato.
+ * </p>
+ *
+ * @param record    Il record inserito, {@code null} in caso di duplicato.
+ * @param duplicate Il vincolo di unicità violato.
+ * @param <T>       Il tipo del record inserito.
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public record InsertResult<T>(T record, Duplicate duplicate) implements Serializable {
+
+    /**
+     * I vincoli di unicità che possono impedire un inserimento.
+     */
+    public enum Duplicate {
+        /** Nessun duplicato: il record è stato inserito. */
+        NONE,
+        /** Esiste già un operatore con lo stesso username. */
+        USERNAME,
+        /** Esiste già un operatore con la stessa email. */
+        EMAIL,
+        /** Esiste già un operatore con lo stesso codice fiscale. */
+        TAX_CODE,
+        /** Esiste già un centro con lo stesso nome e indirizzo. */
+        CENTER
+    }
+
+    /**
+     * Crea l'esito di un inserimento avvenuto con successo.
+     *
+     * @param record Il record inserito.
+     * @param <T>    Il tipo del record.
+     * @return L'esito dell'inserimento.
+     */
+    public static <T> InsertResult<T> created(T record) {
+        return new InsertResult<>(record, Duplicate.NONE);
+    }
+
+    /**
+     * Crea l'esito di un inserimento non avvenuto a causa di un duplicato.
+     *
+     * @param duplicate Il vincolo di unicità violato.
+     * @param <T>       Il tipo del record.
+     * @return L'esito dell'inserimento.
+     */
+    public static <T> InsertResult<T> duplicateOf(Duplicate duplicate) {
+        return new InsertResult<>(null, duplicate);
+    }
+
+    /**
+     * Verifica se l'inserimento è fallito a causa di un duplicato.
+     *
+     * @return {@code true} se il record non è stato inserito, {@code false} altrimenti.
+     */
+    public boolean isDuplicate() {
+        return duplicate != Duplicate.NONE;
+    }
+}
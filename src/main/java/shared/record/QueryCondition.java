@@ -4,10 +4,119 @@ import java.io.Serializable;
 
 /**
  * Il record {@link QueryCondition} rappresenta una condizione di query.
+ * <p>
+ * Ogni condizione confronta una colonna con uno o più valori tramite un {@link Operator}.
+ * Il costruttore a due argomenti crea una condizione di uguaglianza; gli altri operatori
+ * si ottengono con i metodi statici di creazione.
+ * </p>
  *
  * @param key il parametro su cui fare la query
- * @param value il valore da confrontare
+ * @param operator l'operatore di confronto
+ * @param value il valore da confrontare (l'estremo inferiore per {@link Operator#BETWEEN},
+ *              un array di valori per {@link Operator#IN})
+ * @param upperValue l'estremo superiore per {@link Operator#BETWEEN}, altrimenti {@code null}
  */
-public record QueryCondition(String key, Object value) implements Serializable {
+public record QueryCondition(String key, Operator operator, Object value, Object upperValue) implements Serializable {
 
-}
\ No newline at end of file
+    /**
+     * Gli operatori di confronto disponibili.
+     */
+    public enum Operator {
+        /** {@code key = value} */
+        EQUALS,
+        /** {@code key < value} */
+        LESS_THAN,
+        /** {@code key <= value} */
+        LESS_OR_EQUAL,
+        /** {@code key > value} */
+        GREATER_THAN,
+        /** {@code key >= value} */
+        GREATER_OR_EQUAL,
+        /** {@code key >= value AND key <= upperValue} */
+        BETWEEN,
+        /** {@code key IN (value[0], value[1], ...)} */
+        IN,
+        /** {@code key LIKE 'value%'} */
+        STARTS_WITH,
+        /** {@code key IS NULL} */
+        IS_NULL,
+        /** {@code key IS NOT NULL} */
+        IS_NOT_NULL
+    }
+
+    /**
+     * Crea una condizione di uguaglianza.
+     *
+     * @param key il parametro su cui fare la query
+     * @param value il valore da confrontare
+     */
+    public QueryCondition(String key, Object value) {
+        this(key, Operator.EQUALS, value, null);
+    }
+
+    /**
+     * Crea una condizione con l'operatore e il valore specificati.
+     *
+     * @param key il parametro su cui fare la query
+     * @param operator l'operatore di confronto
+     * @param value il valore da confrontare
+     * @return la condizione creata
+     */
+    public static QueryCondition of(String key, Operator operator, Object value) {
+        return new QueryCondition(key, operator, value, null);
+    }
+
+    /**
+     * Crea una condizione di intervallo, estremi inclusi.
+     *
+     * @param key il parametro su cui fare la query
+     * @param from l'estremo inferiore
+     * @param to l'estremo superiore
+     * @return la condizione creata
+     */
+    public static QueryCondition between(String key, Object from, Object to) {
+        return new QueryCondition(key, Operator.BETWEEN, from, to);
+    }
+
+    /**
+     * Crea una condizione di appartenenza a un insieme di valori.
+     *
+     * @param key il parametro su cui fare la query
+     * @param values i valori ammessi
+     * @return la condizione creata
+     */
+    public static QueryCondition in(String key, Object... values) {
+        return new QueryCondition(key, Operator.IN, values, null);
+    }
+
+    /**
+     * Crea una condizione di corrispondenza per prefisso.
+     *
+     * @param key il parametro su cui fare la query
+     * @param prefix il prefisso da cercare
+     * @return la condizione creata
+     */
+    public static QueryCondition startsWith(String key, String prefix) {
+        return new QueryCondition(key, Operator.STARTS_WITH, prefix, null);
+    }
+
+    /**
+     * Crea una condizione che richiede un valore nullo.
+     *
+     * @param key il parametro su cui fare la query
+     * @return la condizione creata
+     */
+    public static QueryCondition isNull(String key) {
+        return new QueryCondition(key, Operator.IS_NULL, null, null);
+    }
+
+    /**
+     * Crea una condizione che richiede un valore non nullo.
+     *
+     * @param key il parametro su cui fare la query
+     * @return la condizione creata
+     */
+    public static QueryCondition isNotNull(String key) {
+        return new QueryCondition(key, Operator.IS_NOT_NULL, null, null);
+    }
+}
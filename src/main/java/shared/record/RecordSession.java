@@ -0,0 +1,25 @@
+package shared.record;
+
+import java.io.Serializable;
+
+/**
+ * Il record {@code RecordSession} rappresenta la sessione aperta da un operatore
+ * al momento del login.
+ * <p>
+ * Il token identifica la sessione mantenuta dal server e deve essere inviato con
+ * ogni operazione di scrittura al posto dell'ID dell'operatore.
+ * </p>
+ *
+ * @param token    Il token della sessione.
+ * @param operator L'operatore autenticato.
+ *
+ * @see RecordOperator
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public record RecordSession(String token, RecordOperator operator) implements Serializable {
+
+}
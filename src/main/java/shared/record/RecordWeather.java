@@ -1,8 +1,10 @@
 package shared.record;
 
 import shared.utils.Constants;
+import shared.utils.Functions;
 
 import java.io.Serializable;
+import java.time.LocalDate;
 
 /**
  * La classe {@code RecordWeather} rappresenta dati meteorologici registrati in
@@ -39,6 +41,7 @@ import java.io.Serializable;
  * @param glacierMass      I dati relativi alla massa del ghiaccio.
  * 
  * @see WeatherData
+ * @see Functions
  * 
  * @author Andrea Tettamanti
  * @author Luca Mascetti
@@ -49,7 +52,7 @@ public record RecordWeather(
         Integer ID,
         Integer cityID,
         Integer centerID,
-        String date,
+        LocalDate date,
         WeatherData wind,
         WeatherData humidity,
         WeatherData pressure,
@@ -73,7 +76,7 @@ public record RecordWeather(
                 ID.toString(),
                 cityID.toString(),
                 centerID.toString(),
-                date,
+                Functions.formatDate(date),
                 wind.toString(),
                 humidity.toString(),
                 pressure.toString(),
@@ -118,7 +121,7 @@ public record RecordWeather(
      * @return La data di rilevazione dei dati meteorologici.
      */
     @Override
-    public String date() {
+    public LocalDate date() {
         return date;
     }
 
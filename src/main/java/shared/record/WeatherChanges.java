@@ -0,0 +1,28 @@
+package shared.record;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Il record {@code WeatherChanges} rappresenta il risultato di una lettura incrementale
+ * dei parametri climatici di una città.
+ * <p>
+ * Il cursore va inviato alla lettura successiva, che restituirà i parametri climatici
+ * confermati nel database dopo la lettura corrente. Lo stesso record può essere
+ * restituito da più letture: il client deve ignorare quelli già ricevuti tramite l'ID.
+ * </p>
+ *
+ * @param weathers I parametri climatici letti, in ordine di ID.
+ * @param cursor   Il cursore da cui riprendere la lettura successiva.
+ *
+ * @see RecordWeather
+ *
+ * @author Andrea Tettamanti
+ * @author Luca Mascetti
+ * @author Manuel Morlin
+ * @version 1.0
+ * @since 14/08/2024
+ */
+public record WeatherChanges(RecordWeather[] weathers, Instant cursor) implements Serializable {
+
+}
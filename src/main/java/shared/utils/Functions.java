@@ -2,11 +2,11 @@ package shared.utils;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.util.Date;
+import java.time.format.ResolverStyle;
 
 /**
  * La classe {@code Functions} fornisce una serie di funzioni di utilit&agrave;
@@ -29,6 +29,21 @@ public class Functions {
      */
     public static final String datePattern = "dd/MM/yyyy";
 
+    /**
+     * Il formattatore delle date nel formato predefinito.
+     * <p>
+     * I formattatori sono immutabili e thread-safe, quindi vengono creati una sola volta.
+     * La risoluzione rigorosa rifiuta date inesistenti come il 31/02.
+     * </p>
+     */
+    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/uuuu")
+            .withResolverStyle(ResolverStyle.STRICT);
+
+    /**
+     * Il formattatore di orario e data nel formato "HH:mm:ss dd/MM/yyyy".
+     */
+    private static final DateTimeFormatter TIME_DATE_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss dd/MM/uuuu");
+
     /**
      * Restituisce una stringa rappresentante la data corrente nel formato
      * predefinito.
@@ -36,10 +51,34 @@ public class Functions {
      * @return Una stringa contenente la data corrente nel formato "dd/MM/yyyy".
      */
     public static String getCurrentDateString() {
-        LocalDate currentDate = LocalDate.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(datePattern);
+        return formatDate(LocalDate.now());
+    }
+
+    /**
+     * Converte una stringa nel formato predefinito in una data.
+     *
+     * @param dateString La stringa che rappresenta la data.
+     * @return La data, o {@code null} se la stringa non &egrave; una data valida.
+     */
+    public static LocalDate parseDate(String dateString) {
+        if (dateString == null) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(dateString.trim(), DATE_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
 
-        return currentDate.format(formatter);
+    /**
+     * Converte una data in una stringa nel formato predefinito.
+     *
+     * @param date La data da convertire.
+     * @return La stringa nel formato "dd/MM/yyyy".
+     */
+    public static String formatDate(LocalDate date) {
+        return DATE_FORMATTER.format(date);
     }
 
     /**
@@ -53,14 +92,18 @@ public class Functions {
      *         altrimenti false.
      */
     public static boolean isDateValid(String dateString) {
-        try {
-            DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern(datePattern);
-            LocalDate date = LocalDate.parse(dateString, dateFormatter);
+        return isDateValid(parseDate(dateString));
+    }
 
-            return !date.isAfter(LocalDate.now());
-        } catch (DateTimeParseException e) {
-            return false;
-        }
+    /**
+     * Verifica se una data &egrave; presente e non &egrave; successiva alla data corrente.
+     *
+     * @param date La data da validare.
+     * @return true se la data non &egrave; nulla e non &egrave; successiva alla data
+     *         corrente, altrimenti false.
+     */
+    public static boolean isDateValid(LocalDate date) {
+        return date != null && !date.isAfter(LocalDate.now());
     }
 
     /**
@@ -71,8 +114,7 @@ public class Functions {
      *         "HH:mm:ss dd/MM/yyyy".
      */
     public static String getCurrentTimeDateString() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss dd/MM/yyyy");
-        return dateFormat.format(new Date());
+        return TIME_DATE_FORMATTER.format(LocalDateTime.now());
     }
 
     /**
@@ -88,15 +130,5 @@ public class Functions {
         return new String(byteString, charset);
     }
 
-    /**
-     * Converte un valore intero in un valore nullo se il valore &egrave; 0.
-     * @param value Il valore da convertire.
-     * @return {@code null} se il valore &egrave; 0, altrimenti il valore stesso.
-     */
-    public static Integer zeroToNull(Integer value) {
-        return value == 0 ? null : value;
-    }
-
-
 
 }
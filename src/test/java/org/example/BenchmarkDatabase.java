@@ -0,0 +1,48 @@
+package org.example;
+
+import server.DataBaseManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Le connessioni al database usate dai benchmark che richiedono PostgreSQL. L'host e la
+ * password vengono letti dalle proprietà di sistema {@code benchmark.host} e
+ * {@code benchmark.password} e passati alle JVM create da JMH con {@link #jvmArgs()}.
+ */
+public final class BenchmarkDatabase {
+
+    private static final String HOST = "benchmark.host";
+
+    private static final String PASSWORD = "benchmark.password";
+
+    private BenchmarkDatabase() {
+    }
+
+    private static String property(String name) {
+        String value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalStateException("Specificare il database con -D" + HOST + "=<host[:porta]> -D" + PASSWORD + "=<password>");
+        }
+        return value;
+    }
+
+    public static Connection connect() throws SQLException {
+        return DataBaseManager.connect(property(HOST), property(PASSWORD));
+    }
+
+    public static Connection connect(String schema) throws SQLException {
+        Connection conn = connect();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET search_path TO " + schema);
+        }
+        return conn;
+    }
+
+    public static String[] jvmArgs() {
+        // I metodi dei DAO avviano il timer di inattività del server, che terrebbe aperta la JVM.
+        return new String[]{"-D" + HOST + "=" + property(HOST), "-D" + PASSWORD + "=" + property(PASSWORD),
+                "-Djmh.shutdownTimeout=0"};
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+import server.BloomFilter;
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("operatore" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("operatore" + i));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRateNearTarget() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("utente" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("assente" + i)) {
+                falsePositives++;
+            }
+        }
+        // Margine ampio rispetto all'1% atteso, per non dipendere dalla funzione di hash.
+        assertTrue(falsePositives < 3_000, "Falsi positivi: " + falsePositives);
+        assertTrue(filter.expectedFalsePositiveRate() > 0.001);
+        assertTrue(filter.expectedFalsePositiveRate() < 0.03);
+    }
+
+    @Test
+    public void testEmptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+
+        assertFalse(filter.mightContain("mario.rossi"));
+        assertEquals(0.0, filter.expectedFalsePositiveRate());
+    }
+
+    @Test
+    public void testConcurrentInsertions() throws InterruptedException {
+        BloomFilter filter = new BloomFilter(40_000, 0.01);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            executor.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    filter.put(thread + ":" + i);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 10_000; i++) {
+                assertTrue(filter.mightContain(t + ":" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 1));
+    }
+}
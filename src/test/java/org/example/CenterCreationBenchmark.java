@@ -0,0 +1,124 @@
+package org.example;
+
+import server.ImplementationRMI.DataHandlerImp;
+import server.ImplementationRMI.DataQueryImp;
+import shared.record.InsertResult;
+import shared.record.RecordCenter;
+import shared.record.RecordOperator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronta la creazione di un centro di monitoraggio per un operatore eseguita con tre
+ * chiamate separate (inserimento del centro, lettura e aggiornamento dell'operatore) con
+ * quella eseguita da {@link DataHandlerImp#addNewCenterForOperator} in un'unica istruzione.
+ * <p>
+ * Richiede un database popolato: avviare con
+ * {@code -Dbenchmark.host=<host[:porta]> -Dbenchmark.password=<password>}. Ogni
+ * invocazione registra un nuovo operatore, quindi il benchmark lascia nel database gli
+ * operatori e i centri creati, riconoscibili dal prefisso {@code bench}.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CenterCreationBenchmark {
+
+    private Connection conn;
+
+    private DataQueryImp dataQuery;
+
+    private DataHandlerImp dataHandler;
+
+    private Integer[] cityIDs;
+
+    private String prefix;
+
+    private long sequence;
+
+    private long taxCodeBase;
+
+    private RecordOperator operator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        conn = BenchmarkDatabase.connect();
+        dataQuery = new DataQueryImp(conn);
+        dataHandler = new DataHandlerImp(dataQuery);
+
+        List<Integer> ids = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id FROM coordinatemonitoraggio ORDER BY id LIMIT 5")) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        }
+        if (ids.isEmpty()) {
+            throw new IllegalStateException("La tabella coordinatemonitoraggio è vuota.");
+        }
+        cityIDs = ids.toArray(new Integer[0]);
+        long now = System.currentTimeMillis();
+        prefix = "bench" + Long.toString(now, 36);
+        taxCodeBase = (now % 1_000_000_000L) * 1_000_000L;
+    }
+
+    @Setup(Level.Invocation)
+    public void newOperator() throws Exception {
+        long n = sequence++;
+        String id = prefix + n;
+        String taxCode = String.format("B%015d", taxCodeBase + n);
+        InsertResult<RecordOperator> result = dataHandler.addNewOperator("Operatore " + id, taxCode,
+                id + "@benchmark.local", id, "password", null);
+        if (result.record() == null) {
+            throw new IllegalStateException("Operatore non creato: " + result.duplicate());
+        }
+        operator = result.record();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        UnicastRemoteObject.unexportObject(dataHandler, true);
+        dataQuery.closeStatements();
+        UnicastRemoteObject.unexportObject(dataQuery, true);
+        conn.close();
+    }
+
+    @Benchmark
+    public RecordOperator sequential() throws Exception {
+        String name = "Centro " + operator.username();
+        InsertResult<RecordCenter> center = dataHandler.addNewCenter(name, "Via Roma", "1", "20100",
+                "Milano", "MI", cityIDs);
+        RecordOperator current = dataQuery.getOperatorBy(operator.ID());
+        RecordOperator updated = new RecordOperator(current.ID(), current.nameSurname(), current.taxCode(),
+                current.email(), current.username(), current.password(), center.record().ID());
+        dataHandler.updateOperator(updated);
+        return updated;
+    }
+
+    @Benchmark
+    public InsertResult<RecordCenter> singleStatement() throws Exception {
+        String name = "Centro " + operator.username();
+        return dataHandler.addNewCenterForOperator(name, "Via Roma", "1", "20100",
+                "Milano", "MI", cityIDs, operator.ID());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CenterCreationBenchmark.class.getSimpleName())
+                .jvmArgsAppend(BenchmarkDatabase.jvmArgs())
+                .build()).run();
+    }
+}
@@ -0,0 +1,109 @@
+package org.example;
+
+import server.CityCatalog;
+import shared.record.RecordCity;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CityCatalogTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<RecordCity> cities = new ArrayList<>();
+
+    private FakeConnection fake;
+
+    @BeforeEach
+    public void setUp() {
+        cities.add(new RecordCity(3, "Milano", "Milano", "IT", "Italia", 45.46, 9.19));
+        cities.add(new RecordCity(7, "Zürich", "Zurich", "CH", "Svizzera", 47.37, 8.54));
+        cities.add(new RecordCity(9, "Milazzo", "Milazzo", "IT", "Italia", 38.22, 15.24));
+        cities.add(new RecordCity(12, "Milano Marittima", "Milano Marittima", "IT", "Italia", 44.27, 12.35));
+        cities.add(new RecordCity(15, "Milano", "Milano", "US", "Stati Uniti", 30.70, -96.87));
+
+        fake = new FakeConnection()
+                .onQuery("count(*)", params -> {
+                    List<Object[]> rows = new ArrayList<>();
+                    rows.add(new Object[]{cities.size(), cities.get(cities.size() - 1).ID()});
+                    return rows;
+                })
+                .onQuery("ORDER BY id", params -> {
+                    List<Object[]> rows = new ArrayList<>();
+                    for (RecordCity city : cities) {
+                        rows.add(new Object[]{city.ID(), city.name(), city.ASCIIName(), city.countryCode(),
+                                city.countryName(), city.latitude(), city.longitude()});
+                    }
+                    return rows;
+                });
+    }
+
+    private static List<Integer> ids(RecordCity[] cities) {
+        return Arrays.stream(cities).map(RecordCity::ID).toList();
+    }
+
+    @Test
+    public void testLookupsByIdAndName() throws Exception {
+        CityCatalog catalog = CityCatalog.load(fake.connection(), directory.resolve("cities.bin"));
+
+        assertEquals(5, catalog.size());
+        assertEquals(cities.get(1), catalog.get(7));
+        assertNull(catalog.get(8));
+        assertNull(catalog.get(100));
+
+        assertEquals(List.of(3, 15), ids(catalog.byAsciiName("Milano")).stream().sorted().toList());
+        assertEquals(0, catalog.byAsciiName("Roma").length);
+        assertEquals(List.of("Milano", "Milano", "Milano Marittima", "Milazzo"),
+                Arrays.stream(catalog.byAsciiNamePrefix("Mil")).map(RecordCity::ASCIIName).toList());
+        assertEquals(0, catalog.byAsciiNamePrefix("Q").length);
+    }
+
+    @Test
+    public void testSnapshotIsReusedWhileTableIsUnchanged() throws Exception {
+        Path file = directory.resolve("cities.bin");
+        CityCatalog.load(fake.connection(), file);
+        fake.executed.clear();
+
+        CityCatalog catalog = CityCatalog.load(fake.connection(), file);
+
+        assertFalse(fake.ran("ORDER BY id"));
+        assertEquals(cities.get(0), catalog.get(3));
+    }
+
+    @Test
+    public void testSnapshotIsRebuiltWhenTableChanges() throws Exception {
+        Path file = directory.resolve("cities.bin");
+        CityCatalog.load(fake.connection(), file);
+        cities.add(new RecordCity(20, "Como", "Como", "IT", "Italia", 45.81, 9.08));
+        fake.executed.clear();
+
+        CityCatalog catalog = CityCatalog.load(fake.connection(), file);
+
+        assertTrue(fake.ran("ORDER BY id"));
+        assertEquals(6, catalog.size());
+        assertEquals("Como", catalog.get(20).name());
+    }
+
+    @Test
+    public void testCorruptedSnapshotIsRebuilt() throws Exception {
+        Path file = directory.resolve("cities.bin");
+        CityCatalog.load(fake.connection(), file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 0x55;
+        Files.write(file, bytes);
+        fake.executed.clear();
+
+        CityCatalog catalog = CityCatalog.load(fake.connection(), file);
+
+        assertTrue(fake.ran("ORDER BY id"));
+        assertEquals(cities.get(4), catalog.get(15));
+    }
+}
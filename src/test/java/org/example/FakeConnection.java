@@ -0,0 +1,234 @@
+package org.example;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Una connessione JDBC in memoria per i test: le query e gli aggiornamenti vengono risolti
+ * dai gestori registrati per un frammento del testo SQL, mentre quelli non previsti
+ * restituiscono un risultato vuoto.
+ */
+public class FakeConnection {
+
+    public interface QueryHandler {
+        List<Object[]> query(List<Object> params) throws SQLException;
+    }
+
+    public interface UpdateHandler {
+        int update(List<Object> params) throws SQLException;
+    }
+
+    private final Map<String, QueryHandler> queries = new LinkedHashMap<>();
+
+    private final Map<String, UpdateHandler> updates = new LinkedHashMap<>();
+
+    private final Map<String, List<String>> columns = new LinkedHashMap<>();
+
+    public final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    public int commits;
+
+    public int rollbacks;
+
+    private final Connection connection;
+
+    public FakeConnection() {
+        connection = proxy(Connection.class, (proxy, method, args) -> switch (method.getName()) {
+            case "prepareStatement" -> statement((String) args[0]);
+            case "createStatement" -> statement(null);
+            case "createArrayOf" -> array((Object[]) args[1]);
+            case "getAutoCommit", "isValid" -> true;
+            case "isClosed", "isReadOnly" -> false;
+            case "commit" -> {
+                commits++;
+                yield null;
+            }
+            case "rollback" -> {
+                rollbacks++;
+                yield null;
+            }
+            case "setAutoCommit", "setReadOnly", "close" -> null;
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> "FakeConnection";
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    public Connection connection() {
+        return connection;
+    }
+
+    public FakeConnection onQuery(String fragment, QueryHandler handler) {
+        queries.put(fragment, handler);
+        return this;
+    }
+
+    public FakeConnection onUpdate(String fragment, UpdateHandler handler) {
+        updates.put(fragment, handler);
+        return this;
+    }
+
+    public FakeConnection columns(String fragment, String... labels) {
+        columns.put(fragment, List.of(labels));
+        return this;
+    }
+
+    public boolean ran(String fragment) {
+        synchronized (executed) {
+            return executed.stream().anyMatch(sql -> sql.contains(fragment));
+        }
+    }
+
+    private List<Object[]> runQuery(String sql, List<Object> params) throws SQLException {
+        executed.add(sql);
+        for (Map.Entry<String, QueryHandler> entry : queries.entrySet()) {
+            if (sql.contains(entry.getKey())) {
+                return entry.getValue().query(params);
+            }
+        }
+        return List.of();
+    }
+
+    private int runUpdate(String sql, List<Object> params) throws SQLException {
+        executed.add(sql);
+        for (Map.Entry<String, UpdateHandler> entry : updates.entrySet()) {
+            if (sql.contains(entry.getKey())) {
+                return entry.getValue().update(params);
+            }
+        }
+        return 0;
+    }
+
+    private PreparedStatement statement(String prepared) {
+        TreeMap<Integer, Object> params = new TreeMap<>();
+        List<List<Object>> batch = new ArrayList<>();
+        return proxy(PreparedStatement.class, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                params.put(index, name.equals("setNull") ? null : args[1]);
+                return null;
+            }
+            return switch (name) {
+                case "executeQuery" -> {
+                    String sql = args == null ? prepared : (String) args[0];
+                    yield resultSet(sql, runQuery(sql, new ArrayList<>(params.values())));
+                }
+                case "executeUpdate" -> runUpdate(args == null ? prepared : (String) args[0], new ArrayList<>(params.values()));
+                case "execute" -> {
+                    runUpdate(args == null ? prepared : (String) args[0], new ArrayList<>(params.values()));
+                    yield false;
+                }
+                case "addBatch" -> {
+                    batch.add(new ArrayList<>(params.values()));
+                    yield null;
+                }
+                case "executeBatch" -> {
+                    int[] counts = new int[batch.size()];
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = runUpdate(prepared, batch.get(i));
+                    }
+                    batch.clear();
+                    yield counts;
+                }
+                case "clearParameters" -> {
+                    params.clear();
+                    yield null;
+                }
+                case "getConnection" -> connection;
+                case "close", "setFetchSize", "setQueryTimeout" -> null;
+                case "isClosed" -> false;
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                case "toString" -> "FakeStatement[" + prepared + "]";
+                default -> throw new UnsupportedOperationException(name);
+            };
+        });
+    }
+
+    private ResultSet resultSet(String sql, List<Object[]> rows) {
+        List<String> labels = labels(sql);
+        int[] cursor = {-1};
+        boolean[] wasNull = {false};
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("get") && args != null && args.length == 1) {
+                int index = args[0] instanceof Integer i ? i : labels.indexOf(((String) args[0]).toLowerCase(Locale.ROOT)) + 1;
+                Object value = rows.get(cursor[0])[index - 1];
+                wasNull[0] = value == null;
+                return switch (name) {
+                    case "getInt" -> value == null ? 0 : ((Number) value).intValue();
+                    case "getLong" -> value == null ? 0L : ((Number) value).longValue();
+                    case "getBoolean" -> value != null && (Boolean) value;
+                    case "getString" -> value == null ? null : value.toString();
+                    default -> value;
+                };
+            }
+            return switch (name) {
+                case "next" -> ++cursor[0] < rows.size();
+                case "findColumn" -> {
+                    int index = labels.indexOf(((String) args[0]).toLowerCase(Locale.ROOT));
+                    if (index < 0) {
+                        throw new SQLException("Colonna inesistente: " + args[0]);
+                    }
+                    yield index + 1;
+                }
+                case "wasNull" -> wasNull[0];
+                case "close", "setFetchSize" -> null;
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                case "toString" -> "FakeResultSet";
+                default -> throw new UnsupportedOperationException(name);
+            };
+        });
+    }
+
+    private List<String> labels(String sql) {
+        for (Map.Entry<String, List<String>> entry : columns.entrySet()) {
+            if (sql.contains(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        String lower = sql.toLowerCase(Locale.ROOT);
+        int select = lower.indexOf("select ");
+        int from = lower.indexOf(" from ");
+        if (select < 0 || from < select) {
+            return List.of();
+        }
+        List<String> labels = new ArrayList<>();
+        for (String column : lower.substring(select + 7, from).split(",")) {
+            String label = column.trim();
+            labels.add(label.substring(label.lastIndexOf('.') + 1));
+        }
+        return labels;
+    }
+
+    private static Array array(Object[] elements) {
+        Object[] copy = Arrays.copyOf(elements, elements.length);
+        return proxy(Array.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getArray" -> copy;
+            case "free" -> null;
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> Arrays.toString(copy);
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeConnection.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
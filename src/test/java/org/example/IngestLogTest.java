@@ -0,0 +1,198 @@
+package org.example;
+
+import server.IngestLog;
+import shared.record.RecordWeather;
+import shared.record.RecordWeather.WeatherData;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IngestLogTest {
+
+    @TempDir
+    Path directory;
+
+    // Dimensione di una voce senza commenti: intestazione, ID, città, centro, data e sette punteggi.
+    private static final int EMPTY_ENTRY_SIZE = 8 + 16 + 4 + 4 + 8 + 7 * 8;
+
+    private static final class RecordingSink implements IngestLog.Sink {
+
+        final List<UUID> written = Collections.synchronizedList(new ArrayList<>());
+
+        final Set<UUID> rejected;
+
+        final int acceptFirst;
+
+        RecordingSink(Set<UUID> rejected, int acceptFirst) {
+            this.rejected = rejected;
+            this.acceptFirst = acceptFirst;
+        }
+
+        @Override
+        public SQLException[] write(List<UUID> requestIDs, List<RecordWeather> weathers) {
+            SQLException[] failures = new SQLException[requestIDs.size()];
+            for (int i = 0; i < failures.length; i++) {
+                UUID id = requestIDs.get(i);
+                if (rejected.contains(id)) {
+                    failures[i] = new SQLException("valore non valido", "22003");
+                } else if (written.size() >= acceptFirst) {
+                    failures[i] = new SQLException("database non raggiungibile", "08006");
+                } else {
+                    written.add(id);
+                }
+            }
+            return failures;
+        }
+    }
+
+    private static IngestLog.Entry entry(int cityID, String comment) {
+        WeatherData empty = new WeatherData(null, null);
+        return new IngestLog.Entry(UUID.randomUUID(), new RecordWeather(null, cityID, 3, LocalDate.of(2024, 8, 14),
+                new WeatherData(cityID % 5 + 1, comment), empty, empty, empty, empty, empty, empty));
+    }
+
+    private static List<UUID> append(IngestLog log, List<IngestLog.Entry> entries) throws IOException {
+        List<UUID> ids = new ArrayList<>();
+        for (IngestLog.Entry entry : entries) {
+            log.appendDurably(entry);
+            ids.add(entry.requestID());
+        }
+        return ids;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condizione non raggiunta in tempo.");
+            Thread.sleep(20);
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".wal")).count();
+        }
+    }
+
+    @Test
+    public void testRecoveryIgnoresTornEntry() throws Exception {
+        List<UUID> expected = new ArrayList<>();
+        try (IngestLog log = IngestLog.open(directory)) {
+            expected.addAll(append(log, List.of(entry(1, null), entry(2, null), entry(3, null))));
+        }
+
+        // Una voce interrotta dall'arresto: lunghezza scritta, contenuto e CRC incompleti.
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(path -> path.toString().endsWith(".wal")).findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(12).putInt(EMPTY_ENTRY_SIZE - 8).putInt(0xBAD).putInt(42).flip();
+            channel.write(torn, 16 + 3L * EMPTY_ENTRY_SIZE);
+        }
+
+        RecordingSink sink = new RecordingSink(Set.of(), Integer.MAX_VALUE);
+        try (IngestLog log = IngestLog.open(directory)) {
+            expected.addAll(append(log, List.of(entry(4, null))));
+            log.start(sink);
+            await(() -> sink.written.size() == 4);
+            await(() -> log.getMetrics().pendingBytes() == 0);
+        }
+        assertEquals(expected, sink.written);
+    }
+
+    @Test
+    public void testRollAcrossSegments() throws Exception {
+        String comment = "x".repeat(IngestLog.SEGMENT_SIZE / 3);
+        RecordingSink sink = new RecordingSink(Set.of(), Integer.MAX_VALUE);
+        List<UUID> expected;
+        try (IngestLog log = IngestLog.open(directory)) {
+            List<IngestLog.Entry> entries = new ArrayList<>();
+            for (int city = 1; city <= 7; city++) {
+                entries.add(entry(city, comment));
+            }
+            expected = append(log, entries);
+            assertTrue(segmentCount() >= 3);
+
+            log.start(sink);
+            await(() -> sink.written.size() == expected.size());
+            await(() -> {
+                try {
+                    return segmentCount() == 1;
+                } catch (IOException e) {
+                    return false;
+                }
+            });
+        }
+        assertEquals(expected, sink.written);
+    }
+
+    @Test
+    public void testCheckpointResumesAfterLastWrittenEntry() throws Exception {
+        List<UUID> ids;
+        RecordingSink first = new RecordingSink(Set.of(), 2);
+        try (IngestLog log = IngestLog.open(directory)) {
+            ids = append(log, List.of(entry(1, "a"), entry(2, "b"), entry(3, "c"), entry(4, "d"), entry(5, "e")));
+            log.start(first);
+            await(() -> first.written.size() == 2);
+            // Lascia al thread il tempo di salvare il punto di ripresa dopo l'errore di connessione.
+            Thread.sleep(300);
+        }
+        assertEquals(ids.subList(0, 2), first.written);
+
+        RecordingSink second = new RecordingSink(Set.of(), Integer.MAX_VALUE);
+        try (IngestLog log = IngestLog.open(directory)) {
+            log.start(second);
+            await(() -> second.written.size() == 3);
+            Thread.sleep(300);
+        }
+        assertEquals(ids.subList(2, 5), second.written);
+
+        RecordingSink third = new RecordingSink(Set.of(), Integer.MAX_VALUE);
+        try (IngestLog log = IngestLog.open(directory)) {
+            log.start(third);
+            Thread.sleep(300);
+        }
+        assertTrue(third.written.isEmpty());
+    }
+
+    @Test
+    public void testRejectedEntriesMoveToDeadLetterFile() throws Exception {
+        IngestLog.Entry invalid = entry(2, "fuori scala");
+        RecordingSink sink = new RecordingSink(Set.of(invalid.requestID()), Integer.MAX_VALUE);
+        try (IngestLog log = IngestLog.open(directory)) {
+            append(log, List.of(entry(1, null), invalid, entry(3, null)));
+            log.start(sink);
+            await(() -> sink.written.size() == 2);
+            await(() -> log.getMetrics().pendingBytes() == 0);
+
+            IngestLog.Metrics metrics = log.getMetrics();
+            assertEquals(2, metrics.replayed());
+            assertEquals(1, metrics.rejected());
+            assertEquals(1, metrics.deadLetters());
+        }
+
+        List<IngestLog.Entry> rejected = IngestLog.readRejected(directory);
+        assertEquals(List.of(invalid), rejected);
+        try (IngestLog log = IngestLog.open(directory)) {
+            assertEquals(1, log.getMetrics().deadLetters());
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.example;
+
+import server.DataBaseManager;
+import server.ImplementationRMI.DataQueryImp;
+import server.ImplementationRMI.LogicCityImp.WeatherTableData;
+import server.PartitionScheduler;
+import shared.record.QueryCondition;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronta l'aggregazione dei parametri climatici di un mese su una tabella non
+ * partizionata e su una tabella partizionata per mese, dove il database legge solo la
+ * partizione dell'intervallo richiesto.
+ * <p>
+ * Richiede un database: avviare con
+ * {@code -Dbenchmark.host=<host[:porta]> -Dbenchmark.password=<password>}. Le due tabelle
+ * vengono create negli schemi {@code bench_heap} e {@code bench_partitioned} con le
+ * colonne di {@code public.parametriclimatici} e popolate con {@code generate_series};
+ * vengono ricreate solo se il numero di righe richiesto cambia.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PartitionPruningBenchmark {
+
+    private static final String HEAP = "bench_heap";
+
+    private static final String PARTITIONED = "bench_partitioned";
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2015, 1, 1);
+
+    private static final int DAYS = 3_650;
+
+    @Param({"100000000"})
+    public long rows;
+
+    private final LocalDate from = FIRST_DAY.plusYears(5);
+
+    private final LocalDate to = from.plusMonths(1).minusDays(1);
+
+    private Connection heapConn;
+
+    private Connection partitionedConn;
+
+    private DataQueryImp heap;
+
+    private DataQueryImp partitioned;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        try (Connection conn = BenchmarkDatabase.connect()) {
+            if (populatedRows(conn) != rows) {
+                createTables(conn);
+            }
+        }
+        heapConn = BenchmarkDatabase.connect(HEAP);
+        partitionedConn = BenchmarkDatabase.connect(PARTITIONED);
+        heap = new DataQueryImp(heapConn);
+        partitioned = new DataQueryImp(partitionedConn);
+    }
+
+    private long populatedRows(Connection conn) throws SQLException {
+        if (!DataBaseManager.checkTableExistence(conn, "public.bench_meta")) {
+            return -1;
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT rows FROM public.bench_meta")) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    private void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP SCHEMA IF EXISTS " + HEAP + " CASCADE");
+            stmt.execute("DROP SCHEMA IF EXISTS " + PARTITIONED + " CASCADE");
+            stmt.execute("CREATE SCHEMA " + HEAP);
+            stmt.execute("CREATE SCHEMA " + PARTITIONED);
+            stmt.execute("CREATE TABLE " + HEAP + ".parametriclimatici (LIKE public.parametriclimatici INCLUDING DEFAULTS)");
+            stmt.execute("CREATE TABLE " + PARTITIONED + ".parametriclimatici (LIKE public.parametriclimatici INCLUDING DEFAULTS) " +
+                    "PARTITION BY RANGE (date)");
+            stmt.execute("CREATE TABLE " + PARTITIONED + ".parametriclimatici_default PARTITION OF " +
+                    PARTITIONED + ".parametriclimatici DEFAULT");
+        }
+
+        try (Connection schemaConn = BenchmarkDatabase.connect(PARTITIONED)) {
+            PartitionScheduler scheduler = new PartitionScheduler(schemaConn,
+                    PartitionScheduler.Granularity.MONTHLY, 0, 0);
+            scheduler.ensurePartitions(FIRST_DAY, FIRST_DAY.plusDays(DAYS));
+        }
+
+        String insert = ".parametriclimatici (id, cityid, centerid, date, windscore, humidityscore, " +
+                "pressurescore, temperaturescore, precipitationscore, glacierelevationscore, glaciermassscore, windcomment) " +
+                "SELECT g, g % 10000, g % 100, ?::date + (g % " + DAYS + ")::int, " +
+                "1 + g % 5, 1 + g % 4, 1 + g % 3, 1 + g % 5, 1 + g % 2, 1 + g % 5, 1 + g % 4, " +
+                "CASE WHEN g % 1000 = 0 THEN 'commento' END " +
+                "FROM generate_series(1, ?) AS g";
+        for (String schema : List.of(HEAP, PARTITIONED)) {
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + schema + insert)) {
+                stmt.setObject(1, FIRST_DAY);
+                stmt.setLong(2, rows);
+                stmt.executeUpdate();
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE INDEX ON " + schema + ".parametriclimatici (date)");
+                stmt.execute("ANALYZE " + schema + ".parametriclimatici");
+            }
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS public.bench_meta (rows BIGINT NOT NULL)");
+            stmt.execute("DELETE FROM public.bench_meta");
+            stmt.execute("INSERT INTO public.bench_meta VALUES (" + rows + ")");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (DataQueryImp dataQuery : List.of(heap, partitioned)) {
+            dataQuery.closeStatements();
+            UnicastRemoteObject.unexportObject(dataQuery, true);
+        }
+        heapConn.close();
+        partitionedConn.close();
+    }
+
+    private List<QueryCondition> month() {
+        return List.of(QueryCondition.between("date", from, to));
+    }
+
+    @Benchmark
+    public WeatherTableData heapTable() throws SQLException {
+        return heap.aggregateWeatherBy(month());
+    }
+
+    @Benchmark
+    public WeatherTableData partitionedTable() throws SQLException {
+        return partitioned.aggregateWeatherBy(month());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PartitionPruningBenchmark.class.getSimpleName())
+                .jvmArgsAppend(BenchmarkDatabase.jvmArgs())
+                .build()).run();
+    }
+}
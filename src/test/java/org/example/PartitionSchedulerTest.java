@@ -0,0 +1,58 @@
+package org.example;
+
+import server.PartitionScheduler;
+import server.PartitionScheduler.Granularity;
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionSchedulerTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2024, 8, 14);
+
+    @Test
+    public void testEmptyTableUsesWindow() {
+        List<LocalDate> starts = PartitionScheduler.periodStarts(Granularity.MONTHLY, null, TODAY, 12, 3);
+
+        assertEquals(16, starts.size());
+        assertEquals(LocalDate.of(2023, 8, 1), starts.get(0));
+        assertEquals(LocalDate.of(2024, 11, 1), starts.get(starts.size() - 1));
+    }
+
+    @Test
+    public void testHistoryOlderThanWindowGetsPartitions() {
+        // Le righe più vecchie della finestra non devono finire nella partizione di default.
+        List<LocalDate> starts = PartitionScheduler.periodStarts(
+                Granularity.MONTHLY, LocalDate.of(2019, 3, 17), TODAY, 12, 3);
+
+        assertEquals(LocalDate.of(2019, 3, 1), starts.get(0));
+        assertEquals(LocalDate.of(2024, 11, 1), starts.get(starts.size() - 1));
+        assertEquals(69, starts.size());
+        for (int i = 1; i < starts.size(); i++) {
+            assertEquals(starts.get(i - 1).plusMonths(1), starts.get(i));
+        }
+    }
+
+    @Test
+    public void testRecentDataKeepsWindow() {
+        List<LocalDate> starts = PartitionScheduler.periodStarts(
+                Granularity.MONTHLY, LocalDate.of(2024, 7, 2), TODAY, 12, 3);
+
+        assertEquals(LocalDate.of(2023, 8, 1), starts.get(0));
+    }
+
+    @Test
+    public void testYearlyGranularity() {
+        List<LocalDate> starts = PartitionScheduler.periodStarts(
+                Granularity.YEARLY, LocalDate.of(2015, 6, 30), TODAY, 1, 1);
+
+        assertEquals(List.of(
+                LocalDate.of(2015, 1, 1), LocalDate.of(2016, 1, 1), LocalDate.of(2017, 1, 1),
+                LocalDate.of(2018, 1, 1), LocalDate.of(2019, 1, 1), LocalDate.of(2020, 1, 1),
+                LocalDate.of(2021, 1, 1), LocalDate.of(2022, 1, 1), LocalDate.of(2023, 1, 1),
+                LocalDate.of(2024, 1, 1), LocalDate.of(2025, 1, 1)), starts);
+    }
+}
@@ -0,0 +1,126 @@
+package org.example;
+
+import server.ImplementationRMI.DataQueryImp;
+import shared.record.QueryCondition;
+import shared.record.QueryCondition.Operator;
+import shared.record.RecordCity;
+import org.junit.jupiter.api.*;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryConditionTest {
+
+    private static final String CITY_SELECT = "SELECT * FROM coordinatemonitoraggio WHERE ";
+
+    private FakeConnection fake;
+
+    private DataQueryImp dataQuery;
+
+    private final List<List<Object>> params = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws RemoteException {
+        fake = new FakeConnection()
+                .columns("FROM coordinatemonitoraggio",
+                        "id", "name", "asciiname", "countrycode", "countryname", "latitude", "longitude")
+                .onQuery("FROM coordinatemonitoraggio", values -> {
+                    params.add(unpack(values));
+                    List<Object[]> rows = new ArrayList<>();
+                    rows.add(new Object[]{5, "Milano", "Milano", "IT", "Italia", 45.46, 9.19});
+                    return rows;
+                });
+        dataQuery = new DataQueryImp(fake.connection());
+    }
+
+    @AfterEach
+    public void tearDown() throws RemoteException {
+        dataQuery.closeStatements();
+        UnicastRemoteObject.unexportObject(dataQuery, true);
+    }
+
+    private static List<Object> unpack(List<Object> values) throws SQLException {
+        // Gli array dei parametri vengono confrontati tramite i loro elementi.
+        List<Object> unpacked = new ArrayList<>();
+        for (Object value : values) {
+            unpacked.add(value instanceof Array array ? List.of((Object[]) array.getArray()) : value);
+        }
+        return unpacked;
+    }
+
+    private String lastSql() {
+        return fake.executed.get(fake.executed.size() - 1);
+    }
+
+    @Test
+    public void testOperatorsGenerateParameterizedSql() throws Exception {
+        RecordCity[] cities = dataQuery.getCityBy(List.of(
+                new QueryCondition("countrycode", "IT"),
+                QueryCondition.between("latitude", 40.0, 46.0),
+                QueryCondition.in("id", 1, 2, 5),
+                QueryCondition.startsWith("asciiname", "Mi_"),
+                QueryCondition.isNotNull("countryname"),
+                QueryCondition.of("longitude", Operator.LESS_THAN, 10.0)));
+
+        assertEquals(CITY_SELECT + "countrycode = ? AND latitude >= ? AND latitude <= ? AND id = ANY (?)"
+                + " AND asciiname LIKE ? ESCAPE '\\' AND countryname IS NOT NULL AND longitude < ?", lastSql());
+        assertEquals(List.of("IT", 40.0, 46.0, List.of(1, 2, 5), "Mi\\_%", 10.0), params.get(0));
+        assertEquals(new RecordCity(5, "Milano", "Milano", "IT", "Italia", 45.46, 9.19), cities[0]);
+    }
+
+    @Test
+    public void testComparisonOperators() throws Exception {
+        dataQuery.getCityBy(List.of(
+                QueryCondition.of("latitude", Operator.GREATER_THAN, 1.0),
+                QueryCondition.of("latitude", Operator.GREATER_OR_EQUAL, 2.0),
+                QueryCondition.of("longitude", Operator.LESS_OR_EQUAL, 3.0),
+                QueryCondition.isNull("countryname")));
+
+        assertEquals(CITY_SELECT + "latitude > ? AND latitude >= ? AND longitude <= ? AND countryname IS NULL", lastSql());
+        assertEquals(List.of(1.0, 2.0, 3.0), params.get(0));
+    }
+
+    @Test
+    public void testEmptyInMatchesNothing() throws Exception {
+        dataQuery.getCityBy(List.of(QueryCondition.in("id")));
+
+        assertEquals(CITY_SELECT + "FALSE", lastSql());
+        assertEquals(List.of(), params.get(0));
+    }
+
+    @Test
+    public void testColumnsAreCaseInsensitiveAndWhitelisted() throws Exception {
+        dataQuery.getCityBy(List.of(new QueryCondition("CountryCode", "IT")));
+        assertEquals(CITY_SELECT + "countrycode = ?", lastSql());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> dataQuery.getCityBy(List.of(new QueryCondition("id = 1 OR 1", 1))));
+        assertThrows(IllegalArgumentException.class,
+                () -> dataQuery.getCityBy(List.of(new QueryCondition("password", "x"))));
+        assertThrows(IllegalArgumentException.class, () -> dataQuery.getCityBy(List.of()));
+        assertThrows(IllegalArgumentException.class,
+                () -> dataQuery.getCityBy(List.of(QueryCondition.of("id", Operator.IN, 5))));
+    }
+
+    @Test
+    public void testSameShapeReusesSqlWithNewValues() throws Exception {
+        dataQuery.getCityBy(List.of(QueryCondition.in("id", 1, 2)));
+        String first = lastSql();
+        dataQuery.getCityBy(List.of(QueryCondition.in("id", 7, 8)));
+
+        assertEquals(first, lastSql());
+        assertEquals(List.of(List.of(7, 8)), params.get(1));
+
+        // Anche un numero diverso di valori riusa la stessa forma.
+        dataQuery.getCityBy(List.of(QueryCondition.in("id", 1, 2, 3)));
+        assertEquals(first, lastSql());
+        assertEquals(CITY_SELECT + "id = ANY (?)", lastSql());
+        assertEquals(List.of(List.of(1, 2, 3)), params.get(2));
+    }
+}
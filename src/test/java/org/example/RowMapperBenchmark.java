@@ -0,0 +1,185 @@
+package org.example;
+
+import server.RowMapper;
+import shared.record.RecordWeather;
+import shared.record.RecordWeather.WeatherData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronta la lettura dei parametri climatici da un {@link ResultSet} per posizione, con
+ * le colonne risolte una sola volta da {@link RowMapper}, e per nome, risolvendo
+ * l'etichetta a ogni lettura come fa il driver JDBC. Il ResultSet è un proxy in memoria:
+ * il costo delle chiamate riflessive è comune alle due varianti, quindi conta la loro
+ * differenza e non il tempo assoluto.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowMapperBenchmark {
+
+    private static final String SQL = "SELECT * FROM parametriclimatici WHERE cityid = ?";
+
+    private static final String[] COLUMNS = {
+            "id", "cityid", "centerid", "date",
+            "windscore", "windcomment",
+            "humidityscore", "humiditycomment",
+            "pressurescore", "pressurecomment",
+            "temperaturescore", "temperaturecomment",
+            "precipitationscore", "precipitationcomment",
+            "glacierelevationscore", "glacierelevationcomment",
+            "glaciermassscore", "glaciermasscomment",
+            "requestid", "insertedat"};
+
+    // Lo stesso reader di DataQueryImp.WEATHER_MAPPER.
+    private static final RowMapper<RecordWeather> MAPPER = new RowMapper<>(
+            (rs, c) -> new RecordWeather(
+                    rs.getInt(c[0]),
+                    rs.getInt(c[1]),
+                    rs.getInt(c[2]),
+                    rs.getObject(c[3], LocalDate.class),
+                    new WeatherData(RowMapper.getInteger(rs, c[4]), rs.getString(c[5])),
+                    new WeatherData(RowMapper.getInteger(rs, c[6]), rs.getString(c[7])),
+                    new WeatherData(RowMapper.getInteger(rs, c[8]), rs.getString(c[9])),
+                    new WeatherData(RowMapper.getInteger(rs, c[10]), rs.getString(c[11])),
+                    new WeatherData(RowMapper.getInteger(rs, c[12]), rs.getString(c[13])),
+                    new WeatherData(RowMapper.getInteger(rs, c[14]), rs.getString(c[15])),
+                    new WeatherData(RowMapper.getInteger(rs, c[16]), rs.getString(c[17]))),
+            "id", "cityid", "centerid", "date",
+            "windscore", "windcomment",
+            "humidityscore", "humiditycomment",
+            "pressurescore", "pressurecomment",
+            "temperaturescore", "temperaturecomment",
+            "precipitationscore", "precipitationcomment",
+            "glacierelevationscore", "glacierelevationcomment",
+            "glaciermassscore", "glaciermasscomment");
+
+    @Param({"100000"})
+    public int rows;
+
+    private Object[][] data;
+
+    private final Map<String, Integer> labels = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            labels.put(COLUMNS[i], i + 1);
+        }
+        data = new Object[rows][];
+        for (int r = 0; r < rows; r++) {
+            Object[] row = new Object[COLUMNS.length];
+            row[0] = r;
+            row[1] = r % 1_000;
+            row[2] = r % 50;
+            row[3] = LocalDate.of(2020, 1, 1).plusDays(r % 1_500);
+            for (int c = 4; c < 18; c += 2) {
+                row[c] = (r + c) % 7 == 0 ? null : 1 + (r + c) % 5;
+                row[c + 1] = r % 10 == 0 ? "commento" : null;
+            }
+            data[r] = row;
+        }
+    }
+
+    private ResultSet resultSet() {
+        int[] cursor = {-1};
+        Object[] wasNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("next")) {
+                        return ++cursor[0] < data.length;
+                    }
+                    if (name.equals("wasNull")) {
+                        return wasNull[0];
+                    }
+                    if (name.equals("findColumn")) {
+                        return column((String) args[0]);
+                    }
+                    if (name.equals("close")) {
+                        return null;
+                    }
+                    int column = args[0] instanceof String label ? column(label) : (Integer) args[0];
+                    Object value = data[cursor[0]][column - 1];
+                    wasNull[0] = value == null;
+                    return switch (name) {
+                        case "getInt" -> value == null ? 0 : (Integer) value;
+                        case "getString" -> (String) value;
+                        case "getObject" -> value;
+                        default -> throw new UnsupportedOperationException(name);
+                    };
+                });
+    }
+
+    private int column(String label) throws SQLException {
+        // Come il driver: prima il nome esatto, poi quello in minuscolo.
+        Integer column = labels.get(label);
+        if (column == null) {
+            column = labels.get(label.toLowerCase(Locale.ROOT));
+        }
+        if (column == null) {
+            throw new SQLException("Colonna non trovata: " + label);
+        }
+        return column;
+    }
+
+    private static Integer score(ResultSet rs, String column) throws SQLException {
+        // La lettura per nome convertiva lo 0 in null.
+        int value = rs.getInt(column);
+        return value == 0 ? null : value;
+    }
+
+    @Benchmark
+    public RecordWeather[] positional() throws SQLException {
+        RecordWeather[] weathers = new RecordWeather[rows];
+        try (ResultSet rs = resultSet()) {
+            int[] columns = MAPPER.columns(SQL, rs);
+            for (int i = 0; rs.next(); i++) {
+                weathers[i] = MAPPER.map(rs, columns);
+            }
+        }
+        return weathers;
+    }
+
+    @Benchmark
+    public RecordWeather[] byName() throws SQLException {
+        RecordWeather[] weathers = new RecordWeather[rows];
+        try (ResultSet rs = resultSet()) {
+            for (int i = 0; rs.next(); i++) {
+                weathers[i] = new RecordWeather(
+                        rs.getInt("id"),
+                        rs.getInt("cityid"),
+                        rs.getInt("centerid"),
+                        rs.getObject("date", LocalDate.class),
+                        new WeatherData(score(rs, "windscore"), rs.getString("windcomment")),
+                        new WeatherData(score(rs, "humidityscore"), rs.getString("humiditycomment")),
+                        new WeatherData(score(rs, "pressurescore"), rs.getString("pressurecomment")),
+                        new WeatherData(score(rs, "temperaturescore"), rs.getString("temperaturecomment")),
+                        new WeatherData(score(rs, "precipitationscore"), rs.getString("precipitationcomment")),
+                        new WeatherData(score(rs, "glacierelevationscore"), rs.getString("glacierelevationcomment")),
+                        new WeatherData(score(rs, "glaciermassscore"), rs.getString("glaciermasscomment")));
+            }
+        }
+        return weathers;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RowMapperBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
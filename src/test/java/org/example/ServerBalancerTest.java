@@ -0,0 +1,166 @@
+package org.example;
+
+import client.models.ServerBalancer;
+import shared.record.RecordSession;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerBalancerTest {
+
+    public interface Echo extends Remote {
+
+        String name(String token) throws RemoteException;
+
+        RecordSession login(String username) throws RemoteException;
+    }
+
+    private static final class EchoServer implements Echo {
+
+        private final String name;
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private volatile boolean failing;
+
+        private EchoServer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name(String token) throws RemoteException {
+            calls.incrementAndGet();
+            if (failing) {
+                throw new RemoteException("errore del server " + name);
+            }
+            return name;
+        }
+
+        @Override
+        public RecordSession login(String username) {
+            calls.incrementAndGet();
+            return new RecordSession(name + ":" + username, null);
+        }
+    }
+
+    private final List<Registry> registries = new ArrayList<>();
+
+    private final List<EchoServer> servers = new ArrayList<>();
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private String start(String name) throws IOException {
+        int port = freePort();
+        Registry registry = LocateRegistry.createRegistry(port);
+        EchoServer server = new EchoServer(name);
+        registry.rebind("Echo", UnicastRemoteObject.exportObject(server, 0));
+        registries.add(registry);
+        servers.add(server);
+        return "localhost:" + port;
+    }
+
+    @AfterEach
+    public void tearDown() throws RemoteException {
+        for (EchoServer server : servers) {
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+        for (Registry registry : registries) {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+    }
+
+    @Test
+    public void testCallsAreSpreadAcrossServers() throws Exception {
+        ServerBalancer balancer = new ServerBalancer(List.of(start("a"), start("b")));
+        Echo echo = balancer.proxy(Echo.class, "Echo", true);
+
+        Set<String> answered = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            answered.add(echo.name(null));
+        }
+
+        assertEquals(Set.of("a", "b"), answered);
+    }
+
+    @Test
+    public void testUnreachableServerIsSkipped() throws Exception {
+        ServerBalancer balancer = new ServerBalancer(List.of("localhost:" + freePort(), start("b")));
+        Echo echo = balancer.proxy(Echo.class, "Echo", false);
+
+        // Le chiamate che non hanno raggiunto il server vengono ripetute anche se non idempotenti.
+        for (int i = 0; i < 10; i++) {
+            assertEquals("b", echo.name(null));
+        }
+    }
+
+    @Test
+    public void testServerErrorsAreRetriedOnlyWhenIdempotent() throws Exception {
+        ServerBalancer balancer = new ServerBalancer(List.of(start("a"), start("b")));
+        servers.get(0).failing = true;
+        servers.get(1).failing = true;
+
+        Echo retried = balancer.proxy(Echo.class, "Echo", true);
+        assertThrows(RemoteException.class, () -> retried.name(null));
+        assertEquals(2, servers.get(0).calls.get() + servers.get(1).calls.get());
+
+        Echo notRetried = balancer.proxy(Echo.class, "Echo", true, "name");
+        assertThrows(RemoteException.class, () -> notRetried.name(null));
+        assertEquals(3, servers.get(0).calls.get() + servers.get(1).calls.get());
+    }
+
+    @Test
+    public void testSessionCallsStayOnLoginServer() throws Exception {
+        ServerBalancer balancer = new ServerBalancer(List.of(start("a"), start("b")));
+        Echo echo = balancer.proxy(Echo.class, "Echo", true);
+
+        RecordSession session = echo.login("mrossi");
+        String owner = session.token().substring(0, 1);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(owner, echo.name(session.token()));
+        }
+
+        // Dopo la chiusura le chiamate con lo stesso token vengono distribuite come le altre.
+        balancer.closeSession(session.token());
+        Set<String> answered = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            answered.add(echo.name(session.token()));
+        }
+        assertEquals(Set.of("a", "b"), answered);
+    }
+
+    @Test
+    public void testPinnedProxyUsesOneServer() throws Exception {
+        ServerBalancer balancer = new ServerBalancer(List.of(start("a"), start("b")));
+        Echo pinned = balancer.pin(Echo.class, "Echo");
+
+        String first = pinned.name(null);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(first, pinned.name(null));
+        }
+    }
+
+    @Test
+    public void testConnectFailsWithoutReachableServers() throws Exception {
+        ServerBalancer balancer = new ServerBalancer(List.of("localhost:" + freePort()));
+
+        assertThrows(RemoteException.class, () -> balancer.connect("Echo"));
+        assertThrows(IllegalArgumentException.class, () -> new ServerBalancer(List.of(" ", "")));
+    }
+}
@@ -0,0 +1,90 @@
+package org.example;
+
+import server.SessionManager;
+import server.SessionManager.Permission;
+import shared.record.RecordOperator;
+import shared.record.RecordSession;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionManagerTest {
+
+    private static RecordOperator operator(Integer centerID) {
+        return new RecordOperator(1, "Mario Rossi", "RSSMRA80A01F205X", "mario@example.com",
+                "mrossi", "hash", centerID);
+    }
+
+    @Test
+    public void testPermissionsFollowCenter() {
+        SessionManager sessions = new SessionManager();
+        RecordSession free = sessions.open(operator(null));
+        RecordSession associated = sessions.open(operator(3));
+
+        assertEquals(0, sessions.require(free.token(), Permission.CREATE_CENTER).centerID());
+        assertNotNull(sessions.require(free.token(), Permission.ASSOCIATE_CENTER));
+        assertThrows(IllegalStateException.class, () -> sessions.require(free.token(), Permission.ADD_WEATHER));
+
+        assertEquals(3, sessions.require(associated.token(), Permission.ADD_WEATHER).centerID());
+        assertThrows(IllegalStateException.class, () -> sessions.require(associated.token(), Permission.CREATE_CENTER));
+    }
+
+    @Test
+    public void testUpdateRecomputesPermissions() {
+        SessionManager sessions = new SessionManager();
+        RecordSession session = sessions.open(operator(0));
+
+        sessions.update(session.token(), operator(5));
+
+        assertEquals(5, sessions.require(session.token(), Permission.ADD_WEATHER).centerID());
+        assertThrows(IllegalStateException.class, () -> sessions.require(session.token(), Permission.ASSOCIATE_CENTER));
+    }
+
+    @Test
+    public void testTokensAreUnique() {
+        SessionManager sessions = new SessionManager();
+        RecordSession first = sessions.open(operator(null));
+        RecordSession second = sessions.open(operator(null));
+
+        assertNotEquals(first.token(), second.token());
+        assertTrue(first.token().length() >= 40);
+    }
+
+    @Test
+    public void testCloseInvalidatesSession() {
+        SessionManager sessions = new SessionManager();
+        RecordSession session = sessions.open(operator(2));
+
+        assertTrue(sessions.isOpen(session.token()));
+        assertTrue(sessions.close(session.token()));
+        assertFalse(sessions.close(session.token()));
+        assertFalse(sessions.isOpen(session.token()));
+        assertThrows(IllegalStateException.class, () -> sessions.require(session.token(), Permission.ADD_WEATHER));
+        assertThrows(IllegalStateException.class, () -> sessions.update(session.token(), operator(2)));
+    }
+
+    @Test
+    public void testSessionsExpireAfterInactivity() throws InterruptedException {
+        SessionManager sessions = new SessionManager(100);
+        RecordSession session = sessions.open(operator(2));
+
+        // Ogni utilizzo rinnova la scadenza.
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(40);
+            assertNotNull(sessions.require(session.token(), Permission.ADD_WEATHER));
+        }
+
+        Thread.sleep(150);
+        assertFalse(sessions.isOpen(session.token()));
+        assertThrows(IllegalStateException.class, () -> sessions.require(session.token(), Permission.ADD_WEATHER));
+    }
+
+    @Test
+    public void testNullTokenIsRejected() {
+        SessionManager sessions = new SessionManager();
+
+        assertFalse(sessions.isOpen(null));
+        assertFalse(sessions.close(null));
+        assertThrows(IllegalStateException.class, () -> sessions.require(null, Permission.CREATE_CENTER));
+    }
+}
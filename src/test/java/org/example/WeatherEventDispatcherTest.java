@@ -0,0 +1,87 @@
+package org.example;
+
+import server.WeatherEventDispatcher;
+import shared.interfacesRMI.WeatherListener;
+import shared.record.RecordWeather;
+import shared.record.RecordWeather.WeatherData;
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherEventDispatcherTest {
+
+    private static RecordWeather weather(int id, int cityID) {
+        WeatherData empty = new WeatherData(null, null);
+        return new RecordWeather(id, cityID, 1, LocalDate.of(2024, 8, 14),
+                empty, empty, empty, empty, empty, empty, empty);
+    }
+
+    private static List<Integer> ids(List<RecordWeather> weathers) {
+        synchronized (weathers) {
+            return weathers.stream().map(RecordWeather::ID).toList();
+        }
+    }
+
+    @Test
+    public void testRenewalKeepsQueuedEvents() throws Exception {
+        List<RecordWeather> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WeatherListener listener = weathers -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.addAll(List.of(weathers));
+        };
+
+        try (WeatherEventDispatcher dispatcher = new WeatherEventDispatcher(10, 1)) {
+            dispatcher.subscribe(listener, new Integer[]{7}, null);
+            dispatcher.publish(List.of(weather(1, 7)));
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            // L'evento 2 resta in coda mentre la consegna dell'evento 1 è in corso.
+            dispatcher.publish(List.of(weather(2, 7), weather(3, 8)));
+            dispatcher.subscribe(listener, new Integer[]{7}, null);
+            release.countDown();
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (received.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(List.of(1, 2), ids(received));
+            assertEquals(1, dispatcher.getMetrics().subscribers());
+        }
+    }
+
+    @Test
+    public void testNewFiltersReplaceSubscription() throws Exception {
+        List<RecordWeather> received = Collections.synchronizedList(new ArrayList<>());
+        WeatherListener listener = weathers -> received.addAll(List.of(weathers));
+
+        try (WeatherEventDispatcher dispatcher = new WeatherEventDispatcher(10, 1)) {
+            dispatcher.subscribe(listener, new Integer[]{7}, null);
+            dispatcher.subscribe(listener, new Integer[]{8}, null);
+            dispatcher.publish(List.of(weather(1, 7), weather(2, 8)));
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Thread.sleep(100);
+            assertEquals(List.of(2), ids(received));
+
+            dispatcher.unsubscribe(listener);
+            assertEquals(0, dispatcher.getMetrics().subscribers());
+        }
+    }
+}
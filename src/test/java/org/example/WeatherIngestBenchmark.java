@@ -0,0 +1,94 @@
+package org.example;
+
+import server.ImplementationRMI.LogicCenterImp;
+import shared.record.RecordWeather;
+import shared.record.RecordWeather.WeatherData;
+import shared.utils.Functions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misura la preparazione di un inserimento di parametri climatici ricevuti come testo:
+ * lettura e validazione della data e dei dati e costruzione del record, con i
+ * formattatori condivisi di {@link Functions} oppure creando un formattatore per ogni
+ * chiamata, come avveniva con {@code SimpleDateFormat}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WeatherIngestBenchmark {
+
+    private static final int ROWS = 1_024;
+
+    private String[] dates;
+
+    private Object[][][] tableDatas;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        dates = new String[ROWS];
+        tableDatas = new Object[ROWS][][];
+        for (int i = 0; i < ROWS; i++) {
+            dates[i] = Functions.formatDate(LocalDate.of(2020, 1, 1).plusDays(i));
+            tableDatas[i] = new Object[7][];
+            for (int c = 0; c < 7; c++) {
+                tableDatas[i][c] = new Object[]{1 + (i + c) % 5, c == 0 ? "vento forte" : null};
+            }
+        }
+    }
+
+    private RecordWeather record(LocalDate date, Object[][] data) {
+        WeatherData[] values = new WeatherData[data.length];
+        for (int c = 0; c < data.length; c++) {
+            values[c] = new WeatherData((Integer) data[c][0], (String) data[c][1]);
+        }
+        return new RecordWeather(null, 1, 1, date,
+                values[0], values[1], values[2], values[3], values[4], values[5], values[6]);
+    }
+
+    @Benchmark
+    public RecordWeather cachedFormatters() {
+        int row = next++ & (ROWS - 1);
+        LocalDate date = Functions.parseDate(dates[row]);
+        LogicCenterImp.validateWeatherData(date, tableDatas[row]);
+        return record(date, tableDatas[row]);
+    }
+
+    @Benchmark
+    public java.sql.Date formatterPerCall() throws ParseException {
+        int row = next++ & (ROWS - 1);
+        // La validazione e l'inserimento creavano ciascuno un proprio formattatore.
+        LocalDate date;
+        try {
+            date = LocalDate.parse(dates[row], DateTimeFormatter.ofPattern(Functions.datePattern));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+        LogicCenterImp.validateWeatherData(date, tableDatas[row]);
+        record(date, tableDatas[row]);
+        SimpleDateFormat format = new SimpleDateFormat(Functions.datePattern);
+        return new java.sql.Date(format.parse(dates[row]).getTime());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WeatherIngestBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
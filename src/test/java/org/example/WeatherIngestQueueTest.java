@@ -0,0 +1,97 @@
+package org.example;
+
+import server.WeatherIngestQueue;
+import shared.record.RecordWeather;
+import shared.record.RecordWeather.WeatherData;
+import org.junit.jupiter.api.*;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherIngestQueueTest {
+
+    private static RecordWeather weather(int cityID) {
+        WeatherData data = new WeatherData(3, null);
+        return new RecordWeather(null, cityID, 1, LocalDate.of(2024, 5, 1), data, data, data, data, data, data, data);
+    }
+
+    @Test
+    public void testRequestIDsReachTheWriter() throws Exception {
+        List<UUID> written = Collections.synchronizedList(new ArrayList<>());
+        WeatherIngestQueue queue = new WeatherIngestQueue((weathers, requestIDs) -> {
+            assertEquals(weathers.size(), requestIDs.size());
+            written.addAll(requestIDs);
+            return new SQLException[weathers.size()];
+        }, null, 100, 10, 5);
+        queue.start();
+
+        UUID requestID = UUID.randomUUID();
+        queue.submit(weather(1), requestID);
+        queue.submit(weather(2), null);
+        queue.close();
+
+        assertEquals(2, written.size());
+        assertEquals(requestID, written.get(0));
+        assertNull(written.get(1));
+    }
+
+    @Test
+    public void testRetriedRowKeepsItsRequestID() throws Exception {
+        // Il gruppo fallisce per la riga della città 0: le righe vengono riscritte da sole.
+        Set<UUID> stored = ConcurrentHashMap.newKeySet();
+        WeatherIngestQueue queue = new WeatherIngestQueue((weathers, requestIDs) -> {
+            SQLException[] failures = new SQLException[weathers.size()];
+            for (int i = 0; i < weathers.size(); i++) {
+                if (weathers.get(i).cityID() == 0) {
+                    failures[i] = new SQLException("valore non valido", "22003");
+                }
+            }
+            if (weathers.size() > 1 && Arrays.stream(failures).anyMatch(Objects::nonNull)) {
+                Arrays.fill(failures, new SQLException("gruppo annullato", "40000"));
+            } else {
+                for (int i = 0; i < weathers.size(); i++) {
+                    if (failures[i] == null) {
+                        stored.add(requestIDs.get(i));
+                    }
+                }
+            }
+            return failures;
+        }, null, 100, 10, 50);
+        queue.start();
+
+        UUID valid = UUID.randomUUID();
+        UUID invalid = UUID.randomUUID();
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = clients.submit(() -> {
+                queue.submit(weather(1), valid);
+                return null;
+            });
+            Future<?> second = clients.submit(() -> {
+                queue.submit(weather(0), invalid);
+                return null;
+            });
+            first.get();
+            Exception failure = assertThrows(Exception.class, second::get);
+            assertInstanceOf(SQLException.class, failure.getCause());
+        } finally {
+            clients.shutdownNow();
+            queue.close();
+        }
+
+        assertEquals(Set.of(valid), stored);
+    }
+}
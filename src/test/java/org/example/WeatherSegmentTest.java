@@ -0,0 +1,99 @@
+package org.example;
+
+import server.WeatherSegment;
+import shared.record.RecordWeather;
+import shared.record.RecordWeather.WeatherData;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherSegmentTest {
+
+    @TempDir
+    Path directory;
+
+    private static RecordWeather weather(int id, int cityID, LocalDate date, WeatherData... data) {
+        return new RecordWeather(id, cityID, 7, date, data[0], data[1], data[2], data[3], data[4], data[5], data[6]);
+    }
+
+    @Test
+    public void testRoundTripPreservesRows() throws IOException {
+        List<RecordWeather> rows = new ArrayList<>();
+        Random random = new Random(42);
+        String[] comments = {"vento forte", "sereno", "nebbia", "àèìòù €"};
+        int id = 1;
+        for (int city = 1; city <= 20; city++) {
+            for (int day = 0; day < 30; day++) {
+                WeatherData[] data = new WeatherData[7];
+                for (int p = 0; p < data.length; p++) {
+                    Integer score = random.nextInt(4) == 0 ? null : 1 + random.nextInt(5);
+                    String comment = random.nextInt(3) == 0 ? null : comments[random.nextInt(comments.length)];
+                    data[p] = new WeatherData(score, comment);
+                }
+                rows.add(weather(id++, city * 13, LocalDate.of(2020, 1, 1).plusDays(day), data));
+            }
+        }
+
+        Path file = directory.resolve("segment.cmwa");
+        WeatherSegment.write(file, rows);
+        WeatherSegment segment = WeatherSegment.open(file);
+
+        assertEquals(rows.size(), segment.rowCount());
+        assertEquals(LocalDate.of(2020, 1, 1), segment.minDate());
+        assertEquals(LocalDate.of(2020, 1, 30), segment.maxDate());
+        for (int row = 0; row < rows.size(); row++) {
+            assertEquals(rows.get(row), segment.read(row));
+            assertEquals(rows.get(row).ID().intValue(), segment.id(row));
+            assertEquals(rows.get(row).cityID().intValue(), segment.cityID(row));
+        }
+    }
+
+    @Test
+    public void testWideScoreRangeAndEmptyColumns() throws IOException {
+        WeatherData empty = new WeatherData(null, null);
+        List<RecordWeather> rows = List.of(
+                weather(10, 1, LocalDate.of(1999, 12, 31),
+                        new WeatherData(Integer.MIN_VALUE + 1, "min"), empty, empty, empty, empty, empty, empty),
+                weather(11, 1, LocalDate.of(2000, 1, 1),
+                        new WeatherData(Integer.MAX_VALUE - 1, null), empty, empty, empty, empty, empty, empty),
+                weather(Integer.MAX_VALUE, 2, LocalDate.of(2024, 2, 29),
+                        new WeatherData(0, ""), empty, empty, empty, empty, empty, empty));
+
+        Path file = directory.resolve("wide.cmwa");
+        WeatherSegment.write(file, rows);
+        WeatherSegment segment = WeatherSegment.open(file);
+
+        for (int row = 0; row < rows.size(); row++) {
+            assertEquals(rows.get(row), segment.read(row));
+        }
+    }
+
+    @Test
+    public void testFirstRowOf() throws IOException {
+        WeatherData empty = new WeatherData(null, null);
+        List<RecordWeather> rows = new ArrayList<>();
+        int[] cities = {3, 3, 5, 9, 9, 9};
+        for (int i = 0; i < cities.length; i++) {
+            rows.add(weather(i + 1, cities[i], LocalDate.of(2021, 5, 1 + i), empty, empty, empty, empty, empty, empty, empty));
+        }
+
+        Path file = directory.resolve("cities.cmwa");
+        WeatherSegment.write(file, rows);
+        WeatherSegment segment = WeatherSegment.open(file);
+
+        assertEquals(0, segment.firstRowOf(1));
+        assertEquals(0, segment.firstRowOf(3));
+        assertEquals(2, segment.firstRowOf(4));
+        assertEquals(2, segment.firstRowOf(5));
+        assertEquals(3, segment.firstRowOf(9));
+        assertEquals(6, segment.firstRowOf(10));
+    }
+}
@@ -0,0 +1,252 @@
+package org.example;
+
+import server.ShardMoveTool;
+import server.WeatherShards;
+import shared.record.QueryCondition;
+import org.junit.jupiter.api.*;
+
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherShardsTest {
+
+    private static final class Shard {
+
+        final FakeConnection fake = new FakeConnection();
+
+        final Map<Integer, Object[]> rows = new ConcurrentHashMap<>();
+
+        volatile long lastValue;
+
+        Shard(int number) {
+            lastValue = number;
+            fake.onQuery("pg_get_serial_sequence", params -> single("parametriclimatici_id_seq"))
+                    .onQuery("seqincrement", params -> single((long) WeatherShards.MAX_SHARDS))
+                    .onQuery("SELECT last_value", params -> single(lastValue))
+                    .onQuery("max(id)", params -> single(0L))
+                    .onQuery("setval", params -> {
+                        lastValue = ((Number) params.get(1)).longValue();
+                        return single(lastValue);
+                    })
+                    .onQuery("SELECT 1 FROM parametriclimatici WHERE cityid = ?",
+                            params -> cityRows((Integer) params.get(0)).isEmpty() ? List.of() : single(1))
+                    .onQuery("FROM parametriclimatici WHERE cityid = ?", params -> cityRows((Integer) params.get(0)))
+                    .onUpdate("INSERT INTO parametriclimatici", params -> {
+                        Object[] row = params.toArray();
+                        return rows.putIfAbsent((Integer) row[0], row) == null ? 1 : 0;
+                    })
+                    .onUpdate("DELETE FROM parametriclimatici WHERE cityid = ? AND id = ANY (?)", params -> {
+                        int deleted = 0;
+                        for (Object id : (Object[]) ((Array) params.get(1)).getArray()) {
+                            Object[] row = rows.get((Integer) id);
+                            if (row != null && row[1].equals(params.get(0)) && rows.remove((Integer) id) != null) {
+                                deleted++;
+                            }
+                        }
+                        return deleted;
+                    });
+        }
+
+        void add(int id, int cityID) {
+            Object[] row = new Object[WeatherShards.WEATHER_COLUMN_COUNT];
+            row[0] = id;
+            row[1] = cityID;
+            rows.put(id, row);
+        }
+
+        List<Object[]> cityRows(int cityID) {
+            List<Object[]> result = new ArrayList<>();
+            for (Object[] row : new TreeMap<>(rows).values()) {
+                if (row[1].equals(cityID)) {
+                    result.add(row);
+                }
+            }
+            return result;
+        }
+    }
+
+    private Shard[] shards;
+
+    private Map<Integer, Integer> shardMap;
+
+    private static List<Object[]> single(Object value) {
+        List<Object[]> result = new ArrayList<>();
+        result.add(new Object[]{value});
+        return result;
+    }
+
+    private WeatherShards open(int count) throws SQLException {
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i);
+        }
+        shardMap = new ConcurrentHashMap<>();
+        shards[0].fake
+                .onQuery("SELECT cityid, shard FROM shardmap", params -> {
+                    List<Object[]> result = new ArrayList<>();
+                    shardMap.forEach((city, shard) -> result.add(new Object[]{city, shard}));
+                    return result;
+                })
+                .onQuery("SELECT shard FROM shardmap WHERE cityid = ?", params -> {
+                    Integer shard = shardMap.get((Integer) params.get(0));
+                    return shard == null ? List.of() : single(shard);
+                })
+                .onUpdate("INSERT INTO shardmap", params ->
+                        shardMap.putIfAbsent((Integer) params.get(0), (Integer) params.get(1)) == null ? 1 : 0)
+                .onUpdate("UPDATE shardmap SET shard = ? WHERE cityid = ? AND shard = ?", params ->
+                        shardMap.replace((Integer) params.get(1), (Integer) params.get(2), (Integer) params.get(0)) ? 1 : 0);
+
+        List<java.sql.Connection> others = new ArrayList<>();
+        List<String> hosts = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            others.add(shards[i].fake.connection());
+            hosts.add("shard" + i);
+        }
+        return new WeatherShards(shards[0].fake.connection(), others, hosts);
+    }
+
+    @Test
+    public void testAssignKeepsHistoryOnPrimaryAndSpreadsNewCities() throws SQLException {
+        try (WeatherShards weatherShards = open(3)) {
+            shards[0].add(16, 5);
+
+            assertEquals(0, weatherShards.assign(5));
+            assertEquals(1, weatherShards.assign(7));
+            assertEquals(2, weatherShards.assign(8));
+            assertEquals(Map.of(5, 0, 7, 1, 8, 2), shardMap);
+            assertEquals(1, weatherShards.shardOf(7));
+        }
+    }
+
+    @Test
+    public void testAssignUsesConcurrentAssignment() throws SQLException {
+        try (WeatherShards weatherShards = open(3)) {
+            // Un altro server ha già assegnato la città dopo l'ultimo aggiornamento della mappa.
+            shardMap.put(11, 0);
+
+            assertEquals(0, weatherShards.assign(11));
+            assertEquals(0, weatherShards.shardOf(11));
+        }
+    }
+
+    @Test
+    public void testOwnsFollowsAssignments() throws SQLException {
+        try (WeatherShards weatherShards = open(3)) {
+            shardMap.put(7, 2);
+            weatherShards.refresh();
+
+            assertTrue(weatherShards.owns(7, 2));
+            assertFalse(weatherShards.owns(7, 0));
+            assertTrue(weatherShards.owns(9, 0));
+        }
+    }
+
+    @Test
+    public void testShardsForConditions() throws SQLException {
+        try (WeatherShards weatherShards = open(3)) {
+            shardMap.put(7, 2);
+            shardMap.put(8, 1);
+            weatherShards.refresh();
+
+            assertEquals(Set.of(2), weatherShards.shardsFor(List.of(new QueryCondition("cityid", 7))));
+            assertEquals(Set.of(0), weatherShards.shardsFor(List.of(new QueryCondition("cityid", 99))));
+            assertEquals(Set.of(1, 2), weatherShards.shardsFor(List.of(QueryCondition.in("cityid", 7, 8))));
+            assertEquals(Set.of(0, 1, 2), weatherShards.shardsFor(List.of(new QueryCondition("centerid", 3))));
+        }
+    }
+
+    @Test
+    public void testScatterKeepsShardOrderAndPropagatesErrors() throws SQLException {
+        try (WeatherShards weatherShards = open(3)) {
+            assertEquals(List.of(0, 10, 20), weatherShards.scatter(List.of(0, 1, 2), shard -> shard * 10));
+
+            SQLException error = assertThrows(SQLException.class, () -> weatherShards.scatter(List.of(0, 1, 2), shard -> {
+                if (shard == 1) {
+                    throw new SQLException("shard 1 non disponibile");
+                }
+                return shard;
+            }));
+            assertEquals("shard 1 non disponibile", error.getMessage());
+        }
+    }
+
+    @Test
+    public void testMoveDeletesOnlyCopiedRows() throws Exception {
+        try (WeatherShards weatherShards = open(3)) {
+            shards[0].add(16, 7);
+            shards[0].add(32, 7);
+            shards[0].add(48, 9);
+            shards[0].lastValue = 48;
+
+            // Una scrittura arriva sull'origine dopo la copia finale e prima dell'eliminazione.
+            int[] selects = {0};
+            FakeConnection.QueryHandler select = params -> {
+                List<Object[]> result = shards[0].cityRows((Integer) params.get(0));
+                if (++selects[0] == 2) {
+                    shards[0].add(64, 7);
+                }
+                return result;
+            };
+            shards[0].fake.onQuery("FROM parametriclimatici WHERE cityid = ?", select);
+
+            ShardMoveTool.move(weatherShards, 7, 2, 0);
+
+            assertEquals(2, shardMap.get(7));
+            assertEquals(Set.of(16, 32, 64), shards[2].rows.keySet());
+            assertEquals(Set.of(48), shards[0].rows.keySet());
+            assertFalse(shards[0].fake.executed.stream()
+                    .anyMatch(sql -> sql.contains("DELETE") && !sql.contains("ANY")));
+            assertTrue(shards[2].lastValue > shards[0].lastValue);
+            assertEquals(2, Math.floorMod(shards[2].lastValue, WeatherShards.MAX_SHARDS));
+        }
+    }
+
+    @Test
+    public void testSequenceMarginFollowsWriteRate() throws Exception {
+        try (WeatherShards idle = open(3)) {
+            shards[0].add(16, 7);
+            shards[0].lastValue = 48;
+            ShardMoveTool.move(idle, 7, 2, 0);
+        }
+        long idleMargin = shards[2].lastValue - shards[0].lastValue;
+
+        try (WeatherShards busy = open(3)) {
+            shards[0].add(16, 7);
+            shards[0].lastValue = 48;
+            // Ogni lettura della sequenza dell'origine trova 500 nuove righe.
+            shards[0].fake.onQuery("SELECT last_value", params -> {
+                shards[0].lastValue += 500L * WeatherShards.MAX_SHARDS;
+                return single(shards[0].lastValue);
+            });
+            ShardMoveTool.move(busy, 7, 2, 50);
+        }
+        long busyMargin = shards[2].lastValue - shards[0].lastValue;
+
+        assertTrue(idleMargin > 0);
+        assertTrue(busyMargin > idleMargin);
+        assertTrue(idleMargin < 100_000L * WeatherShards.MAX_SHARDS);
+        assertEquals(2, Math.floorMod(shards[2].lastValue, WeatherShards.MAX_SHARDS));
+    }
+
+    @Test
+    public void testMoveToSameShardDoesNothing() throws Exception {
+        try (WeatherShards weatherShards = open(2)) {
+            shardMap.put(7, 1);
+            weatherShards.refresh();
+
+            ShardMoveTool.move(weatherShards, 7, 1, 0);
+
+            assertFalse(shards[0].fake.ran("UPDATE shardmap"));
+            assertTrue(Arrays.stream(shards).allMatch(shard -> shard.rows.isEmpty()));
+        }
+    }
+}
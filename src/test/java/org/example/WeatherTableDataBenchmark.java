@@ -0,0 +1,107 @@
+package org.example;
+
+import server.ImplementationRMI.LogicCityImp.WeatherTableData;
+import shared.record.RecordWeather;
+import shared.record.RecordWeather.WeatherData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronta l'aggregazione dei parametri climatici di {@link WeatherTableData} con quella
+ * basata su mappe indicizzate per nome della categoria. Il profiler GC riporta i byte
+ * allocati per operazione ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WeatherTableDataBenchmark {
+
+    private static final String[] KEYS = WeatherTableData.KEYS;
+
+    @Param({"100000"})
+    public int records;
+
+    @Param({"8"})
+    public int partitions;
+
+    private RecordWeather[] weathers;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        weathers = new RecordWeather[records];
+        for (int i = 0; i < records; i++) {
+            WeatherData[] data = new WeatherData[WeatherTableData.CATEGORY_COUNT];
+            for (int c = 0; c < data.length; c++) {
+                data[c] = new WeatherData(1 + random.nextInt(WeatherTableData.MAX_SCORE),
+                        random.nextInt(10) == 0 ? "commento" : null);
+            }
+            weathers[i] = new RecordWeather(i, random.nextInt(1_000), 1, LocalDate.of(2020, 1, 1).plusDays(i % 1_500),
+                    data[0], data[1], data[2], data[3], data[4], data[5], data[6]);
+        }
+    }
+
+    @Benchmark
+    public WeatherTableData aggregate() {
+        return new WeatherTableData(weathers);
+    }
+
+    @Benchmark
+    public WeatherTableData mergePartitions() {
+        WeatherTableData result = new WeatherTableData();
+        int size = (weathers.length + partitions - 1) / partitions;
+        for (int start = 0; start < weathers.length; start += size) {
+            WeatherTableData partial = new WeatherTableData();
+            for (int i = start; i < Math.min(start + size, weathers.length); i++) {
+                partial.add(weathers[i]);
+            }
+            result.merge(partial);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Map<String, Float> stringKeyedMaps() {
+        // L'aggregazione per nome della categoria, con un Float e un Integer per ogni dato.
+        Map<String, Float> scores = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, List<String>> comments = new HashMap<>();
+        for (RecordWeather weather : weathers) {
+            WeatherData[] data = {weather.wind(), weather.humidity(), weather.pressure(), weather.temperature(),
+                    weather.precipitation(), weather.glacierElevation(), weather.glacierMass()};
+            for (int c = 0; c < data.length; c++) {
+                if (data[c].score() != null) {
+                    scores.put(KEYS[c], scores.getOrDefault(KEYS[c], 0f) + data[c].score());
+                    counts.put(KEYS[c], counts.getOrDefault(KEYS[c], 0) + 1);
+                }
+                if (data[c].comment() != null) {
+                    List<String> list = comments.getOrDefault(KEYS[c], new ArrayList<>());
+                    list.add(data[c].comment());
+                    comments.put(KEYS[c], list);
+                }
+            }
+        }
+        return scores;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WeatherTableDataBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
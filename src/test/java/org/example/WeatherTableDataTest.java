@@ -0,0 +1,169 @@
+package org.example;
+
+import server.ImplementationRMI.LogicCityImp.WeatherTableData;
+import server.ImplementationRMI.LogicCityImp.WeatherTableData.Category;
+import shared.record.RecordWeather;
+import shared.record.RecordWeather.WeatherData;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherTableDataTest {
+
+    private static RecordWeather weather(int id, Integer score, String comment) {
+        WeatherData data = new WeatherData(score, comment);
+        WeatherData empty = new WeatherData(null, null);
+        return new RecordWeather(id, 1, 1, LocalDate.of(2024, 8, 14),
+                data, empty, data, empty, data, empty, data);
+    }
+
+    private static RecordWeather[] randomWeathers(int count, long seed) {
+        Random random = new Random(seed);
+        RecordWeather[] weathers = new RecordWeather[count];
+        for (int i = 0; i < count; i++) {
+            WeatherData[] data = new WeatherData[WeatherTableData.CATEGORY_COUNT];
+            for (int c = 0; c < data.length; c++) {
+                Integer score = random.nextInt(4) == 0 ? null : 1 + random.nextInt(WeatherTableData.MAX_SCORE);
+                String comment = random.nextInt(3) == 0 ? "commento " + random.nextInt(5) : null;
+                data[c] = new WeatherData(score, comment);
+            }
+            weathers[i] = new RecordWeather(i, 1 + random.nextInt(10), 1, LocalDate.of(2024, 1, 1).plusDays(i),
+                    data[0], data[1], data[2], data[3], data[4], data[5], data[6]);
+        }
+        return weathers;
+    }
+
+    private static void assertSameAggregate(WeatherTableData expected, WeatherTableData actual) {
+        for (Category category : Category.values()) {
+            assertEquals(expected.getCategoryAvgScore(category), actual.getCategoryAvgScore(category), category.key());
+            assertEquals(expected.getCategoryRecordCount(category), actual.getCategoryRecordCount(category), category.key());
+            for (int score = 0; score <= WeatherTableData.MAX_SCORE; score++) {
+                assertEquals(expected.getCategoryScoreCount(category, score),
+                        actual.getCategoryScoreCount(category, score), category.key() + " " + score);
+            }
+            assertEquals(expected.getCategoryComments(category).stream().sorted().toList(),
+                    actual.getCategoryComments(category).stream().sorted().toList(), category.key());
+        }
+    }
+
+    @Test
+    public void testAccumulatesScoresCountsAndComments() {
+        WeatherTableData data = new WeatherTableData(new RecordWeather[]{
+                weather(1, 2, "nuvoloso"),
+                weather(2, 5, null),
+                weather(3, null, "sereno"),
+                weather(4, 4, "ventoso")});
+
+        assertEquals(3, data.getCategoryRecordCount(Category.WIND));
+        assertEquals(4, data.getCategoryAvgScore(Category.WIND));
+        assertEquals(1, data.getCategoryScoreCount(Category.WIND, 5));
+        assertEquals(0, data.getCategoryScoreCount(Category.WIND, 3));
+        assertEquals(List.of("nuvoloso", "sereno", "ventoso"), data.getCategoryComments(Category.WIND));
+
+        // Le categorie senza punteggi non hanno una media.
+        assertEquals(0, data.getCategoryRecordCount(Category.HUMIDITY));
+        assertNull(data.getCategoryAvgScore(Category.HUMIDITY));
+        assertTrue(data.getCategoryComments(Category.HUMIDITY).isEmpty());
+
+        // I commenti restituiti non modificano i dati aggregati.
+        assertThrows(UnsupportedOperationException.class, () -> data.getCategoryComments(Category.WIND).add("nebbia"));
+    }
+
+    @Test
+    public void testStringKeysMatchCategories() {
+        WeatherTableData data = new WeatherTableData(new RecordWeather[]{weather(1, 3, "nebbia")});
+
+        for (Category category : Category.values()) {
+            assertSame(category, Category.fromKey(category.key()));
+            assertEquals(data.getCategoryAvgScore(category), data.getCategoryAvgScore(category.key()));
+            assertEquals(data.getCategoryRecordCount(category), data.getCategoryRecordCount(category.key()));
+        }
+        assertNull(Category.fromKey("sconosciuta"));
+        assertNull(data.getCategoryAvgScore("sconosciuta"));
+        assertEquals(0, data.getCategoryRecordCount("sconosciuta"));
+        assertTrue(data.getCategoryComments("sconosciuta").isEmpty());
+    }
+
+    @Test
+    public void testEmptyInputIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new WeatherTableData(new RecordWeather[0]));
+        assertThrows(IllegalArgumentException.class, () -> new WeatherTableData((RecordWeather[]) null));
+    }
+
+    @Test
+    public void testMergeOfPartitionsEqualsSingleAggregation() {
+        RecordWeather[] weathers = randomWeathers(1_000, 42);
+        WeatherTableData whole = new WeatherTableData(weathers);
+
+        WeatherTableData merged = new WeatherTableData();
+        for (int start = 0; start < weathers.length; start += 137) {
+            WeatherTableData partial = new WeatherTableData();
+            for (int i = start; i < Math.min(start + 137, weathers.length); i++) {
+                partial.add(weathers[i]);
+            }
+            merged.merge(partial);
+        }
+
+        assertSameAggregate(whole, merged);
+    }
+
+    @Test
+    public void testGroupsEqualSingleAggregation() {
+        RecordWeather[] weathers = randomWeathers(1_000, 7);
+        WeatherTableData whole = new WeatherTableData(weathers);
+
+        // Gli stessi record raggruppati per categoria, punteggio e commento, come nell'aggregazione SQL.
+        Map<List<Object>, Long> groups = new HashMap<>();
+        for (RecordWeather weather : weathers) {
+            for (Category category : Category.values()) {
+                WeatherData data = category.of(weather);
+                List<Object> key = new ArrayList<>();
+                key.add(category);
+                key.add(data.score());
+                key.add(data.comment());
+                groups.merge(key, 1L, Long::sum);
+            }
+        }
+        WeatherTableData grouped = new WeatherTableData();
+        groups.forEach((key, count) ->
+                grouped.addGroup((Category) key.get(0), (Integer) key.get(1), (String) key.get(2), count));
+
+        assertSameAggregate(whole, grouped);
+    }
+
+    @Test
+    public void testSnapshotIsUnaffectedByLaterRecords() throws Exception {
+        RecordWeather[] weathers = randomWeathers(100, 3);
+        WeatherTableData data = new WeatherTableData(weathers);
+        WeatherTableData snapshot = data.snapshot();
+        WeatherTableData expected = new WeatherTableData(weathers);
+
+        // Le aggiunte all'originale e alla copia non si influenzano a vicenda.
+        data.add(weather(101, 5, "grandine"));
+        snapshot.add(weather(102, 1, "afa"));
+        expected.add(weather(102, 1, "afa"));
+        assertSameAggregate(expected, snapshot);
+        assertTrue(data.getCategoryComments(Category.WIND).contains("grandine"));
+        assertFalse(data.getCategoryComments(Category.WIND).contains("afa"));
+
+        // La copia viene serializzata con i soli commenti che contiene.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(snapshot);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertSameAggregate(expected, (WeatherTableData) in.readObject());
+        }
+    }
+}